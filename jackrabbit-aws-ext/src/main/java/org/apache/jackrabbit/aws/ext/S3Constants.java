@@ -82,6 +82,18 @@ public final class S3Constants {
      */
     public static final String S3_WRITE_THREADS = "writeThreads";
     
+    /**
+     * Constant to set the size in bytes above which files are uploaded in
+     * parts concurrently.
+     */
+    public static final String S3_MULTIPART_UPLOAD_THRESHOLD = "multipartUploadThreshold";
+
+    /**
+     * Constant to set the minimum size in bytes of the parts of a multipart
+     * upload.
+     */
+    public static final String S3_MIN_UPLOAD_PART_SIZE = "minimumUploadPartSize";
+
     /**
      * Constant to enable encryption in S3.
      */
@@ -17,6 +17,7 @@
 
 package org.apache.jackrabbit.aws.ext.ds;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -57,6 +58,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
@@ -66,6 +68,7 @@ import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
 import com.amazonaws.util.StringUtils;
 
@@ -175,7 +178,20 @@ public class S3Backend extends AbstractBackend {
             tmx = new TransferManager(s3service,
                 (ThreadPoolExecutor) Executors.newFixedThreadPool(writeThreads,
                     new NamedThreadFactory("s3-transfer-manager-worker")));
-            
+            TransferManagerConfiguration tmxConfig = new TransferManagerConfiguration();
+            String thresholdStr = prop.getProperty(S3Constants.S3_MULTIPART_UPLOAD_THRESHOLD);
+            if (!StringUtils.isNullOrEmpty(thresholdStr)) {
+                tmxConfig.setMultipartUploadThreshold(Long.parseLong(thresholdStr));
+            }
+            String partSizeStr = prop.getProperty(S3Constants.S3_MIN_UPLOAD_PART_SIZE);
+            if (!StringUtils.isNullOrEmpty(partSizeStr)) {
+                tmxConfig.setMinimumUploadPartSize(Long.parseLong(partSizeStr));
+            }
+            tmx.setConfiguration(tmxConfig);
+            LOG.info("Multipart upload threshold [{}] bytes, part size [{}] bytes.",
+                tmxConfig.getMultipartUploadThreshold(),
+                tmxConfig.getMinimumUploadPartSize());
+
             int asyncWritePoolSize = 10;
             String maxConnsStr = prop.getProperty(S3Constants.S3_MAX_CONNS);
             if (maxConnsStr != null) {
@@ -205,8 +221,10 @@ public class S3Backend extends AbstractBackend {
     }
 
     /**
-     * It uploads file to Amazon S3. If file size is greater than 5MB, this
-     * method uses parallel concurrent connections to upload.
+     * It uploads file to Amazon S3. If file size is greater than the
+     * multipartUploadThreshold (by default 16 MB), this method uploads the
+     * parts concurrently using writeThreads connections. Each part request is
+     * retried up to maxErrorRetry times.
      */
     @Override
     public void write(DataIdentifier identifier, File file)
@@ -405,6 +423,39 @@ public class S3Backend extends AbstractBackend {
         }
     }
 
+    /**
+     * Reads the range with a ranged GET request.
+     */
+    @Override
+    public InputStream read(DataIdentifier identifier, long position,
+            long length) throws DataStoreException {
+        if (length <= 0) {
+            // an empty range would return the whole object
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        long start = System.currentTimeMillis();
+        String key = getKeyName(identifier);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(
+                position, position + length - 1);
+            S3Object object = s3service.getObject(request);
+            S3ObjectInputStream s3in = object.getObjectContent();
+            InputStream in = new S3BackendResourceAbortableInputStream(s3in);
+            LOG.debug("[{}] read of range [{}] took [{}]ms", new Object[] {
+                identifier, position, (System.currentTimeMillis() - start) });
+            return in;
+        } catch (AmazonServiceException e) {
+            throw new DataStoreException("Object not found: " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
     @Override
     public Iterator<DataIdentifier> getAllIdentifiers()
             throws DataStoreException {
@@ -110,6 +110,19 @@ public interface HierarchyManager {
     Name getName(NodeId id, NodeId parentId)
             throws ItemNotFoundException, RepositoryException;
 
+    /**
+     * Returns the id of the parent of the specified item, without building
+     * its path.
+     *
+     * @param id item id
+     * @return id of the parent node, or <code>null</code> if the item is
+     *         the root node
+     * @throws ItemNotFoundException if the specified <code>id</code> does not
+     *                               denote an existing item.
+     * @throws RepositoryException   if another error occurs
+     */
+    NodeId getParentId(ItemId id) throws ItemNotFoundException, RepositoryException;
+
     /**
      * Returns the depth of the specified item which is equivalent to
      * <code>getPath(id).getAncestorCount()</code>. The depth reflects the
@@ -476,6 +476,24 @@ public class HierarchyManagerImpl implements HierarchyManager {
         return entry.getName();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public NodeId getParentId(ItemId id)
+            throws ItemNotFoundException, RepositoryException {
+        try {
+            return getParentId(getItemState(id));
+        } catch (NoSuchItemStateException nsise) {
+            String msg = "failed to determine parent of " + id;
+            log.debug(msg);
+            throw new ItemNotFoundException(msg, nsise);
+        } catch (ItemStateException ise) {
+            String msg = "failed to determine parent of " + id;
+            log.debug(msg);
+            throw new RepositoryException(msg, ise);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -28,6 +28,7 @@ import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
@@ -87,6 +88,11 @@ public class RepositoryContext {
      */
     private DataStore dataStore;
 
+    /**
+     * The log of the data store references, or <code>null</code>.
+     */
+    private BinaryReferenceLog binaryReferenceLog;
+
     /**
      * The cluster node instance of this repository, or <code>null</code>.
      */
@@ -336,6 +342,26 @@ public class RepositoryContext {
         this.dataStore = dataStore;
     }
 
+    /**
+     * Returns the log of the data store references of this repository, or
+     * <code>null</code> if the references are not logged.
+     *
+     * @return binary reference log, or <code>null</code>
+     */
+    public BinaryReferenceLog getBinaryReferenceLog() {
+        return binaryReferenceLog;
+    }
+
+    /**
+     * Sets the log of the data store references of this repository.
+     *
+     * @param binaryReferenceLog binary reference log
+     */
+    void setBinaryReferenceLog(BinaryReferenceLog binaryReferenceLog) {
+        assert binaryReferenceLog != null;
+        this.binaryReferenceLog = binaryReferenceLog;
+    }
+
     /**
      * Returns the cluster node instance of this repository, or
      * <code>null</code> if clustering is not enabled.
@@ -51,6 +51,7 @@ import javax.jcr.observation.ObservationManager;
 import javax.security.auth.Subject;
 
 import org.apache.commons.collections.map.ReferenceMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.api.management.RepositoryManager;
@@ -76,6 +77,7 @@ import org.apache.jackrabbit.core.data.DataStoreException;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.gc.GarbageCollector;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
@@ -91,6 +93,8 @@ import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
+import org.apache.jackrabbit.core.query.QueryHandler;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.retention.RetentionRegistry;
 import org.apache.jackrabbit.core.retention.RetentionRegistryImpl;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
@@ -265,6 +269,7 @@ public class RepositoryImpl extends AbstractRepository
             context.setFileSystem(repConfig.getFileSystem());
 
             // Load root node identifier
+            boolean newRepository = !hasRootNodeId();
             context.setRootNodeId(loadRootNodeId());
 
             // initialize repository descriptors
@@ -282,6 +287,9 @@ public class RepositoryImpl extends AbstractRepository
             DataStore dataStore = repConfig.getDataStore();
             if (dataStore != null) {
                 context.setDataStore(dataStore);
+                if (Boolean.getBoolean(BinaryReferenceLog.ENABLED_PROPERTY)) {
+                    initBinaryReferenceLog(newRepository);
+                }
             }
 
             nodeIdFactory = new NodeIdFactory(repConfig.getHomeDir());
@@ -314,6 +322,9 @@ public class RepositoryImpl extends AbstractRepository
             InternalVersionManagerImpl vMgr = createVersionManager(
                     repConfig.getVersioningConfig(), delegatingDispatcher);
             context.setInternalVersionManager(vMgr);
+            if (context.getBinaryReferenceLog() != null) {
+                vMgr.setBinaryReferenceLog(context.getBinaryReferenceLog());
+            }
             if (clusterNode != null) {
                 vMgr.setEventChannel(clusterNode.createUpdateChannel(null));
             }
@@ -555,6 +566,43 @@ public class RepositoryImpl extends AbstractRepository
         }
     }
 
+    /**
+     * Checks whether the root node identifier was already persisted, that
+     * is, whether the repository was started before.
+     */
+    private boolean hasRootNodeId() throws RepositoryException {
+        try {
+            return context.getFileSystem().exists("/meta/rootUUID");
+        } catch (FileSystemException fse) {
+            throw new RepositoryException(
+                    "Failed to access the root node identifier", fse);
+        }
+    }
+
+    /**
+     * Opens the log of the data store references in the repository home
+     * directory. The log is not used in a cluster, as it would not see
+     * the changes of the other cluster nodes.
+     *
+     * @param newRepository whether the repository is started the first time
+     */
+    private void initBinaryReferenceLog(boolean newRepository)
+            throws RepositoryException {
+        if (repConfig.getClusterConfig() != null) {
+            log.warn("The binary reference log is not supported in a cluster");
+            return;
+        }
+        BinaryReferenceLog referenceLog =
+            new BinaryReferenceLog(new File(repConfig.getHomeDir()));
+        try {
+            referenceLog.open(newRepository);
+        } catch (IOException e) {
+            throw new RepositoryException(
+                    "Failed to open the binary reference log", e);
+        }
+        context.setBinaryReferenceLog(referenceLog);
+    }
+
     /**
      * Returns the root node identifier. The identifier is loaded from
      * the <code>meta/rootUUID</code> file within the repository file system.
@@ -839,6 +887,121 @@ public class RepositoryImpl extends AbstractRepository
         manager.setCheckReferences(enabled);
     }
 
+    /**
+     * Creates a snapshot of the local state of this cluster node that a new
+     * cluster node can be bootstrapped from. The search indexes of all
+     * workspaces and of the version storage are copied to the given
+     * directory, at the same location relative to the directory as they have
+     * relative to the repository home, together with a file recording the
+     * journal revision the snapshot corresponds to. Copying the contents of
+     * the directory to the home directory of a new cluster node lets that
+     * node start from the snapshot and only replay the journal records
+     * written after that revision.
+     * <p>
+     * All changes up to the recorded revision are contained in the snapshot;
+     * changes after it may be contained as well, which is harmless as
+     * applying them again to a search index has no effect.
+     *
+     * @param directory snapshot directory
+     * @return journal revision of the snapshot
+     * @throws RepositoryException if the repository is not clustered, a
+     *         search index is not stored in the repository home or the
+     *         snapshot can not be written
+     */
+    public long createClusterSnapshot(File directory) throws RepositoryException {
+        sanityCheck();
+
+        ClusterNode clusterNode = context.getClusterNode();
+        if (clusterNode == null) {
+            throw new RepositoryException("Repository is not clustered.");
+        }
+        File home = new File(repConfig.getHomeDir());
+
+        try {
+            clusterNode.suspendSync();
+        } catch (ClusterException e) {
+            throw new RepositoryException("Unable to suspend cluster synchronization.", e);
+        }
+        try {
+            long revision = clusterNode.getRevision();
+
+            List<SearchManager> searchMgrs = new ArrayList<SearchManager>();
+            for (String name : getWorkspaceNames()) {
+                WorkspaceInfo wspInfo = getWorkspaceInfo(name);
+                copyWorkspaceConfig(home, wspInfo.getConfig(), directory);
+                wspInfo.getItemStateProvider().waitForPendingUpdates();
+                SearchManager searchMgr = wspInfo.getSearchManager();
+                if (searchMgr != null) {
+                    searchMgrs.add(searchMgr);
+                }
+            }
+            context.getInternalVersionManager().waitForPendingUpdates();
+            if (systemSearchMgr != null) {
+                searchMgrs.add(systemSearchMgr);
+            }
+
+            for (SearchManager searchMgr : searchMgrs) {
+                QueryHandler handler = searchMgr.getQueryHandler();
+                if (!(handler instanceof SearchIndex)) {
+                    throw new RepositoryException(
+                            "Unable to create snapshot of query handler: " + handler);
+                }
+                SearchIndex index = (SearchIndex) handler;
+                String path = getRelativePath(home, new File(index.getPath()));
+                if (path == null) {
+                    throw new RepositoryException("Search index " + index.getPath()
+                            + " is not located in repository home " + home);
+                }
+                index.createSnapshot(new File(directory, path));
+            }
+            try {
+                clusterNode.writeSnapshot(directory, revision);
+            } catch (ClusterException e) {
+                throw new RepositoryException(e.getMessage(), e);
+            }
+
+            log.info("Created cluster snapshot at revision {} in {}", revision, directory);
+            return revision;
+        } catch (InterruptedException e) {
+            throw new RepositoryException(
+                    "Interrupted while waiting for pending updates.", e);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to create cluster snapshot.", e);
+        } finally {
+            clusterNode.resumeSync();
+        }
+    }
+
+    /**
+     * Copies the configuration file of a workspace to a snapshot directory,
+     * so that the workspace is not created again when the snapshot is used
+     * as the home directory of a new cluster node. Has no effect if the
+     * workspace configuration is not stored in the workspace home directory.
+     */
+    private static void copyWorkspaceConfig(
+            File home, WorkspaceConfig config, File directory)
+            throws IOException {
+        File file = new File(config.getHomeDir(), "workspace.xml");
+        String path = getRelativePath(home, file);
+        if (file.isFile() && path != null) {
+            FileUtils.copyFile(file, new File(directory, path));
+        }
+    }
+
+    /**
+     * Returns the path of a file relative to a directory, or
+     * <code>null</code> if the file is not located in that directory.
+     */
+    private static String getRelativePath(File directory, File file)
+            throws IOException {
+        String dir = directory.getCanonicalPath() + File.separator;
+        String path = file.getCanonicalPath();
+        if (path.startsWith(dir)) {
+            return path.substring(dir.length());
+        }
+        return null;
+    }
+
     ObservationDispatcher getObservationDispatcher(String workspaceName)
             throws NoSuchWorkspaceException, RepositoryException {
         // check sanity of this instance
@@ -1136,6 +1299,11 @@ public class RepositoryImpl extends AbstractRepository
 
         repDescriptors.clear();
 
+        BinaryReferenceLog referenceLog = context.getBinaryReferenceLog();
+        if (referenceLog != null) {
+            referenceLog.close();
+        }
+
         DataStore dataStore = context.getDataStore();
         if (dataStore != null) {
             try {
@@ -2062,6 +2230,10 @@ public class RepositoryImpl extends AbstractRepository
             try {
                 itemStateMgr =
                     createItemStateManager(persistMgr, true, ismLocking);
+                if (context.getBinaryReferenceLog() != null) {
+                    itemStateMgr.setBinaryReferenceLog(
+                            context.getBinaryReferenceLog());
+                }
                 try {
                     itemStateMgr.addVirtualItemStateProvider(
                             context.getInternalVersionManager().getVirtualItemStateProvider());
@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.cache;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -152,6 +153,26 @@ public class ConcurrentCache<K, V> extends AbstractCache {
         return values;
     }
 
+    /**
+     * Returns all entries in the cache. Note that this method is not
+     * synchronized over the entire cache, so it is only guaranteed to
+     * return accurate results when there are no concurrent threads modifying
+     * the cache.
+     *
+     * @return a copy of the cached entries
+     */
+    public Map<K, V> entries() {
+        Map<K, V> entries = new HashMap<K, V>();
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                for (Map.Entry<K, E<V>> entry : segments[i].entrySet()) {
+                    entries.put(entry.getKey(), entry.getValue().value);
+                }
+            }
+        }
+        return entries;
+    }
+
     /**
      * Adds the given entry to the cache.
      *
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -28,6 +29,7 @@ import javax.jcr.Session;
 import javax.jcr.PropertyType;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
@@ -70,6 +72,31 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     static final char USER_DATA_IDENTIFIER = 'U';
 
+    /**
+     * Identifier: COMPACT. Introduces the whole record in compact encoding.
+     */
+    static final char COMPACT_IDENTIFIER = 'C';
+
+    /**
+     * Version of the compact encoding.
+     */
+    private static final int COMPACT_VERSION = 1;
+
+    /**
+     * Compact encoding flag: data is deflated.
+     */
+    private static final int DEFLATED = 0x01;
+
+    /**
+     * Compact encoding: item is a property rather than a node.
+     */
+    private static final int PROPERTY_ITEM = 0x10;
+
+    /**
+     * Compact encoding: no more items follow.
+     */
+    private static final int END_OF_ITEMS = 0;
+
     /**
      * Operation type: added.
      */
@@ -115,6 +142,17 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     private ClusterSession lastSession;
 
+    /**
+     * Flag indicating whether to serialize using the compact encoding.
+     */
+    private boolean compact;
+
+    /**
+     * Size of the compact encoding, in bytes, from which on it is deflated.
+     * A negative value disables compression.
+     */
+    private int compressionThreshold = -1;
+
     /**
      * Create a new instance of this class. Used when serializing.
      *
@@ -151,6 +189,20 @@ public class ChangeLogRecord extends ClusterRecord {
         this.events = new ArrayList<EventState>();
     }
 
+    /**
+     * Serialize this record using the compact encoding, where names, paths
+     * and node ids are written once per record and referenced by index
+     * afterwards. Cluster nodes running a version that does not know this
+     * encoding will not be able to read such a record.
+     *
+     * @param compressionThreshold size of the encoded data, in bytes, from
+     *        which on it is deflated; a negative value disables compression
+     */
+    public void setCompact(int compressionThreshold) {
+        this.compact = true;
+        this.compressionThreshold = compressionThreshold;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -158,6 +210,10 @@ public class ChangeLogRecord extends ClusterRecord {
     protected void doRead() throws JournalException {
         int identifier = this.identifier;
 
+        if (identifier == COMPACT_IDENTIFIER) {
+            readCompactRecord();
+            identifier = record.readChar();
+        }
         while (identifier != END_MARKER) {
             switch (identifier) {
             case DATE_IDENTIFIER:
@@ -211,6 +267,103 @@ public class ChangeLogRecord extends ClusterRecord {
         userData = record.readString();
     }
 
+    /**
+     * Reads a record in compact encoding.
+     *
+     * @throws JournalException if an error occurs.
+     */
+    private void readCompactRecord() throws JournalException {
+        int version = record.readByte();
+        if (version != COMPACT_VERSION) {
+            String msg = "Unsupported compact record version: " + version;
+            throw new JournalException(msg);
+        }
+        int flags = record.readByte();
+        int length = record.readInt();
+        byte[] data = new byte[record.readInt()];
+        record.readFully(data);
+
+        try {
+            if ((flags & DEFLATED) != 0) {
+                data = CompactRecordReader.inflate(data, length);
+            }
+            CompactRecordReader in = new CompactRecordReader(data);
+            timestamp = in.readVarLong();
+            userData = in.readString();
+
+            for (int type = in.readByte(); type != END_OF_ITEMS; type = in.readByte()) {
+                NodeId id = in.readNodeId();
+                if ((type & PROPERTY_ITEM) != 0) {
+                    apply(type & ~PROPERTY_ITEM, new PropertyState(
+                            new PropertyId(id, in.readName()),
+                            ItemState.STATUS_NEW, false));
+                } else {
+                    apply(type, new NodeState(id, null, null,
+                            ItemState.STATUS_NEW, false));
+                }
+            }
+
+            int eventCount = in.readVarInt();
+            for (int i = 0; i < eventCount; i++) {
+                readCompactEventRecord(in);
+            }
+        } catch (IOException e) {
+            String msg = "Unable to read compact record: " + e.getMessage();
+            throw new JournalException(msg, e);
+        }
+    }
+
+    /**
+     * Reads an event in compact encoding.
+     *
+     * @param in compact record reader
+     * @throws IOException if an I/O error occurs
+     */
+    private void readCompactEventRecord(CompactRecordReader in) throws IOException {
+        int type = in.readVarInt();
+        NodeId parentId = in.readNodeId();
+        Path parentPath = in.readPath();
+        NodeId childId = in.readNodeId();
+        Path childRelPath = in.readPath();
+        Name ntName = in.readName();
+
+        Set<Name> mixins = new HashSet<Name>();
+        int mixinCount = in.readVarInt();
+        for (int i = 0; i < mixinCount; i++) {
+            mixins.add(in.readName());
+        }
+        String userId = in.readString();
+
+        Map<String, InternalValue> info = null;
+        if (type == Event.NODE_MOVED) {
+            info = new HashMap<String, InternalValue>();
+            int infoSize = in.readVarInt();
+            for (int i = 0; i < infoSize; i++) {
+                String key = in.readString();
+                int propType = in.readVarInt();
+                InternalValue value;
+                if (propType == PropertyType.UNDEFINED) {
+                    // indicates null value
+                    value = null;
+                } else {
+                    try {
+                        value = InternalValue.valueOf(in.readString(), propType);
+                    } catch (RuntimeException e) {
+                        throw new IOException("Invalid value: " + e.getMessage(), e);
+                    }
+                }
+                info.put(key, value);
+            }
+        }
+
+        EventState es = createEventState(type, parentId, parentPath, childId,
+                childRelPath, ntName, mixins, userId);
+        if (info != null) {
+            es.setInfo(info);
+        }
+        events.add(es);
+    }
+
     /**
      * Read a node record.
      *
@@ -370,6 +523,10 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     @Override
     protected void doWrite() throws JournalException {
+        if (compact) {
+            writeCompactRecord();
+            return;
+        }
         writeTimestampRecord();
         writeUserDataRecord();
         for (ItemState state : changes.deletedStates()) {
@@ -399,6 +556,115 @@ public class ChangeLogRecord extends ClusterRecord {
         }
     }
 
+    /**
+     * Writes the whole record in compact encoding.
+     *
+     * @throws JournalException if an error occurs.
+     */
+    private void writeCompactRecord() throws JournalException {
+        CompactRecordWriter out = new CompactRecordWriter();
+        try {
+            out.writeVarLong(timestamp);
+            out.writeString(userData);
+
+            for (ItemState state : changes.deletedStates()) {
+                writeCompactItemRecord(out, DELETED, state);
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                writeCompactItemRecord(out, MODIFIED, state);
+            }
+            for (ItemState state : changes.addedStates()) {
+                writeCompactItemRecord(out, ADDED, state);
+            }
+            out.writeByte(END_OF_ITEMS);
+
+            out.writeVarInt(events.size());
+            for (EventState event : events) {
+                writeCompactEventRecord(out, event);
+            }
+        } catch (IOException e) {
+            String msg = "Unable to write compact record: " + e.getMessage();
+            throw new JournalException(msg, e);
+        }
+
+        int flags = 0;
+        byte[] data;
+        if (compressionThreshold >= 0 && out.size() >= compressionThreshold) {
+            flags |= DEFLATED;
+            data = out.toCompressedByteArray();
+        } else {
+            data = out.toByteArray();
+        }
+        record.writeChar(COMPACT_IDENTIFIER);
+        record.writeByte(COMPACT_VERSION);
+        record.writeByte(flags);
+        record.writeInt(out.size());
+        record.writeInt(data.length);
+        record.write(data);
+    }
+
+    /**
+     * Writes an item in compact encoding.
+     *
+     * @param out compact record writer
+     * @param operation operation
+     * @param state item state
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeCompactItemRecord(CompactRecordWriter out, int operation,
+                                        ItemState state) throws IOException {
+        if (state.isNode()) {
+            out.writeByte(operation);
+            out.writeNodeId(((NodeState) state).getNodeId());
+        } else {
+            PropertyId id = ((PropertyState) state).getPropertyId();
+            out.writeByte(operation | PROPERTY_ITEM);
+            out.writeNodeId(id.getParentId());
+            out.writeName(id.getName());
+        }
+    }
+
+    /**
+     * Writes an event in compact encoding.
+     *
+     * @param out compact record writer
+     * @param event event state
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeCompactEventRecord(CompactRecordWriter out, EventState event)
+            throws IOException {
+
+        out.writeVarInt(event.getType());
+        out.writeNodeId(event.getParentId());
+        out.writePath(event.getParentPath());
+        out.writeNodeId(event.getChildId());
+        out.writePath(event.getChildRelPath());
+        out.writeName(event.getNodeType());
+
+        Set<Name> mixins = event.getMixinNames();
+        out.writeVarInt(mixins.size());
+        for (Name mixin : mixins) {
+            out.writeName(mixin);
+        }
+        out.writeString(event.getUserId());
+
+        if (event.getType() == Event.NODE_MOVED) {
+            Map<String, InternalValue> info = event.getInfo();
+            out.writeVarInt(info.size());
+            for (Map.Entry<String, InternalValue> entry : info.entrySet()) {
+                InternalValue value = entry.getValue();
+                out.writeString(entry.getKey());
+                if (value == null) {
+                    // use undefined for null value
+                    out.writeVarInt(PropertyType.UNDEFINED);
+                } else {
+                    out.writeVarInt(value.getType());
+                    out.writeString(value.toString());
+                }
+            }
+        }
+    }
+
     /**
      * Writes the timestamp record.
      *
@@ -16,16 +16,29 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.cluster.WorkspaceRecord.CreateWorkspaceAction;
 import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.InstanceRevision;
@@ -37,6 +50,7 @@ import org.apache.jackrabbit.core.journal.RecordProducer;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
@@ -52,13 +66,31 @@ import EDU.oswego.cs.dl.util.concurrent.Mutex;
  */
 public class ClusterNode implements Runnable,
         NamespaceEventChannel, NodeTypeEventChannel, RecordConsumer,
-        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel  {
+        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel,
+        NotificationListener {
 
     /**
      * System property specifying a node id to use.
      */
     public static final String SYSTEM_PROPERTY_NODE_ID = "org.apache.jackrabbit.core.cluster.node_id";
 
+    /**
+     * Name of the file describing a snapshot, relative to the snapshot
+     * directory. If this file is found in the repository home on startup,
+     * the cluster node continues from the revision of the snapshot.
+     */
+    public static final String SNAPSHOT_FILE = "cluster_snapshot.properties";
+
+    /**
+     * Snapshot property: revision.
+     */
+    private static final String SNAPSHOT_REVISION = "revision";
+
+    /**
+     * Snapshot property: id of the cluster node that created the snapshot.
+     */
+    private static final String SNAPSHOT_NODE_ID = "clusterNodeId";
+
     /**
      * Producer identifier.
      */
@@ -109,6 +141,12 @@ public class ClusterNode implements Runnable,
      */
     private long stopDelay;
 
+    /**
+     * Maximum number of consecutive change log records applied as one
+     * update; records are applied one by one if this is less than 2.
+     */
+    private int catchUpBatchSize;
+
     /**
      * Journal used.
      */
@@ -134,6 +172,12 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Semaphore used to wake up the synchronization thread before the
+     * synchronization delay has elapsed.
+     */
+    private final Semaphore syncSignal = new Semaphore(0);
+
     /**
      * Sync counter, used to avoid repeated sync() calls from piling up.
      * Only updated within the critical section guarded by {@link #syncLock}.
@@ -193,10 +237,27 @@ public class ClusterNode implements Runnable,
      */
     private RecordProducer producer;
 
+    /**
+     * Notification channel, may be <code>null</code>.
+     */
+    private NotificationChannel notificationChannel;
+
     /**
      * Record deserializer.
      */
     private ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
+
+    /**
+     * Change log records consumed but not yet applied, because they may be
+     * coalesced with the records that follow. Only accessed while syncing.
+     */
+    private final List<ChangeLogRecord> catchUpRecords = new ArrayList<ChangeLogRecord>();
+
+    /**
+     * Revision of the first record in a coalesced update that could not be
+     * applied, or <code>-1</code>. Only accessed while syncing.
+     */
+    private long catchUpFailedRevision = -1;
     
     /**
      * Flag indicating whether sync is manual.
@@ -225,12 +286,18 @@ public class ClusterNode implements Runnable,
         clusterNodeId = cc.getId();
         syncDelay = cc.getSyncDelay();
         stopDelay = cc.getStopDelay();
+        catchUpBatchSize = cc.getCatchUpBatchSize();
 
         try {
             journal = cc.getJournal(clusterContext.getNamespaceResolver());
             instanceRevision = journal.getInstanceRevision();
+            applySnapshot();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            notificationChannel = cc.getNotificationChannel();
+            if (notificationChannel != null) {
+                notificationChannel.init(clusterNodeId, this);
+            }
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -287,12 +354,15 @@ public class ClusterNode implements Runnable,
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as a
+     * peer has signalled an append through the notification channel.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                syncSignal.tryAcquire(syncDelay, TimeUnit.MILLISECONDS);
+                syncSignal.drainPermits();
+                if (stopLatch.attempt(0)) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -365,6 +435,99 @@ public class ClusterNode implements Runnable,
         internalSync(true);
     }
 
+    /**
+     * Suspends synchronization: until {@link #resumeSync()} is called, no
+     * records from other cluster nodes are applied and calls to
+     * {@link #sync()} block.
+     *
+     * @throws ClusterException if interrupted while waiting for a
+     *         synchronization in progress
+     */
+    public void suspendSync() throws ClusterException {
+        try {
+            syncLock.acquire();
+        } catch (InterruptedException e) {
+            String msg = "Interrupted while waiting for mutex.";
+            throw new ClusterException(msg);
+        }
+    }
+
+    /**
+     * Resumes synchronization suspended by {@link #suspendSync()}.
+     */
+    public void resumeSync() {
+        syncLock.release();
+    }
+
+    /**
+     * Writes the file describing a snapshot taken at a revision. Should be
+     * called while synchronization is suspended, after the state reflecting
+     * all changes up to that revision has been written to the snapshot
+     * directory.
+     *
+     * @param directory snapshot directory
+     * @param revision revision of the snapshot
+     * @throws ClusterException if the file can not be written
+     */
+    public void writeSnapshot(File directory, long revision) throws ClusterException {
+        Properties props = new Properties();
+        props.setProperty(SNAPSHOT_REVISION, Long.toString(revision));
+        props.setProperty(SNAPSHOT_NODE_ID, clusterNodeId);
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(directory, SNAPSHOT_FILE));
+            props.store(out, "Cluster snapshot");
+        } catch (IOException e) {
+            String msg = "Unable to write snapshot file in " + directory;
+            throw new ClusterException(msg, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Continues from the revision of a snapshot, if the repository home
+     * contains a snapshot file. The file is removed afterwards, so the
+     * snapshot is only applied once.
+     *
+     * @throws ClusterException if the snapshot file can not be read
+     * @throws JournalException if the revision can not be set
+     */
+    private void applySnapshot() throws ClusterException, JournalException {
+        File file = new File(clusterContext.getRepositoryHome(), SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            String msg = "Unable to read snapshot file " + file;
+            throw new ClusterException(msg, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        long revision;
+        try {
+            revision = Long.parseLong(props.getProperty(SNAPSHOT_REVISION));
+        } catch (NumberFormatException e) {
+            String msg = "Invalid revision in snapshot file " + file;
+            throw new ClusterException(msg, e);
+        }
+        log.info("Continuing from revision {} of snapshot taken by cluster node {}, "
+                + "was at revision {}.", new Object[] {
+                revision, props.getProperty(SNAPSHOT_NODE_ID), instanceRevision.get() });
+        instanceRevision.set(revision);
+
+        if (!file.delete()) {
+            log.warn("Unable to delete snapshot file {}.", file);
+        }
+    }
+
     /**
      * Stops this cluster node.
      */
@@ -373,6 +536,7 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            syncSignal.release();
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -384,6 +548,9 @@ public class ClusterNode implements Runnable,
                     log.warn(msg);
                 }
             }
+            if (notificationChannel != null) {
+                notificationChannel.close();
+            }
             if (journal != null) {
                 journal.close();
             }
@@ -440,6 +607,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -476,6 +644,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -506,6 +675,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -536,6 +706,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -575,6 +746,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -667,6 +839,10 @@ public class ClusterNode implements Runnable,
                 ChangeLogRecord clr = new ChangeLogRecord(changes, events,
                         record, workspace, update.getTimestamp(),
                         update.getUserData());
+                if (journal instanceof AbstractJournal
+                        && ((AbstractJournal) journal).isCompactRecords()) {
+                    clr.setCompact(((AbstractJournal) journal).getCompressionThreshold());
+                }
                 clr.write();
                 succeeded = true;
             } catch (JournalException e) {
@@ -702,6 +878,7 @@ public class ClusterNode implements Runnable,
                 setRevision(recordRevision);
 
                 long journalUpdateSize = record.update();
+                notifyAppended(recordRevision);
 
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
 
@@ -858,7 +1035,11 @@ public class ClusterNode implements Runnable,
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (!(clusterRecord instanceof ChangeLogRecord)) {
+                applyCatchUpRecords();
+            }
+            clusterRecord.process(this);
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -869,6 +1050,16 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void setRevision(long revision) {
+        try {
+            applyCatchUpRecords();
+        } catch (IllegalStateException e) {
+            log.error("Unable to apply coalesced update: " + e.getMessage());
+        }
+        if (catchUpFailedRevision != -1) {
+            // do not skip records that could not be applied
+            revision = Math.min(revision, catchUpFailedRevision - 1);
+            catchUpFailedRevision = -1;
+        }
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -876,14 +1067,193 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    //--------------------------------------------------- NotificationListener
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Wakes up the synchronization thread unless the revision is already known.
+     */
+    public void appended(String clusterNodeId, long revision) {
+        if (revision > getRevision()) {
+            syncSignal.release();
+        }
+    }
+
+    /**
+     * Signal peers through the notification channel, if one is configured,
+     * that a record has been appended.
+     *
+     * @param revision revision of the appended record
+     */
+    private void notifyAppended(long revision) {
+        if (notificationChannel != null) {
+            try {
+                notificationChannel.appended(revision);
+            } catch (RuntimeException e) {
+                log.warn("Unable to notify peers of revision " + revision + ".", e);
+            }
+        }
+    }
+
     //--------------------------------------------------- ClusterRecordProcessor
 
     /**
      * {@inheritDoc}
      */
     public void process(ChangeLogRecord record) {
-        String workspace = record.getWorkspace();
+        if (catchUpBatchSize > 1) {
+            if (!catchUpRecords.isEmpty()
+                    && !isCoalescable(catchUpRecords.get(0), record)) {
+                applyCatchUpRecords();
+            }
+            catchUpRecords.add(record);
+            if (catchUpRecords.size() >= catchUpBatchSize) {
+                applyCatchUpRecords();
+            }
+            return;
+        }
+
+        UpdateEventListener listener = getUpdateEventListener(record.getWorkspace());
+        if (listener != null) {
+            auditUpdate(record);
+            externalUpdate(listener, record.getChanges(), record.getEvents(),
+                    record.getTimestamp(), record.getUserData());
+        }
+    }
 
+    /**
+     * Apply the change log records consumed so far as a single update. The
+     * item states changed are merged into one change log, so that every
+     * item is invalidated once, and the events are delivered in one bundle,
+     * so that the search index is updated once.
+     *
+     * @throws IllegalStateException if the update listener is in an
+     *         illegal state
+     */
+    private void applyCatchUpRecords() {
+        if (catchUpRecords.isEmpty()) {
+            return;
+        }
+        List<ChangeLogRecord> records = new ArrayList<ChangeLogRecord>(catchUpRecords);
+        catchUpRecords.clear();
+
+        ChangeLogRecord first = records.get(0);
+        ChangeLogRecord last = records.get(records.size() - 1);
+        UpdateEventListener listener = getUpdateEventListener(first.getWorkspace());
+        if (listener == null) {
+            return;
+        }
+
+        long time = System.currentTimeMillis();
+        ChangeLog changes;
+        List<EventState> events;
+        if (records.size() == 1) {
+            changes = first.getChanges();
+            events = first.getEvents();
+        } else {
+            changes = coalesce(records);
+            events = new ArrayList<EventState>();
+            for (ChangeLogRecord record : records) {
+                events.addAll(record.getEvents());
+            }
+        }
+        for (ChangeLogRecord record : records) {
+            auditUpdate(record);
+        }
+
+        try {
+            externalUpdate(listener, changes, events,
+                    last.getTimestamp(), first.getUserData());
+        } catch (IllegalStateException e) {
+            catchUpFailedRevision = first.getRevision();
+            throw e;
+        }
+
+        if (records.size() > 1) {
+            log.info("Caught up with revisions {} to {} of workspace {} "
+                    + "as one update in {} ms.", new Object[] {
+                    first.getRevision(), last.getRevision(),
+                    first.getWorkspace(), System.currentTimeMillis() - time });
+        }
+    }
+
+    /**
+     * Return a flag indicating whether a change log record may be applied
+     * together with another one. Records are only coalesced if they target
+     * the same workspace and carry the same user data, so observation
+     * listeners see the same user data they would otherwise.
+     *
+     * @param first first record of the pending update
+     * @param record record to add
+     * @return <code>true</code> if the records may be coalesced
+     */
+    private static boolean isCoalescable(ChangeLogRecord first, ChangeLogRecord record) {
+        return equals(first.getWorkspace(), record.getWorkspace())
+                && equals(first.getUserData(), record.getUserData());
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /**
+     * Merge the changes of consecutive change log records. Unlike
+     * {@link ChangeLog#merge(ChangeLog)}, an item that was deleted at some
+     * point is always reported as deleted, and an item that was modified
+     * is reported as modified even if it was added before, since a local
+     * reader may have cached either state in the meantime.
+     *
+     * @param records change log records
+     * @return merged change log
+     */
+    private static ChangeLog coalesce(List<ChangeLogRecord> records) {
+        Map<ItemId, ItemState> added = new LinkedHashMap<ItemId, ItemState>();
+        Map<ItemId, ItemState> modified = new LinkedHashMap<ItemId, ItemState>();
+        Map<ItemId, ItemState> deleted = new LinkedHashMap<ItemId, ItemState>();
+
+        for (ChangeLogRecord record : records) {
+            ChangeLog changes = record.getChanges();
+            for (ItemState state : changes.deletedStates()) {
+                added.remove(state.getId());
+                modified.remove(state.getId());
+                deleted.put(state.getId(), state);
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                if (!deleted.containsKey(state.getId())) {
+                    added.remove(state.getId());
+                    modified.put(state.getId(), state);
+                }
+            }
+            for (ItemState state : changes.addedStates()) {
+                if (!deleted.containsKey(state.getId())
+                        && !modified.containsKey(state.getId())) {
+                    added.put(state.getId(), state);
+                }
+            }
+        }
+
+        ChangeLog changes = new ChangeLog();
+        for (ItemState state : added.values()) {
+            changes.added(state);
+        }
+        for (ItemState state : modified.values()) {
+            changes.modified(state);
+        }
+        for (ItemState state : deleted.values()) {
+            changes.deleted(state);
+        }
+        return changes;
+    }
+
+    /**
+     * Return the update listener of a workspace, or the version update
+     * listener if the workspace is <code>null</code>.
+     *
+     * @param workspace workspace name, may be <code>null</code>
+     * @return update listener, or <code>null</code> if unavailable
+     */
+    private UpdateEventListener getUpdateEventListener(String workspace) {
         UpdateEventListener listener = null;
         if (workspace != null) {
             listener = wspUpdateListeners.get(workspace);
@@ -899,31 +1269,50 @@ public class ClusterNode implements Runnable,
                 if (listener ==  null) {
                     String msg = "Update listener unavailable for workspace: " + workspace;
                     log.error(msg);
-                    return;
                 }
             }
         } else {
-            if (versionUpdateListener != null) {
-                listener = versionUpdateListener;
-            } else {
+            listener = versionUpdateListener;
+            if (listener == null) {
                 String msg = "Version update listener unavailable.";
                 log.error(msg);
-                return;
             }
         }
-        try {
-            List<EventState> eventStates = record.getEvents();
+        return listener;
+    }
 
-            String path = getFirstUserId(eventStates)
-                    + "@" + workspace
-                    + ":" + EventState.getCommonPath(eventStates, null);
+    /**
+     * Write an audit log entry for a change log record.
+     *
+     * @param record change log record
+     */
+    private void auditUpdate(ChangeLogRecord record) {
+        List<EventState> eventStates = record.getEvents();
 
-            updateCount.compareAndSet(Integer.MAX_VALUE, 0);
-           	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
-                    record.getRevision(), path});
+        String path = getFirstUserId(eventStates)
+                + "@" + record.getWorkspace()
+                + ":" + EventState.getCommonPath(eventStates, null);
 
-            listener.externalUpdate(record.getChanges(), eventStates,
-                    record.getTimestamp(), record.getUserData());
+        updateCount.compareAndSet(Integer.MAX_VALUE, 0);
+        auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(),
+                record.getRevision(), path});
+    }
+
+    /**
+     * Deliver an external update to a listener.
+     *
+     * @param listener update listener
+     * @param changes changes
+     * @param events events
+     * @param timestamp timestamp
+     * @param userData user data
+     * @throws IllegalStateException if the listener is in an illegal state
+     */
+    private void externalUpdate(UpdateEventListener listener, ChangeLog changes,
+                                List<EventState> events, long timestamp,
+                                String userData) {
+        try {
+            listener.externalUpdate(changes, events, timestamp, userData);
         } catch (RepositoryException e) {
             String msg = "Unable to deliver update events: " + e.getMessage();
             log.error(msg);
@@ -1073,6 +1462,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -1106,6 +1496,7 @@ public class ClusterNode implements Runnable,
                 record.write();
                 record.update();
                 setRevision(record.getRevision());
+                notifyAppended(record.getRevision());
                 succeeded = true;
             }
         } catch (JournalException e) {
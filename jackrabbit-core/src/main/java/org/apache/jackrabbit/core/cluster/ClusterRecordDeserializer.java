@@ -41,6 +41,7 @@ public class ClusterRecordDeserializer {
         case ChangeLogRecord.PROPERTY_IDENTIFIER:
         case ChangeLogRecord.EVENT_IDENTIFIER:
         case ChangeLogRecord.DATE_IDENTIFIER:
+        case ChangeLogRecord.COMPACT_IDENTIFIER:
             clusterRecord = new ChangeLogRecord(c, record, workspace);
             clusterRecord.read();
             break;
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+
+/**
+ * Reader for the compact encoding of a {@link ChangeLogRecord}.
+ *
+ * @see CompactRecordWriter
+ */
+class CompactRecordReader {
+
+    /**
+     * Name factory.
+     */
+    private static final NameFactory NAME_FACTORY = NameFactoryImpl.getInstance();
+
+    /**
+     * Path factory.
+     */
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    /**
+     * Input on top of the uncompressed data.
+     */
+    private final DataInputStream in;
+
+    /**
+     * String dictionary.
+     */
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * Name dictionary.
+     */
+    private final List<Name> names = new ArrayList<Name>();
+
+    /**
+     * Path dictionary.
+     */
+    private final List<Path> paths = new ArrayList<Path>();
+
+    /**
+     * Node id dictionary.
+     */
+    private final List<NodeId> nodeIds = new ArrayList<NodeId>();
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param data uncompressed data
+     */
+    public CompactRecordReader(byte[] data) {
+        in = new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Inflate data written by {@link CompactRecordWriter#toCompressedByteArray()}.
+     *
+     * @param data compressed data
+     * @param length uncompressed length
+     * @return uncompressed data
+     * @throws IOException if the data is corrupt
+     */
+    public static byte[] inflate(byte[] data, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int n = inflater.inflate(result, offset, length - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != length) {
+                throw new IOException("Expected " + length
+                        + " uncompressed bytes, got " + offset);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return byte
+     * @throws IOException if an I/O error occurs
+     */
+    public byte readByte() throws IOException {
+        return in.readByte();
+    }
+
+    /**
+     * Read an integer written by {@link CompactRecordWriter#writeVarInt(int)}.
+     *
+     * @return integer
+     * @throws IOException if an I/O error occurs
+     */
+    public int readVarInt() throws IOException {
+        long n = readVarLong();
+        if (n < 0 || n > Integer.MAX_VALUE) {
+            throw new IOException("Integer out of range: " + n);
+        }
+        return (int) n;
+    }
+
+    /**
+     * Read a long written by {@link CompactRecordWriter#writeVarLong(long)}.
+     *
+     * @return long
+     * @throws IOException if an I/O error occurs
+     */
+    public long readVarLong() throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("Malformed variable-length long");
+    }
+
+    /**
+     * Read a string.
+     *
+     * @return string, may be <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public String readString() throws IOException {
+        int ref = readReference(strings);
+        if (ref < strings.size()) {
+            return ref < 0 ? null : strings.get(ref);
+        }
+        byte[] bytes = new byte[readVarInt()];
+        in.readFully(bytes);
+        String s = new String(bytes, "UTF-8");
+        strings.add(s);
+        return s;
+    }
+
+    /**
+     * Read a name.
+     *
+     * @return name, may be <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public Name readName() throws IOException {
+        int ref = readReference(names);
+        if (ref < names.size()) {
+            return ref < 0 ? null : names.get(ref);
+        }
+        String uri = readString();
+        String localName = readString();
+        Name name = NAME_FACTORY.create(uri, localName);
+        names.add(name);
+        return name;
+    }
+
+    /**
+     * Read a path.
+     *
+     * @return path, may be <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public Path readPath() throws IOException {
+        int ref = readReference(paths);
+        if (ref < paths.size()) {
+            return ref < 0 ? null : paths.get(ref);
+        }
+        Path.Element[] elements = new Path.Element[readVarInt()];
+        for (int i = 0; i < elements.length; i++) {
+            int tag = readByte();
+            switch (tag) {
+            case CompactRecordWriter.ROOT_ELEMENT:
+                elements[i] = PATH_FACTORY.getRootElement();
+                break;
+            case CompactRecordWriter.CURRENT_ELEMENT:
+                elements[i] = PATH_FACTORY.getCurrentElement();
+                break;
+            case CompactRecordWriter.PARENT_ELEMENT:
+                elements[i] = PATH_FACTORY.getParentElement();
+                break;
+            case CompactRecordWriter.IDENTIFIER_ELEMENT:
+                elements[i] = PATH_FACTORY.createElement(readString());
+                break;
+            case CompactRecordWriter.NAME_ELEMENT:
+                Name name = readName();
+                int index = readVarInt();
+                if (index != 0) {
+                    elements[i] = PATH_FACTORY.createElement(name, index);
+                } else {
+                    elements[i] = PATH_FACTORY.createElement(name);
+                }
+                break;
+            default:
+                throw new IOException("Unknown path element: " + tag);
+            }
+        }
+        Path path;
+        try {
+            path = PATH_FACTORY.create(elements);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid path: " + e.getMessage(), e);
+        }
+        paths.add(path);
+        return path;
+    }
+
+    /**
+     * Read a node id.
+     *
+     * @return node id, may be <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public NodeId readNodeId() throws IOException {
+        int ref = readReference(nodeIds);
+        if (ref < nodeIds.size()) {
+            return ref < 0 ? null : nodeIds.get(ref);
+        }
+        NodeId nodeId = new NodeId(in.readLong(), in.readLong());
+        nodeIds.add(nodeId);
+        return nodeId;
+    }
+
+    /**
+     * Read a dictionary reference.
+     *
+     * @param dictionary dictionary
+     * @return <code>-1</code> for <code>null</code>, the index of an
+     *         existing entry, or the size of the dictionary if a new entry
+     *         follows
+     * @throws IOException if the reference is out of range
+     */
+    private int readReference(List<?> dictionary) throws IOException {
+        int ref = readVarInt() - 1;
+        if (ref > dictionary.size()) {
+            throw new IOException("Dictionary reference out of range: " + ref);
+        }
+        return ref;
+    }
+}
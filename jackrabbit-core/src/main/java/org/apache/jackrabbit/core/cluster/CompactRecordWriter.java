@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+
+/**
+ * Writer for the compact encoding of a {@link ChangeLogRecord}. Strings,
+ * names, paths and node ids are kept in per-record dictionaries: the first
+ * occurrence of a value is written literally, every further occurrence is
+ * written as a variable-length index into the dictionary. The encoded bytes
+ * may optionally be deflated.
+ * <p>
+ * A dictionary reference is encoded as a variable-length integer <code>v</code>,
+ * where <code>0</code> stands for <code>null</code>, <code>1..n</code> refer
+ * to an entry already in the dictionary of size <code>n</code>, and
+ * <code>n + 1</code> introduces a new entry whose literal value follows.
+ *
+ * @see CompactRecordReader
+ */
+class CompactRecordWriter {
+
+    /**
+     * Path element tag: root.
+     */
+    static final int ROOT_ELEMENT = 0;
+
+    /**
+     * Path element tag: current.
+     */
+    static final int CURRENT_ELEMENT = 1;
+
+    /**
+     * Path element tag: parent.
+     */
+    static final int PARENT_ELEMENT = 2;
+
+    /**
+     * Path element tag: identifier.
+     */
+    static final int IDENTIFIER_ELEMENT = 3;
+
+    /**
+     * Path element tag: name.
+     */
+    static final int NAME_ELEMENT = 4;
+
+    /**
+     * Buffer holding the uncompressed data.
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * Output on top of the buffer.
+     */
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    /**
+     * String dictionary.
+     */
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    /**
+     * Name dictionary.
+     */
+    private final Map<Name, Integer> names = new HashMap<Name, Integer>();
+
+    /**
+     * Path dictionary.
+     */
+    private final Map<Path, Integer> paths = new HashMap<Path, Integer>();
+
+    /**
+     * Node id dictionary.
+     */
+    private final Map<NodeId, Integer> nodeIds = new HashMap<NodeId, Integer>();
+
+    /**
+     * Write a byte.
+     *
+     * @param n byte
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeByte(int n) throws IOException {
+        out.writeByte(n);
+    }
+
+    /**
+     * Write a non-negative integer using a variable number of bytes,
+     * seven bits at a time.
+     *
+     * @param n integer, must not be negative
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeVarInt(int n) throws IOException {
+        writeVarLong(n);
+    }
+
+    /**
+     * Write a long using a variable number of bytes, seven bits at a time.
+     *
+     * @param n long
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeVarLong(long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    /**
+     * Write a string, which may be <code>null</code>.
+     *
+     * @param s string
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeString(String s) throws IOException {
+        if (writeReference(strings, s)) {
+            byte[] bytes = s.getBytes("UTF-8");
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Write a name, which may be <code>null</code>.
+     *
+     * @param name name
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeName(Name name) throws IOException {
+        if (writeReference(names, name)) {
+            writeString(name.getNamespaceURI());
+            writeString(name.getLocalName());
+        }
+    }
+
+    /**
+     * Write a path, which may be <code>null</code>.
+     *
+     * @param path path
+     * @throws IOException if an I/O error occurs
+     */
+    public void writePath(Path path) throws IOException {
+        if (writeReference(paths, path)) {
+            Path.Element[] elements = path.getElements();
+            writeVarInt(elements.length);
+            for (Path.Element element : elements) {
+                if (element.denotesRoot()) {
+                    writeByte(ROOT_ELEMENT);
+                } else if (element.denotesCurrent()) {
+                    writeByte(CURRENT_ELEMENT);
+                } else if (element.denotesParent()) {
+                    writeByte(PARENT_ELEMENT);
+                } else if (element.denotesIdentifier()) {
+                    writeByte(IDENTIFIER_ELEMENT);
+                    writeString(element.getIdentifier());
+                } else {
+                    writeByte(NAME_ELEMENT);
+                    writeName(element.getName());
+                    writeVarInt(element.getIndex());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a node id, which may be <code>null</code>.
+     *
+     * @param nodeId node id
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeNodeId(NodeId nodeId) throws IOException {
+        if (writeReference(nodeIds, nodeId)) {
+            out.writeLong(nodeId.getMostSignificantBits());
+            out.writeLong(nodeId.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * Return the number of bytes written so far.
+     *
+     * @return number of bytes
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Return the bytes written so far.
+     *
+     * @return uncompressed bytes
+     */
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Return the bytes written so far, deflated.
+     *
+     * @return compressed bytes
+     */
+    public byte[] toCompressedByteArray() {
+        byte[] data = buffer.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write a reference to a dictionary entry, adding the value to the
+     * dictionary if it is not yet contained.
+     *
+     * @param dictionary dictionary
+     * @param value value, may be <code>null</code>
+     * @return <code>true</code> if the value was added and its literal
+     *         representation must follow; <code>false</code> otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    private <T> boolean writeReference(Map<T, Integer> dictionary, T value)
+            throws IOException {
+
+        if (value == null) {
+            writeVarInt(0);
+            return false;
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            writeVarInt(index);
+            return false;
+        }
+        index = dictionary.size() + 1;
+        dictionary.put(value, index);
+        writeVarInt(index);
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notification channel delivering notifications to the other channels of the
+ * same group inside the same virtual machine. Useful for tests running more
+ * than one cluster node in a single process.
+ * <p>
+ * It is configured through the following properties:
+ * <ul>
+ * <li><code>group</code>: the name of the group of channels that notify each
+ * other (default = <code>default</code>)</li>
+ * </ul>
+ */
+public class LocalNotificationChannel implements NotificationChannel {
+
+    /**
+     * Registered channels, indexed by group name.
+     */
+    private static final Map<String, List<LocalNotificationChannel>> GROUPS =
+        new HashMap<String, List<LocalNotificationChannel>>();
+
+    /**
+     * Group name, bean property.
+     */
+    private String group = "default";
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener.
+     */
+    private NotificationListener listener;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String clusterNodeId, NotificationListener listener) {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+
+        synchronized (GROUPS) {
+            List<LocalNotificationChannel> channels = GROUPS.get(group);
+            if (channels == null) {
+                channels = new ArrayList<LocalNotificationChannel>();
+                GROUPS.put(group, channels);
+            }
+            channels.add(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void appended(long revision) {
+        List<LocalNotificationChannel> peers;
+        synchronized (GROUPS) {
+            List<LocalNotificationChannel> channels = GROUPS.get(group);
+            if (channels == null) {
+                return;
+            }
+            peers = new ArrayList<LocalNotificationChannel>(channels);
+        }
+        for (LocalNotificationChannel peer : peers) {
+            if (peer != this) {
+                peer.listener.appended(clusterNodeId, revision);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        synchronized (GROUPS) {
+            List<LocalNotificationChannel> channels = GROUPS.get(group);
+            if (channels != null) {
+                channels.remove(this);
+                if (channels.isEmpty()) {
+                    GROUPS.remove(group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bean getters
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Bean setters
+     */
+    public void setGroup(String group) {
+        this.group = group;
+    }
+}
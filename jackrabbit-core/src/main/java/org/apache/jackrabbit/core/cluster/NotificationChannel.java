@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+/**
+ * Channel used by cluster nodes to tell each other that new records have been
+ * appended to the journal, so that peers can synchronize right away instead of
+ * waiting for their next periodic synchronization. Notifications are hints
+ * only: delivery is not guaranteed, and periodic synchronization remains in
+ * place as a fallback.
+ */
+public interface NotificationChannel {
+
+    /**
+     * Initialize this channel.
+     *
+     * @param clusterNodeId id of the local cluster node
+     * @param listener listener to inform about notifications sent by peers
+     * @throws ClusterException if an error occurs
+     */
+    void init(String clusterNodeId, NotificationListener listener)
+            throws ClusterException;
+
+    /**
+     * Signal peers that the local cluster node has appended a record.
+     * Must not block on slow or unavailable peers.
+     *
+     * @param revision revision of the appended record
+     */
+    void appended(long revision);
+
+    /**
+     * Close this channel, releasing all resources.
+     */
+    void close();
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notification channel sending UDP datagrams to a fixed list of peers. Each
+ * datagram contains the id of the sending cluster node and the revision of the
+ * appended record. Lost datagrams are not resent, as cluster nodes still
+ * synchronize periodically.
+ * <p>
+ * It is configured through the following properties:
+ * <ul>
+ * <li><code>host</code>: the local address to listen on (default = all local
+ * addresses)</li>
+ * <li><code>port</code>: the local port to listen on; this is a required
+ * property with no default value</li>
+ * <li><code>peers</code>: comma separated list of <code>host:port</code>
+ * addresses of the other cluster nodes</li>
+ * </ul>
+ */
+public class SocketNotificationChannel implements NotificationChannel, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(SocketNotificationChannel.class);
+
+    /**
+     * Maximum size of a datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+
+    /**
+     * Local address, bean property.
+     */
+    private String host;
+
+    /**
+     * Local port, bean property.
+     */
+    private int port = -1;
+
+    /**
+     * Peer addresses, bean property.
+     */
+    private String peers = "";
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener.
+     */
+    private NotificationListener listener;
+
+    /**
+     * Socket used to send and receive datagrams.
+     */
+    private DatagramSocket socket;
+
+    /**
+     * Resolved peer addresses.
+     */
+    private final List<InetSocketAddress> peerAddresses = new ArrayList<InetSocketAddress>();
+
+    /**
+     * Receiver thread.
+     */
+    private Thread receiver;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String clusterNodeId, NotificationListener listener)
+            throws ClusterException {
+
+        if (port < 0) {
+            throw new ClusterException("Port not specified.");
+        }
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.length() == 0) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon == -1) {
+                throw new ClusterException("Peer address without port: " + peer);
+            }
+            try {
+                peerAddresses.add(new InetSocketAddress(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new ClusterException("Invalid peer address: " + peer, e);
+            }
+        }
+
+        try {
+            if (host != null) {
+                socket = new DatagramSocket(port, InetAddress.getByName(host));
+            } else {
+                socket = new DatagramSocket(port);
+            }
+        } catch (IOException e) {
+            throw new ClusterException("Unable to open socket on port " + port + ".", e);
+        }
+
+        receiver = new Thread(this, "ClusterNode-Notifications-" + clusterNodeId);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void appended(long revision) {
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(clusterNodeId);
+            out.writeLong(revision);
+            out.close();
+            data = bytes.toByteArray();
+        } catch (IOException e) {
+            log.warn("Unable to create notification for revision " + revision + ".", e);
+            return;
+        }
+        for (InetSocketAddress peer : peerAddresses) {
+            try {
+                socket.send(new DatagramPacket(data, data.length, peer));
+            } catch (IOException e) {
+                log.debug("Unable to notify peer {}: {}", peer, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Receive notifications until the socket is closed.
+     */
+    public void run() {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        for (;;) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (SocketException e) {
+                // socket closed
+                break;
+            } catch (IOException e) {
+                log.warn("Unable to receive notification.", e);
+                continue;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                String sender = in.readUTF();
+                long revision = in.readLong();
+                if (!clusterNodeId.equals(sender)) {
+                    listener.appended(sender, revision);
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring malformed notification from " + packet.getSocketAddress() + ".");
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        if (socket != null) {
+            socket.close();
+        }
+        if (receiver != null) {
+            try {
+                receiver.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Bean getters
+     */
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getPeers() {
+        return peers;
+    }
+
+    /**
+     * Bean setters
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setPeers(String peers) {
+        this.peers = peers;
+    }
+}
@@ -18,6 +18,8 @@ package org.apache.jackrabbit.core.config;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.cluster.NotificationChannel;
+import org.apache.jackrabbit.core.cluster.NotificationChannelFactory;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -47,6 +49,16 @@ public class ClusterConfig implements JournalFactory {
      */
     private final JournalFactory jf;
 
+    /**
+     * Notification channel factory, may be <code>null</code>.
+     */
+    private final NotificationChannelFactory ncf;
+
+    /**
+     * Catch-up batch size.
+     */
+    private final int catchUpBatchSize;
+
     /**
      * Creates a new cluster configuration.
      *
@@ -68,10 +80,43 @@ public class ClusterConfig implements JournalFactory {
      */
     public ClusterConfig(String id, long syncDelay,
                          long stopDelay, JournalFactory jf) {
+        this(id, syncDelay, stopDelay, jf, null);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param ncf notification channel factory, may be <code>null</code>
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, NotificationChannelFactory ncf) {
+        this(id, syncDelay, stopDelay, jf, ncf, 0);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param ncf notification channel factory, may be <code>null</code>
+     * @param catchUpBatchSize maximum number of consecutive external updates
+     *        applied as one, or <code>0</code> to apply them one by one
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, NotificationChannelFactory ncf,
+                         int catchUpBatchSize) {
         this.id = id;
         this.syncDelay = syncDelay;
         this.stopDelay = stopDelay < 0 ? syncDelay * 10 : stopDelay;
         this.jf = jf;
+        this.ncf = ncf;
+        this.catchUpBatchSize = catchUpBatchSize;
     }
 
     /**
@@ -99,6 +144,13 @@ public class ClusterConfig implements JournalFactory {
         return stopDelay;
     }
 
+    /**
+     * @return catchUpBatchSize the catchUpBatchSize configuration attribute value.
+     */
+    public int getCatchUpBatchSize() {
+        return catchUpBatchSize;
+    }
+
     /**
      * Returns an initialized journal instance.
      *
@@ -112,4 +164,18 @@ public class ClusterConfig implements JournalFactory {
         return jf.getJournal(resolver);
     }
 
+    /**
+     * Returns a new notification channel instance, if one is configured.
+     *
+     * @return notification channel, or <code>null</code>
+     * @throws RepositoryException if the channel can not be created
+     */
+    public NotificationChannel getNotificationChannel()
+            throws RepositoryException {
+        if (ncf == null) {
+            return null;
+        }
+        return ncf.getNotificationChannel();
+    }
+
 }
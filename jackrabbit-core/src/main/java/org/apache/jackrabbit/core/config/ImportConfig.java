@@ -36,12 +36,24 @@ public class ImportConfig {
 
     private final List<BeanConfig> protectedItemImporters;
 
+    /**
+     * Number of nodes after which a workspace import commits the nodes
+     * imported so far, or <code>0</code> to import everything in a single
+     * update.
+     */
+    private final int batchSize;
+
     public ImportConfig() {
-        protectedItemImporters = Collections.emptyList();
+        this(Collections.<BeanConfig>emptyList());
     }
 
     public ImportConfig(List<BeanConfig> protectedItemImporters) {
+        this(protectedItemImporters, 0);
+    }
+
+    public ImportConfig(List<BeanConfig> protectedItemImporters, int batchSize) {
         this.protectedItemImporters = protectedItemImporters;
+        this.batchSize = batchSize;
     }
 
     public List<? extends ProtectedItemImporter> getProtectedItemImporters() {
@@ -56,4 +68,18 @@ public class ImportConfig {
         return piis;
     }
 
+    /**
+     * Returns the number of nodes after which a workspace import commits
+     * the nodes imported so far. The committed nodes are visible to other
+     * sessions right away, without the optional REFERENCE properties that
+     * are imported at the end. If the import fails, the batches committed
+     * so far are not rolled back and the workspace keeps a partial import.
+     *
+     * @return the batch size, or <code>0</code> if the content is imported
+     *         in a single update
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
 }
\ No newline at end of file
@@ -28,6 +28,8 @@ import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.cluster.NotificationChannel;
+import org.apache.jackrabbit.core.cluster.NotificationChannelFactory;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.DataStoreFactory;
 import org.apache.jackrabbit.core.data.MultiDataStore;
@@ -136,6 +138,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the journal configuration element. */
     public static final String JOURNAL_ELEMENT = "Journal";
 
+    /** Name of the cluster notification channel configuration element. */
+    public static final String NOTIFICATION_CHANNEL_ELEMENT = "NotificationChannel";
+
     /** Name of the data store configuration element. */
     public static final String DATA_STORE_ELEMENT = "DataStore";
 
@@ -181,6 +186,12 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the stopDelay configuration attribute. */
     public static final String STOP_DELAY_ATTRIBUTE = "stopDelay";
 
+    /** Name of the catchUpBatchSize configuration attribute. */
+    public static final String CATCH_UP_BATCH_SIZE_ATTRIBUTE = "catchUpBatchSize";
+
+    /** Name of the import batchSize configuration attribute. */
+    public static final String IMPORT_BATCH_SIZE_ATTRIBUTE = "batchSize";
+
     /** Name of the default search index implementation class. */
     public static final String DEFAULT_QUERY_HANDLER =
         "org.apache.jackrabbit.core.query.lucene.SearchIndex";
@@ -728,7 +739,7 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      * Read the optional Import Element of Workspace's configuration. It uses
      * the following format:
      * <pre>
-     *   &lt;Import&gt;
+     *   &lt;Import batchSize="..." (optional)&gt;
      *     &lt;ProtectedNodeImporter class="..." (optional)&gt;
      *     &lt;ProtectedNodeImporter class="..." (optional)&gt;
      *     ...
@@ -758,7 +769,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                     } // else: some other entry -> ignore.
                 }
             }
-            return new ImportConfig(protectedItemImporters);
+            int batchSize = Integer.parseInt(replaceVariables(getAttribute(
+                    element, IMPORT_BATCH_SIZE_ATTRIBUTE, "0")));
+            return new ImportConfig(protectedItemImporters, batchSize);
         }
         return null;
     }
@@ -844,11 +857,14 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      * <pre>
      *   &lt;Cluster&gt;
      *     &lt;Journal ...&gt;
-     *   &lt;/Journal&gt;
+     *     &lt;/Journal&gt;
+     *     &lt;NotificationChannel ...&gt;
+     *     &lt;/NotificationChannel&gt;
+     *   &lt;/Cluster&gt;
      * </pre>
      * <p>
-     * <code>Cluster</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
-     * element.
+     * <code>Journal</code> and the optional <code>NotificationChannel</code> are
+     * {@link #parseBeanConfig(Element,String) bean configuration} elements.
      * <p>
      * Clustering is an optional feature. If the cluster element is not found, then this
      * method returns <code>null</code>.
@@ -893,9 +909,12 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                         element, SYNC_DELAY_ATTRIBUTE, DEFAULT_SYNC_DELAY)));
                 long stopDelay = Long.parseLong(replaceVariables(getAttribute(
                         element, STOP_DELAY_ATTRIBUTE, "-1")));
+                int catchUpBatchSize = Integer.parseInt(replaceVariables(getAttribute(
+                        element, CATCH_UP_BATCH_SIZE_ATTRIBUTE, "0")));
 
                 JournalFactory jf = getJournalFactory(element, home, id);
-                return new ClusterConfig(id, syncDelay, stopDelay, jf);
+                NotificationChannelFactory ncf = getNotificationChannelFactory(element);
+                return new ClusterConfig(id, syncDelay, stopDelay, jf, ncf, catchUpBatchSize);
             }
         }
         return null;
@@ -942,6 +961,37 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
         };
     }
 
+    /**
+     * Parses the optional notification channel configuration. Notification channel
+     * configuration uses the following format:
+     * <pre>
+     *   &lt;NotificationChannel class="..."&gt;
+     *     &lt;param name="..." value="..."&gt;
+     *     ...
+     *   &lt;/NotificationChannel&gt;
+     * </pre>
+     * <p>
+     * <code>NotificationChannel</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
+     * element.
+     *
+     * @param cluster parent cluster element
+     * @return notification channel factory, or <code>null</code> if none is configured
+     * @throws ConfigurationException if the configuration is broken
+     */
+    protected NotificationChannelFactory getNotificationChannelFactory(final Element cluster)
+            throws ConfigurationException {
+        final Element element = getElement(cluster, NOTIFICATION_CHANNEL_ELEMENT, false);
+        if (element == null) {
+            return null;
+        }
+        return new NotificationChannelFactory() {
+            public NotificationChannel getNotificationChannel()
+                    throws RepositoryException {
+                return parseBeanConfig(element).newInstance(NotificationChannel.class);
+            }
+        };
+    }
+
     /**
      * Parses the DataSources configuration under the given parent. It has the following format:
      * <pre>
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.gc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log of the data store references of the repository, maintained when
+ * changes are committed. The log allows the {@link GarbageCollector} to
+ * find the referenced binaries without traversing the content.
+ * <p>
+ * The references are counted: each added binary value is appended as a
+ * <code>+reference</code> line, each removed value as a
+ * <code>-reference</code> line to the log file. The counts are compacted
+ * into the snapshot file from time to time. The log file and the header
+ * of the snapshot contain a generation number: a log file is only read if
+ * it was not compacted into the snapshot yet, so that the log can not be
+ * applied twice if the repository stops after a new snapshot was written
+ * but before the old log was deleted. A reference is the string
+ * representation of a binary value in the data store, see
+ * {@link org.apache.jackrabbit.core.value.InternalValue#create(org.apache.jackrabbit.core.data.DataStore, String)}.
+ * <p>
+ * Added references are written and synced before the change is stored
+ * by the persistence manager, and removed references after it was
+ * stored. If the repository stops in between, a reference may be counted
+ * too often, so that a binary is not collected, but it is never counted
+ * too rarely.
+ * <p>
+ * The log is only complete if it was maintained since the repository was
+ * created, or after {@link GarbageCollector#rebuildReferenceLog()}. The
+ * log does not see the changes of other cluster nodes, and is therefore
+ * not used in a cluster.
+ */
+public class BinaryReferenceLog {
+
+    /** logger instance */
+    private static final Logger log = LoggerFactory.getLogger(BinaryReferenceLog.class);
+
+    /**
+     * Name of the system property to enable the reference log.
+     */
+    public static final String ENABLED_PROPERTY =
+        "org.apache.jackrabbit.garbagecollector.referencelog";
+
+    private static final String SNAPSHOT = "binaryReferences.snapshot";
+
+    private static final String LOG = "binaryReferences.log";
+
+    private static final String COMPLETE = "#complete";
+
+    private static final String INCOMPLETE = "#incomplete";
+
+    private final File snapshotFile;
+
+    private final File logFile;
+
+    private boolean complete;
+
+    /**
+     * The generation of the log file, which is the generation of the
+     * snapshot it is added to.
+     */
+    private long generation;
+
+    private FileOutputStream out;
+
+    private Writer writer;
+
+    /**
+     * The references added while a garbage collection is running, or null.
+     */
+    private Set<String> tracked;
+
+    /**
+     * The length of the log file when the rebuild started, or -1 if no
+     * rebuild is running.
+     */
+    private long rebuildStart = -1;
+
+    /**
+     * Create a reference log in the given directory.
+     *
+     * @param directory the directory
+     */
+    public BinaryReferenceLog(File directory) {
+        snapshotFile = new File(directory, SNAPSHOT);
+        logFile = new File(directory, LOG);
+    }
+
+    /**
+     * Open the log. If the log does not exist yet, it is created.
+     *
+     * @param newRepository whether the repository has no content yet, in
+     *          which case a new log is complete
+     * @throws IOException if the log could not be opened
+     */
+    public synchronized void open(boolean newRepository) throws IOException {
+        if (!snapshotFile.exists()) {
+            writeSnapshot(newRepository, 0, new HashMap<String, Integer>());
+            logFile.delete();
+        }
+        BufferedReader reader = openReader(snapshotFile);
+        try {
+            String[] header = reader.readLine().split(" ");
+            complete = COMPLETE.equals(header[0]);
+            generation = header.length > 1 ? Long.parseLong(header[1]) : 0;
+        } finally {
+            reader.close();
+        }
+        if (!complete) {
+            log.info("The binary reference log is incomplete, "
+                    + "the data store garbage collection needs to rebuild it");
+        }
+        if (logFile.exists() && getLogGeneration() != generation) {
+            // already compacted into the snapshot
+            log.info("Deleting the compacted binary reference log");
+            if (!logFile.delete()) {
+                throw new IOException("Could not delete " + logFile);
+            }
+        }
+        openLog();
+    }
+
+    /**
+     * Whether the log contains all references of the repository.
+     *
+     * @return true if the log is complete
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Record the references that are about to be added. This method must
+     * be called before the change is stored.
+     *
+     * @param references the references
+     * @throws IOException if the log could not be written
+     */
+    public synchronized void added(Collection<String> references)
+            throws IOException {
+        if (references.isEmpty()) {
+            return;
+        }
+        for (String reference : references) {
+            writer.write('+');
+            writer.write(reference);
+            writer.write('\n');
+        }
+        writer.flush();
+        out.getChannel().force(false);
+        if (tracked != null) {
+            tracked.addAll(references);
+        }
+    }
+
+    /**
+     * Record the references that were removed. This method must be called
+     * after the change was stored.
+     *
+     * @param references the references
+     * @throws IOException if the log could not be written
+     */
+    public synchronized void removed(Collection<String> references)
+            throws IOException {
+        if (references.isEmpty() || rebuildStart >= 0) {
+            // while rebuilding, the references that are removed may not
+            // be counted yet; not recording them errs on the safe side
+            return;
+        }
+        for (String reference : references) {
+            writer.write('-');
+            writer.write(reference);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Start collecting the references that are added, until
+     * {@link #stopTracking()} is called.
+     */
+    public synchronized void startTracking() {
+        tracked = new HashSet<String>();
+    }
+
+    /**
+     * Stop collecting the added references.
+     *
+     * @return the references added since {@link #startTracking()}
+     */
+    public synchronized Set<String> stopTracking() {
+        Set<String> result = tracked;
+        tracked = null;
+        return result == null ? new HashSet<String>() : result;
+    }
+
+    /**
+     * Get the references with a positive count.
+     *
+     * @return the set of references
+     * @throws IOException if the log could not be read
+     */
+    public synchronized Set<String> getReferences() throws IOException {
+        return readCounts().keySet();
+    }
+
+    /**
+     * Merge the log into the snapshot and clear the log.
+     *
+     * @throws IOException if the log could not be compacted
+     */
+    public synchronized void compact() throws IOException {
+        if (rebuildStart >= 0) {
+            return;
+        }
+        Map<String, Integer> counts = readCounts();
+        closeLog();
+        writeSnapshot(complete, generation + 1, counts);
+        generation++;
+        logFile.delete();
+        openLog();
+    }
+
+    /**
+     * Start rebuilding the log. Until the rebuild is finished, removed
+     * references are not recorded.
+     */
+    public synchronized void startRebuild() {
+        rebuildStart = logFile.length();
+    }
+
+    /**
+     * Finish rebuilding the log. The references added since the rebuild
+     * started are added to the given counts, and the result replaces the
+     * log.
+     *
+     * @param counts the reference counts of all nodes
+     * @throws IOException if the log could not be written
+     */
+    public synchronized void finishRebuild(Map<String, Integer> counts)
+            throws IOException {
+        if (rebuildStart < 0) {
+            throw new IllegalStateException("Rebuild not started");
+        }
+        Map<String, Integer> added = readLog(rebuildStart, new HashMap<String, Integer>());
+        for (Map.Entry<String, Integer> e : added.entrySet()) {
+            add(counts, e.getKey(), e.getValue());
+        }
+        closeLog();
+        writeSnapshot(true, generation + 1, counts);
+        generation++;
+        logFile.delete();
+        openLog();
+        complete = true;
+        rebuildStart = -1;
+    }
+
+    /**
+     * Cancel rebuilding the log.
+     */
+    public synchronized void cancelRebuild() {
+        rebuildStart = -1;
+    }
+
+    /**
+     * Close the log.
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            log.warn("Could not compact the binary reference log", e);
+        }
+        try {
+            closeLog();
+        } catch (IOException e) {
+            log.warn("Could not close the binary reference log", e);
+        }
+    }
+
+    private Map<String, Integer> readCounts() throws IOException {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        BufferedReader reader = openReader(snapshotFile);
+        try {
+            // skip the header
+            reader.readLine();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int space = line.lastIndexOf(' ');
+                counts.put(line.substring(0, space),
+                        Integer.valueOf(line.substring(space + 1)));
+            }
+        } finally {
+            reader.close();
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        return readLog(0, counts);
+    }
+
+    private Map<String, Integer> readLog(long start, Map<String, Integer> counts)
+            throws IOException {
+        if (!logFile.exists()) {
+            return counts;
+        }
+        FileInputStream in = new FileInputStream(logFile);
+        try {
+            in.getChannel().position(start);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 1 && line.charAt(0) != '#') {
+                    add(counts, line.substring(1), line.charAt(0) == '+' ? 1 : -1);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Read the generation from the header of the log file.
+     *
+     * @return the generation, or 0 if the file has no header
+     */
+    private long getLogGeneration() throws IOException {
+        BufferedReader reader = openReader(logFile);
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("#")) {
+                return 0;
+            }
+            return Long.parseLong(line.substring(1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void add(Map<String, Integer> counts, String reference, int delta) {
+        Integer old = counts.get(reference);
+        int count = (old == null ? 0 : old) + delta;
+        if (count > 0) {
+            counts.put(reference, count);
+        } else {
+            counts.remove(reference);
+        }
+    }
+
+    private void writeSnapshot(boolean complete, long generation,
+            Map<String, Integer> counts) throws IOException {
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            Writer w = new BufferedWriter(
+                    new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+            w.write(complete ? COMPLETE : INCOMPLETE);
+            w.write(' ');
+            w.write(Long.toString(generation));
+            w.write('\n');
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                w.write(e.getKey());
+                w.write(' ');
+                w.write(e.getValue().toString());
+                w.write('\n');
+            }
+            w.flush();
+            fos.getChannel().force(false);
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(snapshotFile)) {
+            // Windows can not rename over an existing file
+            snapshotFile.delete();
+            if (!temp.renameTo(snapshotFile)) {
+                throw new IOException("Could not rename " + temp);
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        boolean exists = logFile.exists();
+        out = new FileOutputStream(logFile, true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (!exists) {
+            writer.write('#');
+            writer.write(Long.toString(generation));
+            writer.write('\n');
+            writer.flush();
+            out.getChannel().force(false);
+        }
+    }
+
+    private void closeLog() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+}
@@ -16,12 +16,16 @@
  */
 package org.apache.jackrabbit.core.gc;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -51,6 +55,7 @@ import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.apache.jackrabbit.core.persistence.BinaryReferenceScanner;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
@@ -84,6 +89,22 @@ import org.slf4j.LoggerFactory;
  *     gc.close();
  * }
  * </pre>
+ * <p>
+ * If {@link #setBinaryReferenceScan(boolean) binary reference scan} is
+ * enabled and all persistence managers implement
+ * {@link BinaryReferenceScanner}, only the data store references are read
+ * from the persistence managers, in batches that are marked by
+ * {@link #getConcurrentThreadSize()} threads. The mark phase can be
+ * {@link #pause() paused} and resumed by calling {@link #mark()} again on
+ * the same garbage collector. The progress is not kept when the collector
+ * is closed: only a running collector makes the data store update the
+ * last modified date of the binaries that are referenced by nodes that
+ * were already scanned, so a new collector always starts a new scan.
+ * <p>
+ * If the repository maintains a complete {@link BinaryReferenceLog}, the
+ * mark phase reads the referenced binaries from the log instead of
+ * scanning the content. The references that are added until the sweep
+ * are marked by {@link #sweep()}.
  */
 public class GarbageCollector implements DataStoreGarbageCollector {
     
@@ -108,6 +129,25 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     }
 
+    private class MarkReferencesTask implements Callable<Void> {
+
+        private final Set<String> references;
+
+        public MarkReferencesTask(Set<String> references) {
+            this.references = references;
+        }
+
+        public Void call() throws Exception {
+            for (String reference : references) {
+                // getLength will update the last modified date
+                // if the persistence manager scan is running
+                checkLengths(InternalValue.create(store, reference).getLength());
+            }
+            return null;
+        }
+
+    }
+
     /** logger instance */
     static final Logger LOG = LoggerFactory.getLogger(GarbageCollector.class);
 
@@ -150,6 +190,30 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     private volatile RepositoryException observationException;
 
+    private boolean binaryReferenceScan;
+
+    private int binaryReferenceBatchSize = NODESATONCE;
+
+    /**
+     * The number of persistence managers completely scanned by the binary
+     * reference scan.
+     */
+    private int scannedPmCount;
+
+    /**
+     * The last node id of the completed batches of the persistence manager
+     * that is being scanned, or null.
+     */
+    private NodeId lastScannedId;
+
+    private volatile boolean paused;
+
+    private boolean markIncomplete;
+
+    private final BinaryReferenceLog referenceLog;
+
+    private boolean referenceLogMark;
+
     /**
      * Create a new garbage collector.
      * This method is usually not called by the application, it is called
@@ -169,6 +233,7 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         this.pmList = list;
         this.persistenceManagerScan = list != null;
         this.sessionList = sessionList;
+        this.referenceLog = context == null ? null : context.getBinaryReferenceLog();
     }
 
     public void setSleepBetweenNodes(long millis) {
@@ -208,6 +273,54 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         this.callback = callback;
     }
 
+    public boolean isBinaryReferenceScan() {
+        return binaryReferenceScan;
+    }
+
+    /**
+     * Only read the data store references from the persistence managers,
+     * if they support it. Requires the persistence manager scan.
+     *
+     * @param binaryReferenceScan whether to scan the binary references
+     */
+    public void setBinaryReferenceScan(boolean binaryReferenceScan) {
+        this.binaryReferenceScan = binaryReferenceScan;
+    }
+
+    public int getBinaryReferenceBatchSize() {
+        return binaryReferenceBatchSize;
+    }
+
+    /**
+     * Set the number of nodes per batch of the binary reference scan. A
+     * paused scan resumes after the last completed batch.
+     *
+     * @param binaryReferenceBatchSize the number of nodes
+     */
+    public void setBinaryReferenceBatchSize(int binaryReferenceBatchSize) {
+        this.binaryReferenceBatchSize = binaryReferenceBatchSize;
+    }
+
+    /**
+     * Pause the binary reference scan. The running {@link #mark()} call
+     * waits until the batches in progress are marked and returns. Calling
+     * {@link #mark()} again resumes the scan, unless the scan was stopped in
+     * the meantime.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Whether the last binary reference scan was paused before all nodes
+     * were scanned.
+     *
+     * @return true if the mark phase needs to be resumed
+     */
+    public boolean isMarkIncomplete() {
+        return markIncomplete;
+    }
+
     public void mark() throws RepositoryException {
         if (store == null) {
             throw new RepositoryException("No DataStore configured.");
@@ -218,13 +331,17 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             store.updateModifiedDateOnAccess(startScanTimestamp);
         }
 
-        if (pmList == null || !persistenceManagerScan) {
+        if (referenceLog != null && referenceLog.isComplete()) {
+            markFromReferenceLog();
+        } else if (pmList == null || !persistenceManagerScan) {
             for (SessionImpl s : sessionList) {
                 scanNodes(s);
             }
         } else {
             try {
-                if (!NODE_ID_SCAN) {
+                if (isBinaryReferenceScanSupported()) {
+                    scanBinaryReferences();
+                } else if (!NODE_ID_SCAN) {
                     scanPersistenceManagersByNodeInfos();
                 } else {
                     scanPersistenceManagersByNodeIds();
@@ -235,6 +352,111 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         }
     }
 
+    /**
+     * Mark the binaries that are referenced according to the reference
+     * log. The references that are added from now on are collected, and
+     * marked by {@link #sweep()}.
+     */
+    private void markFromReferenceLog() throws RepositoryException {
+        referenceLog.startTracking();
+        referenceLogMark = true;
+        Set<String> references;
+        try {
+            references = referenceLog.getReferences();
+        } catch (IOException e) {
+            throw new RepositoryException("Could not read the binary reference log", e);
+        }
+        int threads = Math.max(1, getConcurrentThreadSize());
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            Set<String> batch = new HashSet<String>();
+            for (String reference : references) {
+                batch.add(reference);
+                if (batch.size() >= binaryReferenceBatchSize) {
+                    futures.add(executorService.submit(new MarkReferencesTask(batch)));
+                    batch = new HashSet<String>();
+                }
+            }
+            futures.add(executorService.submit(new MarkReferencesTask(batch)));
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException(e.getCause());
+        } finally {
+            executorService.shutdown();
+        }
+        LOG.debug("Marked " + references.size() + " binaries of the reference log");
+    }
+
+    /**
+     * Rebuild the binary reference log of the repository by scanning the
+     * binary references of all persistence managers. Afterwards, the log
+     * is complete and used by {@link #mark()}. The changes that are
+     * committed while the log is rebuilt are recorded, except for the
+     * removed references, so that the binaries they refer to are only
+     * collected after the next rebuild.
+     *
+     * @throws RepositoryException if the log is not enabled, a persistence
+     *          manager does not support the binary reference scan, or an
+     *          error occurs
+     */
+    public void rebuildReferenceLog() throws RepositoryException {
+        if (referenceLog == null) {
+            throw new RepositoryException("The binary reference log is not enabled");
+        }
+        if (pmList == null) {
+            throw new RepositoryException(
+                    "Not all persistence managers can be iterated");
+        }
+        for (IterablePersistenceManager pm : pmList) {
+            if (!(pm instanceof BinaryReferenceScanner)) {
+                throw new RepositoryException(
+                        "The binary reference scan is not supported by " + pm);
+            }
+        }
+        referenceLog.startRebuild();
+        boolean succeeded = false;
+        try {
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (IterablePersistenceManager pm : pmList) {
+                NodeId after = null;
+                while (true) {
+                    List<String> references = new ArrayList<String>();
+                    after = ((BinaryReferenceScanner) pm).getAllBinaryReferences(
+                            after, binaryReferenceBatchSize, references);
+                    if (after == null) {
+                        break;
+                    }
+                    if (callback != null) {
+                        callback.beforeScanning(null);
+                    }
+                    for (String reference : references) {
+                        Integer count = counts.get(reference);
+                        counts.put(reference, count == null ? 1 : count + 1);
+                    }
+                }
+            }
+            referenceLog.finishRebuild(counts);
+            succeeded = true;
+            LOG.info("Rebuilt the binary reference log: " + counts.size() + " binaries");
+        } catch (ItemStateException e) {
+            throw new RepositoryException(e);
+        } catch (IOException e) {
+            throw new RepositoryException("Could not write the binary reference log", e);
+        } finally {
+            if (!succeeded) {
+                referenceLog.cancelRebuild();
+            }
+        }
+    }
+
     private void scanNodes(SessionImpl session) throws RepositoryException {
 
         // add a listener to get 'moved' nodes
@@ -363,6 +585,91 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         }
     }
 
+    private boolean isBinaryReferenceScanSupported() {
+        if (!binaryReferenceScan || pmList == null || !persistenceManagerScan) {
+            return false;
+        }
+        for (IterablePersistenceManager pm : pmList) {
+            if (!(pm instanceof BinaryReferenceScanner)) {
+                LOG.info("Binary reference scan not supported by " + pm);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scanBinaryReferences() throws RepositoryException, ItemStateException {
+        paused = false;
+        markIncomplete = true;
+        for (; scannedPmCount < pmList.length; scannedPmCount++) {
+            if (!scanBinaryReferences((BinaryReferenceScanner) pmList[scannedPmCount])) {
+                LOG.info("Binary reference scan paused");
+                return;
+            }
+            lastScannedId = null;
+        }
+        markIncomplete = false;
+    }
+
+    /**
+     * Scan the binary references of one persistence manager. The batches
+     * are read sequentially, in the order of the persistence manager, and
+     * marked concurrently, starting after {@link #lastScannedId}. It only
+     * advances over batches that are completely marked, including all
+     * batches before them.
+     *
+     * @return true if all nodes were scanned, false if the scan was paused
+     */
+    private boolean scanBinaryReferences(BinaryReferenceScanner pm)
+            throws RepositoryException, ItemStateException {
+        int threads = Math.max(1, getConcurrentThreadSize());
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<Void>> futures = new LinkedList<Future<Void>>();
+        LinkedList<NodeId> lastIds = new LinkedList<NodeId>();
+        boolean done = false;
+        long count = 0;
+        NodeId after = lastScannedId;
+        try {
+            while (!paused) {
+                List<String> references = new ArrayList<String>();
+                NodeId last = pm.getAllBinaryReferences(
+                        after, binaryReferenceBatchSize, references);
+                if (last == null) {
+                    done = true;
+                    break;
+                }
+                after = last;
+                if (callback != null) {
+                    callback.beforeScanning(null);
+                }
+                futures.add(executorService.submit(new MarkReferencesTask(
+                        new HashSet<String>(references))));
+                lastIds.add(last);
+                count += references.size();
+                while (futures.size() > 2 * threads
+                        || (!futures.isEmpty() && futures.getFirst().isDone())) {
+                    futures.removeFirst().get();
+                    lastScannedId = lastIds.removeFirst();
+                }
+            }
+            while (!futures.isEmpty()) {
+                futures.removeFirst().get();
+                lastScannedId = lastIds.removeFirst();
+            }
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        LOG.debug(pm + ": marked " + count + " binary references");
+        return done;
+    }
+
     private <T> List<List<T>> splitIntoParts(List<T> ls, int parts) {
         final List<List<T>> listParts = new ArrayList<List<T>>();
         final int chunkSize = ls.size() / parts;
@@ -388,6 +695,17 @@ public class GarbageCollector implements DataStoreGarbageCollector {
     public void stopScan() throws RepositoryException {
          // reset updateModifiedDateOnAccess to OL
         store.updateModifiedDateOnAccess(0L);
+        scannedPmCount = 0;
+        lastScannedId = null;
+        if (markIncomplete) {
+            // binaries are no longer touched: a paused scan must start over
+            startScanTimestamp = 0;
+            markIncomplete = false;
+        }
+        if (referenceLogMark) {
+            referenceLog.stopTracking();
+            referenceLogMark = false;
+        }
         
         if (listeners.size() > 0) {
             for (Listener listener : listeners) {
@@ -403,8 +721,26 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         if (startScanTimestamp == 0) {
             throw new RepositoryException("scan must be called first");
         }
+        if (markIncomplete) {
+            throw new RepositoryException("scan was paused and must be resumed first");
+        }
+        if (referenceLogMark) {
+            // mark the references that were added during the scan
+            for (String reference : referenceLog.stopTracking()) {
+                checkLengths(InternalValue.create(store, reference).getLength());
+            }
+        }
+        boolean compact = referenceLogMark;
         stopScan();
-        return store.deleteAllOlderThan(startScanTimestamp);
+        int count = store.deleteAllOlderThan(startScanTimestamp);
+        if (compact) {
+            try {
+                referenceLog.compact();
+            } catch (IOException e) {
+                LOG.warn("Could not compact the binary reference log", e);
+            }
+        }
+        return count;
     }
 
     /**
@@ -90,6 +90,20 @@ public abstract class AbstractJournal implements Journal {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * Flag indicating whether change log records are written in compact
+     * encoding. Configurable through the repository.xml; disabled by default
+     * as older cluster nodes are not able to read such records.
+     */
+    private boolean compactRecords;
+
+    /**
+     * Size of a compact change log record, in bytes, from which on it is
+     * deflated. A negative value disables compression. Configurable through
+     * the repository.xml.
+     */
+    private int compressionThreshold = 1024;
+
     /**
      * {@inheritDoc}
      */
@@ -463,4 +477,33 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return <code>true</code> if change log records are written in compact encoding
+      */
+     public boolean isCompactRecords() {
+         return compactRecords;
+     }
+
+     /**
+      * @param compactRecords whether to write change log records in compact encoding
+      */
+     public void setCompactRecords(boolean compactRecords) {
+         this.compactRecords = compactRecords;
+     }
+
+     /**
+      * @return the size in bytes from which on compact records are deflated
+      */
+     public int getCompressionThreshold() {
+         return compressionThreshold;
+     }
+
+     /**
+      * @param compressionThreshold the size in bytes from which on compact
+      *        records are deflated, or a negative value to disable compression
+      */
+     public void setCompressionThreshold(int compressionThreshold) {
+         this.compressionThreshold = compressionThreshold;
+     }
 }
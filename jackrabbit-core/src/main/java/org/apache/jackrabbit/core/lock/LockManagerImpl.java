@@ -22,7 +22,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -37,8 +41,8 @@ import javax.jcr.lock.LockException;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 
-import org.apache.commons.collections.map.LinkedMap;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.NodeImpl;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.SessionListener;
@@ -49,7 +53,6 @@ import org.apache.jackrabbit.core.cluster.LockEventListener;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
-import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.observation.EventImpl;
@@ -61,9 +64,7 @@ import org.apache.jackrabbit.core.state.UpdatableItemStateManager;
 import org.apache.jackrabbit.core.util.XAReentrantLock;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Path;
-import org.apache.jackrabbit.spi.commons.conversion.MalformedPathException;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
-import org.apache.jackrabbit.spi.commons.name.PathMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,12 +85,42 @@ public class LockManagerImpl
     private static final String LOCKS_FILE = "locks";
 
     /**
-     * Path map containing all locks at the leaves.
+     * Name of the folder containing the lock log
      */
-    private final PathMap<LockInfo> lockMap = new PathMap<LockInfo>();
+    private static final String LOCK_LOG_FOLDER = "locks.log";
 
     /**
-     * XA/Thread aware lock to path map.
+     * Default number of lock log entries after which the lock log is
+     * compacted into the locks file.
+     */
+    static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * Map of all live locks, keyed by the id of the locked node.
+     */
+    private final Map<NodeId, LockInfo> lockMap = new HashMap<NodeId, LockInfo>();
+
+    /**
+     * Number of deep locks in the lock map. Unless there is some deep lock,
+     * the ancestors of a node need not be inspected to determine whether it
+     * is locked.
+     */
+    private int deepLocks;
+
+    /**
+     * Number of locked descendants of every node that has some, keyed by
+     * the id of that node. Lets a deep lock check for locked descendants
+     * without inspecting all locks.
+     */
+    private final Map<NodeId, Integer> lockedDescendants = new HashMap<NodeId, Integer>();
+
+    /**
+     * Ancestors of every locked node, as counted in {@link #lockedDescendants}.
+     */
+    private final Map<NodeId, List<NodeId>> lockAncestors = new HashMap<NodeId, List<NodeId>>();
+
+    /**
+     * XA/Thread aware lock to lock map.
      */
     private final XAReentrantLock lockMapLock = new XAReentrantLock();
     
@@ -108,6 +139,11 @@ public class LockManagerImpl
      */
     private final SessionImpl sysSession;
 
+    /**
+     * File system for persisting locks
+     */
+    private final FileSystem fs;
+
     /**
      * Locks file
      */
@@ -118,6 +154,26 @@ public class LockManagerImpl
      */
     private boolean savingDisabled;
 
+    /**
+     * Lock log entries written while saving is disabled.
+     */
+    private final List<String> pendingLogEntries = new ArrayList<String>();
+
+    /**
+     * Sequence number of the next lock log entry.
+     */
+    private long logSequence;
+
+    /**
+     * Number of lock log entries written since the last compaction.
+     */
+    private int logEntries;
+
+    /**
+     * Number of lock log entries after which the lock log is compacted.
+     */
+    private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
     /**
      * Lock event channel.
      */
@@ -136,6 +192,7 @@ public class LockManagerImpl
             ScheduledExecutorService executor) throws RepositoryException {
 
         this.sysSession = session;
+        this.fs = fs;
         this.locksFile = new FileSystemResource(fs, FileSystem.SEPARATOR + LOCKS_FILE);
 
         session.getWorkspace().getObservationManager().
@@ -143,9 +200,7 @@ public class LockManagerImpl
                         "/", true, null, null, true);
 
         try {
-            if (locksFile.exists()) {
-                load();
-            }
+            load();
         } catch (FileSystemException e) {
             throw new RepositoryException("I/O error while reading locks from '"
                     + locksFile.getPath() + "'", e);
@@ -160,7 +215,17 @@ public class LockManagerImpl
      */
     public void close() {
         timeoutHandler.cancel(false);
-        save();
+        compact();
+    }
+
+    /**
+     * Set the number of lock log entries after which the lock log is
+     * compacted into the locks file.
+     *
+     * @param compactionThreshold number of lock log entries
+     */
+    void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
     }
 
     /**
@@ -171,58 +236,89 @@ public class LockManagerImpl
      *      JSR 283: Locking
      */
     private class TimeoutHandler implements Runnable {
-        private final TimeoutHandlerVisitor visitor = new TimeoutHandlerVisitor();
 
         public void run() {
-            lockMap.traverse(visitor, false);
-        }
-    }
-
-    private class TimeoutHandlerVisitor implements
-            PathMap.ElementVisitor<LockInfo> {
-        public void elementVisited(PathMap.Element<LockInfo> element) {
-            LockInfo info = element.get();
-            if (info != null && info.isLive() && info.isExpired()) {
-                NodeId id = info.getId();
-                SessionImpl holder = info.getLockHolder();
-                if (holder == null) {
-                    info.setLockHolder(sysSession);
-                    holder = sysSession;
-                }
-                try {
-                    // FIXME: This session access is not thread-safe!
-                    log.debug("Try to unlock expired lock. NodeId {}", id);
-                    unlock(holder.getNodeById(id));
-                } catch (RepositoryException e) {
-                    log.warn("Unable to expire the lock. NodeId " + id, e);
+            for (LockInfo info : getLockInfos()) {
+                if (info.isLive() && info.isExpired()) {
+                    NodeId id = info.getId();
+                    SessionImpl holder = info.getLockHolder();
+                    if (holder == null) {
+                        info.setLockHolder(sysSession);
+                        holder = sysSession;
+                    }
+                    try {
+                        // FIXME: This session access is not thread-safe!
+                        log.debug("Try to unlock expired lock. NodeId {}", id);
+                        unlock(holder.getNodeById(id));
+                    } catch (RepositoryException e) {
+                        log.warn("Unable to expire the lock. NodeId " + id, e);
+                    }
                 }
             }
         }
     }
 
     /**
-     * Read locks from locks file and populate path map
+     * Read locks from the locks file, replay the lock log and populate the
+     * lock map. If the lock log is not empty, it is compacted afterwards.
      */
     private void load() throws FileSystemException {
-        BufferedReader reader = null;
+        // token -> line of the lock, in the order the locks were created
+        Map<String, String> lines = new LinkedHashMap<String, String>();
 
-        try {
-            reader = new BufferedReader(
-                    new InputStreamReader(locksFile.getInputStream()));
-            while (true) {
-                String s = reader.readLine();
-                if (s == null || s.equals("")) {
-                    break;
+        if (locksFile.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(
+                        new InputStreamReader(locksFile.getInputStream()));
+                while (true) {
+                    String s = reader.readLine();
+                    if (s == null || s.equals("")) {
+                        break;
+                    }
+                    lines.put(getLockToken(s), s);
                 }
-                reapplyLock(s);
+            } catch (IOException e) {
+                throw new FileSystemException("error while reading locks file", e);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+
+        String[] entries = getLogEntries();
+        for (String entry : entries) {
+            String s = readLogEntry(entry);
+            if (s == null || s.length() < 2) {
+                log.warn("Ignoring invalid lock log entry " + entry);
+            } else if (s.charAt(0) == '+') {
+                lines.put(getLockToken(s.substring(1)), s.substring(1));
+            } else {
+                lines.remove(s.substring(1));
             }
-        } catch (IOException e) {
-            throw new FileSystemException("error while reading locks file", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
+        }
+        if (entries.length > 0) {
+            logSequence = Long.parseLong(entries[entries.length - 1]) + 1;
+        }
+
+        for (String s : lines.values()) {
+            reapplyLock(s);
+        }
+        if (entries.length > 0) {
+            compact();
         }
     }
 
+    /**
+     * Return the lock token contained in a line of the locks file.
+     *
+     * @param lockTokenLine line of the locks file
+     * @return lock token
+     */
+    private static String getLockToken(String lockTokenLine) {
+        int comma = lockTokenLine.indexOf(',');
+        return comma == -1 ? lockTokenLine : lockTokenLine.substring(0, comma);
+    }
+
     /**
      * Reaply a lock given a lock token that was read from the locks file
      *
@@ -242,11 +338,10 @@ public class LockManagerImpl
         }
 
         try {
-        	acquire();
-        	
+            acquire();
+
             NodeId id = LockInfo.parseLockToken(parts[0]);
             NodeImpl node = (NodeImpl) sysSession.getItemManager().getItem(id);
-            Path path = getPath(sysSession, id);
 
             InternalLockInfo info = new InternalLockInfo(
                     id, false,
@@ -254,62 +349,172 @@ public class LockManagerImpl
                     node.getProperty(NameConstants.JCR_LOCKOWNER).getString(),
                     timeoutHint);
             info.setLive(true);
-            lockMap.put(path, info);
+            putLockInfo(info);
         } catch (RepositoryException e) {
             log.warn("Unable to recreate lock '" + token + "': " + e.getMessage());
             log.debug("Root cause: ", e);
         } finally {
-        	release();
+            release();
         }
     }
 
     /**
-     * Write locks to locks file
+     * Return the line of the locks file describing an open-scoped lock.
+     *
+     * @param info lock info
+     * @return lock token, followed by the timeout hint if one is specified
+     */
+    private static String getLockTokenLine(LockInfo info) {
+        if (info.getTimeoutHint() != Long.MAX_VALUE) {
+            return info.getLockToken() + "," + info.getTimeoutHint();
+        } else {
+            return info.getLockToken();
+        }
+    }
+
+    /**
+     * Record the creation of an open-scoped lock in the lock log.
+     *
+     * @param info lock info
+     */
+    private void logLocked(LockInfo info) {
+        appendLogEntry("+" + getLockTokenLine(info));
+    }
+
+    /**
+     * Record the removal of an open-scoped lock in the lock log.
+     *
+     * @param info lock info
      */
-    private void save() {
+    private void logUnlocked(LockInfo info) {
+        appendLogEntry("-" + info.getLockToken());
+    }
+
+    /**
+     * Append an entry to the lock log, or remember it until the end of the
+     * current update operation if saving is disabled. Each entry is stored
+     * in a file of its own, as a {@link FileSystem} can not append to an
+     * existing file, so that the cost of a lock change does not depend on
+     * the number of locks. The log is compacted into the locks file once it
+     * has grown beyond the compaction threshold.
+     *
+     * @param entry log entry
+     */
+    private void appendLogEntry(String entry) {
         if (savingDisabled) {
+            pendingLogEntries.add(entry);
             return;
         }
 
-        final ArrayList<LockInfo> list = new ArrayList<LockInfo>();
+        String name = String.format("%016d", logSequence++);
+        FileSystemResource resource = new FileSystemResource(fs,
+                FileSystem.SEPARATOR + LOCK_LOG_FOLDER + FileSystem.SEPARATOR + name);
+        BufferedWriter writer = null;
+        try {
+            resource.makeParentDirs();
+            writer = new BufferedWriter(
+                    new OutputStreamWriter(resource.getOutputStream()));
+            writer.write(entry);
+            writer.newLine();
+        } catch (FileSystemException fse) {
+            log.warn("I/O error while writing lock log entry '"
+                    + resource.getPath() + "': " + fse.getMessage());
+            log.debug("Root cause: ", fse);
+        } catch (IOException ioe) {
+            log.warn("I/O error while writing lock log entry '"
+                    + resource.getPath() + "': " + ioe.getMessage());
+            log.debug("Root cause: ", ioe);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
 
-        lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                LockInfo info = element.get();
-                if (!info.isSessionScoped()) {
-                    list.add(info);
-                }
-            }
-        }, false);
+        if (++logEntries >= compactionThreshold) {
+            compact();
+        }
+    }
 
+    /**
+     * Return the names of all entries of the lock log, in the order they
+     * were written.
+     */
+    private String[] getLogEntries() throws FileSystemException {
+        String folder = FileSystem.SEPARATOR + LOCK_LOG_FOLDER;
+        if (!fs.exists(folder)) {
+            return new String[0];
+        }
+        String[] entries = fs.listFiles(folder);
+        Arrays.sort(entries);
+        return entries;
+    }
 
-        BufferedWriter writer = null;
+    /**
+     * Read an entry of the lock log.
+     *
+     * @param name name of the entry
+     * @return contents of the entry, or <code>null</code> if empty
+     */
+    private String readLogEntry(String name) throws FileSystemException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(fs.getInputStream(
+                    FileSystem.SEPARATOR + LOCK_LOG_FOLDER + FileSystem.SEPARATOR + name)));
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new FileSystemException("error while reading lock log entry " + name, e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Write all open-scoped locks to the locks file and remove the entries
+     * of the lock log. Replaying entries whose removal failed leads to the
+     * same state, so the locks file is always written first.
+     */
+    private void compact() {
+        if (savingDisabled) {
+            return;
+        }
+
+        List<LockInfo> list = new ArrayList<LockInfo>();
+        for (LockInfo info : getLockInfos()) {
+            if (!info.isSessionScoped()) {
+                list.add(info);
+            }
+        }
 
+        BufferedWriter writer = null;
         try {
             writer = new BufferedWriter(
                     new OutputStreamWriter(locksFile.getOutputStream()));
             for (LockInfo info : list) {
-                writer.write(info.getLockToken());
-
-                // Store the timeout hint, if one is specified
-                if (info.getTimeoutHint() != Long.MAX_VALUE) {
-                    writer.write(',');
-                    writer.write(Long.toString(info.getTimeoutHint()));
-                }
-
+                writer.write(getLockTokenLine(info));
                 writer.newLine();
             }
         } catch (FileSystemException fse) {
             log.warn("I/O error while saving locks to '"
                     + locksFile.getPath() + "': " + fse.getMessage());
             log.debug("Root cause: ", fse);
+            return;
         } catch (IOException ioe) {
             log.warn("I/O error while saving locks to '"
                     + locksFile.getPath() + "': " + ioe.getMessage());
             log.debug("Root cause: ", ioe);
+            return;
         } finally {
             IOUtils.closeQuietly(writer);
         }
+
+        try {
+            for (String entry : getLogEntries()) {
+                fs.deleteFile(FileSystem.SEPARATOR + LOCK_LOG_FOLDER
+                        + FileSystem.SEPARATOR + entry);
+            }
+            logEntries = 0;
+        } catch (FileSystemException fse) {
+            log.warn("I/O error while compacting lock log: " + fse.getMessage());
+            log.debug("Root cause: ", fse);
+        }
     }
 
     static SessionLockManager getSessionLockManager(SessionImpl session) throws RepositoryException {
@@ -352,21 +557,20 @@ public class LockManagerImpl
 
         try {
             // check whether node is already locked
-            Path path = getPath(session, node.getId());
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
+            HierarchyManager hmgr = session.getHierarchyManager();
+            NodeId id = node.getNodeId();
 
-            LockInfo other = element.get();
+            LockInfo other = lockMap.get(id);
             if (other != null) {
-                if (element.hasPath(path)) {
-                    other.throwLockException(
-                            "Node already locked: " + node, session);
-                } else if (other.isDeep()) {
-                    other.throwLockException(
-                            "Parent node has a deep lock: " + node, session);
-                }
+                other.throwLockException(
+                        "Node already locked: " + node, session);
+            }
+            other = getInheritedLockInfo(hmgr, id);
+            if (other != null) {
+                other.throwLockException(
+                        "Parent node has a deep lock: " + node, session);
             }
-            if (info.isDeep() && element.hasPath(path)
-                    && element.getChildrenCount() > 0) {
+            if (info.isDeep() && hasLockedDescendant(id)) {
                 info.throwLockException("Some child node is locked", session);
             }
 
@@ -377,10 +581,10 @@ public class LockManagerImpl
             if (!info.isSessionScoped()) {
                 getSessionLockManager(session).lockTokenAdded(info.getLockToken());
             }
-            lockMap.put(path, info);
+            putLockInfo(info);
 
             if (!info.isSessionScoped()) {
-                save();
+                logLocked(info);
                 successful = true;
             }
             return info;
@@ -414,12 +618,7 @@ public class LockManagerImpl
         try {
             SessionImpl session = (SessionImpl) node.getSession();
             // check whether node is locked by this session
-            PathMap.Element<LockInfo> element =
-                lockMap.map(getPath(session, node.getId()), true);
-            if (element == null) {
-                throw new LockException("Node not locked: " + node);
-            }
-            LockInfo info = element.get();
+            LockInfo info = lockMap.get(node.getNodeId());
             if (info == null) {
                 throw new LockException("Node not locked: " + node);
             }
@@ -427,11 +626,11 @@ public class LockManagerImpl
 
             getSessionLockManager(session).lockTokenRemoved(info.getLockToken());
 
-            element.set(null);
+            removeLockInfo(info.getId());
             info.setLive(false);
 
             if (!info.isSessionScoped()) {
-                save();
+                logUnlocked(info);
                 successful = true;
             }
             return true;
@@ -452,17 +651,28 @@ public class LockManagerImpl
      */
     LockInfo[] getLockInfos(final SessionImpl session) {
         final ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
-        lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                LockInfo info = element.get();
-                if (info.isLive() && info.isLockHolder(session)) {
-                    infos.add(info);
-                }
+        for (LockInfo info : getLockInfos()) {
+            if (info.isLive() && info.isLockHolder(session)) {
+                infos.add(info);
             }
-        }, false);
+        }
         return infos.toArray(new LockInfo[infos.size()]);
     }
 
+    /**
+     * Return a copy of all locks in the lock map.
+     *
+     * @return list of lock infos
+     */
+    private List<LockInfo> getLockInfos() {
+        acquire();
+        try {
+            return new ArrayList<LockInfo>(lockMap.values());
+        } finally {
+            release();
+        }
+    }
+
     /**
      * Helper method that copies all the active open-scoped locks from the
      * given source to this lock manager. This method is used when backing
@@ -473,18 +683,16 @@ public class LockManagerImpl
      * @param source source lock manager
      */
     public void copyOpenScopedLocksFrom(LockManagerImpl source) {
-        source.lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                LockInfo info = element.get();
+        acquire();
+        try {
+            for (LockInfo info : source.getLockInfos()) {
                 if (info.isLive() && !info.isSessionScoped()) {
-                    try {
-                        lockMap.put(element.getPath(), info);
-                    } catch (MalformedPathException e) {
-                        log.warn("Ignoring invalid lock path: " + info, e);
-                    }
+                    putLockInfo(info);
                 }
             }
-        }, false);
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -495,25 +703,168 @@ public class LockManagerImpl
      * @throws RepositoryException if an error occurs
      */
     public LockInfo getLockInfo(NodeId id) throws RepositoryException {
-        Path path;
+        acquire();
         try {
-            path = getPath(sysSession, id);
+            return getLockInfo(sysSession.getHierarchyManager(), id);
         } catch (ItemNotFoundException e) {
             return null;
+        } finally {
+            release();
         }
+    }
 
-        acquire();
+    /**
+     * Return the lock information for a node, which is either the lock info
+     * for the node itself or the lock info of a deep locked ancestor. Must
+     * be called while holding the lock on the lock map.
+     *
+     * @param hmgr hierarchy manager used to look up the ancestors
+     * @param id node id
+     * @return lock info or <code>null</code> if node is not locked
+     * @throws ItemNotFoundException if the node does not exist
+     * @throws RepositoryException if another error occurs
+     */
+    private LockInfo getLockInfo(HierarchyManager hmgr, NodeId id)
+            throws ItemNotFoundException, RepositoryException {
+        LockInfo info = lockMap.get(id);
+        if (info != null) {
+            return info;
+        }
+        return getInheritedLockInfo(hmgr, id);
+    }
+
+    /**
+     * Return the lock information of the nearest deep locked ancestor of a
+     * node. Must be called while holding the lock on the lock map.
+     *
+     * @param hmgr hierarchy manager used to look up the ancestors
+     * @param id node id
+     * @return lock info or <code>null</code> if no ancestor is deep locked
+     * @throws ItemNotFoundException if the node does not exist
+     * @throws RepositoryException if another error occurs
+     */
+    private LockInfo getInheritedLockInfo(HierarchyManager hmgr, NodeId id)
+            throws ItemNotFoundException, RepositoryException {
+        if (deepLocks == 0) {
+            return null;
+        }
+        return getDeepLockInfo(hmgr, hmgr.getParentId(id));
+    }
+
+    /**
+     * Return the lock information of the nearest deep locked node, starting
+     * at a given node and walking up its ancestors. Returns immediately if
+     * there are no deep locks at all. Must be called while holding the lock
+     * on the lock map.
+     *
+     * @param hmgr hierarchy manager used to look up the ancestors
+     * @param id id of the first node to inspect, may be <code>null</code>
+     * @return lock info or <code>null</code> if neither the node nor one of
+     *         its ancestors is deep locked
+     * @throws RepositoryException if an error occurs
+     */
+    private LockInfo getDeepLockInfo(HierarchyManager hmgr, NodeId id)
+            throws RepositoryException {
+        while (deepLocks > 0 && id != null) {
+            LockInfo info = lockMap.get(id);
+            if (info != null && info.isDeep()) {
+                return info;
+            }
+            id = hmgr.getParentId(id);
+        }
+        return null;
+    }
+
+    /**
+     * Return a flag indicating whether some descendant of a node is locked.
+     * Must be called while holding the lock on the lock map.
+     *
+     * @param id node id
+     * @return <code>true</code> if some descendant is locked
+     */
+    private boolean hasLockedDescendant(NodeId id) {
+        return lockedDescendants.containsKey(id);
+    }
+
+    /**
+     * Add a lock to the lock map, replacing an existing lock on the same
+     * node. Must be called while holding the lock on the lock map.
+     *
+     * @param info lock info
+     */
+    private void putLockInfo(LockInfo info) {
+        LockInfo previous = lockMap.put(info.getId(), info);
+        if (previous == null) {
+            addLockAncestors(info.getId());
+        } else if (previous.isDeep()) {
+            deepLocks--;
+        }
+        if (info.isDeep()) {
+            deepLocks++;
+        }
+    }
+
+    /**
+     * Remove a lock from the lock map. Must be called while holding the
+     * lock on the lock map.
+     *
+     * @param id id of the locked node
+     * @return lock info that was removed or <code>null</code>
+     */
+    private LockInfo removeLockInfo(NodeId id) {
+        LockInfo info = lockMap.remove(id);
+        if (info != null) {
+            removeLockAncestors(id);
+            if (info.isDeep()) {
+                deepLocks--;
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Count a locked node as descendant of each of its ancestors, walking
+     * them by parent id. Must be called while holding the lock on the lock
+     * map.
+     *
+     * @param id id of the locked node
+     */
+    private void addLockAncestors(NodeId id) {
+        List<NodeId> ancestors = new ArrayList<NodeId>();
         try {
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info != null) {
-                if (element.hasPath(path) || info.isDeep()) {
-                    return info;
-                }
+            HierarchyManager hmgr = sysSession.getHierarchyManager();
+            for (NodeId parentId = hmgr.getParentId(id); parentId != null;
+                    parentId = hmgr.getParentId(parentId)) {
+                ancestors.add(parentId);
+            }
+        } catch (RepositoryException e) {
+            log.warn("Unable to determine ancestors of locked node " + id, e);
+        }
+        for (NodeId ancestorId : ancestors) {
+            Integer count = lockedDescendants.get(ancestorId);
+            lockedDescendants.put(ancestorId, (count == null) ? 1 : count + 1);
+        }
+        lockAncestors.put(id, ancestors);
+    }
+
+    /**
+     * Undo {@link #addLockAncestors(NodeId)} for a node that is no longer
+     * locked. Must be called while holding the lock on the lock map.
+     *
+     * @param id id of the formerly locked node
+     */
+    private void removeLockAncestors(NodeId id) {
+        List<NodeId> ancestors = lockAncestors.remove(id);
+        if (ancestors == null) {
+            return;
+        }
+        for (NodeId ancestorId : ancestors) {
+            Integer count = lockedDescendants.get(ancestorId);
+            if (count == null || count <= 1) {
+                lockedDescendants.remove(ancestorId);
+            } else {
+                lockedDescendants.put(ancestorId, count - 1);
             }
-            return null;
-        } finally {
-            release();
         }
     }
 
@@ -545,11 +896,9 @@ public class LockManagerImpl
 
         try {
             SessionImpl session = (SessionImpl) node.getSession();
-            Path path = getPath(session, node.getId());
-
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info != null && (element.hasPath(path) || info.isDeep())) {
+            LockInfo info = getLockInfo(
+                    session.getHierarchyManager(), node.getNodeId());
+            if (info != null) {
                 NodeImpl lockHolder = (NodeImpl)
                     session.getItemManager().getItem(info.getId());
                 return new LockImpl(info, lockHolder);
@@ -604,15 +953,7 @@ public class LockManagerImpl
         acquire();
 
         try {
-            SessionImpl session = (SessionImpl) node.getSession();
-            PathMap.Element<LockInfo> element =
-                lockMap.map(getPath(session, node.getId()), true);
-            if (element == null) {
-                return false;
-            }
-            return element.get() != null;
-        } catch (ItemNotFoundException e) {
-            return false;
+            return lockMap.containsKey(node.getNodeId());
         } finally {
             release();
         }
@@ -626,18 +967,8 @@ public class LockManagerImpl
 
         try {
             SessionImpl session = (SessionImpl) node.getSession();
-            Path path = getPath(session, node.getId());
-
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info == null) {
-                return false;
-            }
-            if (element.hasPath(path)) {
-                return true;
-            } else {
-                return info.isDeep();
-            }
+            return getLockInfo(
+                    session.getHierarchyManager(), node.getNodeId()) != null;
         } catch (ItemNotFoundException e) {
             return false;
         } finally {
@@ -652,7 +983,16 @@ public class LockManagerImpl
             throws LockException, RepositoryException {
 
         SessionImpl session = (SessionImpl) node.getSession();
-        checkLock(getPath(session, node.getId()), session);
+        acquire();
+        try {
+            LockInfo info = getLockInfo(
+                    session.getHierarchyManager(), node.getNodeId());
+            if (info != null) {
+                checkLock(info, session);
+            }
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -661,14 +1001,24 @@ public class LockManagerImpl
     public void checkLock(Path path, Session session)
             throws LockException, RepositoryException {
 
+        HierarchyManager hmgr = ((SessionImpl) session).getHierarchyManager();
         acquire();
         try {
-            PathMap.Element<LockInfo> element = lockMap.map(path, false);
-            LockInfo info = element.get();
-            if (info != null) {
-                if (element.hasPath(path) || info.isDeep()) {
-                    checkLock(info, session);
+            LockInfo info;
+            NodeId id = hmgr.resolveNodePath(path);
+            if (id != null) {
+                info = getLockInfo(hmgr, id);
+            } else {
+                // node does not exist: only a deep lock on its nearest
+                // existing ancestor applies
+                while (id == null && deepLocks > 0 && path.getDepth() > 0) {
+                    path = path.getAncestor(1);
+                    id = hmgr.resolveNodePath(path);
                 }
+                info = getDeepLockInfo(hmgr, id);
+            }
+            if (info != null) {
+                checkLock(info, session);
             }
         } finally {
             release();
@@ -704,12 +1054,7 @@ public class LockManagerImpl
         
         try {
             // check whether node is locked by this session
-            PathMap.Element<LockInfo> element =
-                lockMap.map(getPath((SessionImpl) session, node.getId()), true);
-            if (element == null) {
-                throw new LockException("Node not locked: " + node);
-            }
-            LockInfo info = element.get();
+            LockInfo info = lockMap.get(node.getNodeId());
             if (info == null) {
                 throw new LockException("Node not locked: " + node);
             }
@@ -749,22 +1094,19 @@ public class LockManagerImpl
             
             NodeId id = LockInfo.parseLockToken(lt);
 
-            NodeImpl node = (NodeImpl) sysSession.getItemManager().getItem(id);
-            Path path = node.getPrimaryPath();
-            PathMap.Element<LockInfo> element = lockMap.map(path, true);
-            if (element != null) {
-                LockInfo info = element.get();
-                if (info != null && !info.isLockHolder(session)) {
-                    if (info.getLockHolder() == null) {
-                        info.setLockHolder(session);
-                        if (info instanceof InternalLockInfo) {
-                            session.addListener((InternalLockInfo) info);
-                        }
-                    } else {
-                        String msg = "Cannot add lock token: lock already held by other session.";
-                        log.warn(msg);
-                        info.throwLockException(msg, session);
+            // make sure the node exists
+            sysSession.getItemManager().getItem(id);
+            LockInfo info = lockMap.get(id);
+            if (info != null && !info.isLockHolder(session)) {
+                if (info.getLockHolder() == null) {
+                    info.setLockHolder(session);
+                    if (info instanceof InternalLockInfo) {
+                        session.addListener((InternalLockInfo) info);
                     }
+                } else {
+                    String msg = "Cannot add lock token: lock already held by other session.";
+                    log.warn(msg);
+                    info.throwLockException(msg, session);
                 }
             }
             // inform SessionLockManager
@@ -789,19 +1131,16 @@ public class LockManagerImpl
             
             NodeId id = LockInfo.parseLockToken(lt);
 
-            NodeImpl node = (NodeImpl) sysSession.getItemManager().getItem(id);
-            PathMap.Element<LockInfo> element =
-                lockMap.map(node.getPrimaryPath(), true);
-            if (element != null) {
-                LockInfo info = element.get();
-                if (info != null) {
-                    if (info.isLockHolder(session)) {
-                        info.setLockHolder(null);
-                    } else if (info.getLockHolder() != null) {
-                        String msg = "Cannot remove lock token: lock held by other session.";
-                        log.warn(msg);
-                        info.throwLockException(msg, session);
-                    }
+            // make sure the node exists
+            sysSession.getItemManager().getItem(id);
+            LockInfo info = lockMap.get(id);
+            if (info != null) {
+                if (info.isLockHolder(session)) {
+                    info.setLockHolder(null);
+                } else if (info.getLockHolder() != null) {
+                    String msg = "Cannot remove lock token: lock held by other session.";
+                    log.warn(msg);
+                    info.throwLockException(msg, session);
                 }
             }
             // inform SessionLockManager
@@ -815,14 +1154,6 @@ public class LockManagerImpl
         }
     }
 
-    /**
-     * Return the path of an item given its id. This method will lookup the
-     * item inside the system session.
-     */
-    private Path getPath(SessionImpl session, ItemId id) throws RepositoryException {
-        return session.getHierarchyManager().getPath(id);
-    }
-
     /**
      * Acquire lock on the lock map.
      */
@@ -867,7 +1198,7 @@ public class LockManagerImpl
 
     /**
      * Start an update operation. This will acquire the lock on the lock map
-     * and disable saving the lock map file.
+     * and defer writing to the lock log.
      */
     public void beginUpdate() {
         acquire();
@@ -875,12 +1206,15 @@ public class LockManagerImpl
     }
 
     /**
-     * End an update operation. This will save the lock map file and release
-     * the lock on the lock map.
+     * End an update operation. This will write the lock log entries of the
+     * update and release the lock on the lock map.
      */
     public void endUpdate() {
         savingDisabled = false;
-        save();
+        for (String entry : pendingLogEntries) {
+            appendLogEntry(entry);
+        }
+        pendingLogEntries.clear();
         release();
     }
 
@@ -889,6 +1223,7 @@ public class LockManagerImpl
      */
     public void cancelUpdate() {
         savingDisabled = false;
+        pendingLogEntries.clear();
         release();
     }
 
@@ -1016,99 +1351,20 @@ public class LockManagerImpl
 
     //----------------------------------------------< SynchronousEventListener >
 
-    /**
-     * Internal event class that holds old and new paths for moved nodes
-     */
-    private static class HierarchyEvent {
-
-        /**
-         * ID recorded in event
-         */
-        private final NodeId id;
-
-        /**
-         * Path recorded in event
-         */
-        private final Path path;
-
-        /**
-         * Old path in move operation
-         */
-        private Path oldPath;
-
-        /**
-         * New path in move operation
-         */
-        private Path newPath;
-
-        /**
-         * Event type, may be {@link Event#NODE_ADDED},
-         * {@link Event#NODE_REMOVED} or a combination of both
-         */
-        private int type;
-
-        /**
-         * Create a new instance of this class.
-         *
-         * @param id id
-         * @param path path
-         * @param type event type
-         */
-        public HierarchyEvent(NodeId id, Path path, int type) {
-            this.id = id;
-            this.path = path;
-            this.type = type;
-        }
-
-        /**
-         * Merge this event with another event. The result will be stored in
-         * this event
-         *
-         * @param event other event to merge with
-         */
-        public void merge(HierarchyEvent event) {
-            type |= event.type;
-            if (event.type == Event.NODE_ADDED) {
-                newPath = event.path;
-                oldPath = path;
-            } else {
-                oldPath = event.path;
-                newPath = path;
-            }
-        }
-
-        /**
-         * Return the old path if this is a move operation
-         *
-         * @return old path
-         */
-        public Path getOldPath() {
-            return oldPath;
-        }
-
-        /**
-         * Return the new path if this is a move operation
-         *
-         * @return new path
-         */
-        public Path getNewPath() {
-            return newPath;
-        }
-    }
-
     /**
      * {@inheritDoc}
+     * <p>
+     * As locks are indexed by node id, nodes being added or moved do not
+     * affect the lock map. Moving a node that is locked or has locked
+     * descendants updates the ancestors counted for these locks. Locks on
+     * nodes that have been removed are discarded.
      */
     public void onEvent(EventIterator events) {
-        Iterator<HierarchyEvent> iter = consolidateEvents(events);
-        while (iter.hasNext()) {
-            HierarchyEvent event = iter.next();
-            if (event.type == Event.NODE_ADDED) {
-                nodeAdded(event.path);
-            } else if (event.type == Event.NODE_REMOVED) {
-                nodeRemoved(event.path);
-            } else if (event.type == (Event.NODE_ADDED | Event.NODE_REMOVED)) {
-                nodeMoved(event.getOldPath(), event.getNewPath());
+        for (Map.Entry<NodeId, Integer> entry : consolidateEvents(events).entrySet()) {
+            if (entry.getValue() == Event.NODE_REMOVED) {
+                nodeRemoved(entry.getKey());
+            } else if (entry.getValue() == (Event.NODE_ADDED | Event.NODE_REMOVED)) {
+                nodeMoved(entry.getKey());
             }
         }
     }
@@ -1117,152 +1373,87 @@ public class LockManagerImpl
      * Consolidate an event iterator obtained from observation, merging
      * add and remove operations on nodes with the same UUID into a move
      * operation.
+     *
+     * @return map of node ids to the combined event types
      */
-    @SuppressWarnings("unchecked")
-	private Iterator<HierarchyEvent> consolidateEvents(EventIterator events) {
-        LinkedMap eventMap = new LinkedMap();
+    private Map<NodeId, Integer> consolidateEvents(EventIterator events) {
+        Map<NodeId, Integer> types = new LinkedHashMap<NodeId, Integer>();
 
         while (events.hasNext()) {
             EventImpl event = (EventImpl) events.nextEvent();
-            HierarchyEvent he;
-
-            try {
-                he = new HierarchyEvent(event.getChildId(),
-                        sysSession.getQPath(event.getPath()).getNormalizedPath(),
-                        event.getType());
-            } catch (MalformedPathException e) {
-                log.info("Unable to get event's path: " + e.getMessage());
-                continue;
-            } catch (RepositoryException e) {
-                log.info("Unable to get event's path: " + e.getMessage());
-                continue;
-            }
-
-            HierarchyEvent heExisting = (HierarchyEvent) eventMap.get(he.id);
-            if (heExisting != null) {
-                heExisting.merge(he);
+            Integer type = types.get(event.getChildId());
+            if (type != null) {
+                types.put(event.getChildId(), type | event.getType());
             } else {
-                eventMap.put(he.id, he);
-            }
-        }
-        return eventMap.values().iterator();
-    }
-
-    /**
-     * Refresh a non-empty path element whose children might have changed
-     * its position.
-     */
-    private void refresh(PathMap.Element<LockInfo> element) {
-        final ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
-        boolean needsSave = false;
-
-        // save away non-empty children
-        element.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                infos.add(element.get());
-            }
-        }, false);
-
-        // remove all children
-        element.removeAll();
-
-        // now re-insert at appropriate location or throw away if node
-        // does no longer exist
-        for (int i = 0; i < infos.size(); i++) {
-            LockInfo info = infos.get(i);
-            try {
-            	acquire();
-            	
-                NodeImpl node = (NodeImpl) sysSession.getItemManager().getItem(
-                        info.getId());
-                lockMap.put(node.getPrimaryPath(), info);
-            } catch (RepositoryException e) {
-                info.setLive(false);
-                if (!info.isSessionScoped()) {
-                    needsSave = true;
-                }
-            } finally {
-            	release();
+                types.put(event.getChildId(), event.getType());
             }
         }
-
-        // save if required
-        if (needsSave) {
-            save();
-        }
+        return types;
     }
 
     /**
-     * Invoked when some node has been added. If the parent of that node
-     * exists, shift all name siblings of the new node having an index greater
-     * or equal.
+     * Invoked when some node has been moved. Count the locks on that node
+     * and on its descendants for their new ancestors.
      *
-     * @param path path of added node
+     * @param id id of moved node
      */
-    private void nodeAdded(Path path) {
+    private void nodeMoved(NodeId id) {
         acquire();
 
         try {
-            PathMap.Element<LockInfo> parent =
-                lockMap.map(path.getAncestor(1), true);
-            if (parent != null) {
-                refresh(parent);
+            if (!lockMap.containsKey(id) && !lockedDescendants.containsKey(id)) {
+                return;
             }
-        } catch (RepositoryException e) {
-            log.warn("Unable to determine path of added node's parent.", e);
-        } finally {
-            release();
-        }
-    }
-
-    /**
-     * Invoked when some node has been moved. Relink the child inside our
-     * map to the new parent.
-     *
-     * @param oldPath old path
-     * @param newPath new path
-     */
-    private void nodeMoved(Path oldPath, Path newPath) {
-        acquire();
-
-        try {
-            PathMap.Element<LockInfo> parent =
-                lockMap.map(oldPath.getAncestor(1), true);
-            if (parent != null) {
-                refresh(parent);
+            List<NodeId> moved = new ArrayList<NodeId>();
+            for (Map.Entry<NodeId, List<NodeId>> entry : lockAncestors.entrySet()) {
+                if (entry.getKey().equals(id) || entry.getValue().contains(id)) {
+                    moved.add(entry.getKey());
+                }
+            }
+            for (NodeId lockedId : moved) {
+                removeLockAncestors(lockedId);
+                addLockAncestors(lockedId);
             }
-        } catch (RepositoryException e) {
-            log.warn("Unable to determine path of moved node's parent.", e);
         } finally {
             release();
         }
     }
 
     /**
-     * Invoked when some node has been removed. Remove the child from our
-     * path map. Disable all locks contained in that subtree.
+     * Invoked when some node has been removed. Disable the lock on that
+     * node, unless the node still exists, which is the case when only one
+     * of the shares of a shareable node was removed.
      *
-     * @param path path of removed node
+     * @param id id of removed node
      */
-    private void nodeRemoved(Path path) {
+    private void nodeRemoved(NodeId id) {
         acquire();
 
         try {
-            PathMap.Element<LockInfo> parent =
-                lockMap.map(path.getAncestor(1), true);
-            if (parent != null) {
-                refresh(parent);
+            LockInfo info = lockMap.get(id);
+            if (info == null) {
+                return;
+            }
+            try {
+                sysSession.getHierarchyManager().getParentId(id);
+                return;
+            } catch (ItemNotFoundException e) {
+                // node no longer exists
+            }
+            removeLockInfo(id);
+            info.setLive(false);
+            if (!info.isSessionScoped()) {
+                logUnlocked(info);
             }
         } catch (RepositoryException e) {
-            log.warn("Unable to determine path of removed node's parent.", e);
+            log.warn("Unable to determine whether removed node still exists.", e);
         } finally {
             release();
         }
     }
 
     /**
-     * Contains information about a lock and gets placed inside the child
-     * information of a {@link org.apache.jackrabbit.spi.commons.name.PathMap}.
+     * Contains information about a lock and gets placed inside the lock map.
      */
     class InternalLockInfo extends LockInfo implements SessionListener {
 
@@ -1348,15 +1539,16 @@ public class LockManagerImpl
         acquire();
 
         try {
-            Path path = getPath(sysSession, nodeId);
+            // make sure the node exists
+            sysSession.getHierarchyManager().getParentId(nodeId);
 
             // create lock token
             InternalLockInfo info = new InternalLockInfo(
                     nodeId, false, isDeep, lockOwner, Long.MAX_VALUE);
             info.setLive(true);
-            lockMap.put(path, info);
+            putLockInfo(info);
 
-            save();
+            logLocked(info);
         } finally {
             release();
         }
@@ -1369,19 +1561,13 @@ public class LockManagerImpl
         acquire();
 
         try {
-            Path path = getPath(sysSession, nodeId);
-            PathMap.Element<LockInfo> element = lockMap.map(path, true);
-            if (element == null) {
-                throw new LockException("Node not locked: " + path.toString());
-            }
-            LockInfo info = element.get();
+            LockInfo info = removeLockInfo(nodeId);
             if (info == null) {
-                throw new LockException("Node not locked: " + path.toString());
+                throw new LockException("Node not locked: " + nodeId);
             }
-            element.set(null);
             info.setLive(false);
 
-            save();
+            logUnlocked(info);
 
         } finally {
             release();
@@ -1389,27 +1575,16 @@ public class LockManagerImpl
     }
 
     /**
-     * Dump contents of path map and elements included to a string.
+     * Dump contents of lock map to a string.
      */
     public String toString() {
-        final StringBuilder builder = new StringBuilder();
-        lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                for (int i = 0; i < element.getDepth(); i++) {
-                    builder.append("--");
-                }
-                builder.append(element.getName());
-                int index = element.getIndex();
-                if (index != 0 && index != 1) {
-                    builder.append('[');
-                    builder.append(index);
-                    builder.append(']');
-                }
-                builder.append("  ");
-                builder.append(element.get());
-                builder.append("\n");
-            }
-        }, true);
+        StringBuilder builder = new StringBuilder();
+        for (LockInfo info : getLockInfos()) {
+            builder.append(info.getId());
+            builder.append("  ");
+            builder.append(info);
+            builder.append("\n");
+        }
         return builder.toString();
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Collection;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * A persistence manager that can list the data store references of the
+ * stored nodes without loading the node and property states. Used by the
+ * data store garbage collection.
+ */
+public interface BinaryReferenceScanner extends IterablePersistenceManager {
+
+    /**
+     * Reads the data store references of the binary properties of the
+     * nodes after the given node id, in the order of
+     * {@link #getAllNodeIds(NodeId, int)}. A typical application will call
+     * this method multiple times, where 'after' is the node id returned by
+     * the previous call.
+     *
+     * @param after the lower limit, or null for no limit.
+     * @param maxCount the maximum number of nodes to read, or 0 for no limit.
+     * @param references the collection to add the references to. The
+     *          references are the string representations of the binary
+     *          values, as accepted by
+     *          {@link org.apache.jackrabbit.core.value.InternalValue#create(org.apache.jackrabbit.core.data.DataStore, String)}.
+     * @return the id of the last node read, or null if there were no more nodes.
+     * @throws ItemStateException if an error while loading occurs.
+     * @throws RepositoryException if a repository exception occurs.
+     */
+    NodeId getAllBinaryReferences(
+            NodeId after, int maxCount, Collection<String> references)
+            throws ItemStateException, RepositoryException;
+
+}
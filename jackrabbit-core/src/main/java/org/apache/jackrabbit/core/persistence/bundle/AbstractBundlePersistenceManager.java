@@ -20,6 +20,7 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -41,7 +42,7 @@ import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
-import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.BinaryReferenceScanner;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
@@ -95,7 +96,7 @@ import org.slf4j.LoggerFactory;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager, CacheAccessListener, ConsistencyChecker {
+    PersistenceManager, CachingPersistenceManager, BinaryReferenceScanner, CacheAccessListener, ConsistencyChecker {
 
     /** the audit logger */
     private static Logger auditLogger = LoggerFactory.getLogger("org.apache.jackrabbit.core.audit");
@@ -382,6 +383,28 @@ public abstract class AbstractBundlePersistenceManager implements
         return infos;
     }
 
+    //----------------------------------------------< BinaryReferenceScanner >--
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation loads the bundles. Subclasses may override it
+     * to read only the references from the serialized bundles.
+     */
+    public NodeId getAllBinaryReferences(
+            NodeId after, int maxCount, Collection<String> references)
+            throws ItemStateException, RepositoryException {
+        NodeId last = null;
+        for (NodeId nodeId : getAllNodeIds(after, maxCount)) {
+            last = nodeId;
+            NodePropBundle bundle = loadBundle(nodeId);
+            if (bundle != null) {
+                bundle.collectBinaryReferences(references);
+            }
+        }
+        return last;
+    }
+
     //----------------------------------------------------------------< spi >---
 
     /**
@@ -26,6 +26,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -876,6 +877,61 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation reads only the references from the serialized
+     * bundles.
+     */
+    @Override
+    public synchronized NodeId getAllBinaryReferences(
+            NodeId bigger, int maxCount, Collection<String> references)
+            throws ItemStateException {
+        ResultSet rs = null;
+        try {
+            String sql = bundleSelectAllBundlesSQL;
+            NodeId lowId = null;
+            Object[] keys = new Object[0];
+            if (bigger != null) {
+                sql = bundleSelectAllBundlesFromSQL;
+                lowId = bigger;
+                keys = getKey(bigger);
+            }
+            int fetch = maxCount;
+            if (getStorageModel() == SM_LONGLONG_KEYS && maxCount > 0) {
+                // get some more rows, in case the first row is smaller
+                // see also getAllNodeIds
+                fetch += 10;
+            }
+            rs = conHelper.exec(sql, keys, false, fetch);
+            NodeId last = null;
+            int count = 0;
+            while ((maxCount == 0 || count < maxCount) && rs.next()) {
+                NodeId current;
+                if (getStorageModel() == SM_BINARY_KEYS) {
+                    current = new NodeId(rs.getBytes(1));
+                } else {
+                    current = new NodeId(rs.getLong(1), rs.getLong(2));
+                    // skip the keys that are smaller or equal (see above)
+                    if (lowId != null && current.compareTo(lowId) <= 0) {
+                        continue;
+                    }
+                }
+                readBinaryReferences(current, rs,
+                        getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2, references);
+                last = current;
+                count++;
+            }
+            return last;
+        } catch (SQLException e) {
+            String msg = "getAllBinaryReferences failed.";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -936,6 +992,32 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * Reads the binary references of the serialized bundle in the given
+     * column of the result set.
+     */
+    private void readBinaryReferences(NodeId id, ResultSet rs, int column,
+            Collection<String> references) throws SQLException {
+        try {
+            InputStream in;
+            if (rs.getMetaData().getColumnType(column) == Types.BLOB) {
+                in = rs.getBlob(column).getBinaryStream();
+            } else {
+                in = rs.getBinaryStream(column);
+            }
+            try {
+                binding.readBinaryReferences(in, id, references);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            SQLException exception =
+                new SQLException("Failed to parse bundle " + id);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.persistence.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
@@ -152,6 +153,21 @@ public class BundleBinding {
         return new BundleReader(this, in).readBundle(id);
     }
 
+    /**
+     * Reads the data store references of the binary properties of a
+     * serialized bundle, without deserializing the whole bundle.
+     *
+     * @param in the input stream
+     * @param id the node id of the bundle
+     * @param references the collection to add the references to
+     * @throws IOException if an I/O error occurs.
+     */
+    public void readBinaryReferences(
+            InputStream in, NodeId id, Collection<String> references)
+            throws IOException {
+        new BundleReader(this, in).readBinaryReferences(id, references);
+    }
+
     /**
      * Serializes a <code>NodePropBundle</code> to a data output stream
      *
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
@@ -152,6 +153,109 @@ class BundleReader {
         return bundle;
     }
 
+    /**
+     * Reads only the data store references of the binary properties of a
+     * bundle, without creating the bundle, its names and other values.
+     * The child node entries and the shared set are not read at all.
+     *
+     * @param id the node id of the bundle
+     * @param references the collection to add the references to
+     * @throws IOException if an I/O error occurs.
+     */
+    public void readBinaryReferences(NodeId id, Collection<String> references)
+            throws IOException {
+        if (version < BundleBinding.VERSION_3) {
+            readBundle(id).collectBinaryReferences(references);
+            return;
+        }
+
+        // node type
+        skipName();
+
+        // parentUUID
+        skipBytes(16);
+
+        // modcount
+        readVarInt();
+
+        int b = in.readUnsignedByte();
+
+        // mixin types
+        int mn = readVarInt((b >> 7) & 1, 1);
+        for (int i = 0; i < mn; i++) {
+            skipName();
+        }
+
+        // properties
+        int pn = readVarInt((b >> 4) & 7, 7);
+        for (int i = 0; i < pn; i++) {
+            skipName();
+            readBinaryReferences(references);
+        }
+    }
+
+    /**
+     * Reads the data store references of a property entry written using
+     * bundle serialization version 3, and skips all other values.
+     *
+     * @param references the collection to add the references to
+     * @throws IOException if an I/O error occurs.
+     */
+    private void readBinaryReferences(Collection<String> references)
+            throws IOException {
+        int b = in.readUnsignedByte();
+        int type = b & 0x0f;
+        int count = 1;
+        int len = b >>> 4;
+        if (len == 0x0f) {
+            count = readVarInt() + 0x0f - 1;
+        } else if (len != 0) {
+            count = len - 1;
+        }
+
+        // modcount
+        readVarInt();
+
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case PropertyType.BINARY:
+                    int size = in.readInt();
+                    if (size == BundleBinding.BINARY_IN_DATA_STORE) {
+                        references.add(readString());
+                    } else if (size == BundleBinding.BINARY_IN_BLOB_STORE) {
+                        skipBytes(readVarInt());
+                    } else {
+                        skipBytes(size);
+                    }
+                    break;
+                case PropertyType.DOUBLE:
+                    skipBytes(8);
+                    break;
+                case PropertyType.DECIMAL:
+                    if (in.readBoolean()) {
+                        skipBytes(readVarInt());
+                    }
+                    break;
+                case PropertyType.LONG:
+                case PropertyType.DATE:
+                    readVarLong();
+                    break;
+                case PropertyType.BOOLEAN:
+                    skipBytes(1);
+                    break;
+                case PropertyType.NAME:
+                    skipName();
+                    break;
+                case PropertyType.WEAKREFERENCE:
+                case PropertyType.REFERENCE:
+                    skipBytes(16);
+                    break;
+                default:
+                    skipBytes(readVarInt());
+            }
+        }
+    }
+
     private void readBundleNew(NodePropBundle bundle) throws IOException {
         // node type
         bundle.setNodeTypeName(readName());
@@ -525,6 +629,45 @@ class BundleReader {
         }
     }
 
+    /**
+     * Skips a name written using bundle serialization version 3. Namespaces
+     * are still remembered, as later names may refer to them.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void skipName() throws IOException {
+        int b = in.readUnsignedByte();
+        if ((b & 0x80) != 0) {
+            int ns = (b >> 4) & 0x07;
+            if (ns >= namespaces.length || namespaces[ns] == null) {
+                String uri = readString();
+                if (ns < namespaces.length) {
+                    namespaces[ns] = uri;
+                }
+            }
+            skipBytes(readVarInt((b & 0x0f) + 1, 0x10));
+        }
+    }
+
+    /**
+     * Skips the given number of bytes.
+     *
+     * @param n number of bytes to skip
+     * @throws IOException if an I/O error occurs, or the end of the stream
+     *                     is reached
+     */
+    private void skipBytes(int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                // at the end of the stream this throws an EOFException
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
     /**
      * Deserializes a variable-length integer written using bundle
      * serialization version 3.
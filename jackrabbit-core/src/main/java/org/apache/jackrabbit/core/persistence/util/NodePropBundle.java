@@ -359,6 +359,24 @@ public class NodePropBundle {
         return properties.get(name);
     }
 
+    /**
+     * Adds the data store references of the binary properties of this
+     * bundle to the given collection.
+     *
+     * @param references the collection to add the references to
+     */
+    public void collectBinaryReferences(Collection<String> references) {
+        for (PropertyEntry entry : properties.values()) {
+            if (entry.getType() == PropertyType.BINARY) {
+                for (InternalValue value : entry.getValues()) {
+                    if (value.isInDataStore()) {
+                        references.add(value.toString());
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Removes all property entries
      *
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
@@ -49,8 +50,10 @@ import org.apache.jackrabbit.spi.commons.conversion.PathResolver;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -783,6 +786,47 @@ public class MultiIndex {
         return ConsistencyCheck.run(this, handler, excludedIDs);
     }
 
+    /**
+     * Writes a copy of this index to a directory in the file system. Pending
+     * changes are flushed first, and updates of this index are blocked until
+     * the copy is complete. Only the current generation of the index infos
+     * and the sub indexes it refers to are copied; the index history is not,
+     * so an index opened from the copy starts with an empty history.
+     *
+     * @param target the target directory.
+     * @throws IOException if an error occurs while flushing or copying.
+     */
+    void createSnapshot(File target) throws IOException {
+        synchronized (this) {
+            flush();
+
+            Directory dest = FSDirectory.open(target);
+            try {
+                indexDir.copy(dest, indexNames.getFileName(), indexNames.getFileName());
+            } finally {
+                dest.close();
+            }
+            Iterator<IndexInfo> iterator = indexNames.iterator();
+            while (iterator.hasNext()) {
+                String name = iterator.next().getName();
+                Directory src = directoryManager.getDirectory(name);
+                dest = FSDirectory.open(new File(target, name));
+                try {
+                    for (String file : src.listAll()) {
+                        if (!IndexWriter.WRITE_LOCK_NAME.equals(file)) {
+                            src.copy(dest, file, file);
+                        }
+                    }
+                } finally {
+                    dest.close();
+                    src.close();
+                }
+            }
+            log.info("Created snapshot of index generation {} in {}",
+                    indexNames.getGeneration(), target);
+        }
+    }
+
     /**
      * Closes this <code>MultiIndex</code>.
      */
@@ -1150,6 +1150,19 @@ public class SearchIndex extends AbstractQueryHandler {
         return index.runConsistencyCheck();
     }
 
+    /**
+     * Writes a copy of this search index to a directory in the file system.
+     * A search index configured with a copy of that directory as its
+     * <code>path</code> opens it instead of building a new index.
+     *
+     * @param directory the target directory.
+     * @throws IOException if an error occurs while writing the copy.
+     */
+    public void createSnapshot(File directory) throws IOException {
+        checkOpen();
+        index.createSnapshot(directory);
+    }
+
     /**
      * Returns an index reader for this search index. The caller of this method
      * is responsible for closing the index reader when he is finished using
@@ -25,6 +25,7 @@ import org.apache.jackrabbit.spi.Path;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
+import java.util.BitSet;
 
 /**
  * The <code>AccessManager</code> can be queried to determines whether privileges
@@ -180,6 +181,32 @@ public interface AccessManager {
      */
     boolean isGranted(Path parentPath, Name childName, int permissions) throws RepositoryException;
 
+    /**
+     * Determines whether the specified <code>permissions</code> are granted
+     * on each of the items with the specified paths, e.g. the child items of
+     * a node. This is equivalent to calling {@link #isGranted(Path, int)} for
+     * every path, but allows the evaluation of common ancestors to be shared.
+     * The default implementation calls {@link #isGranted(Path, int)} for each
+     * path.
+     *
+     * @param absPaths    the absolute paths of existing items to test
+     * @param permissions A combination of one or more of the
+     * {@link org.apache.jackrabbit.core.security.authorization.Permission}
+     * constants encoded as a bitmask value.
+     * @return a bit set where the bit at the index of a path is set if the
+     * specified permissions are granted on that item.
+     * @throws RepositoryException if an error occurs.
+     */
+    default BitSet getGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        BitSet granted = new BitSet(absPaths.length);
+        for (int i = 0; i < absPaths.length; i++) {
+            if (isGranted(absPaths[i], permissions)) {
+                granted.set(i);
+            }
+        }
+        return granted;
+    }
+
     /**
      * Determines whether the item with the specified <code>itemPath</code>
      * or <code>itemId</code> can be read. Either of the two parameters
@@ -201,6 +228,29 @@ public interface AccessManager {
      */
     boolean canRead(Path itemPath, ItemId itemId) throws RepositoryException;
 
+    /**
+     * Determines whether each of the persisted items with the specified ids
+     * can be read. This is equivalent to calling
+     * {@link #canRead(Path, ItemId)} for every id, but allows the evaluation
+     * of common ancestors to be shared. The default implementation calls
+     * {@link #canRead(Path, ItemId)} for each id.
+     *
+     * @param itemIds Ids of the items to be tested.
+     * @return a bit set where the bit at the index of an id is set if the
+     * item can be read.
+     * @throws RepositoryException if an item doesn't exist or if another
+     * error occurs.
+     */
+    default BitSet canRead(ItemId[] itemIds) throws RepositoryException {
+        BitSet readable = new BitSet(itemIds.length);
+        for (int i = 0; i < itemIds.length; i++) {
+            if (canRead(null, itemIds[i])) {
+                readable.set(i);
+            }
+        }
+        return readable;
+    }
+
     /**
      * Determines whether the subject of the current context is granted access
      * to the given workspace. Note that an implementation is free to test for
@@ -48,6 +48,7 @@ import javax.security.auth.Subject;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -98,6 +99,11 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
      */
     private HierarchyManager hierMgr;
 
+    /**
+     * the session this manager has been created for
+     */
+    private Session session;
+
     /**
      * The privilege manager
      */
@@ -133,6 +139,7 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
 
         resolver = amContext.getNamePathResolver();
         hierMgr = amContext.getHierarchyManager();
+        session = amContext.getSession();
 
         Subject subject = amContext.getSubject();
         if (subject == null) {
@@ -171,6 +178,7 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         compiledPermissions.close();
 
         hierMgr = null;
+        session = null;
         acProvider = null;
         editor = null;
         wspAccess = null;
@@ -266,6 +274,47 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         }
     }
 
+    /**
+     * @see AccessManager#getGranted(Path[], int)
+     */
+    public BitSet getGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        checkInitialized();
+        for (Path absPath : absPaths) {
+            if (!absPath.isAbsolute()) {
+                throw new RepositoryException("Absolute path expected");
+            }
+        }
+        return compiledPermissions.getGranted(absPaths, permissions);
+    }
+
+    /**
+     * @see AccessManager#canRead(ItemId[])
+     */
+    public BitSet canRead(ItemId[] itemIds) throws RepositoryException {
+        checkInitialized();
+        if (compiledPermissions.canReadAll()) {
+            BitSet readable = new BitSet(itemIds.length);
+            readable.set(0, itemIds.length);
+            return readable;
+        } else if (session.hasPendingChanges()) {
+            // the transient path of an item may denote another persisted
+            // item, which the paths are evaluated for: evaluate by id
+            BitSet readable = new BitSet(itemIds.length);
+            for (int i = 0; i < itemIds.length; i++) {
+                if (compiledPermissions.canRead(null, itemIds[i])) {
+                    readable.set(i);
+                }
+            }
+            return readable;
+        } else {
+            Path[] paths = new Path[itemIds.length];
+            for (int i = 0; i < itemIds.length; i++) {
+                paths[i] = hierMgr.getPath(itemIds[i]);
+            }
+            return compiledPermissions.getGranted(paths, Permission.READ);
+        }
+    }
+
     /**
      * @see AccessManager#canAccess(String)
      */
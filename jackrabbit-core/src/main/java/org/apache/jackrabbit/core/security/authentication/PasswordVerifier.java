@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication;
+
+import org.apache.jackrabbit.core.security.user.PasswordUtility;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>PasswordVerifier</code> compares passwords with password hashes for
+ * {@link SimpleCredentialsAuthentication}. Computing the iterated hash of a
+ * password is expensive on purpose, and many concurrent logins would
+ * otherwise compute them on all the login threads at the same time.
+ * <p>
+ * The hashes are computed by a pool with a limited number of threads and a
+ * bounded queue, while the login thread waits for the result. If the queue is
+ * full, or if a verification didn't start within the configured timeout, the
+ * hash is computed on the login thread instead, such that an overload slows
+ * down logins but doesn't fail them. Optionally an overload is reported as an
+ * error instead, which fails the login without checking the password.
+ * Passwords that were verified recently are
+ * recognized without computing the iterated hash. The cache only contains a
+ * digest of the password hash and the password with a random secret, and as
+ * the password hash is part of the key, changing the password invalidates
+ * the entry.
+ * <p>
+ * The verifier is configured with the following system properties with the
+ * prefix <code>org.apache.jackrabbit.core.security.authentication.PasswordVerifier.</code>:
+ * <ul>
+ * <li><code>parallelism</code>: the number of threads, by default the number
+ * of processors. With 0 the hashes are computed on the login thread.</li>
+ * <li><code>queueSize</code>: the number of waiting verifications, 100 by default.</li>
+ * <li><code>timeout</code>: the maximum time in milliseconds a login waits
+ * for a verification to start, 10000 by default.</li>
+ * <li><code>rejectOnOverload</code>: whether an overload fails the login
+ * instead of computing the hash on the login thread, false by default.</li>
+ * <li><code>cacheExpiration</code>: the time in milliseconds a verified
+ * password is cached, 60000 by default. With 0 nothing is cached.</li>
+ * <li><code>cacheSize</code>: the maximum number of cached passwords, 10000 by default.</li>
+ * </ul>
+ */
+class PasswordVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordVerifier.class);
+
+    private static final String PREFIX = "org.apache.jackrabbit.core.security.authentication.PasswordVerifier.";
+
+    static final int PARALLELISM = Integer.getInteger(PREFIX + "parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    static final int QUEUE_SIZE = Integer.getInteger(PREFIX + "queueSize", 100);
+
+    static final long TIMEOUT = Long.getLong(PREFIX + "timeout", 10000);
+
+    static final boolean REJECT_ON_OVERLOAD = Boolean.getBoolean(PREFIX + "rejectOnOverload");
+
+    static final long CACHE_EXPIRATION = Long.getLong(PREFIX + "cacheExpiration", 60000);
+
+    static final int CACHE_SIZE = Integer.getInteger(PREFIX + "cacheSize", 10000);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static PasswordVerifier instance;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long timeout;
+
+    private final boolean rejectOnOverload;
+
+    private final long cacheExpiration;
+
+    private final int cacheSize;
+
+    /**
+     * Expiration times of recently verified passwords, by digest.
+     */
+    private final ConcurrentMap<String, Long> verified = new ConcurrentHashMap<String, Long>();
+
+    private final byte[] secret = new byte[16];
+
+    /**
+     * Statistics
+     */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong verificationTime = new AtomicLong();
+
+    /**
+     * @param parallelism The number of threads computing hashes, or 0 to
+     * compute them on the calling thread.
+     * @param queueSize The maximum number of waiting verifications.
+     * @param timeout The maximum time in milliseconds to wait for a
+     * verification to start.
+     * @param rejectOnOverload Whether an overload is reported as an error
+     * instead of computing the hash on the calling thread.
+     * @param cacheExpiration The time in milliseconds a verified password is
+     * cached, or 0 to disable caching.
+     * @param cacheSize The maximum number of cached passwords.
+     */
+    PasswordVerifier(int parallelism, int queueSize, long timeout,
+                     boolean rejectOnOverload, long cacheExpiration, int cacheSize) {
+        if (parallelism > 0) {
+            executor = new ThreadPoolExecutor(parallelism, parallelism,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "jackrabbit-password-verifier-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+        this.timeout = timeout;
+        this.rejectOnOverload = rejectOnOverload;
+        this.cacheExpiration = cacheExpiration;
+        this.cacheSize = cacheSize;
+        new SecureRandom().nextBytes(secret);
+    }
+
+    /**
+     * @return the verifier configured with the system properties.
+     */
+    static synchronized PasswordVerifier getInstance() {
+        if (instance == null) {
+            instance = new PasswordVerifier(PARALLELISM, QUEUE_SIZE, TIMEOUT,
+                    REJECT_ON_OVERLOAD, CACHE_EXPIRATION, CACHE_SIZE);
+            log.debug("Password verifier initialized. Parallelism = {}, Queue Size = {}",
+                    PARALLELISM, QUEUE_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns <code>true</code> if the hash of the given password equals
+     * the given password hash.
+     *
+     * @param hashedPassword The password hash.
+     * @param password The password to compare.
+     * @return <code>true</code> if the password matches, <code>false</code>
+     * otherwise.
+     * @throws RepositoryException if too many passwords are being verified
+     * and overloads are rejected, or if the calling thread is interrupted.
+     * @see PasswordUtility#isSame(String, String)
+     */
+    boolean isSame(final String hashedPassword, final String password)
+            throws RepositoryException {
+        String key = null;
+        if (cacheExpiration > 0) {
+            key = getCacheKey(hashedPassword, password);
+            Long expiration = (key == null) ? null : verified.get(key);
+            if (expiration != null) {
+                if (expiration > System.currentTimeMillis()) {
+                    cacheHits.incrementAndGet();
+                    return true;
+                }
+                verified.remove(key, expiration);
+            }
+        }
+
+        boolean isSame;
+        if (executor == null) {
+            isSame = verify(hashedPassword, password);
+        } else {
+            final long submitted = System.nanoTime();
+            // claimed by the thread that verifies the password
+            final AtomicBoolean claimed = new AtomicBoolean();
+            Future<Boolean> result;
+            try {
+                result = executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        if (!claimed.compareAndSet(false, true)) {
+                            // verified by the login thread after the timeout
+                            return null;
+                        }
+                        waitTime.addAndGet(System.nanoTime() - submitted);
+                        return verify(hashedPassword, password);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                result = null;
+            }
+            if (result == null) {
+                isSame = verifyOnOverload(hashedPassword, password, "the queue is full");
+            } else {
+                updateMax(maxQueueDepth, executor.getQueue().size());
+                isSame = getResult(result, claimed, hashedPassword, password);
+            }
+        }
+
+        if (isSame && key != null) {
+            if (verified.size() >= cacheSize) {
+                purge();
+            }
+            verified.put(key, System.currentTimeMillis() + cacheExpiration);
+        }
+        return isSame;
+    }
+
+    private boolean getResult(Future<Boolean> result, AtomicBoolean claimed,
+                              String hashedPassword, String password)
+            throws RepositoryException {
+        try {
+            try {
+                return result.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    // the verification didn't start yet
+                    result.cancel(false);
+                    executor.purge();
+                    timedOut.incrementAndGet();
+                    return verifyOnOverload(hashedPassword, password,
+                            "it didn't start within " + timeout + " ms");
+                }
+                return result.get();
+            }
+        } catch (InterruptedException e) {
+            if (claimed.compareAndSet(false, true)) {
+                result.cancel(false);
+                executor.purge();
+            }
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while verifying the password", e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Password verification failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new RepositoryException("Password verification cancelled", e);
+        }
+    }
+
+    private boolean verifyOnOverload(String hashedPassword, String password, String reason)
+            throws RepositoryException {
+        if (rejectOnOverload) {
+            log.warn("Too many concurrent logins: password verification rejected as {}.", reason);
+            throw new RepositoryException(
+                    "Too many concurrent logins: password verification rejected");
+        }
+        log.debug("Too many concurrent logins: verifying password on the login thread as {}.", reason);
+        return verify(hashedPassword, password);
+    }
+
+    private boolean verify(String hashedPassword, String password) {
+        long start = System.nanoTime();
+        try {
+            return PasswordUtility.isSame(hashedPassword, password);
+        } finally {
+            verifications.incrementAndGet();
+            verificationTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private String getCacheKey(String hashedPassword, String password) {
+        StringBuilder data = new StringBuilder();
+        data.append(hashedPassword).append('\n').append(password);
+        try {
+            byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] salted = new byte[secret.length + bytes.length];
+            System.arraycopy(secret, 0, salted, 0, secret.length);
+            System.arraycopy(bytes, 0, salted, secret.length, bytes.length);
+            return Text.digest(DIGEST_ALGORITHM, salted);
+        } catch (NoSuchAlgorithmException e) {
+            log.debug("Unable to cache verified passwords: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the expired entries, or all entries if none has expired.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Iterator<Map.Entry<String, Long>> it = verified.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue() <= now) {
+                it.remove();
+                removed++;
+            }
+        }
+        if (removed == 0) {
+            verified.clear();
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of verifications waiting for a thread.
+     */
+    int getQueueDepth() {
+        return (executor == null) ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return the maximum number of verifications that were waiting at the same time.
+     */
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of computed password hashes.
+     */
+    long getVerificationCount() {
+        return verifications.get();
+    }
+
+    /**
+     * @return the number of passwords recognized as recently verified.
+     */
+    long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return the number of verifications the pool rejected because the
+     * queue was full.
+     */
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of verifications not started within the timeout.
+     */
+    long getTimeoutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return the total time in milliseconds verifications waited for a thread.
+     */
+    long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    /**
+     * @return the total time in milliseconds spent computing password hashes.
+     */
+    long getVerificationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(verificationTime.get());
+    }
+
+    /**
+     * Stops the threads of this verifier.
+     */
+    void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        verified.clear();
+    }
+}
@@ -87,26 +87,24 @@ class SimpleCredentialsAuthentication implements Authentication {
      * If the specified <code>credentials</code> are an instance of
      * <code>SimpleCredentials</code> and match the user's credentials this
      * method returns <code>true</code>; otherwise <code>false</code>.
+     * The password is verified by the {@link PasswordVerifier}, which limits
+     * the number of password hashes computed concurrently.
      *
      * @param credentials Credentials to be used for the authentication.
      * @return true if the given Credentials' UserID/Password pair match
      * the credentials attached to the user this SimpleCredentialsAuthentication
      * has been built for.
-     * @throws RepositoryException If an error occurs.
+     * @throws RepositoryException If an error occurs, e.g. if the password
+     * could not be verified because of too many concurrent logins.
      */
     public boolean authenticate(Credentials credentials) throws RepositoryException {
         if (!(credentials instanceof SimpleCredentials)) {
             throw new RepositoryException("SimpleCredentials expected. Cannot handle " + credentials.getClass().getName());
         }
-        try {
-            if (creds != null && creds.matches((SimpleCredentials) credentials)) {
-                return true;
-            }
-        } catch (NoSuchAlgorithmException e) {
-            log.debug("Failed to verify Credentials with {}: {}.", credentials.toString(), e);
-        } catch (UnsupportedEncodingException e) {
-            log.debug("Failed to verify Credentials with {}: {}.", credentials.toString(), e);
-        }
-        return false;
+        SimpleCredentials sc = (SimpleCredentials) credentials;
+        // same as CryptedSimpleCredentials#matches(SimpleCredentials)
+        return creds != null
+                && creds.getUserID().equalsIgnoreCase(sc.getUserID())
+                && PasswordVerifier.getInstance().isSame(creds.getPassword(), String.valueOf(sc.getPassword()));
     }
 }
@@ -37,7 +37,8 @@ import org.slf4j.LoggerFactory;
  * given user node to the token present in the SimpleCredentials attributes.
  * Authentication succeeds if the login token refers to a non-expired
  * token node and if all other credential attributes are equal to the
- * corresponding properties.
+ * corresponding properties. Tokens that have been verified by a system
+ * session are kept in the {@link TokenCache}.
  */
 public class TokenBasedAuthentication implements Authentication {
 
@@ -66,7 +67,8 @@ public class TokenBasedAuthentication implements Authentication {
         if (compatMode()) {
             this.tokenInfo = new CompatTokenProvider((SessionImpl) session, tokenExpiration).getTokenInfo(token);
         } else {
-            this.tokenInfo = new TokenProvider((SessionImpl) session, tokenExpiration).getTokenInfo(token);
+            SessionImpl sImpl = (SessionImpl) session;
+            this.tokenInfo = new TokenProvider(sImpl, tokenExpiration, TokenCache.getInstance(sImpl)).getTokenInfo(token);
         }
 
     }
@@ -206,6 +208,15 @@ public class TokenBasedAuthentication implements Authentication {
             if (!(session instanceof JackrabbitSession)) {
                 throw new RepositoryException("JackrabbitSession expected");
             }
+            if (session instanceof SessionImpl) {
+                TokenCache tokenCache = TokenCache.getInstance((SessionImpl) session);
+                if (tokenCache != null) {
+                    TokenProvider.TokenInfoImpl info = tokenCache.get(tokenCredentials.getToken());
+                    if (info != null) {
+                        return info.getUserId();
+                    }
+                }
+            }
             NodeImpl n = (NodeImpl) getTokenNode(tokenCredentials, session);
             return TokenProvider.getUserId(n, ((JackrabbitSession) session).getUserManager());
         }
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication.token;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.SessionListener;
+import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.apache.jackrabbit.core.security.user.UserManagerImpl;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>TokenCache</code> keeps the login tokens that have been verified
+ * against their token node in memory, such that subsequent logins with the
+ * same token neither read the token node nor compute the hash of the token
+ * key again. There is one cache per system session, i.e. per workspace that
+ * is used for authentication.
+ * <p>
+ * Refreshed expiration times are written to the token nodes in the background
+ * after a short delay, all refreshes of that period with a single save.
+ * Cached tokens are removed if their token node is removed or modified by
+ * anyone else, including changes made on other cluster nodes.
+ */
+class TokenCache implements SynchronousEventListener, SessionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenCache.class);
+
+    /**
+     * Whether token logins of system sessions are cached, true by default.
+     */
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+            "org.apache.jackrabbit.core.security.authentication.token.TokenCache.enabled",
+            "true"));
+
+    /**
+     * The maximum number of cached tokens.
+     */
+    static final int MAX_SIZE = Integer.getInteger(
+            "org.apache.jackrabbit.core.security.authentication.token.TokenCache.size",
+            10000);
+
+    /**
+     * The delay in milliseconds after which refreshed expiration times are
+     * written.
+     */
+    static final long FLUSH_DELAY = Long.getLong(
+            "org.apache.jackrabbit.core.security.authentication.token.TokenCache.flushDelay",
+            1000);
+
+    /**
+     * The user data of the events caused by writing expiration times, which
+     * don't invalidate the cache.
+     */
+    static final String USER_DATA = TokenCache.class.getName();
+
+    private static final Map<SessionImpl, TokenCache> CACHES = new HashMap<SessionImpl, TokenCache>();
+
+    private final SessionImpl systemSession;
+
+    private final TokenProvider writer;
+
+    private final ConcurrentCache<String, TokenProvider.TokenInfoImpl> cache;
+
+    /**
+     * The expiration times to be written, by path of the token node.
+     */
+    private final ConcurrentMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Statistics
+     */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    TokenCache(SessionImpl systemSession) throws RepositoryException {
+        this.systemSession = systemSession;
+        writer = new TokenProvider(systemSession, TokenBasedAuthentication.TOKEN_EXPIRATION);
+        cache = new ConcurrentCache<String, TokenProvider.TokenInfoImpl>("TokenCache", 16);
+        cache.setMaxMemorySize(MAX_SIZE);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jackrabbit-token-cache");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        String usersPath = "/";
+        UserManager userManager = systemSession.getUserManager();
+        if (userManager instanceof UserManagerImpl) {
+            usersPath = ((UserManagerImpl) userManager).getUsersPath();
+        }
+        // the identifier of a property event is the one of the token node.
+        systemSession.getWorkspace().getObservationManager().addEventListener(this,
+                Event.NODE_REMOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED,
+                usersPath,
+                true,
+                null,
+                null,
+                false);
+        systemSession.addListener(this);
+        log.debug("Token cache initialized. Max Size = {}", MAX_SIZE);
+    }
+
+    /**
+     * Returns the token cache of the given session.
+     *
+     * @param session The session used for authentication.
+     * @return The cache or <code>null</code> if the session is not a system
+     * session or if caching is disabled.
+     * @throws RepositoryException If an error occurs.
+     */
+    static TokenCache getInstance(SessionImpl session) throws RepositoryException {
+        if (!ENABLED || !session.isSystem() || !session.isLive()) {
+            return null;
+        }
+        synchronized (CACHES) {
+            TokenCache tokenCache = CACHES.get(session);
+            if (tokenCache == null) {
+                tokenCache = new TokenCache(session);
+                CACHES.put(session, tokenCache);
+            }
+            return tokenCache;
+        }
+    }
+
+    /**
+     * Returns the cached token information, if the given token has already
+     * been verified.
+     *
+     * @param token The login token.
+     * @return The token information or <code>null</code>.
+     */
+    TokenProvider.TokenInfoImpl get(String token) {
+        TokenProvider.TokenInfoImpl info = cache.get(TokenProvider.getTokenId(token));
+        if (info != null && MessageDigest.isEqual(
+                info.getToken().getBytes(), token.getBytes())) {
+            hits.incrementAndGet();
+            return info;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds token information whose token has been verified.
+     *
+     * @param info
+     */
+    void put(TokenProvider.TokenInfoImpl info) {
+        cache.put(TokenProvider.getTokenId(info.getToken()), info, 1);
+    }
+
+    /**
+     * Removes the token with the given node identifier and drops its pending
+     * expiration time.
+     *
+     * @param tokenId The identifier of the token node.
+     * @return true if the token was cached.
+     */
+    boolean remove(String tokenId) {
+        TokenProvider.TokenInfoImpl info = cache.remove(tokenId);
+        if (info != null) {
+            pending.remove(info.getTokenPath());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Schedules writing the expiration time of a token node. The expiration
+     * times set for the same node before they are written are coalesced.
+     *
+     * @param tokenPath The path of the token node.
+     * @param expirationTime The new expiration time.
+     */
+    void setExpirationTime(String tokenPath, long expirationTime) {
+        pending.put(tokenPath, expirationTime);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // executor shut down: write synchronously
+                flushScheduled.set(false);
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending expiration times.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        Map<String, Long> expirations = new HashMap<String, Long>();
+        for (Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Long> entry = it.next();
+            expirations.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        if (!expirations.isEmpty()) {
+            try {
+                writer.writeExpirationTimes(expirations, USER_DATA);
+                writes.incrementAndGet();
+                log.debug("Written expiration time of {} tokens.", expirations.size());
+            } catch (RepositoryException e) {
+                log.warn("Error while writing token expiration times", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of lookups of a verified token.
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups of a token that was not verified before.
+     */
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of saves of expiration times.
+     */
+    long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * @return the number of expiration times not yet written.
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops listening to events and writes the pending expiration times.
+     */
+    void dispose() {
+        synchronized (CACHES) {
+            CACHES.remove(systemSession);
+        }
+        try {
+            systemSession.getWorkspace().getObservationManager().removeEventListener(this);
+        } catch (RepositoryException e) {
+            log.error("Unexpected error: Failed to stop event listening of TokenCache.", e);
+        }
+        executor.shutdown();
+        flush();
+        cache.clear();
+    }
+
+    //------------------------------------------------------< EventListener >---
+    /**
+     * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+     */
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event ev = events.nextEvent();
+            try {
+                if (USER_DATA.equals(ev.getUserData())) {
+                    continue;
+                }
+                if (remove(ev.getIdentifier()) || ev.getType() != Event.NODE_REMOVED) {
+                    continue;
+                }
+                // a removed ancestor of token nodes, e.g. a user.
+                String path = ev.getPath();
+                for (Map.Entry<String, TokenProvider.TokenInfoImpl> entry : cache.entries().entrySet()) {
+                    if (Text.isDescendant(path, entry.getValue().getTokenPath())) {
+                        remove(entry.getKey());
+                    }
+                }
+            } catch (RepositoryException e) {
+                log.warn(e.getMessage());
+                // exception while processing the event -> clear the cache to
+                // be sure it isn't outdated.
+                cache.clear();
+            }
+        }
+    }
+
+    //----------------------------------------------------< SessionListener >---
+    /**
+     * @see SessionListener#loggingOut(org.apache.jackrabbit.core.SessionImpl)
+     */
+    public void loggingOut(SessionImpl session) {
+        dispose();
+    }
+
+    /**
+     * @see SessionListener#loggedOut(org.apache.jackrabbit.core.SessionImpl)
+     */
+    public void loggedOut(SessionImpl session) {
+        // nothing to do
+    }
+}
@@ -96,11 +96,25 @@ public class TokenProvider extends ProtectedItemModifier {
     private final SessionImpl session;
     private final UserManager userManager;
     private final long tokenExpiration;
+    private final TokenCache tokenCache;
 
     TokenProvider(SessionImpl session, long tokenExpiration) throws RepositoryException {
+        this(session, tokenExpiration, null);
+    }
+
+    /**
+     * @param session
+     * @param tokenExpiration
+     * @param tokenCache The cache of verified tokens or <code>null</code>.
+     * If present the token information is looked up in the cache first and
+     * refreshed expiration times are written in the background.
+     * @throws RepositoryException
+     */
+    TokenProvider(SessionImpl session, long tokenExpiration, TokenCache tokenCache) throws RepositoryException {
         this.session = session;
         this.userManager = session.getUserManager();
         this.tokenExpiration = tokenExpiration;
+        this.tokenCache = tokenCache;
     }
 
     /**
@@ -204,6 +218,12 @@ public class TokenProvider extends ProtectedItemModifier {
         if (token == null) {
             return null;
         }
+        if (tokenCache != null) {
+            TokenInfo info = tokenCache.get(token);
+            if (info != null) {
+                return info;
+            }
+        }
         NodeImpl tokenNode = (NodeImpl) getTokenNode(token, session);
         String userId = getUserId(tokenNode, userManager);
         if (userId == null || !isValidTokenTree(tokenNode)) {
@@ -214,9 +234,12 @@ public class TokenProvider extends ProtectedItemModifier {
     }
 
     static Node getTokenNode(String token, Session session) throws RepositoryException {
+        return session.getNodeByIdentifier(getTokenId(token));
+    }
+
+    static String getTokenId(String token) {
         int pos = token.indexOf(DELIM);
-        String id = (pos == -1) ? token : token.substring(0, pos);
-        return session.getNodeByIdentifier(id);
+        return (pos == -1) ? token : token.substring(0, pos);
     }
 
     static String getUserId(NodeImpl tokenNode, UserManager userManager) throws RepositoryException {
@@ -308,6 +331,32 @@ public class TokenProvider extends ProtectedItemModifier {
         }
     }
 
+    /**
+     * Writes the given expiration times of token nodes with a single save.
+     * Token nodes that don't exist any more are ignored.
+     *
+     * @param expirationTimes The expiration times by path of the token node.
+     * @param userData The user data of the resulting events.
+     * @throws RepositoryException If an error occurs.
+     */
+    void writeExpirationTimes(Map<String, Long> expirationTimes, String userData) throws RepositoryException {
+        Session s = session.createSession(session.getWorkspace().getName());
+        try {
+            s.getWorkspace().getObservationManager().setUserData(userData);
+            Name expiry = session.getQName(TOKEN_ATTRIBUTE_EXPIRY);
+            for (Map.Entry<String, Long> entry : expirationTimes.entrySet()) {
+                if (s.nodeExists(entry.getKey())) {
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTimeInMillis(entry.getValue());
+                    setProperty((NodeImpl) s.getNode(entry.getKey()), expiry, s.getValueFactory().createValue(cal));
+                }
+            }
+            s.save();
+        } finally {
+            s.logout();
+        }
+    }
+
     private NodeImpl getTokenParent(User user) throws RepositoryException {
         NodeImpl tokenParent = null;
         String parentPath = null;
@@ -340,15 +389,20 @@ public class TokenProvider extends ProtectedItemModifier {
         return tokenParent;
     }
 
-    private class TokenInfoImpl implements TokenInfo {
+    class TokenInfoImpl implements TokenInfo {
 
         private final String token;
         private final String tokenPath;
         private final String userId;
 
-        private final long expirationTime;
+        private volatile long expirationTime;
         private final String key;
 
+        /**
+         * Whether the token key has been verified.
+         */
+        private volatile boolean verified;
+
         private final Map<String, String> mandatoryAttributes;
         private final Map<String, String> publicAttributes;
 
@@ -384,6 +438,14 @@ public class TokenProvider extends ProtectedItemModifier {
             return token;
         }
 
+        String getTokenPath() {
+            return tokenPath;
+        }
+
+        String getUserId() {
+            return userId;
+        }
+
         public boolean isExpired(long loginTime) {
             return expirationTime < loginTime;
         }
@@ -394,6 +456,15 @@ public class TokenProvider extends ProtectedItemModifier {
                 return false;
             }
 
+            if (tokenCache != null && expirationTime - loginTime <= tokenExpiration / 2) {
+                // the cached expiration time applies immediately, the
+                // token node is updated in the background.
+                expirationTime = createExpirationTime(loginTime, tokenExpiration);
+                tokenCache.setExpirationTime(tokenPath, expirationTime);
+                log.debug("Scheduled reset of token expiration time.");
+                return true;
+            }
+
             Session s = null;
             try {
                 if (expirationTime - loginTime <= tokenExpiration / 2) {
@@ -415,12 +486,18 @@ public class TokenProvider extends ProtectedItemModifier {
 
         public boolean matches(TokenCredentials tokenCredentials) {
             String tk = tokenCredentials.getToken();
-            int pos = tk.lastIndexOf(DELIM);
-            if (pos > -1) {
-                tk = tk.substring(pos + 1);
-            }
-            if (key == null || !PasswordUtility.isSame(key, getKeyValue(tk, userId))) {
-                return false;
+            if (!verified || !token.equals(tk)) {
+                int pos = tk.lastIndexOf(DELIM);
+                if (pos > -1) {
+                    tk = tk.substring(pos + 1);
+                }
+                if (key == null || !PasswordUtility.isSame(key, getKeyValue(tk, userId))) {
+                    return false;
+                }
+                if (tokenCache != null && token.equals(tokenCredentials.getToken())) {
+                    verified = true;
+                    tokenCache.put(this);
+                }
             }
 
             for (String name : mandatoryAttributes.keySet()) {
@@ -443,6 +520,9 @@ public class TokenProvider extends ProtectedItemModifier {
         }
 
         public boolean remove() {
+            if (tokenCache != null) {
+                tokenCache.remove(getTokenId(token));
+            }
             Session s = null;
             try {
                 s = session.createSession(session.getWorkspace().getName());
@@ -21,6 +21,7 @@ import org.apache.jackrabbit.core.id.ItemId;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.security.Privilege;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Set;
 
@@ -53,6 +54,30 @@ public interface CompiledPermissions {
      */
     boolean grants(Path absPath, int permissions) throws RepositoryException;
 
+    /**
+     * Evaluates the specified permissions for a number of items at once,
+     * e.g. for the child items of a node, which allows implementations to
+     * share the evaluation of common ancestors. The default implementation
+     * calls {@link #grants(Path, int)} for each path.
+     *
+     * @param absPaths Absolute paths pointing to existing items.
+     * @param permissions A combination of one or more of permission constants
+     * defined by {@link Permission} encoded as a bitmask value
+     * @return A bit set where the bit at the index of a path is set if the
+     * specified permissions are granted on the item at that path.
+     * @throws RepositoryException if an error occurs.
+     * @see #grants(Path, int)
+     */
+    default BitSet getGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        BitSet granted = new BitSet(absPaths.length);
+        for (int i = 0; i < absPaths.length; i++) {
+            if (grants(absPaths[i], permissions)) {
+                granted.set(i);
+            }
+        }
+        return granted;
+    }
+
     /**
      * Returns the <code>Privilege</code> bits granted by the underlying policy
      * if the given <code>absPath</code>.
@@ -131,6 +156,9 @@ public interface CompiledPermissions {
             // deny everything
             return false;
         }
+        public BitSet getGranted(Path[] absPaths, int permissions) {
+            return new BitSet(absPaths.length);
+        }
         public int getPrivileges(Path absPath) {
             return PrivilegeRegistry.NO_PRIVILEGE;
         }
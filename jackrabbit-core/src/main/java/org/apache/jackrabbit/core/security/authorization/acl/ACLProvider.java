@@ -105,6 +105,13 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
      */
     private EntryCollector entryCollector;
 
+    /**
+     * Cache of the evaluated permissions shared by the
+     * <code>CompiledPermissionsImpl</code> of all sessions, or <code>null</code>
+     * if disabled.
+     */
+    private CompiledPermissionsCache permissionsCache;
+
     /**
      * controls if unknown principals are allowed in ACLs
      */
@@ -132,11 +139,18 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         }
 
         entryCollector = createEntryCollector(session);
+        if (CompiledPermissionsCache.ENABLED) {
+            permissionsCache = new CompiledPermissionsCache(session.getHierarchyManager(), CompiledPermissionsImpl.MAX_CACHE_SIZE);
+            entryCollector.addListener(permissionsCache);
+        }
     }
 
     @Override
     public void close() {
         super.close();        
+        if (permissionsCache != null) {
+            entryCollector.removeListener(permissionsCache);
+        }
         entryCollector.close();
     }
 
@@ -251,7 +265,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         } else if (isReadOnly(principals)) {
             return getReadOnlyPermissions();
         } else {
-            return new CompiledPermissionsImpl(principals, session, entryCollector, this, true);
+            return new CompiledPermissionsImpl(principals, session, entryCollector, this, true, permissionsCache);
         }
     }
 
@@ -263,7 +277,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         if (isAdminOrSystem(principals)) {
             return true;
         } else {
-            CompiledPermissions cp = new CompiledPermissionsImpl(principals, session, entryCollector, this, false);
+            CompiledPermissions cp = new CompiledPermissionsImpl(principals, session, entryCollector, this, false, permissionsCache);
             try {
                 return cp.canRead(null, rootNodeId);
             } finally {
@@ -16,7 +16,14 @@
  */
 package org.apache.jackrabbit.core.security.authorization.acl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -27,6 +34,8 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cache.GrowingLRUMap;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.PathMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +57,12 @@ class CachingEntryCollector extends EntryCollector {
      */
     private final EntryCache cache;
 
+    /**
+     * Index of the entries defined along the paths of evaluated nodes, or
+     * <code>null</code> if disabled.
+     */
+    private final EntryIndex index;
+
     private ConcurrentMap<NodeId, FutureEntries> futures = new ConcurrentHashMap<NodeId, FutureEntries>();
     private final String strategy;
     private final boolean cacheNoAcl;
@@ -76,15 +91,62 @@ class CachingEntryCollector extends EntryCollector {
         cacheNoAcl = Boolean.parseBoolean(System.getProperty(propname, "false"));
 
         log.info("Caching entries with no ACLs: " + cacheNoAcl);
+
+        propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.pathIndex";
+        boolean pathIndex = Boolean.parseBoolean(System.getProperty(propname, "true"));
+        index = (pathIndex) ? new EntryIndex() : null;
+
+        log.info("Path index of entries: " + pathIndex);
     }
 
     @Override
     protected void close() {
         super.close();
         cache.clear();
+        if (index != null) {
+            index.clear();
+        }
     }
 
     //-----------------------------------------------------< EntryCollector >---
+    /**
+     * Collects the entries along the path of the given node from the
+     * {@link EntryIndex}, if enabled. Nodes whose entries are not defined for
+     * any of the principals of the filter are skipped.
+     *
+     * @see EntryCollector#collectEntries(org.apache.jackrabbit.core.NodeImpl, EntryFilter)
+     */
+    @Override
+    protected List<Entry> collectEntries(NodeImpl node, EntryFilter filter) throws RepositoryException {
+        if (index == null || node == null) {
+            return super.collectEntries(node, filter);
+        }
+
+        Collection<String> principalNames = null;
+        if (filter instanceof EntryFilterImpl) {
+            principalNames = ((EntryFilterImpl) filter).getPrincipalNames();
+        }
+
+        LinkedList<Entry> userAces = new LinkedList<Entry>();
+        LinkedList<Entry> groupAces = new LinkedList<Entry>();
+        IndexedEntries[] path = index.get(node);
+        // start with the entries defined at the node itself
+        for (int i = path.length - 1; i >= 0; i--) {
+            IndexedEntries ie = path[i];
+            if (ie.aces.isEmpty()) {
+                continue;
+            }
+            if (principalNames == null || !Collections.disjoint(ie.principalNames, principalNames)) {
+                filterEntries(filter, ie.aces, userAces, groupAces);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<Entry>(userAces.size() + groupAces.size());
+        entries.addAll(userAces);
+        entries.addAll(groupAces);
+        return entries;
+    }
+
     /**
      * @see EntryCollector#getEntries(org.apache.jackrabbit.core.NodeImpl)
      */
@@ -132,6 +194,18 @@ class CachingEntryCollector extends EntryCollector {
         return entries;
     }
 
+    /**
+     * Read the entries defined for the specified node without updating the
+     * cache.
+     *
+     * @param node The target node
+     * @return The list of entries present on the specified node or an empty list.
+     * @throws RepositoryException If an error occurs.
+     */
+    private List<Entry> readEntries(NodeImpl node) throws RepositoryException {
+        return super.getEntries(node).getACEs();
+    }
+
     /**
      * Update cache for the given node id
      * @param node The target node
@@ -267,6 +341,9 @@ class CachingEntryCollector extends EntryCollector {
     @Override
     @SuppressWarnings("unchecked")
     public void notifyListeners(AccessControlModifications modifications) {
+        if (index != null) {
+            index.update(modifications);
+        }
         /* Update cache for all affected access controlled nodes */
         for (Object key : modifications.getNodeIdentifiers()) {
             if (!(key instanceof NodeId)) {
@@ -453,4 +530,160 @@ class CachingEntryCollector extends EntryCollector {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The entries defined at a node, together with the names of the
+     * principals they are defined for.
+     */
+    private static final class IndexedEntries {
+
+        private final NodeId id;
+        private final List<Entry> aces;
+        private final Set<String> principalNames;
+
+        private IndexedEntries(NodeId id, List<Entry> aces) {
+            this.id = id;
+            this.aces = aces;
+            principalNames = new HashSet<String>(aces.size());
+            for (Entry ace : aces) {
+                principalNames.add(ace.getPrincipalName());
+            }
+        }
+    }
+
+    /**
+     * A path trie that keeps the entries of evaluated nodes and of their
+     * ancestors, including the nodes that are not access controlled. All
+     * entries effective at a node are thus found with a single lookup of its
+     * path, without visiting each ancestor.
+     * <p>
+     * The entries of a modified access controlled node are removed from the
+     * index, while a move clears the index. The entries of a node that has
+     * been removed are detected when they are looked up again.
+     */
+    private class EntryIndex {
+
+        private PathMap<IndexedEntries> map = new PathMap<IndexedEntries>();
+
+        /**
+         * The number of nodes with entries in the index.
+         */
+        private int size;
+
+        private final int maxSize;
+
+        /**
+         * Incremented upon each modification, in order to not add entries
+         * that have been read before.
+         */
+        private long modCount;
+
+        public EntryIndex() {
+            int maxsize = 10000;
+            String propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.pathIndexSize";
+            try {
+                maxsize = Integer.parseInt(System.getProperty(propname, Integer.toString(maxsize)));
+            } catch (NumberFormatException ex) {
+                log.debug("Parsing system property " + propname + " with value: " + System.getProperty(propname), ex);
+            }
+            maxSize = maxsize;
+
+            log.info("Creating path index with max size of: " + maxSize);
+        }
+
+        /**
+         * Returns the entries defined along the path of the given node,
+         * reading the entries missing in the index.
+         *
+         * @param node The target node.
+         * @return the entries indexed by depth, starting with the root node.
+         * @throws RepositoryException If an error occurs.
+         */
+        public IndexedEntries[] get(NodeImpl node) throws RepositoryException {
+            Path path = node.getPrimaryPath();
+            IndexedEntries[] result = new IndexedEntries[path.getDepth() + 1];
+            long mc;
+            synchronized (this) {
+                mc = modCount;
+                PathMap.Element<IndexedEntries> element = map.map(path, false);
+                for (int depth = element.getDepth(); element != null; element = element.getParent()) {
+                    result[depth--] = element.get();
+                }
+            }
+
+            // read the entries of the nodes that are not indexed or that have
+            // been removed. nodes without entries are not validated, as the
+            // creation of an ACL at the same path is reported as modification.
+            NodeImpl n = node;
+            for (int depth = result.length - 1; depth >= 0; depth--) {
+                IndexedEntries ie = result[depth];
+                if (ie == null || (!ie.aces.isEmpty() && !systemSession.getItemManager().itemExists(ie.id))) {
+                    ie = new IndexedEntries(n.getNodeId(), readEntries(n));
+                    put(path.getAncestor(result.length - 1 - depth), ie, mc);
+                    result[depth] = ie;
+                }
+                if (depth > 0) {
+                    n = (NodeImpl) n.getParent();
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Removes the entries of the modified nodes, or clears the index upon
+         * a move or if the path of a modified node can not be resolved.
+         *
+         * @param modifications
+         */
+        public void update(AccessControlModifications modifications) {
+            List<Path> paths = new ArrayList<Path>();
+            for (Object key : modifications.getNodeIdentifiers()) {
+                Integer type = modifications.getType(key);
+                if (!(key instanceof NodeId) || type == null || (type & MOVE) == MOVE) {
+                    clear();
+                    return;
+                }
+                try {
+                    paths.add(systemSession.getHierarchyManager().getPath((NodeId) key));
+                } catch (RepositoryException e) {
+                    log.debug("Unable to resolve path of modified node {}: clearing path index.", key);
+                    clear();
+                    return;
+                }
+            }
+            synchronized (this) {
+                modCount++;
+                for (Path path : paths) {
+                    PathMap.Element<IndexedEntries> element = map.map(path, true);
+                    if (element != null && element.get() != null) {
+                        element.set(null);
+                        size--;
+                    }
+                }
+            }
+        }
+
+        public synchronized void clear() {
+            modCount++;
+            map = new PathMap<IndexedEntries>();
+            size = 0;
+        }
+
+        private synchronized void put(Path path, IndexedEntries entries, long mc) {
+            if (mc != modCount) {
+                // modified since the entries have been read
+                return;
+            }
+            if (size >= maxSize) {
+                log.debug("Maximum size of path index reached: clearing index.");
+                map = new PathMap<IndexedEntries>();
+                size = 0;
+            }
+            PathMap.Element<IndexedEntries> element = map.put(path);
+            if (element.get() == null) {
+                size++;
+            }
+            element.set(entries);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import org.apache.jackrabbit.core.HierarchyManager;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.AbstractCompiledPermissions.Result;
+import org.apache.jackrabbit.core.security.authorization.AccessControlListener;
+import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.core.security.authorization.AccessControlObserver;
+import org.apache.jackrabbit.spi.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>CompiledPermissionsCache</code> caches the results of the permission
+ * evaluation of {@link CompiledPermissionsImpl} for all sessions of a
+ * workspace. The results are kept per set of principal names, so that
+ * sessions with the same principals share them. Reads do not lock.
+ * <p>
+ * Upon an access control modification only the results for the items at or
+ * below the modified access controlled nodes are removed. The cache is
+ * cleared if the path of a modified node can not be resolved, and upon a
+ * move (which is reported for the root node). A result that was evaluated
+ * before a modification is not added to the cache afterwards.
+ */
+class CompiledPermissionsCache implements AccessControlListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledPermissionsCache.class);
+
+    /**
+     * Whether the shared cache is used, true by default.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+            "org.apache.jackrabbit.core.security.authorization.acl.CompiledPermissionsCache.enabled",
+            "true"));
+
+    public static final int DEFAULT_MAX_PRINCIPAL_SETS = 1000;
+
+    /**
+     * The maximum number of principal sets for which results are cached.
+     */
+    public static final int MAX_PRINCIPAL_SETS = Integer.getInteger(
+            "org.apache.jackrabbit.core.security.authorization.acl.CompiledPermissionsCache.maxPrincipalSets",
+            DEFAULT_MAX_PRINCIPAL_SETS
+    );
+
+    private final ConcurrentMap<Set<String>, Results> cache = new ConcurrentHashMap<Set<String>, Results>();
+
+    /**
+     * Incremented upon each access control modification.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Statistics about the scope of the invalidations.
+     */
+    private final AtomicLong partialInvalidations = new AtomicLong();
+    private final AtomicLong fullInvalidations = new AtomicLong();
+    private final AtomicLong invalidatedEntries = new AtomicLong();
+
+    private final HierarchyManager hierMgr;
+
+    private final int maxSize;
+
+    /**
+     * @param hierMgr The hierarchy manager used to resolve the paths of
+     * modified nodes, or <code>null</code> to clear the cache upon every
+     * modification.
+     * @param maxSize The maximum number of read results and of path results
+     * cached per set of principals.
+     */
+    CompiledPermissionsCache(HierarchyManager hierMgr, int maxSize) {
+        this.hierMgr = hierMgr;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the key for the given principal names.
+     *
+     * @param principalNames
+     * @return an unmodifiable set of the names.
+     */
+    static Set<String> getKey(Collection<String> principalNames) {
+        return Collections.unmodifiableSet(new HashSet<String>(principalNames));
+    }
+
+    /**
+     * Returns the cached results for the given set of principal names.
+     *
+     * @param key The key as returned by {@link #getKey(Collection)}.
+     * @return the results, never <code>null</code>.
+     */
+    Results getResults(Set<String> key) {
+        Results results = cache.get(key);
+        if (results == null) {
+            if (cache.size() >= MAX_PRINCIPAL_SETS) {
+                log.debug("Maximum number of principal sets reached: clearing cache.");
+                cache.clear();
+            }
+            Results fresh = new Results();
+            results = cache.putIfAbsent(key, fresh);
+            if (results == null) {
+                results = fresh;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the current generation, which must be obtained before a result
+     * is evaluated and passed when it is added to the cache.
+     *
+     * @return the number of modifications so far.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the number of modifications that only removed part of the cache.
+     */
+    long getPartialInvalidationCount() {
+        return partialInvalidations.get();
+    }
+
+    /**
+     * @return the number of modifications that cleared the cache.
+     */
+    long getFullInvalidationCount() {
+        return fullInvalidations.get();
+    }
+
+    /**
+     * @return the number of results removed by partial invalidations.
+     */
+    long getInvalidatedEntryCount() {
+        return invalidatedEntries.get();
+    }
+
+    /**
+     * Resolves the path of a modified node.
+     *
+     * @param id
+     * @return the path or <code>null</code> if it can not be resolved.
+     */
+    Path getPath(NodeId id) {
+        if (hierMgr == null) {
+            return null;
+        }
+        try {
+            return hierMgr.getPath(id);
+        } catch (RepositoryException e) {
+            log.debug("Unable to resolve path of modified node {}", id);
+            return null;
+        }
+    }
+
+    //------------------------------------------< AccessControlListener >---
+    /**
+     * @see AccessControlListener#acModified(AccessControlModifications)
+     */
+    public void acModified(AccessControlModifications modifications) {
+        generation.incrementAndGet();
+
+        List<Path> paths = new ArrayList<Path>();
+        for (Object key : modifications.getNodeIdentifiers()) {
+            Path path = null;
+            Integer type = modifications.getType(key);
+            if (key instanceof NodeId && type != null
+                    && (type & AccessControlObserver.MOVE) != AccessControlObserver.MOVE) {
+                path = getPath((NodeId) key);
+            }
+            if (path == null || path.denotesRoot()) {
+                cache.clear();
+                fullInvalidations.incrementAndGet();
+                log.debug("Access control modified at {}: clearing cache.", key);
+                return;
+            }
+            paths.add(path);
+        }
+
+        int removed = 0;
+        for (Results results : cache.values()) {
+            removed += results.invalidate(paths);
+        }
+        partialInvalidations.incrementAndGet();
+        invalidatedEntries.addAndGet(removed);
+        log.debug("Access control modified at {}: removed {} cached results.", paths, removed);
+    }
+
+    /**
+     * @param path
+     * @param modified
+     * @return true if the result cached for <code>path</code> may be affected
+     * by a modification of the policy at one of the <code>modified</code> paths.
+     */
+    private static boolean isAffected(Path path, List<Path> modified) {
+        if (path == null) {
+            return true;
+        }
+        for (Path p : modified) {
+            try {
+                if (p.equals(path) || p.isAncestorOf(path)) {
+                    return true;
+                }
+            } catch (RepositoryException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //--------------------------------------------------------< inner class >---
+    /**
+     * The cached results for one set of principals.
+     */
+    class Results {
+
+        private final ConcurrentMap<Path, Result> results = new ConcurrentHashMap<Path, Result>();
+
+        private final ConcurrentMap<ItemId, Read> reads = new ConcurrentHashMap<ItemId, Read>();
+
+        private volatile Result repositoryResult;
+
+        private Results() {
+        }
+
+        /**
+         * @param absPath The path or <code>null</code> for the repository level result.
+         * @return the cached result or <code>null</code>.
+         */
+        Result getResult(Path absPath) {
+            return absPath == null ? repositoryResult : results.get(absPath);
+        }
+
+        /**
+         * @param absPath The path or <code>null</code> for the repository level result.
+         * @param result
+         * @param gen The generation obtained before the result was evaluated.
+         */
+        void putResult(Path absPath, Result result, long gen) {
+            if (absPath == null) {
+                repositoryResult = result;
+                if (gen != generation.get()) {
+                    repositoryResult = null;
+                }
+            } else {
+                if (results.size() >= maxSize) {
+                    results.clear();
+                }
+                results.put(absPath, result);
+                if (gen != generation.get()) {
+                    // a modification may have happened during evaluation
+                    results.remove(absPath, result);
+                }
+            }
+        }
+
+        /**
+         * @param id
+         * @return whether the item can be read or <code>null</code> if not cached.
+         */
+        Boolean canRead(ItemId id) {
+            Read read = reads.get(id);
+            return read == null ? null : read.canRead;
+        }
+
+        /**
+         * @param id
+         * @param path The path of the item or <code>null</code> if unknown,
+         * in which case the result is removed upon any modification.
+         * @param canRead
+         * @param gen The generation obtained before the result was evaluated.
+         */
+        void putCanRead(ItemId id, Path path, boolean canRead, long gen) {
+            if (reads.size() >= maxSize) {
+                reads.clear();
+            }
+            Read read = new Read(path, canRead);
+            reads.put(id, read);
+            if (gen != generation.get()) {
+                // a modification may have happened during evaluation
+                reads.remove(id, read);
+            }
+        }
+
+        /**
+         * Removes the results affected by modifications at the given paths.
+         *
+         * @return the number of removed results.
+         */
+        private int invalidate(List<Path> modified) {
+            int removed = 0;
+            for (Iterator<Path> it = results.keySet().iterator(); it.hasNext();) {
+                if (isAffected(it.next(), modified)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            for (Iterator<Map.Entry<ItemId, Read>> it = reads.entrySet().iterator(); it.hasNext();) {
+                if (isAffected(it.next().getValue().path, modified)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * A cached read result with the path of the item.
+     */
+    private static final class Read {
+
+        private final Path path;
+
+        private final boolean canRead;
+
+        private Read(Path path, boolean canRead) {
+            this.path = path;
+            this.canRead = canRead;
+        }
+    }
+}
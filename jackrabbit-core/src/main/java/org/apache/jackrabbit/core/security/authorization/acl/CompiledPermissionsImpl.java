@@ -43,7 +43,9 @@ import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -67,6 +69,12 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
     private final EntryCollector entryCollector;
     private final AccessControlUtils util;
 
+    /**
+     * The cache shared with other sessions or <code>null</code>.
+     */
+    private final CompiledPermissionsCache sharedCache;
+    private final Set<String> sharedCacheKey;
+
     /*
      * Start with initial map size of 1024 and grow up to 5000 before
      * removing LRU items.
@@ -78,15 +86,18 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
 
     CompiledPermissionsImpl(Set<Principal> principals, SessionImpl session,
                             EntryCollector entryCollector, AccessControlUtils util,
-                            boolean listenToEvents) throws RepositoryException {
+                            boolean listenToEvents, CompiledPermissionsCache sharedCache)
+            throws RepositoryException {
         this.session = session;
         this.entryCollector = entryCollector;
         this.util = util;
+        this.sharedCache = sharedCache;
 
         principalNames = new ArrayList<String>(principals.size());
         for (Principal princ : principals) {
             principalNames.add(princ.getName());
         }
+        sharedCacheKey = (sharedCache == null) ? null : CompiledPermissionsCache.getKey(principalNames);
 
         if (listenToEvents) {
             /*
@@ -106,6 +117,13 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         NodeImpl n = ACLProvider.getNode(node, isAcItem);
         Iterator<Entry> entries = entryCollector.collectEntries(n, filter).iterator();
 
+        String parentPath = Text.getRelativeParent(filter.getPath(), 1);
+        NodeId nodeId = (node == null) ? null : node.getNodeId();
+        return buildResult(entries, nodeId, isExistingNode, isAcItem, parentPath);
+    }
+
+    private static Result buildResult(Iterator<Entry> entries, NodeId nodeId, boolean isExistingNode,
+                                      boolean isAcItem, String parentPath) {
         /*
         Calculate privileges and permissions:
         Since the ACEs only define privileges on a node and do not allow
@@ -120,9 +138,6 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         PrivilegeBits parentAllowBits = PrivilegeBits.getInstance();
         PrivilegeBits parentDenyBits = PrivilegeBits.getInstance();
 
-        String parentPath = Text.getRelativeParent(filter.getPath(), 1);
-        NodeId nodeId = (node == null) ? null : node.getNodeId();
-
         while (entries.hasNext()) {
             Entry ace = entries.next();
             /*
@@ -157,7 +172,115 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         return new Result(allows, denies, allowBits, denyBits);
     }
 
+    /**
+     * Returns the results shared with other instances, unless the session has
+     * transient changes that may affect the evaluation.
+     *
+     * @return the shared results or <code>null</code>.
+     * @throws RepositoryException If an error occurs.
+     */
+    private CompiledPermissionsCache.Results getSharedResults() throws RepositoryException {
+        if (sharedCache == null || session.hasPendingChanges()) {
+            return null;
+        }
+        return sharedCache.getResults(sharedCacheKey);
+    }
+
     //------------------------------------< AbstractCompiledPermissions >---
+    /**
+     * @see AbstractCompiledPermissions#getResult(org.apache.jackrabbit.spi.Path)
+     */
+    @Override
+    public Result getResult(Path absPath) throws RepositoryException {
+        CompiledPermissionsCache.Results shared = getSharedResults();
+        if (shared == null) {
+            return super.getResult(absPath);
+        }
+        Result result = shared.getResult(absPath);
+        if (result == null) {
+            long gen = sharedCache.getGeneration();
+            if (absPath == null) {
+                result = buildRepositoryResult();
+            } else {
+                result = buildResult(absPath);
+            }
+            shared.putResult(absPath, result, gen);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the paths with the shared results, grouped by parent. The
+     * items of a group that are neither access controlled nor access control
+     * content get the same result, which is built once from the entries
+     * collected for the parent. This doesn't apply if one of these entries
+     * has restrictions, which depend on the path of the item.
+     *
+     * @see org.apache.jackrabbit.core.security.authorization.CompiledPermissions#getGranted(Path[], int)
+     */
+    @Override
+    public BitSet getGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        CompiledPermissionsCache.Results shared = getSharedResults();
+        if (shared == null) {
+            return super.getGranted(absPaths, permissions);
+        }
+        long gen = sharedCache.getGeneration();
+        BitSet granted = new BitSet(absPaths.length);
+        Map<Path, List<Integer>> byParent = new LinkedHashMap<Path, List<Integer>>();
+        for (int i = 0; i < absPaths.length; i++) {
+            Result result = shared.getResult(absPaths[i]);
+            if (result == null && absPaths[i].denotesRoot()) {
+                result = getResult(absPaths[i]);
+            }
+            if (result == null) {
+                Path parentPath = absPaths[i].getAncestor(1);
+                List<Integer> indexes = byParent.get(parentPath);
+                if (indexes == null) {
+                    indexes = new ArrayList<Integer>();
+                    byParent.put(parentPath, indexes);
+                }
+                indexes.add(i);
+            } else if (result.grants(permissions)) {
+                granted.set(i);
+            }
+        }
+
+        ItemManager itemMgr = session.getItemManager();
+        for (Map.Entry<Path, List<Integer>> group : byParent.entrySet()) {
+            Result inherited = null;
+            if (group.getValue().size() > 1 && itemMgr.itemExists(group.getKey())) {
+                NodeImpl parent = (NodeImpl) itemMgr.getItem(group.getKey());
+                List<Entry> entries = entryCollector.collectEntries(parent, new EntryFilterImpl(principalNames));
+                boolean restricted = false;
+                for (Entry ace : entries) {
+                    restricted |= ace.hasRestrictions();
+                }
+                if (!restricted) {
+                    // all entries also apply to the parent: pass its path
+                    inherited = buildResult(entries.iterator(), null, false, false, session.getJCRPath(group.getKey()));
+                }
+            }
+            for (int i : group.getValue()) {
+                Path absPath = absPaths[i];
+                Result result = null;
+                if (inherited != null && !util.isAcItem(absPath) && itemMgr.itemExists(absPath)) {
+                    ItemImpl item = itemMgr.getItem(absPath);
+                    if (!item.isNode() || !ACLProvider.isAccessControlled((NodeImpl) item)) {
+                        result = inherited;
+                    }
+                }
+                if (result == null) {
+                    result = buildResult(absPath);
+                }
+                shared.putResult(absPath, result, gen);
+                if (result.grants(permissions)) {
+                    granted.set(i);
+                }
+            }
+        }
+        return granted;
+    }
+
     /**
      * @see AbstractCompiledPermissions#buildResult(org.apache.jackrabbit.spi.Path)
      */
@@ -242,45 +365,76 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
      */
     public boolean canRead(Path path, ItemId itemId) throws RepositoryException {
         ItemId id = (itemId == null) ? session.getHierarchyManager().resolvePath(path) : itemId;
-        // no extra check for existence as method may only be called for existing items.
-        boolean isExistingNode = id.denotesNode();
-        boolean canRead = false;
+        // the path passed by the caller may reflect its transient changes:
+        // results shared with other sessions are only evaluated by id.
+        CompiledPermissionsCache.Results shared = (itemId == null) ? null : getSharedResults();
+        if (shared != null) {
+            Boolean canRead = shared.canRead(id);
+            if (canRead == null) {
+                long gen = sharedCache.getGeneration();
+                canRead = evaluateRead(null, id);
+                // the persisted path allows to only invalidate the affected subtree
+                shared.putCanRead(id, getPath(id), canRead, gen);
+            }
+            return canRead;
+        }
+        boolean canRead;
         synchronized (monitor) {
             if (readCache.containsKey(id)) {
                 canRead = readCache.get(id);
             } else {
-                ItemManager itemMgr = session.getItemManager();
-                NodeId nodeId = (isExistingNode) ? (NodeId) id : ((PropertyId) id).getParentId();
-                NodeImpl node = (NodeImpl) itemMgr.getItem(nodeId);
-
-                boolean isAcItem = util.isAcItem(node);
-                EntryFilterImpl filter;
-                if (path == null) {
-                    filter = new EntryFilterImpl(principalNames, id, session);
-                } else {
-                    filter = new EntryFilterImpl(principalNames, path, session);
-                }
+                canRead = evaluateRead(path, id);
+                readCache.put(id, canRead);
+            }
+        }
+        return canRead;
+    }
 
-                if (isAcItem) {
-                    /* item defines ac content -> regular evaluation */
-                    Result result = buildResult(node, isExistingNode, isAcItem, filter);
-                    canRead = result.grants(Permission.READ);
-                } else {
-                    /*
-                     simplified evaluation focusing on READ permission. this allows
-                     to omit evaluation of parent node permissions that are
-                     required when calculating the complete set of permissions
-                     (see special treatment of remove, create or ac-specific
-                      permissions).
-                     */
-                    for (Entry ace : entryCollector.collectEntries(node, filter)) {
-                        if (ace.getPrivilegeBits().includesRead()) {
-                            canRead = ace.isAllow();
-                            break;
-                        }
-                    }
+    /**
+     * @param id
+     * @return the path of the item or <code>null</code> if it can not be resolved.
+     */
+    private Path getPath(ItemId id) {
+        try {
+            return session.getHierarchyManager().getPath(id);
+        } catch (RepositoryException e) {
+            return null;
+        }
+    }
+
+    private boolean evaluateRead(Path path, ItemId id) throws RepositoryException {
+        // no extra check for existence as method may only be called for existing items.
+        boolean isExistingNode = id.denotesNode();
+        boolean canRead = false;
+        ItemManager itemMgr = session.getItemManager();
+        NodeId nodeId = (isExistingNode) ? (NodeId) id : ((PropertyId) id).getParentId();
+        NodeImpl node = (NodeImpl) itemMgr.getItem(nodeId);
+
+        boolean isAcItem = util.isAcItem(node);
+        EntryFilterImpl filter;
+        if (path == null) {
+            filter = new EntryFilterImpl(principalNames, id, session);
+        } else {
+            filter = new EntryFilterImpl(principalNames, path, session);
+        }
+
+        if (isAcItem) {
+            /* item defines ac content -> regular evaluation */
+            Result result = buildResult(node, isExistingNode, isAcItem, filter);
+            canRead = result.grants(Permission.READ);
+        } else {
+            /*
+             simplified evaluation focusing on READ permission. this allows
+             to omit evaluation of parent node permissions that are
+             required when calculating the complete set of permissions
+             (see special treatment of remove, create or ac-specific
+              permissions).
+             */
+            for (Entry ace : entryCollector.collectEntries(node, filter)) {
+                if (ace.getPrivilegeBits().includesRead()) {
+                    canRead = ace.isAllow();
+                    break;
                 }
-                readCache.put(id, canRead);
             }
         }
         return canRead;
@@ -291,7 +445,10 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
      * @see org.apache.jackrabbit.core.security.authorization.AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
      */
     public void acModified(AccessControlModifications modifications) {
-        // ignore the details of the modifications and clear all caches.
+        // the caches of this instance are only used if there is no shared
+        // cache or if the session has transient changes, and then kept
+        // small: ignore the details of the modifications and clear them.
+        // the shared cache only invalidates the affected results.
         clearCache();
     }
 }
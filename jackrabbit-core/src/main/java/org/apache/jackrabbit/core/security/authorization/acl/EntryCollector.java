@@ -166,7 +166,7 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
      * @param groupAces
      */
     @SuppressWarnings("unchecked")
-    private static void filterEntries(EntryFilter filter, List<Entry> aces,
+    static void filterEntries(EntryFilter filter, List<Entry> aces,
                                       LinkedList<Entry> userAces,
                                       LinkedList<Entry> groupAces) {
         if (!aces.isEmpty() && filter != null) {
@@ -362,6 +362,17 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
                          b) a child node of an ACE. not relevant for this
                             implementation -> ignore
                  */
+            } else if (repPolicyName.equals(Text.getName(path))) {
+                // the access controlled node has been removed together with
+                // an ancestor: report the modification for the nearest
+                // existing ancestor, as results may be cached by path.
+                String ancestorPath = Text.getRelativeParent(parentPath, 1);
+                while (!session.nodeExists(ancestorPath)) {
+                    ancestorPath = Text.getRelativeParent(ancestorPath, 1);
+                }
+                addModification(
+                        ((NodeImpl) session.getNode(ancestorPath)).getNodeId(),
+                        AccessControlObserver.POLICY_MODIFIED);
             } else {
                 log.debug("Cannot process NODE_REMOVED event. Parent {} doesn't exist (anymore).", parentPath);
             }
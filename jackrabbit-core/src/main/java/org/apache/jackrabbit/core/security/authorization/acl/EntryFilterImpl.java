@@ -42,6 +42,17 @@ class EntryFilterImpl implements EntryFilter {
 
     private String itemPath;
 
+    /**
+     * Creates a filter that accepts all entries of the given principals,
+     * including those with restrictions, whatever the target path.
+     *
+     * @param principalNames
+     */
+    EntryFilterImpl(Collection<String> principalNames) {
+        this.principalNames = principalNames;
+        this.pathProvider = null;
+    }
+
     EntryFilterImpl(Collection<String> principalNames, final ItemId id, final SessionImpl sessionImpl) {
         this.principalNames = principalNames;
         this.pathProvider = new PathProvider() {
@@ -100,7 +111,7 @@ class EntryFilterImpl implements EntryFilter {
 
     private boolean matches(Entry entry) {
         if (principalNames == null || principalNames.contains(entry.getPrincipalName())) {
-            if (!entry.hasRestrictions()) {
+            if (!entry.hasRestrictions() || pathProvider == null) {
                 // short cut: there is no glob-restriction -> the entry matches
                 // because it is either defined on the node or inherited.
                 return true;
@@ -119,6 +130,14 @@ class EntryFilterImpl implements EntryFilter {
         return false;
     }
 
+    /**
+     * @return the names of the principals entries are collected for, or
+     * <code>null</code> for all principals.
+     */
+    Collection<String> getPrincipalNames() {
+        return principalNames;
+    }
+
     String getPath() throws RepositoryException {
         if (itemPath == null) {
             itemPath = pathProvider.getPath();
@@ -60,6 +60,7 @@ import javax.jcr.security.AccessControlPolicy;
 import javax.jcr.security.Privilege;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -311,7 +312,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
 
         private final Set<Principal> principals;
         private final Set<String> acPaths;
-        private List<AccessControlEntry> entries;
+        private EntryIndex index;
 
         private boolean canReadAll;
 
@@ -358,13 +359,13 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
                 acPaths.add(editor.getPathToAcNode(p));
             }
 
-            // and retrieve the entries from the entry-collector.
-            entries = entriesCache.getEntries(principals);
+            // and retrieve the indexed entries from the entry-collector.
+            index = entriesCache.getEntryIndex(principals);
             
             // in addition: trivial check if read access is denied somewhere
             canReadAll = canRead(session.getQPath("/"));            
             if (canReadAll) {
-                for (AccessControlEntry entry : entries) {
+                for (AccessControlEntry entry : index.getEntries()) {
                     AccessControlEntryImpl ace = (AccessControlEntryImpl) entry;
                     if (!ace.isAllow() && ace.getPrivilegeBits().includesRead()) {
                         // found an ace that defines read deny for a sub tree
@@ -409,8 +410,9 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         }
 
         /**
-         * Loop over all entries and evaluate allows/denies for those matching
-         * the given jcrPath.
+         * Loop over the entries matching the given jcrPath or its parent, as
+         * looked up in the entry index, and evaluate allows/denies in the
+         * order of the entries.
          * 
          * @param targetPath Path used for the evaluation; pointing to an
          * existing or non-existing item.
@@ -429,15 +431,15 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
             PrivilegeBits parentDenyBits = PrivilegeBits.getInstance();
 
             String parentPath = Text.getRelativeParent(targetPath, 1);
-            for (AccessControlEntry entry : entries) {
-                if (!(entry instanceof ACLTemplate.Entry)) {
-                    log.warn("Unexpected AccessControlEntry instance -> ignore");
-                    continue;
-                }
-                ACLTemplate.Entry entr = (ACLTemplate.Entry) entry;
+            BitSet matching = index.getMatching(targetPath);
+            BitSet parentMatching = "".equals(parentPath) ? new BitSet() : index.getMatching(parentPath);
+            BitSet candidates = (BitSet) matching.clone();
+            candidates.or(parentMatching);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                ACLTemplate.Entry entr = index.getEntry(i);
                 PrivilegeBits privs = entr.getPrivilegeBits();
 
-                if (!"".equals(parentPath) && entr.matches(parentPath)) {
+                if (parentMatching.get(i)) {
                     if (entr.isAllow()) {
                         parentAllowBits.addDifference(privs, parentDenyBits);
                     } else {
@@ -445,8 +447,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
                     }
                 }
 
-                boolean matches = entr.matches(targetPath);
-                if (matches) {
+                if (matching.get(i)) {
                     if (entr.isAllow()) {
                         allowBits.addDifference(privs, denyBits);
                         int permissions = PrivilegeRegistry.calculatePermissions(allowBits, parentAllowBits, true, isAcItem);
@@ -310,6 +310,11 @@ class ACLTemplate extends AbstractACLTemplate {
          */
         private final String nodePath;
 
+        /**
+         * The glob restriction or <code>null</code>.
+         */
+        private final String glob;
+
         /**
          * Globing pattern
          */
@@ -322,12 +327,9 @@ class ACLTemplate extends AbstractACLTemplate {
 
             Map<Name, Value> rstr = getRestrictions();
             nodePath = rstr.get(P_NODE_PATH).getString();
-            Value glob = rstr.get(P_GLOB);
-            if (glob != null) {
-                pattern = GlobPattern.create(nodePath, glob.getString());
-            } else {
-                pattern = GlobPattern.create(nodePath);
-            }
+            Value globValue = rstr.get(P_GLOB);
+            glob = (globValue == null) ? null : globValue.getString();
+            pattern = GlobPattern.create(nodePath, glob);
         }
 
         private Entry(Principal principal, PrivilegeBits privilegeBits, boolean allow,
@@ -337,12 +339,23 @@ class ACLTemplate extends AbstractACLTemplate {
 
             Map<Name, Value> rstr = getRestrictions();
             nodePath = rstr.get(P_NODE_PATH).getString();
-            Value glob = rstr.get(P_GLOB);
-            if (glob != null) {
-                pattern = GlobPattern.create(nodePath, glob.getString());
-            } else {
-                pattern = GlobPattern.create(nodePath);
-            }
+            Value globValue = rstr.get(P_GLOB);
+            glob = (globValue == null) ? null : globValue.getString();
+            pattern = GlobPattern.create(nodePath, glob);
+        }
+
+        /**
+         * @return the path of the node this entry applies to.
+         */
+        String getNodePath() {
+            return nodePath;
+        }
+
+        /**
+         * @return the glob restriction or <code>null</code>.
+         */
+        String getGlob() {
+            return glob;
         }
 
         boolean matches(String jcrPath) throws RepositoryException {
@@ -55,10 +55,10 @@ class EntriesCache extends AccessControlObserver implements AccessControlConstan
     private final String repPolicyName;
 
     /**
-     * Cache to look up the list of access control entries defined for a given
-     * set of principals.
+     * Cache to look up the index of the access control entries defined for a
+     * given set of principals.
      */
-    private final Map<Object, List<AccessControlEntry>> cache;
+    private final Map<Object, EntryIndex> cache;
     private final Object monitor = new Object();
 
     /**
@@ -110,16 +110,22 @@ class EntriesCache extends AccessControlObserver implements AccessControlConstan
         }
     }
 
-    List<AccessControlEntry> getEntries(Collection<Principal> principals) throws RepositoryException {
+    /**
+     * @param principals
+     * @return the index of the entries defined for the given principals, in
+     * the order of the principals.
+     * @throws RepositoryException if an error occurs
+     */
+    EntryIndex getEntryIndex(Collection<Principal> principals) throws RepositoryException {
         String key = getCacheKey(principals);
-        List<AccessControlEntry> entries;
+        EntryIndex index;
         synchronized (monitor) {
-            entries = cache.get(key);
-            if (entries == null) {
+            index = cache.get(key);
+            if (index == null) {
                 // acNodes must be ordered in the same order as the principals
                 // in order to obtain proper acl-evaluation in case the given
                 // principal-set is ordered.
-                entries = new ArrayList<AccessControlEntry>();
+                List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
                 // build acl-hierarchy assuming that principal-order determines
                 // the acl-inheritance.
                 for (Principal p : principals) {
@@ -129,10 +135,11 @@ class EntriesCache extends AccessControlObserver implements AccessControlConstan
                         entries.addAll(Arrays.asList(aces));
                     }
                 }
-                cache.put(key, entries);
+                index = new EntryIndex(entries);
+                cache.put(key, index);
             }
         }
-        return entries;
+        return index;
     }
 
     private static String getCacheKey(Collection<Principal> principals) {
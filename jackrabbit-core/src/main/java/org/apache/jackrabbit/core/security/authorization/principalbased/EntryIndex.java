@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.principalbased;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.security.AccessControlEntry;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>EntryIndex</code> indexes the access control entries of a set of
+ * principals in a tree of path segments, such that only the entries
+ * applicable to a given path need to be evaluated. Each entry is classified
+ * by its <code>rep:glob</code> restriction when the index is built:
+ * <pre>
+ * Glob                  |   Indexed at               |   Matches
+ * -----------------------------------------------------------------------------
+ * null                  |   nodePath                 |   subtree, no evaluation
+ * ""                    |   nodePath                 |   node only, no evaluation
+ * without wildcard      |   nodePath + glob          |   subtree, no evaluation
+ * with wildcard         |   path before the wildcard |   evaluated for the subtree
+ * </pre>
+ * Entries whose path can not be split into segments are evaluated for
+ * every path. An index is immutable and may be shared by multiple threads.
+ */
+class EntryIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(EntryIndex.class);
+
+    private static final char WILDCARD_CHAR = '*';
+
+    private final List<AccessControlEntry> entries;
+
+    private final ACLTemplate.Entry[] indexed;
+
+    private final Node root = new Node();
+
+    /**
+     * Positions of the entries that are evaluated for every path.
+     */
+    private final BitSet unindexed = new BitSet();
+
+    /**
+     * @param entries The entries in the order in which they are evaluated.
+     */
+    EntryIndex(List<AccessControlEntry> entries) {
+        this.entries = entries;
+        indexed = new ACLTemplate.Entry[entries.size()];
+        for (int i = 0; i < indexed.length; i++) {
+            AccessControlEntry entry = entries.get(i);
+            if (entry instanceof ACLTemplate.Entry) {
+                indexed[i] = (ACLTemplate.Entry) entry;
+                add(i, indexed[i]);
+            } else {
+                log.warn("Unexpected AccessControlEntry instance -> ignore");
+            }
+        }
+    }
+
+    /**
+     * @return all entries.
+     */
+    List<AccessControlEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param position
+     * @return the entry at the given position.
+     */
+    ACLTemplate.Entry getEntry(int position) {
+        return indexed[position];
+    }
+
+    /**
+     * Returns the positions of the entries that match the given path.
+     *
+     * @param jcrPath An absolute path.
+     * @return the positions of the matching entries.
+     * @throws RepositoryException if an error occurs
+     */
+    BitSet getMatching(String jcrPath) throws RepositoryException {
+        BitSet matching = new BitSet(indexed.length);
+        evaluate(unindexed, jcrPath, matching);
+
+        String[] names = getNames(jcrPath);
+        if (names == null) {
+            // not a normalized path: evaluate all entries
+            for (int i = 0; i < indexed.length; i++) {
+                if (indexed[i] != null && indexed[i].matches(jcrPath)) {
+                    matching.set(i);
+                }
+            }
+            return matching;
+        }
+
+        Node node = root;
+        for (int depth = 0; node != null; depth++) {
+            matching.or(node.subtree);
+            evaluate(node.wildcard, jcrPath, matching);
+            if (depth == names.length) {
+                matching.or(node.exact);
+                break;
+            }
+            node = node.children == null ? null : node.children.get(names[depth]);
+        }
+        return matching;
+    }
+
+    private void evaluate(BitSet positions, String jcrPath, BitSet matching)
+            throws RepositoryException {
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            if (indexed[i].matches(jcrPath)) {
+                matching.set(i);
+            }
+        }
+    }
+
+    private void add(int position, ACLTemplate.Entry entry) {
+        String nodePath = entry.getNodePath();
+        String glob = entry.getGlob();
+
+        String path;
+        int type;
+        if (glob == null) {
+            path = nodePath;
+            type = Node.SUBTREE;
+        } else if (glob.length() == 0) {
+            path = nodePath;
+            type = Node.EXACT;
+        } else {
+            path = nodePath + glob;
+            int pos = path.indexOf(WILDCARD_CHAR);
+            if (pos == -1) {
+                type = Node.SUBTREE;
+            } else {
+                // a matching path starts with the characters before the
+                // wildcard and is thus located below their last complete
+                // segment.
+                int lastSlash = path.lastIndexOf('/', pos);
+                path = (lastSlash <= 0) ? "/" : path.substring(0, lastSlash);
+                type = Node.WILDCARD;
+            }
+        }
+
+        String[] names = getNames(path);
+        if (names == null) {
+            unindexed.set(position);
+            return;
+        }
+        Node node = root;
+        for (String name : names) {
+            node = node.getOrAddChild(name);
+        }
+        node.add(position, type);
+    }
+
+    /**
+     * @param jcrPath
+     * @return the names of the path segments, or <code>null</code> if the
+     * path is not absolute or not normalized.
+     */
+    private static String[] getNames(String jcrPath) {
+        if ("/".equals(jcrPath)) {
+            return new String[0];
+        }
+        if (!jcrPath.startsWith("/") || jcrPath.endsWith("/") || jcrPath.indexOf("//") != -1) {
+            return null;
+        }
+        return jcrPath.substring(1).split("/");
+    }
+
+    //--------------------------------------------------------< inner class >---
+    /**
+     * A path segment with the positions of the entries indexed at it.
+     */
+    private static final class Node {
+
+        private static final int SUBTREE = 0;
+        private static final int EXACT = 1;
+        private static final int WILDCARD = 2;
+
+        private final BitSet subtree = new BitSet();
+        private final BitSet exact = new BitSet();
+        private final BitSet wildcard = new BitSet();
+
+        private Map<String, Node> children;
+
+        private Node getOrAddChild(String name) {
+            if (children == null) {
+                children = new HashMap<String, Node>();
+            }
+            Node child = children.get(name);
+            if (child == null) {
+                child = new Node();
+                children.put(name, child);
+            }
+            return child;
+        }
+
+        private void add(int position, int type) {
+            switch (type) {
+                case SUBTREE:
+                    subtree.set(position);
+                    break;
+                case EXACT:
+                    exact.set(position);
+                    break;
+                default:
+                    wildcard.set(position);
+            }
+        }
+    }
+}
@@ -135,8 +135,14 @@ class GroupImpl extends AuthorizableImpl implements Group {
         } else if (isEveryone()) {
             return true;
         } else {
-            String thisID = getID();
             AuthorizableImpl impl = (AuthorizableImpl) authorizable;
+            if (!impl.getNode().getSession().hasPendingChanges()) {
+                // look up the cached membership of the authorizable instead
+                // of resolving all its groups.
+                Collection<String> groupNodeIds = userManager.getMembershipCache().getMemberOf(impl.getNode().getIdentifier());
+                return groupNodeIds.contains(getNode().getIdentifier());
+            }
+            String thisID = getID();
             for (Iterator<Group> it = impl.memberOf(); it.hasNext(); ) {
                 if (thisID.equals(it.next().getID())) {
                     return true;
@@ -19,7 +19,9 @@ package org.apache.jackrabbit.core.security.user;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.ItemNotFoundException;
@@ -68,6 +70,25 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
     private final String pMembers;
     private final ConcurrentCache<String, Collection<String>> cache;
 
+    /**
+     * Cache of the direct and indirect memberships, which are otherwise
+     * resolved recursively from the declared memberships.
+     */
+    private final ConcurrentCache<String, Collection<String>> memberOfCache;
+
+    /**
+     * Incremented upon each invalidation, in order to not cache memberships
+     * that have been resolved before.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Statistics about the scope of the invalidations.
+     */
+    private final AtomicLong partialInvalidations = new AtomicLong();
+    private final AtomicLong fullInvalidations = new AtomicLong();
+    private final AtomicLong invalidatedEntries = new AtomicLong();
+
     MembershipCache(SessionImpl systemSession, String groupsPath, boolean useMembersNode) throws RepositoryException {
         this.systemSession = systemSession;
         this.groupsPath = (groupsPath == null) ? UserConstants.GROUPS_PATH : groupsPath;
@@ -76,6 +97,8 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
         pMembers = systemSession.getJCRName(UserManagerImpl.P_MEMBERS);
         cache = new ConcurrentCache<String, Collection<String>>("MembershipCache", 16);
         cache.setMaxMemorySize(MAX_CACHE_SIZE);
+        memberOfCache = new ConcurrentCache<String, Collection<String>>("MembershipCache.memberOf", 16);
+        memberOfCache.setMaxMemorySize(MAX_CACHE_SIZE);
 
         String[] ntNames = new String[] {
                 systemSession.getJCRName(UserConstants.NT_REP_GROUP),
@@ -101,32 +124,44 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
      */
     public void onEvent(EventIterator eventIterator) {
-        // evaluate if the membership cache needs to be cleared;
+        // collect the groups whose members changed and the current members
+        // of the changed properties. the cache is cleared if an event
+        // cannot be processed.
+        Set<String> groupNodeIds = new HashSet<String>();
+        Set<String> memberNodeIds = new HashSet<String>();
         boolean clear = false;
         while (eventIterator.hasNext() && !clear) {
             Event ev = eventIterator.nextEvent();
             try {
+                int type = ev.getType();
                 if (pMembers.equals(Text.getName(ev.getPath()))) {
                     // simple case: a rep:members property that is affected
-                    clear = true;
+                    groupNodeIds.add(ev.getIdentifier());
+                    if (type != Event.PROPERTY_REMOVED) {
+                        collectValues(systemSession.getProperty(ev.getPath()), memberNodeIds);
+                    }
                 } else if (useMembersNode) {
                     // test if it affects a property defined by rep:Members node type.
-                    int type = ev.getType();
                     if (type == Event.PROPERTY_ADDED || type == Event.PROPERTY_CHANGED) {
                         Property p = systemSession.getProperty(ev.getPath());
                         Name declNtName = ((NodeTypeImpl) p.getDefinition().getDeclaringNodeType()).getQName();
-                        clear = NT_REP_MEMBERS.equals(declNtName);
+                        if (NT_REP_MEMBERS.equals(declNtName)) {
+                            groupNodeIds.add(getGroupNodeIdentifier((NodeImpl) p.getParent()));
+                            collectValues(p, memberNodeIds);
+                        }
                     } else {
                         // PROPERTY_REMOVED
                         // test if the primary node type of the parent node is rep:Members
                         // this could potentially by some other property as well as the
                         // rep:Members node are not protected and could changed by
                         // adding a mixin type.
-                        // ignoring this and simply clear the cache
+                        // ignoring this and simply invalidate the group
                         String parentId = ev.getIdentifier();
-                        Node n = systemSession.getNodeByIdentifier(parentId);
+                        NodeImpl n = (NodeImpl) systemSession.getNodeByIdentifier(parentId);
                         Name ntName = ((NodeTypeImpl) n.getPrimaryNodeType()).getQName();
-                        clear = (UserConstants.NT_REP_MEMBERS.equals(ntName));
+                        if (UserConstants.NT_REP_MEMBERS.equals(ntName)) {
+                            groupNodeIds.add(getGroupNodeIdentifier(n));
+                        }
                     }
                 }
             } catch (RepositoryException e) {
@@ -139,7 +174,15 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
 
         if (clear) {
             cache.clear();
+            generation.incrementAndGet();
+            memberOfCache.clear();
+            fullInvalidations.incrementAndGet();
             log.debug("Membership cache cleared because of observation event.");
+        } else if (!groupNodeIds.isEmpty()) {
+            int removed = invalidate(groupNodeIds, memberNodeIds);
+            partialInvalidations.incrementAndGet();
+            invalidatedEntries.addAndGet(removed);
+            log.debug("Membership of groups {} changed: removed {} cache entries.", groupNodeIds, removed);
         }
     }
 
@@ -183,9 +226,19 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      * @throws RepositoryException If an error occurs.
      */
     Collection<String> getMemberOf(String authorizableNodeIdentifier) throws RepositoryException {
-        Set<String> groupNodeIds = new HashSet<String>();
-        memberOf(authorizableNodeIdentifier, groupNodeIds);
-        return Collections.unmodifiableCollection(groupNodeIds);
+        Collection<String> groupNodeIds = memberOfCache.get(authorizableNodeIdentifier);
+        if (groupNodeIds == null) {
+            long gen = generation.get();
+            Set<String> ids = new HashSet<String>();
+            memberOf(authorizableNodeIdentifier, ids);
+            groupNodeIds = Collections.unmodifiableSet(ids);
+            memberOfCache.put(authorizableNodeIdentifier, groupNodeIds, 1);
+            if (gen != generation.get()) {
+                // membership changed while resolving
+                memberOfCache.remove(authorizableNodeIdentifier);
+            }
+        }
+        return groupNodeIds;
     }
 
     /**
@@ -201,6 +254,30 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      */
     void clear() {
         cache.clear();
+        generation.incrementAndGet();
+        memberOfCache.clear();
+    }
+
+    /**
+     * @return the number of membership changes that only removed the entries
+     * of the affected authorizables.
+     */
+    long getPartialInvalidationCount() {
+        return partialInvalidations.get();
+    }
+
+    /**
+     * @return the number of membership changes that cleared the cache.
+     */
+    long getFullInvalidationCount() {
+        return fullInvalidations.get();
+    }
+
+    /**
+     * @return the number of declared memberships removed by partial invalidations.
+     */
+    long getInvalidatedEntryCount() {
+        return invalidatedEntries.get();
     }
 
     /**
@@ -261,6 +338,76 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
     }
 
     //------------------------------------------------------------< private >---
+    /**
+     * Removes the cached declared memberships of all authorizables that were
+     * or are members of the given groups, and the cached indirect memberships
+     * that include these groups or members.
+     *
+     * @param groupNodeIds Identifiers of the groups whose members changed.
+     * @param memberNodeIds Identifiers of the current members of the changed
+     * membership properties.
+     * @return the number of removed declared memberships.
+     */
+    private int invalidate(Set<String> groupNodeIds, Set<String> memberNodeIds) {
+        int removed = 0;
+        for (String memberNodeId : memberNodeIds) {
+            if (cache.remove(memberNodeId) != null) {
+                removed++;
+            }
+        }
+        // former members
+        for (Map.Entry<String, Collection<String>> entry : cache.entries().entrySet()) {
+            if (!Collections.disjoint(groupNodeIds, entry.getValue())
+                    && cache.remove(entry.getKey()) != null) {
+                removed++;
+            }
+        }
+
+        // indirect memberships resolved from the removed entries are either
+        // removed below or not cached, see getMemberOf
+        generation.incrementAndGet();
+        Set<String> affected = new HashSet<String>(groupNodeIds);
+        affected.addAll(memberNodeIds);
+        for (String memberNodeId : memberNodeIds) {
+            memberOfCache.remove(memberNodeId);
+        }
+        for (Map.Entry<String, Collection<String>> entry : memberOfCache.entries().entrySet()) {
+            if (!Collections.disjoint(affected, entry.getValue())) {
+                memberOfCache.remove(entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param node A group node or a rep:Members node below it.
+     * @return the identifier of the group node.
+     * @throws RepositoryException If an error occurs.
+     */
+    private static String getGroupNodeIdentifier(NodeImpl node) throws RepositoryException {
+        while (node.isNodeType(NT_REP_MEMBERS)) {
+            node = (NodeImpl) node.getParent();
+        }
+        return node.getIdentifier();
+    }
+
+    /**
+     * Adds the string values of the given property to the given set.
+     *
+     * @param property A membership property.
+     * @param values The set to receive the values.
+     * @throws RepositoryException If an error occurs.
+     */
+    private static void collectValues(Property property, Set<String> values) throws RepositoryException {
+        if (property.isMultiple()) {
+            for (Value v : property.getValues()) {
+                values.add(v.getString());
+            }
+        } else {
+            values.add(property.getString());
+        }
+    }
+
     /**
      * Collects the groups where the given authorizable is a declared member of. If the information is not cached, it
      * is collected from the repository.
@@ -16,11 +16,16 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
 import javax.jcr.ReferentialIntegrityException;
@@ -30,6 +35,7 @@ import javax.jcr.nodetype.NoSuchNodeTypeException;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.cluster.ClusterException;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
@@ -188,8 +194,25 @@ public class SharedItemStateManager
      */
     private UpdateEventChannel eventChannel = new DummyUpdateEventChannel();
 
+    /**
+     * Log of the data store references, or <code>null</code> if the
+     * references are not logged.
+     */
+    private BinaryReferenceLog referenceLog;
+
     private final NodeIdFactory nodeIdFactory;
 
+    /**
+     * Sequence number of the last update operation that was started.
+     */
+    private final AtomicLong updateSequence = new AtomicLong();
+
+    /**
+     * Sequence numbers of the update operations in progress, including the
+     * dispatch of their events. Guarded by itself.
+     */
+    private final SortedSet<Long> pendingUpdates = new TreeSet<Long>();
+
     /**
      * Creates a new <code>SharedItemStateManager</code> instance.
      *
@@ -239,6 +262,16 @@ public class SharedItemStateManager
         this.eventChannel = eventChannel;
     }
 
+    /**
+     * Set the log where the added and removed data store references
+     * are recorded.
+     *
+     * @param referenceLog the reference log, or <code>null</code>
+     */
+    public void setBinaryReferenceLog(BinaryReferenceLog referenceLog) {
+        this.referenceLog = referenceLog;
+    }
+
     /**
      * Sets a new locking strategy.
      *
@@ -540,6 +573,12 @@ public class SharedItemStateManager
          */
         private ISMLocking.WriteLock writeLock;
 
+        /**
+         * Data store references added and removed by this update, if the
+         * references are logged.
+         */
+        private List<String> addedReferences, removedReferences;
+
         /**
          * Map of attributes stored for this update operation.
          */
@@ -550,6 +589,11 @@ public class SharedItemStateManager
          */
         private long timestamp = System.currentTimeMillis();
 
+        /**
+         * Sequence number of this update, see {@link #waitForPendingUpdates()}.
+         */
+        private long sequence;
+
         /**
          * Create a new instance of this class.
          */
@@ -572,11 +616,19 @@ public class SharedItemStateManager
 
             virtualNodeReferences = new ChangeLog[virtualProviders.length];
 
+            sequence = updateStarted();
+
             // let listener know about change
+            boolean created = false;
             try {
                 eventChannel.updateCreated(this);
+                created = true;
             } catch (ClusterException e) {
                 throw new ItemStateException(e.getMessage(), e);
+            } finally {
+                if (!created) {
+                    updateFinished(sequence);
+                }
             }
 
             try {
@@ -584,6 +636,7 @@ public class SharedItemStateManager
             } finally {
                 if (writeLock == null) {
                     eventChannel.updateCancelled(this);
+                    updateFinished(sequence);
                 }
             }
 
@@ -768,6 +821,11 @@ public class SharedItemStateManager
                     }
                 }
 
+                if (referenceLog != null) {
+                    // the shared states still contain the old values
+                    collectBinaryReferences();
+                }
+
                 /* Push all changes from the local items to the shared items */
                 local.push();
 
@@ -793,9 +851,25 @@ public class SharedItemStateManager
             try {
                 /* Store items in the underlying persistence manager */
                 long t0 = System.currentTimeMillis();
+                if (addedReferences != null) {
+                    try {
+                        referenceLog.added(addedReferences);
+                    } catch (IOException e) {
+                        throw new ItemStateException(
+                                "Unable to log the binary references", e);
+                    }
+                }
                 persistMgr.store(shared);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, shared.getUpdateSize());
                 succeeded = true;
+                if (removedReferences != null) {
+                    try {
+                        referenceLog.removed(removedReferences);
+                    } catch (IOException e) {
+                        // the binaries are kept until the log is rebuilt
+                        log.warn("Unable to log the removed binary references", e);
+                    }
+                }
                 if (log.isDebugEnabled()) {
                     long t1 = System.currentTimeMillis();
                     log.debug("persisting change log " + shared + " took " + (t1 - t0) + "ms");
@@ -865,9 +939,49 @@ public class SharedItemStateManager
                         }
                     } finally {
                         readLock.release();
+                        updateFinished(sequence);
                     }
                 }
+                updateFinished(sequence);
+            }
+        }
 
+        /**
+         * Collect the data store references of the added and removed
+         * property values. Values that are both added and removed are
+         * left out.
+         */
+        private void collectBinaryReferences() {
+            addedReferences = new ArrayList<String>();
+            removedReferences = new ArrayList<String>();
+            for (ItemState state : local.addedStates()) {
+                addBinaryReferences(state, addedReferences);
+            }
+            for (ItemState state : local.modifiedStates()) {
+                addBinaryReferences(state, addedReferences);
+                addBinaryReferences(state.getOverlayedState(), removedReferences);
+            }
+            for (ItemState state : local.deletedStates()) {
+                addBinaryReferences(state.getOverlayedState(), removedReferences);
+            }
+            Iterator<String> it = removedReferences.iterator();
+            while (it.hasNext()) {
+                if (addedReferences.remove(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+
+        private void addBinaryReferences(ItemState state, List<String> references) {
+            if (state != null && !state.isNode()) {
+                PropertyState property = (PropertyState) state;
+                if (property.getType() == PropertyType.BINARY) {
+                    for (InternalValue value : property.getValues()) {
+                        if (value != null && value.isInDataStore()) {
+                            references.add(value.toString());
+                        }
+                    }
+                }
             }
         }
 
@@ -904,6 +1018,7 @@ public class SharedItemStateManager
                     writeLock.release();
                     writeLock = null;
                 }
+                updateFinished(sequence);
             }
         }
 
@@ -1553,6 +1668,7 @@ public class SharedItemStateManager
      * @param events events to deliver
      */
     public void externalUpdate(ChangeLog external, EventStateCollection events) {
+        long sequence = updateStarted();
         boolean holdingWriteLock = false;
 
         ISMLocking.WriteLock wLock = null;
@@ -1583,8 +1699,53 @@ public class SharedItemStateManager
                     rLock.release();
                 }
             }
+            updateFinished(sequence);
+        }
+
+    }
+
+    /**
+     * Waits until all update operations that are in progress when this
+     * method is called have completed, including the dispatch of their
+     * events to synchronous listeners such as the search index. Update
+     * operations started afterwards are not waited for.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void waitForPendingUpdates() throws InterruptedException {
+        long last = updateSequence.get();
+        synchronized (pendingUpdates) {
+            while (!pendingUpdates.isEmpty() && pendingUpdates.first() <= last) {
+                pendingUpdates.wait();
+            }
         }
+    }
 
+    /**
+     * Registers an update operation as being in progress.
+     *
+     * @return sequence number of the update operation
+     */
+    private long updateStarted() {
+        synchronized (pendingUpdates) {
+            long sequence = updateSequence.incrementAndGet();
+            pendingUpdates.add(sequence);
+            return sequence;
+        }
+    }
+
+    /**
+     * Registers an update operation as completed. Has no effect if the
+     * operation was already registered as completed.
+     *
+     * @param sequence sequence number of the update operation
+     */
+    private void updateFinished(long sequence) {
+        synchronized (pendingUpdates) {
+            if (pendingUpdates.remove(sequence)) {
+                pendingUpdates.notifyAll();
+            }
+        }
     }
 
     /**
@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.value;
 
 import org.apache.jackrabbit.api.ReferenceBinary;
+import org.apache.jackrabbit.core.data.AbstractDataRecord;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataRecord;
 import org.apache.jackrabbit.core.data.DataStore;
@@ -24,7 +25,10 @@ import org.apache.jackrabbit.core.data.DataStoreException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 import javax.jcr.RepositoryException;
 
@@ -104,6 +108,24 @@ class BLOBInDataStore extends BLOBFileValue implements ReferenceBinary {
         return getDataRecord().getStream();
     }
 
+    /**
+     * Reads through the channel of the data record, so that records that
+     * support ranged reads do not need to read up to the position first.
+     */
+    @Override
+    public int read(byte[] b, long position) throws IOException, RepositoryException {
+        DataRecord record = getDataRecord();
+        if (!(record instanceof AbstractDataRecord)) {
+            return super.read(b, position);
+        }
+        ReadableByteChannel channel = ((AbstractDataRecord) record).getChannel(position);
+        try {
+            return channel.read(ByteBuffer.wrap(b));
+        } finally {
+            channel.close();
+        }
+    }
+
     @Override
     public String getReference() {
         try {
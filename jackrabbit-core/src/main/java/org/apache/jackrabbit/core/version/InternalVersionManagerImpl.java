@@ -34,6 +34,7 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.cluster.UpdateEventListener;
 import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
@@ -508,6 +509,16 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         }
     }
 
+    /**
+     * Set the log where the data store references of the version storage
+     * are recorded.
+     *
+     * @param referenceLog the reference log
+     */
+    public void setBinaryReferenceLog(BinaryReferenceLog referenceLog) {
+        sharedStateMgr.setBinaryReferenceLog(referenceLog);
+    }
+
     /**
      * Set an event channel to inform about updates.
      *
@@ -583,6 +594,17 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         return sharedStateMgr;
     }
 
+    /**
+     * Waits until all update operations on the version storage that are in
+     * progress have completed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @see SharedItemStateManager#waitForPendingUpdates()
+     */
+    public void waitForPendingUpdates() throws InterruptedException {
+        sharedStateMgr.waitForPendingUpdates();
+    }
+
     /**
      * Creates a <code>VersionItemStateManager</code> or derivative.
      *
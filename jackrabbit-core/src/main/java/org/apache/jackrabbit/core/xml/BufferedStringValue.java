@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.xml;
 
+import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.util.Base64;
 import org.apache.jackrabbit.util.TransientFileFactory;
@@ -305,6 +306,35 @@ class BufferedStringValue implements TextValue {
         }
     }
 
+    /**
+     * Returns a copy of this value that remains valid after this value has
+     * been disposed. BINARY values are decoded and spooled to the given data
+     * store right away.
+     *
+     * @param type  type of the property this value belongs to
+     * @param store data store, or <code>null</code> if none is configured
+     * @return the detached value
+     * @throws RepositoryException if the value cannot be read
+     */
+    TextValue detach(int type, DataStore store) throws RepositoryException {
+        try {
+            if (type == PropertyType.BINARY) {
+                Reader reader = reader();
+                try {
+                    InputStream in = new Base64ReaderInputStream(reader);
+                    return new SpooledBinaryValue(
+                            InternalValue.create(in, store), valueFactory);
+                } finally {
+                    reader.close();
+                }
+            } else {
+                return new StringValue(retrieveString(), nsContext, valueFactory);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Error accessing property value", e);
+        }
+    }
+
     /**
      * This class converts the text read Converts a base64 reader to an input stream.
      */
@@ -144,6 +144,10 @@ public class PropInfo {
         return values;        
     }
 
+    public MultipleStatus getMultipleStatus() {
+        return multipleStatus;
+    }
+
     public Value[] getValues(int targetType, NamePathResolver resolver) throws RepositoryException {
         Value[] va = new Value[values.length];
         for (int i = 0; i < values.length; i++) {
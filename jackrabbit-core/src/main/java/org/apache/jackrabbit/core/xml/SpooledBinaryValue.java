@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.ValueFormatException;
+
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.value.ValueFormat;
+import org.apache.jackrabbit.value.ValueHelper;
+
+/**
+ * <code>SpooledBinaryValue</code> represents a BINARY value that has already
+ * been decoded from its serialized form, e.g. into the data store.
+ */
+class SpooledBinaryValue implements TextValue {
+
+    private final InternalValue value;
+
+    private final ValueFactory valueFactory;
+
+    /**
+     * Constructs a new <code>SpooledBinaryValue</code>.
+     *
+     * @param value the decoded BINARY value
+     * @param valueFactory
+     */
+    SpooledBinaryValue(InternalValue value, ValueFactory valueFactory) {
+        this.value = value;
+        this.valueFactory = valueFactory;
+    }
+
+    //--------------------------------------------------------< TextValue >
+
+    public Value getValue(int type, NamePathResolver resolver)
+            throws ValueFormatException, RepositoryException {
+        Value v = ValueFormat.getJCRValue(value, resolver, valueFactory);
+        if (type != PropertyType.BINARY && type != PropertyType.UNDEFINED) {
+            v = ValueHelper.convert(v, type, valueFactory);
+        }
+        return v;
+    }
+
+    public InternalValue getInternalValue(int type)
+            throws ValueFormatException, RepositoryException {
+        if (type != PropertyType.BINARY && type != PropertyType.UNDEFINED) {
+            throw new ValueFormatException("cannot convert BINARY value to "
+                    + PropertyType.nameFromValue(type));
+        }
+        return value;
+    }
+
+    public void dispose() {
+        // do nothing, the value is owned by the imported property
+    }
+
+}
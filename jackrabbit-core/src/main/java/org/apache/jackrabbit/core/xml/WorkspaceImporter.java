@@ -21,6 +21,7 @@ import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.WorkspaceImpl;
 import org.apache.jackrabbit.core.config.ImportConfig;
+import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.nodetype.EffectiveNodeType;
@@ -53,17 +54,35 @@ import javax.jcr.version.VersionException;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * <code>WorkspaceImporter</code> ...
+ * <p>
+ * If a {@link #setBatchSize(int) batch size} is set, the content is imported
+ * in batches of that many nodes, each of which is committed in its own
+ * update. The calling thread then only parses the content and spools binary
+ * values to the data store, while the node states of a batch are created on
+ * the repository executor. Optional REFERENCE properties are imported at the
+ * end, once all nodes they may point to exist. Other nodes are validated and
+ * visible to other sessions as soon as their batch is committed, and
+ * batches committed before a failure are not rolled back, so a failed import
+ * leaves the nodes of these batches in place, without their optional
+ * references.
  */
 public class WorkspaceImporter implements Importer {
 
     private static Logger log = LoggerFactory.getLogger(WorkspaceImporter.class);
 
-    private final NodeState importTarget;
+    private NodeState importTarget;
     private final WorkspaceImpl wsp;
     private final SessionImpl session;
     private final InternalVersionManager versionManager;
@@ -72,9 +91,48 @@ public class WorkspaceImporter implements Importer {
 
     private final int uuidBehavior;
 
-    private boolean aborted;
+    private volatile boolean aborted;
     private final Stack<NodeState> parents;
 
+    /**
+     * Data store binary values are spooled to in a batched import,
+     * or <code>null</code> if none is configured.
+     */
+    private final DataStore dataStore;
+
+    /**
+     * Executor the batches of a batched import are imported with.
+     */
+    private final Executor executor;
+
+    /**
+     * Number of nodes after which the nodes imported so far are committed,
+     * or <code>0</code> to import all nodes in a single update.
+     */
+    private int batchSize;
+
+    /**
+     * Events collected for the current batch, or <code>null</code> if the
+     * import is not batched.
+     */
+    private List<ImportEvent> batch;
+
+    /**
+     * Number of nodes completed in the current batch.
+     */
+    private int batchNodes;
+
+    /**
+     * The batch being imported by the executor, if any.
+     */
+    private Future<Void> pendingBatch;
+
+    /**
+     * Optional REFERENCE properties deferred until the end of a batched
+     * import, by the id of the node they belong to.
+     */
+    private Map<NodeId, List<PropInfo>> deferredReferences;
+
     /**
      * helper object that keeps track of remapped uuid's and imported reference
      * properties that might need correcting depending on the uuid mappings
@@ -140,6 +198,8 @@ public class WorkspaceImporter implements Importer {
         this.session = sessionContext.getSessionImpl();
         this.versionManager = session.getInternalVersionManager();
         this.uuidBehavior = uuidBehavior;
+        this.dataStore = sessionContext.getDataStore();
+        this.executor = sessionContext.getRepositoryContext().getExecutor();
 
         itemOps = new BatchedItemOperations(
                 wsp.getItemStateManager(), sessionContext);
@@ -160,6 +220,7 @@ public class WorkspaceImporter implements Importer {
         // for the time being log an exception if an importer is configured that
         // is expected to work with workspace import. see JCR-2521
         if (config != null) {
+            batchSize = config.getBatchSize();
             List<? extends ProtectedItemImporter> pi = config.getProtectedItemImporters();
             for (ProtectedItemImporter ppi : pi) {
                 if (ppi.init(session, session, true, uuidBehavior, refTracker)) {
@@ -170,6 +231,20 @@ public class WorkspaceImporter implements Importer {
         }
     }
 
+    /**
+     * Sets the number of nodes after which the nodes imported so far are
+     * committed. Must be called before the import is started. Committed
+     * batches are not rolled back if the import fails later on. Mandatory
+     * REFERENCE properties must point to nodes that are imported no later
+     * than in the same batch.
+     *
+     * @param batchSize the batch size, or <code>0</code> to import all
+     *                  nodes in a single update
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     /**
      * @param parent parent node state
      * @param conflicting conflicting node state
@@ -419,6 +494,24 @@ public class WorkspaceImporter implements Importer {
                 return;
             }
 
+            prop = null;
+        }
+
+        int targetType = pInfo.getTargetType(def);
+        if (deferredReferences != null && targetType == PropertyType.REFERENCE
+                && !def.isMandatory()) {
+            // the referenced node may be imported in a later batch; the node
+            // is valid without the property until then
+            List<PropInfo> deferred = deferredReferences.get(node.getNodeId());
+            if (deferred == null) {
+                deferred = new ArrayList<PropInfo>();
+                deferredReferences.put(node.getNodeId(), deferred);
+            }
+            deferred.add(pInfo);
+            return;
+        }
+
+        if (prop == null) {
             // create new property
             prop = itemOps.createPropertyState(node, name, type, def);
         }
@@ -431,7 +524,6 @@ public class WorkspaceImporter implements Importer {
         }
 
         // convert serialized values to InternalValue objects
-        int targetType = pInfo.getTargetType(def);
         InternalValue[] iva = new InternalValue[values.length];
         for (int i = 0; i < values.length; i++) {
             iva[i] = values[i].getInternalValue(targetType);
@@ -440,11 +532,17 @@ public class WorkspaceImporter implements Importer {
         // set values
         prop.setValues(iva);
 
+        boolean reference = prop.getType() == PropertyType.REFERENCE
+                || prop.getType() == PropertyType.WEAKREFERENCE;
+        if (reference && batchSize > 0) {
+            // the property may be committed before the end of the import
+            adjustReferences(prop);
+        }
+
         // make sure property is valid according to its definition
         itemOps.validate(prop);
 
-        if (prop.getType() == PropertyType.REFERENCE
-                || prop.getType() == PropertyType.WEAKREFERENCE) {
+        if (reference) {
             // store reference for later resolution
             refTracker.processedReference(prop);
         }
@@ -482,6 +580,85 @@ public class WorkspaceImporter implements Importer {
      * {@inheritDoc}
      */
     public void start() throws RepositoryException {
+        if (batchSize > 0) {
+            // every batch is imported in its own update
+            batch = new ArrayList<ImportEvent>();
+            deferredReferences = new LinkedHashMap<NodeId, List<PropInfo>>();
+        } else {
+            edit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void startNode(NodeInfo nodeInfo, List<PropInfo> propInfos)
+            throws RepositoryException {
+        if (aborted) {
+            // the import has been aborted, get outta here...
+            return;
+        }
+        if (batch == null) {
+            importNode(nodeInfo, propInfos);
+            return;
+        }
+
+        // the property values are disposed once this method returns
+        List<PropInfo> detached = new ArrayList<PropInfo>(propInfos.size());
+        for (PropInfo propInfo : propInfos) {
+            detached.add(detach(propInfo));
+        }
+        batch.add(new ImportEvent(nodeInfo, detached));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void endNode(NodeInfo nodeInfo) throws RepositoryException {
+        if (aborted) {
+            // the import has been aborted, get outta here...
+            return;
+        }
+        if (batch == null) {
+            finishNode();
+            return;
+        }
+
+        batch.add(new ImportEvent(null, null));
+        if (++batchNodes >= batchSize) {
+            submitBatch(false);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void end() throws RepositoryException {
+        if (batch != null) {
+            submitBatch(true);
+            awaitBatch();
+            return;
+        }
+        if (aborted) {
+            // the import has been aborted, get outta here...
+            return;
+        }
+
+        finishImport();
+        if (!aborted) {
+            // finish update
+            itemOps.update();
+        }
+    }
+
+    //-------------------------------------------------------< implementation >
+
+    /**
+     * Starts an update operation.
+     *
+     * @throws RepositoryException if the update operation cannot be started
+     */
+    private void edit() throws RepositoryException {
         try {
             // start update operation
             itemOps.edit();
@@ -494,9 +671,13 @@ public class WorkspaceImporter implements Importer {
     }
 
     /**
-     * {@inheritDoc}
+     * Imports a node and its properties.
+     *
+     * @param nodeInfo the node info
+     * @param propInfos the property infos of the node
+     * @throws RepositoryException if the node cannot be imported
      */
-    public void startNode(NodeInfo nodeInfo, List<PropInfo> propInfos)
+    private void importNode(NodeInfo nodeInfo, List<PropInfo> propInfos)
             throws RepositoryException {
         if (aborted) {
             // the import has been aborted, get outta here...
@@ -647,9 +828,11 @@ public class WorkspaceImporter implements Importer {
     }
 
     /**
-     * {@inheritDoc}
+     * Completes the import of the node most recently started.
+     *
+     * @throws RepositoryException if the node is not valid
      */
-    public void endNode(NodeInfo nodeInfo) throws RepositoryException {
+    private void finishNode() throws RepositoryException {
         if (aborted) {
             // the import has been aborted, get outta here...
             return;
@@ -683,19 +866,21 @@ public class WorkspaceImporter implements Importer {
     }
 
     /**
-     * {@inheritDoc}
+     * Completes the import by adjusting references and storing the import
+     * target. Does not finish the update operation.
+     *
+     * @throws RepositoryException if the import cannot be completed
      */
-    public void end() throws RepositoryException {
-        if (aborted) {
-            // the import has been aborted, get outta here...
-            return;
-        }
-
+    private void finishImport() throws RepositoryException {
         boolean succeeded = false;
         try {
             // check sanity of workspace/session first
             wsp.sanityCheck();
 
+            if (deferredReferences != null) {
+                importDeferredReferences();
+            }
+
             /**
              * adjust references that refer to uuids which have been mapped to
              * newly generated uuids on import
@@ -703,29 +888,16 @@ public class WorkspaceImporter implements Importer {
             Iterator<Object> iter = refTracker.getProcessedReferences();
             while (iter.hasNext()) {
                 PropertyState prop = (PropertyState) iter.next();
+                if (batchSize > 0) {
+                    // the property may have been committed with an earlier batch
+                    prop = itemOps.getPropertyState(prop.getPropertyId());
+                }
                 // being paranoid...
                 if (prop.getType() != PropertyType.REFERENCE
                     && prop.getType() != PropertyType.WEAKREFERENCE) {
                     continue;
                 }
-                boolean modified = false;
-                InternalValue[] values = prop.getValues();
-                InternalValue[] newVals = new InternalValue[values.length];
-                for (int i = 0; i < values.length; i++) {
-                    NodeId adjusted =
-                        refTracker.getMappedId(values[i].getNodeId());
-                    if (adjusted != null) {
-                        newVals[i] = InternalValue.create(
-                                adjusted,
-                                prop.getType() != PropertyType.REFERENCE);
-                        modified = true;
-                    } else {
-                        // reference doesn't need adjusting, just copy old value
-                        newVals[i] = values[i];
-                    }
-                }
-                if (modified) {
-                    prop.setValues(newVals);
+                if (adjustReferences(prop)) {
                     itemOps.store(prop);
                 }
             }
@@ -745,10 +917,200 @@ public class WorkspaceImporter implements Importer {
                 itemOps.cancel();
             }
         }
+    }
+
+    /**
+     * Adjusts the values of a reference property that refer to uuids which
+     * have been mapped to newly generated uuids on import so far.
+     *
+     * @param prop reference property
+     * @return <code>true</code> if some value has been adjusted
+     */
+    private boolean adjustReferences(PropertyState prop) {
+        boolean modified = false;
+        InternalValue[] values = prop.getValues();
+        InternalValue[] newVals = new InternalValue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            NodeId adjusted =
+                refTracker.getMappedId(values[i].getNodeId());
+            if (adjusted != null) {
+                newVals[i] = InternalValue.create(
+                        adjusted,
+                        prop.getType() != PropertyType.REFERENCE);
+                modified = true;
+            } else {
+                // reference doesn't need adjusting, just copy old value
+                newVals[i] = values[i];
+            }
+        }
+        if (modified) {
+            prop.setValues(newVals);
+        }
+        return modified;
+    }
+
+    /**
+     * Imports the optional REFERENCE properties deferred until the end of a
+     * batched import, and validates the nodes they belong to again.
+     *
+     * @throws RepositoryException if a property cannot be imported
+     */
+    private void importDeferredReferences() throws RepositoryException {
+        Map<NodeId, List<PropInfo>> deferred = deferredReferences;
+        deferredReferences = null;
+        for (Map.Entry<NodeId, List<PropInfo>> entry : deferred.entrySet()) {
+            NodeState node = itemOps.getNodeState(entry.getKey());
+            for (PropInfo propInfo : entry.getValue()) {
+                processProperty(node, propInfo);
+            }
+            itemOps.validate(node);
+            itemOps.store(node);
+        }
+    }
+
+    /**
+     * Returns a copy of the given property info whose values remain valid
+     * after the original values have been disposed. BINARY values are
+     * spooled to the data store.
+     *
+     * @param propInfo the property info
+     * @return the detached property info
+     * @throws RepositoryException if a value cannot be read
+     */
+    private PropInfo detach(PropInfo propInfo) throws RepositoryException {
+        TextValue[] values = propInfo.getTextValues();
+        TextValue[] detached = new TextValue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof BufferedStringValue) {
+                detached[i] = ((BufferedStringValue) values[i]).detach(
+                        propInfo.getType(), dataStore);
+            } else {
+                // other values are immutable
+                detached[i] = values[i];
+            }
+        }
+        return new PropInfo(propInfo.getName(), propInfo.getType(),
+                detached, propInfo.getMultipleStatus());
+    }
+
+    /**
+     * Hands the current batch over to the executor, once the previous batch
+     * has been imported.
+     *
+     * @param last whether this is the last batch of the import
+     * @throws RepositoryException if the previous batch failed
+     */
+    private void submitBatch(final boolean last) throws RepositoryException {
+        awaitBatch();
+        if (aborted) {
+            return;
+        }
+        final List<ImportEvent> events = batch;
+        batch = new ArrayList<ImportEvent>();
+        batchNodes = 0;
+
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws RepositoryException {
+                importBatch(events, last);
+                return null;
+            }
+        });
+        pendingBatch = task;
+        executor.execute(task);
+    }
+
+    /**
+     * Waits until the batch being imported by the executor, if any, has
+     * been committed.
+     *
+     * @throws RepositoryException if the batch failed
+     */
+    private void awaitBatch() throws RepositoryException {
+        if (pendingBatch == null) {
+            return;
+        }
+        try {
+            pendingBatch.get();
+            pendingBatch = null;
+        } catch (InterruptedException e) {
+            throw new RepositoryException(
+                    "Interrupted while waiting for a batch to be imported", e);
+        } catch (ExecutionException e) {
+            pendingBatch = null;
+            aborted = true;
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException(
+                    "Failed to import a batch of nodes", e.getCause());
+        }
+    }
+
+    /**
+     * Imports the given events in a single update operation.
+     *
+     * @param events the events of the batch
+     * @param last whether this is the last batch of the import
+     * @throws RepositoryException if the batch cannot be imported
+     */
+    private void importBatch(List<ImportEvent> events, boolean last)
+            throws RepositoryException {
+        edit();
+
+        boolean succeeded = false;
+        try {
+            // states read by the previous batch have since been committed
+            importTarget = itemOps.getNodeState(importTarget.getNodeId());
+            for (int i = 0; i < parents.size(); i++) {
+                NodeState parent = parents.get(i);
+                if (parent != null) {
+                    parents.set(i, itemOps.getNodeState(parent.getNodeId()));
+                }
+            }
+            succeeded = true;
+        } finally {
+            if (!succeeded) {
+                aborted = true;
+                itemOps.cancel();
+            }
+        }
+
+        for (ImportEvent event : events) {
+            if (event.nodeInfo != null) {
+                importNode(event.nodeInfo, event.propInfos);
+            } else {
+                finishNode();
+            }
+        }
+        if (last) {
+            finishImport();
+        }
 
         if (!aborted) {
-            // finish update
-            itemOps.update();
+            try {
+                itemOps.update();
+            } catch (RepositoryException e) {
+                // discard the changes of the failed batch
+                aborted = true;
+                itemOps.cancel();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Start or end of a node in a batched import. The end of a node is
+     * represented by an event without node info.
+     */
+    private static class ImportEvent {
+
+        private final NodeInfo nodeInfo;
+
+        private final List<PropInfo> propInfos;
+
+        public ImportEvent(NodeInfo nodeInfo, List<PropInfo> propInfos) {
+            this.nodeInfo = nodeInfo;
+            this.propInfos = propInfos;
         }
     }
 
@@ -29,10 +29,14 @@ import org.apache.jackrabbit.core.cluster.SimpleEventListener.UnlockEvent;
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
@@ -145,6 +149,184 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test producing and consuming an update in compact encoding.
+     * @throws Exception
+     */
+    public void testCompactUpdateOperation() throws Exception {
+        AbstractJournal journal = (AbstractJournal) master.getJournal();
+        journal.setCompactRecords(true);
+        journal.setCompressionThreshold(-1);
+
+        verifyUpdateOperation(factory.createUpdateOperation());
+        verifyUpdateOperation(factory.createUpdateOperationWithNullUserId());
+    }
+
+    /**
+     * Test producing and consuming an update in compact, deflated encoding.
+     * @throws Exception
+     */
+    public void testCompressedUpdateOperation() throws Exception {
+        AbstractJournal journal = (AbstractJournal) master.getJournal();
+        journal.setCompactRecords(true);
+        journal.setCompressionThreshold(0);
+
+        verifyUpdateOperation(factory.createUpdateOperation());
+    }
+
+    /**
+     * Verify that the compact encoding of an update is smaller than the
+     * default one.
+     * @throws Exception
+     */
+    public void testCompactUpdateOperationSize() throws Exception {
+        UpdateEvent update = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+
+        AbstractJournal journal = (AbstractJournal) master.getJournal();
+        journal.setCompactRecords(true);
+        journal.setCompressionThreshold(-1);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+
+        assertEquals(2, records.size());
+        assertTrue(records.get(1).getData().length < records.get(0).getData().length);
+    }
+
+    /**
+     * Test consuming consecutive updates as one coalesced update.
+     * @throws Exception
+     */
+    public void testCoalescedUpdateOperations() throws Exception {
+        slave.stop();
+        slave = createClusterNode("slave", records, 10);
+
+        UpdateEvent update1 = factory.createUpdateOperation();
+        UpdateEvent update2 = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (UpdateEvent update : new UpdateEvent[] { update1, update2 }) {
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        UpdateEvent coalesced = (UpdateEvent) listener.getClusterEvents().get(0);
+        assertEquals(update1.getEvents().size() + update2.getEvents().size(),
+                coalesced.getEvents().size());
+        assertEquals(update2.getTimestamp(), coalesced.getTimestamp());
+        assertEquals(update1.getUserData(), coalesced.getUserData());
+        for (UpdateEvent update : new UpdateEvent[] { update1, update2 }) {
+            for (ItemState state : update.getChanges().addedStates()) {
+                assertTrue(coalesced.getChanges().isAdded(state.getId()));
+            }
+            for (ItemState state : update.getChanges().modifiedStates()) {
+                assertTrue(coalesced.getChanges().isModified(state.getId()));
+            }
+            for (ItemState state : update.getChanges().deletedStates()) {
+                assertTrue(coalesced.getChanges().deleted(state.getId()));
+            }
+        }
+        assertEquals(2, slave.getRevision());
+    }
+
+    /**
+     * Test that coalescing reports an item as deleted if it was modified
+     * first and deleted afterwards, and as modified if it was added first
+     * and modified afterwards.
+     * @throws Exception
+     */
+    public void testCoalescedUpdateOperationsMergeStates() throws Exception {
+        slave.stop();
+        slave = createClusterNode("slave", records, 10);
+
+        NodeState n1 = factory.createNodeState();
+        NodeState n2 = factory.createNodeState();
+
+        ChangeLog changes1 = new ChangeLog();
+        changes1.modified(n1);
+        changes1.added(n2);
+        ChangeLog changes2 = new ChangeLog();
+        changes2.deleted(factory.createNodeState(n1.getNodeId()));
+        changes2.modified(factory.createNodeState(n2.getNodeId()));
+
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (ChangeLog changes : new ChangeLog[] { changes1, changes2 }) {
+            UpdateEvent update = new UpdateEvent(changes, new ArrayList(),
+                    System.currentTimeMillis(), null);
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        ChangeLog coalesced = ((UpdateEvent) listener.getClusterEvents().get(0)).getChanges();
+        assertTrue(coalesced.deleted(n1.getNodeId()));
+        assertFalse(coalesced.isModified(n1.getNodeId()));
+        assertTrue(coalesced.isModified(n2.getNodeId()));
+        assertFalse(coalesced.isAdded(n2.getNodeId()));
+    }
+
+    /**
+     * Test that updates with different user data are not coalesced.
+     * @throws Exception
+     */
+    public void testUpdateOperationsWithDifferentUserDataNotCoalesced() throws Exception {
+        slave.stop();
+        slave = createClusterNode("slave", records, 10);
+
+        UpdateEvent update1 = factory.createUpdateOperation();
+        UpdateEvent update2 = factory.createUpdateOperation();
+        update2 = new UpdateEvent(update2.getChanges(), update2.getEvents(),
+                update2.getTimestamp(), "other-user-data");
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (UpdateEvent update : new UpdateEvent[] { update1, update2 }) {
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(2, listener.getClusterEvents().size());
+        assertEquals(listener.getClusterEvents().get(0), update1);
+        assertEquals(listener.getClusterEvents().get(1), update2);
+    }
+
+    /**
+     * Produce an update on the master and verify that the slave reads it back.
+     *
+     * @param update update
+     * @throws Exception
+     */
+    private void verifyUpdateOperation(UpdateEvent update) throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        assertEquals(listener.getClusterEvents().get(0), update);
+    }
+
     /**
      * Test producing and consuming a lock operation.
      * @throws Exception
@@ -307,6 +489,19 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
+        return createClusterNode(id, records, 0);
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param records memory journal's list of records
+     * @param catchUpBatchSize maximum number of updates applied as one
+     */
+    private ClusterNode createClusterNode(
+            String id, ArrayList<MemoryRecord> records, int catchUpBatchSize)
+            throws Exception {
         final MemoryJournal journal = new MemoryJournal();
         JournalFactory jf = new JournalFactory() {
             public Journal getJournal(NamespaceResolver resolver)
@@ -314,7 +509,8 @@ public class ClusterRecordTest extends JUnitTest {
                 return journal;
             }
         };
-        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jf);
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, -1, jf, null,
+                catchUpBatchSize);
         SimpleClusterContext context = new SimpleClusterContext(cc);
 
         journal.setRepositoryHome(context.getRepositoryHome());
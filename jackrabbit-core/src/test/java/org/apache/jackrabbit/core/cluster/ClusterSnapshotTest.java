@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests bootstrapping a cluster node from a snapshot of another one.
+ */
+public class ClusterSnapshotTest extends JUnitTest {
+
+    private static final String TEST_DIRECTORY = "./target/clusterSnapshotTest";
+
+    private static final File NODE1 = new File(TEST_DIRECTORY, "node1");
+
+    private static final File NODE2 = new File(TEST_DIRECTORY, "node2");
+
+    private static final File SNAPSHOT = new File(TEST_DIRECTORY, "snapshot");
+
+    public void setUp() throws Exception {
+        deleteAll();
+
+        FileUtils.copyFile(
+                new File("./src/test/resources/org/apache/jackrabbit/core/cluster/repository-h2.xml"),
+                new File(NODE1, "repository.xml"));
+        FileUtils.copyFile(
+                new File("./src/test/resources/org/apache/jackrabbit/core/cluster/repository-h2.xml"),
+                new File(NODE2, "repository.xml"));
+    }
+
+    public void tearDown() throws Exception {
+        deleteAll();
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(new File(TEST_DIRECTORY));
+    }
+
+    /**
+     * Create a snapshot on one cluster node, start a new cluster node from
+     * it and verify that changes made before and after the snapshot are
+     * visible in the search index of the new node.
+     */
+    public void testBootstrapFromSnapshot() throws Exception {
+        RepositoryImpl rep1 = RepositoryImpl.create(RepositoryConfig.create(NODE1));
+        try {
+            Session s1 = rep1.login(new SimpleCredentials("admin", "admin".toCharArray()));
+            s1.getRootNode().addNode("beforeSnapshot");
+            s1.save();
+
+            long revision = rep1.createClusterSnapshot(SNAPSHOT);
+            assertTrue(revision > 0);
+            assertTrue(new File(SNAPSHOT, ClusterNode.SNAPSHOT_FILE).exists());
+            assertTrue(new File(SNAPSHOT, "workspaces/default/index").list().length > 0);
+            assertTrue(new File(SNAPSHOT, "repository/index").list().length > 0);
+
+            s1.getRootNode().addNode("afterSnapshot");
+            s1.save();
+            s1.logout();
+
+            FileUtils.copyDirectory(SNAPSHOT, NODE2);
+            RepositoryImpl rep2 = RepositoryImpl.create(RepositoryConfig.create(NODE2));
+            try {
+                assertFalse(new File(NODE2, ClusterNode.SNAPSHOT_FILE).exists());
+
+                Session s2 = rep2.login(new SimpleCredentials("admin", "admin".toCharArray()));
+                assertEquals(1, count(s2, "beforeSnapshot"));
+                assertEquals(1, count(s2, "afterSnapshot"));
+                s2.logout();
+            } finally {
+                rep2.shutdown();
+            }
+        } finally {
+            rep1.shutdown();
+        }
+    }
+
+    private static long count(Session session, String name) throws Exception {
+        QueryManager qm = session.getWorkspace().getQueryManager();
+        Query query = qm.createQuery("//" + name, Query.XPATH);
+        return query.execute().getNodes().getSize();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for cluster notification channels.
+ */
+public class NotificationChannelTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Sync delay long enough to never elapse during a test: 10 minutes. */
+    private static final long SYNC_DELAY = 10 * 60 * 1000;
+
+    /** Maximum time to wait for a notification. */
+    private static final long TIMEOUT = 5000;
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /**
+     * Verify that a node synchronizes as soon as a peer signals an append,
+     * without waiting for the synchronization delay.
+     *
+     * @throws Exception
+     */
+    public void testSyncOnNotification() throws Exception {
+        ClusterNode master = createClusterNode("master");
+        ClusterNode slave = createClusterNode("slave");
+        try {
+            master.start();
+            slave.start();
+
+            slave.createLockChannel(DEFAULT_WORKSPACE).setListener(new SimpleEventListener());
+            LockEventChannel channel = master.createLockChannel(DEFAULT_WORKSPACE);
+            channel.create(NodeId.randomId(), true, "admin").ended(true);
+
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (slave.getRevision() != master.getRevision()
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(master.getRevision(), slave.getRevision());
+        } finally {
+            slave.stop();
+            master.stop();
+        }
+    }
+
+    /**
+     * Verify that socket channels deliver notifications to their peers,
+     * but not to themselves.
+     *
+     * @throws Exception
+     */
+    public void testSocketNotificationChannel() throws Exception {
+        int port1 = getFreePort();
+        int port2 = getFreePort();
+
+        SocketNotificationChannel channel1 = createSocketChannel(port1, port2);
+        SocketNotificationChannel channel2 = createSocketChannel(port2, port1);
+        QueueListener listener1 = new QueueListener();
+        QueueListener listener2 = new QueueListener();
+        channel1.init("node1", listener1);
+        try {
+            channel2.init("node2", listener2);
+            try {
+                channel1.appended(42);
+                assertEquals("node1:42", listener2.queue.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+                channel2.appended(43);
+                assertEquals("node2:43", listener1.queue.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+                assertTrue(listener1.queue.isEmpty());
+                assertTrue(listener2.queue.isEmpty());
+            } finally {
+                channel2.close();
+            }
+        } finally {
+            channel1.close();
+        }
+    }
+
+    private static SocketNotificationChannel createSocketChannel(int port, int peerPort) {
+        SocketNotificationChannel channel = new SocketNotificationChannel();
+        channel.setHost("127.0.0.1");
+        channel.setPort(port);
+        channel.setPeers("127.0.0.1:" + peerPort + ", 127.0.0.1:" + port);
+        return channel;
+    }
+
+    private static int getFreePort() throws Exception {
+        DatagramSocket socket = new DatagramSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing the shared list
+     * of records and a local notification channel.
+     *
+     * @param id cluster node id
+     */
+    private ClusterNode createClusterNode(String id) throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        NotificationChannelFactory ncf = new NotificationChannelFactory() {
+            public NotificationChannel getNotificationChannel() {
+                LocalNotificationChannel channel = new LocalNotificationChannel();
+                channel.setGroup(getName());
+                return channel;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, -1, jf, ncf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        clusterNode.setStopDelay(TIMEOUT);
+        return clusterNode;
+    }
+
+    /**
+     * Listener collecting notifications.
+     */
+    static class QueueListener implements NotificationListener {
+
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(10);
+
+        public void appended(String clusterNodeId, long revision) {
+            queue.add(clusterNodeId + ":" + revision);
+        }
+    }
+}
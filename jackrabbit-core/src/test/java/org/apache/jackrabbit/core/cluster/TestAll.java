@@ -38,10 +38,12 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite();
 
         suite.addTestSuite(ClusterRecordTest.class);
+        suite.addTestSuite(ClusterSnapshotTest.class);
         suite.addTestSuite(ClusterSyncTest.class);
         suite.addTestSuite(DbClusterTest.class);
         suite.addTestSuite(DbClusterTestJCR3162.class);
         suite.addTestSuite(FailUpdateOnJournalExceptionTest.class);
+        suite.addTestSuite(NotificationChannelTest.class);
 
         return suite;
     }
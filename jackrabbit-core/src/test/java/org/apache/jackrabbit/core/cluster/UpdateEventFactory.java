@@ -154,9 +154,19 @@ public class UpdateEventFactory {
      * @return node state
      */
     protected NodeState createNodeState() {
+        return createNodeState(NodeId.randomId());
+    }
+
+    /**
+     * Create a node state with a given id.
+     *
+     * @param id node id
+     * @return node state
+     */
+    protected NodeState createNodeState(NodeId id) {
         Name ntName = nameFactory.create("{}testnt");
         NodeState n = new NodeState(
-                NodeId.randomId(), ntName,
+                id, ntName,
                 ROOT_NODE_ID, NodeState.STATUS_EXISTING, false);
         n.setMixinTypeNames(Collections.EMPTY_SET);
         return n;
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Value;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
+import org.apache.jackrabbit.core.gc.GarbageCollector;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests the data store garbage collection using the binary reference log.
+ */
+public class BinaryReferenceLogTest extends JUnitTest {
+
+    private static final File TEST_DIR = new File("target/binaryReferenceLogTest");
+
+    private RepositoryImpl repository;
+
+    private Session session;
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(TEST_DIR);
+        RepositoryConfig.install(TEST_DIR);
+        // the reference log is not used in a cluster
+        File xml = new File(TEST_DIR, "repository.xml");
+        String config = FileUtils.readFileToString(xml, "UTF-8");
+        config = config.replaceAll("(?s)<Cluster.*</Cluster>", "");
+        FileUtils.writeStringToFile(xml, config, "UTF-8");
+    }
+
+    protected void tearDown() throws Exception {
+        stop();
+        System.clearProperty(BinaryReferenceLog.ENABLED_PROPERTY);
+        FileUtils.deleteDirectory(TEST_DIR);
+    }
+
+    public void testMarkFromLog() throws Exception {
+        start(true);
+        Node root = session.getRootNode();
+        Node shared1 = addBinary(root, "shared1", 1);
+        addBinary(root, "shared2", 1);
+        Node unreferenced = addBinary(root, "unreferenced", 2);
+        Node copied = addBinary(root, "copied", 3);
+        session.save();
+        String sharedId = getIdentifier(shared1);
+        String unreferencedId = getIdentifier(unreferenced);
+        String copiedId = getIdentifier(copied);
+        Value copiedValue = copied.getProperty("data").getValue();
+        shared1.remove();
+        unreferenced.remove();
+        copied.remove();
+        session.save();
+        assertTrue(new File(TEST_DIR, "binaryReferences.log").length() > 0);
+
+        GarbageCollector gc = repository.createDataStoreGarbageCollector();
+        try {
+            // make sure the files are old (access time resolution is 2 seconds)
+            Thread.sleep(2000);
+            gc.mark();
+            // a reference to an unreferenced binary is added after the mark
+            root.addNode("copy").setProperty("data", copiedValue);
+            session.save();
+            gc.getDataStore().clearInUse();
+            gc.sweep();
+        } finally {
+            gc.close();
+        }
+
+        DataStore store = gc.getDataStore();
+        assertNotNull(store.getRecordIfStored(new DataIdentifier(sharedId)));
+        assertNull(store.getRecordIfStored(new DataIdentifier(unreferencedId)));
+        assertNotNull(store.getRecordIfStored(new DataIdentifier(copiedId)));
+    }
+
+    public void testRebuild() throws Exception {
+        start(false);
+        Node root = session.getRootNode();
+        Node kept = addBinary(root, "kept", 1);
+        Node removed = addBinary(root, "removed", 2);
+        session.save();
+        String keptId = getIdentifier(kept);
+        String removedId = getIdentifier(removed);
+        removed.remove();
+        session.save();
+        stop();
+
+        start(true);
+        GarbageCollector gc = repository.createDataStoreGarbageCollector();
+        try {
+            assertFalse(isLogComplete());
+            gc.rebuildReferenceLog();
+            assertTrue(isLogComplete());
+            Thread.sleep(2000);
+            gc.mark();
+            gc.getDataStore().clearInUse();
+            gc.sweep();
+        } finally {
+            gc.close();
+        }
+        DataStore store = gc.getDataStore();
+        assertNotNull(store.getRecordIfStored(new DataIdentifier(keptId)));
+        assertNull(store.getRecordIfStored(new DataIdentifier(removedId)));
+
+        // the log survives a restart
+        stop();
+        start(true);
+        assertTrue(isLogComplete());
+    }
+
+    public void testStopDuringCompaction() throws Exception {
+        File dir = new File(TEST_DIR, "log");
+        File logFile = new File(dir, "binaryReferences.log");
+        dir.mkdirs();
+        BinaryReferenceLog log = new BinaryReferenceLog(dir);
+        log.open(true);
+        log.added(Arrays.asList("a", "a", "b"));
+        log.compact();
+        log.removed(Arrays.asList("a", "b"));
+        File oldLog = new File(TEST_DIR, "old.log");
+        FileUtils.copyFile(logFile, oldLog);
+        log.compact();
+        log.close();
+        assertEquals(Collections.singleton("a"), log.getReferences());
+
+        // the repository stopped after the snapshot was written,
+        // before the compacted log was deleted
+        FileUtils.copyFile(oldLog, logFile);
+        log = new BinaryReferenceLog(dir);
+        log.open(false);
+        try {
+            assertTrue(log.isComplete());
+            assertEquals(Collections.singleton("a"), log.getReferences());
+            log.added(Collections.singleton("c"));
+        } finally {
+            log.close();
+        }
+
+        log = new BinaryReferenceLog(dir);
+        log.open(false);
+        try {
+            assertEquals(new HashSet<String>(Arrays.asList("a", "c")), log.getReferences());
+        } finally {
+            log.close();
+        }
+    }
+
+    private void start(boolean referenceLog) throws Exception {
+        if (referenceLog) {
+            System.setProperty(BinaryReferenceLog.ENABLED_PROPERTY, "true");
+        } else {
+            System.clearProperty(BinaryReferenceLog.ENABLED_PROPERTY);
+        }
+        repository = RepositoryImpl.create(RepositoryConfig.create(TEST_DIR));
+        session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private void stop() {
+        if (session != null) {
+            session.logout();
+            session = null;
+        }
+        if (repository != null) {
+            repository.shutdown();
+            repository = null;
+        }
+    }
+
+    private static boolean isLogComplete() throws IOException {
+        File snapshot = new File(TEST_DIR, "binaryReferences.snapshot");
+        return FileUtils.readLines(snapshot, "UTF-8").get(0).startsWith("#complete ");
+    }
+
+    private static Node addBinary(Node parent, String name, int seed)
+            throws RepositoryException, IOException {
+        Node n = parent.addNode(name);
+        n.setProperty("data", parent.getSession().getValueFactory().createBinary(
+                new RandomInputStream(seed, 10000)));
+        return n;
+    }
+
+    private static String getIdentifier(Node n) throws RepositoryException {
+        return ((JackrabbitValue) n.getProperty("data").getValue()).getContentIdentity();
+    }
+
+}
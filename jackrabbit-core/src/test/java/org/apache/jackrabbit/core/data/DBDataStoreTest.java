@@ -19,8 +19,11 @@ package org.apache.jackrabbit.core.data;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Random;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.data.db.DbDataStore;
 import org.apache.jackrabbit.core.util.db.ConnectionFactory;
 import org.apache.jackrabbit.test.JUnitTest;
@@ -186,4 +189,62 @@ public class DBDataStoreTest extends JUnitTest {
         }
     }
 
+    public void testStreamingRead() throws Exception {
+        DbDataStore streaming = new DbDataStore();
+        streaming.setConnectionFactory(new ConnectionFactory());
+        streaming.setUrl("jdbc:derby:target/test-db-datastore/db;create=true");
+        streaming.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        streaming.setCopyWhenReading(false);
+        streaming.setMaxStreamingReads(2);
+        streaming.init("target/test-db-datastore");
+        try {
+            // more open streams than streaming reads: the others are copied
+            InputStream[] streams = new InputStream[5];
+            for (int i = 0; i < streams.length; i++) {
+                streams[i] = streaming.getRecord(identifier).getStream();
+                assertEquals(data[0] & 0xff, streams[i].read());
+            }
+            for (int i = 0; i < streams.length; i++) {
+                byte[] rest = IOUtils.toByteArray(streams[i]);
+                assertEquals(data.length - 1, rest.length);
+                assertEquals(data[1], rest[0]);
+                streams[i].close();
+            }
+
+            // all streaming reads are available again
+            streams = new InputStream[2];
+            for (int i = 0; i < streams.length; i++) {
+                streams[i] = streaming.getRecord(identifier).getStream();
+                assertEquals(data[0] & 0xff, streams[i].read());
+                streams[i].close();
+            }
+        } finally {
+            streaming.close();
+        }
+    }
+
+    public void testRangeRead() throws Exception {
+        for (boolean copy : new boolean[] { true, false }) {
+            store.setCopyWhenReading(copy);
+            AbstractDataRecord record =
+                (AbstractDataRecord) store.getRecord(identifier);
+            for (int position : new int[] { 0, 1, 500, data.length - 1, data.length }) {
+                ReadableByteChannel channel = record.getChannel(position);
+                ByteBuffer buffer = ByteBuffer.allocate(data.length + 1);
+                try {
+                    while (channel.read(buffer) >= 0) {
+                        // read to the end
+                    }
+                } finally {
+                    channel.close();
+                }
+                buffer.flip();
+                assertEquals(data.length - position, buffer.remaining());
+                for (int i = position; i < data.length; i++) {
+                    assertEquals(data[i], buffer.get());
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.api.management.MarkEventListener;
+import org.apache.jackrabbit.core.RepositoryContext;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.gc.GarbageCollector;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.BinaryReferenceScanner;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Test the data store garbage collection using the binary reference scan
+ * of the persistence managers, including pausing and resuming the scan.
+ */
+public class GCBinaryReferenceScanTest extends AbstractJCRTest {
+
+    private RepositoryContext context;
+
+    private BinaryReferenceScanner pm;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        RepositoryImpl rep = (RepositoryImpl) superuser.getRepository();
+        Field f = RepositoryImpl.class.getDeclaredField("context");
+        f.setAccessible(true);
+        context = (RepositoryContext) f.get(rep);
+        Method m = RepositoryImpl.class.getDeclaredMethod(
+                "getWorkspaceInfo", new Class[] { String.class });
+        m.setAccessible(true);
+        Object info = m.invoke(rep, superuser.getWorkspace().getName());
+        m = info.getClass().getDeclaredMethod("getPersistenceManager", new Class[0]);
+        m.setAccessible(true);
+        Object p = m.invoke(info, new Object[0]);
+        if (p instanceof BinaryReferenceScanner) {
+            pm = (BinaryReferenceScanner) p;
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        context = null;
+        pm = null;
+        super.tearDown();
+    }
+
+    public void testGetAllBinaryReferences() throws Exception {
+        if (pm == null || context.getDataStore() == null) {
+            return;
+        }
+        Session session = testRootNode.getSession();
+        ValueFactory vf = session.getValueFactory();
+        Node n = testRootNode.addNode("node");
+        n.setProperty("data", vf.createBinary(new RandomInputStream(1, 1000)));
+        session.save();
+        String id = getIdentifier(n);
+
+        Set<String> all = new HashSet<String>();
+        Set<String> batched = new HashSet<String>();
+        assertNotNull(pm.getAllBinaryReferences(null, 0, all));
+        NodeId after = null;
+        while ((after = pm.getAllBinaryReferences(after, 3, batched)) != null) {
+            // read all batches
+        }
+        assertEquals(all, batched);
+        assertTrue(all.contains("dataStore:" + id));
+    }
+
+    public void testPauseAndResume() throws Exception {
+        if (pm == null || context.getDataStore() == null) {
+            return;
+        }
+        Session session = testRootNode.getSession();
+        ValueFactory vf = session.getValueFactory();
+        for (int i = 0; i < 10; i++) {
+            testRootNode.addNode("node" + i).setProperty("data",
+                    vf.createBinary(new RandomInputStream(i, 1000)));
+        }
+        Node removed = testRootNode.addNode("removed");
+        removed.setProperty("data",
+                vf.createBinary(new RandomInputStream(100, 1000)));
+        session.save();
+        String removedId = getIdentifier(removed);
+        String keptId = getIdentifier(testRootNode.getNode("node5"));
+        removed.remove();
+        session.save();
+
+        final AtomicInteger batches = new AtomicInteger();
+        GarbageCollector gc = createGarbageCollector();
+        DataStore store = gc.getDataStore();
+        if (store instanceof FileDataStore) {
+            // make sure the file is old (access time resolution is 2 seconds)
+            Thread.sleep(2000);
+        }
+        int resumed;
+        try {
+            final GarbageCollector pausing = gc;
+            gc.setBinaryReferenceScan(true);
+            gc.setBinaryReferenceBatchSize(10);
+            gc.setMarkEventListener(new MarkEventListener() {
+                public void beforeScanning(Node n) throws RepositoryException {
+                    if (batches.incrementAndGet() == 1) {
+                        pausing.pause();
+                    }
+                }
+            });
+            gc.mark();
+            assertTrue(gc.isMarkIncomplete());
+            try {
+                gc.sweep();
+                fail("Sweep after a paused mark must fail");
+            } catch (RepositoryException e) {
+                // expected
+            }
+            // resumes after the first batch
+            gc.mark();
+            assertFalse(gc.isMarkIncomplete());
+            resumed = batches.get() - 1;
+        } finally {
+            gc.close();
+        }
+
+        // a new collector doesn't resume the scan of a previous one
+        batches.set(0);
+        gc = createGarbageCollector();
+        try {
+            gc.setBinaryReferenceScan(true);
+            gc.setBinaryReferenceBatchSize(10);
+            gc.setMarkEventListener(new MarkEventListener() {
+                public void beforeScanning(Node n) {
+                    batches.incrementAndGet();
+                }
+            });
+            gc.mark();
+            assertFalse(gc.isMarkIncomplete());
+            assertEquals(resumed + 1, batches.get());
+        } finally {
+            gc.close();
+        }
+
+        // the sweep is not run, as only the test workspace was scanned;
+        // instead verify that only the referenced record was marked
+        DataRecord kept = store.getRecord(new DataIdentifier(keptId));
+        DataRecord garbage = store.getRecord(new DataIdentifier(removedId));
+        assertTrue(kept.getLastModified() > garbage.getLastModified());
+        for (int i = 0; i < 10; i++) {
+            InputStream in = testRootNode.getNode("node" + i)
+                    .getProperty("data").getBinary().getStream();
+            try {
+                InputStream expected = new RandomInputStream(i, 1000);
+                for (int b = expected.read(); b >= 0; b = expected.read()) {
+                    assertEquals(b, in.read());
+                }
+                assertEquals(-1, in.read());
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Create a garbage collector for the persistence manager of the test
+     * workspace only, as the other workspaces may use persistence managers
+     * that don't support the binary reference scan. Such a collector must
+     * not sweep, as it does not mark the binaries of the other workspaces.
+     */
+    private GarbageCollector createGarbageCollector() {
+        return new GarbageCollector(context, context.getDataStore(),
+                new IterablePersistenceManager[] { pm }, new SessionImpl[0]);
+    }
+
+    private static String getIdentifier(Node n) throws RepositoryException {
+        return ((JackrabbitValue) n.getProperty("data").getValue()).getContentIdentity();
+    }
+
+}
@@ -42,6 +42,8 @@ public class TestAll extends TestCase {
         suite.addTestSuite(DBDataStoreTest.class);
         suite.addTestSuite(ExportImportTest.class);
         suite.addTestSuite(GarbageCollectorTest.class);
+        suite.addTestSuite(GCBinaryReferenceScanTest.class);
+        suite.addTestSuite(BinaryReferenceLogTest.class);
         suite.addTestSuite(GCConcurrentTest.class);
         suite.addTestSuite(GCEventListenerTest.class);
         suite.addTestSuite(LazyFileInputStreamTest.class);
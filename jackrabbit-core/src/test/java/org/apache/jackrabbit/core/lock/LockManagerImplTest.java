@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.lock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.jcr.Node;
+import javax.jcr.lock.LockException;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests the lock map and the lock log of <code>LockManagerImpl</code>.
+ */
+public class LockManagerImplTest extends AbstractJCRTest {
+
+    private static final String LOCKS_FILE = "/locks";
+
+    private static final String LOCK_LOG_FOLDER = "/locks.log";
+
+    private ScheduledExecutorService executor;
+
+    private FileSystem fs;
+
+    /**
+     * Session passed to the lock managers as system session. Must differ from
+     * the session making changes, as the lock manager does not observe its
+     * own changes.
+     */
+    private SessionImpl systemSession;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        systemSession = (SessionImpl) getHelper().getSuperuserSession();
+        executor = Executors.newSingleThreadScheduledExecutor();
+        fs = new MemoryFileSystem();
+        fs.init();
+    }
+
+    protected void tearDown() throws Exception {
+        fs.close();
+        executor.shutdown();
+        systemSession.logout();
+        super.tearDown();
+    }
+
+    /**
+     * Verify that open-scoped lock changes are appended to the lock log,
+     * and that a new lock manager recovers the locks from the log.
+     */
+    public void testLockLog() throws Exception {
+        NodeImpl n1 = addLockable(nodeName1);
+        NodeImpl n2 = addLockable(nodeName2);
+
+        LockManagerImpl lockMgr = createLockManager();
+        lockMgr.lock(n1, false, false);
+        lockMgr.lock(n2, false, false);
+        lockMgr.unlock(n2);
+        assertEquals(3, fs.listFiles(LOCK_LOG_FOLDER).length);
+        assertFalse(fs.exists(LOCKS_FILE));
+
+        // simulate a crash: do not close the lock manager
+        LockManagerImpl recovered = createLockManager();
+        try {
+            assertTrue(recovered.isLocked(n1));
+            assertFalse(recovered.isLocked(n2));
+            // the log has been compacted into the locks file
+            assertEquals(0, fs.listFiles(LOCK_LOG_FOLDER).length);
+            assertTrue(fs.exists(LOCKS_FILE));
+        } finally {
+            recovered.close();
+        }
+
+        lockMgr.unlock(n1);
+        lockMgr.close();
+    }
+
+    /**
+     * Verify that the lock log is compacted once it reaches the compaction
+     * threshold.
+     */
+    public void testCompaction() throws Exception {
+        NodeImpl n1 = addLockable(nodeName1);
+
+        LockManagerImpl lockMgr = createLockManager();
+        lockMgr.setCompactionThreshold(4);
+        try {
+            lockMgr.lock(n1, false, false);
+            lockMgr.unlock(n1);
+            lockMgr.lock(n1, false, false);
+            assertEquals(3, fs.listFiles(LOCK_LOG_FOLDER).length);
+            lockMgr.unlock(n1);
+            assertEquals(0, fs.listFiles(LOCK_LOG_FOLDER).length);
+            lockMgr.lock(n1, false, false);
+            assertEquals(1, fs.listFiles(LOCK_LOG_FOLDER).length);
+        } finally {
+            lockMgr.unlock(n1);
+            lockMgr.close();
+        }
+    }
+
+    /**
+     * Verify that deep locks apply to descendants, also after the locked
+     * subtree has been moved.
+     */
+    public void testDeepLock() throws Exception {
+        NodeImpl parent = addLockable(nodeName1);
+        Node child = parent.addNode(nodeName2);
+        Node grandChild = child.addNode(nodeName3);
+        superuser.save();
+
+        LockManagerImpl lockMgr = createLockManager();
+        try {
+            lockMgr.lock(parent, true, false);
+            assertTrue(lockMgr.isLocked((NodeImpl) grandChild));
+            assertFalse(lockMgr.holdsLock((NodeImpl) grandChild));
+            assertEquals(parent.getNodeId(),
+                    lockMgr.getLockInfo(((NodeImpl) grandChild).getNodeId()).getId());
+
+            try {
+                lockMgr.lock((NodeImpl) child, false, false);
+                fail("Node below a deep lock must not be lockable");
+            } catch (LockException e) {
+                // expected
+            }
+
+            superuser.move(parent.getPath(), testRoot + "/" + nodeName4);
+            superuser.save();
+            assertTrue(lockMgr.isLocked((NodeImpl) grandChild));
+
+            lockMgr.unlock(parent);
+            assertFalse(lockMgr.isLocked((NodeImpl) grandChild));
+        } finally {
+            lockMgr.close();
+        }
+    }
+
+    /**
+     * Verify that a deep lock can not be created above a locked node, and
+     * that removing a locked node discards its lock.
+     */
+    public void testLockedDescendant() throws Exception {
+        NodeImpl parent = addLockable(nodeName1);
+        NodeImpl child = (NodeImpl) parent.addNode(nodeName2);
+        child.addMixin(mixLockable);
+        superuser.save();
+
+        LockManagerImpl lockMgr = createLockManager();
+        try {
+            lockMgr.lock(child, false, false);
+            try {
+                lockMgr.lock(parent, true, false);
+                fail("Deep lock above a locked node must fail");
+            } catch (LockException e) {
+                // expected
+            }
+
+            parent.remove();
+            superuser.save();
+            assertNull(lockMgr.getLockInfo(child.getNodeId()));
+            assertEquals(2, fs.listFiles(LOCK_LOG_FOLDER).length);
+        } finally {
+            lockMgr.close();
+        }
+    }
+
+    /**
+     * Verify that the locked descendants of a node are tracked when a locked
+     * node is moved to another parent.
+     */
+    public void testLockedDescendantMoved() throws Exception {
+        NodeImpl parent = addLockable(nodeName1);
+        NodeImpl child = (NodeImpl) parent.addNode(nodeName2);
+        child.addMixin(mixLockable);
+        NodeImpl other = addLockable(nodeName3);
+
+        LockManagerImpl lockMgr = createLockManager();
+        try {
+            lockMgr.lock(child, false, false);
+
+            superuser.move(child.getPath(), other.getPath() + "/" + nodeName2);
+            superuser.save();
+            try {
+                lockMgr.lock(other, true, false);
+                fail("Deep lock above a moved locked node must fail");
+            } catch (LockException e) {
+                // expected
+            }
+            lockMgr.lock(parent, true, false);
+            lockMgr.unlock(parent);
+
+            lockMgr.unlock(child);
+            lockMgr.lock(other, true, false);
+            lockMgr.unlock(other);
+        } finally {
+            lockMgr.close();
+        }
+    }
+
+    private NodeImpl addLockable(String name) throws Exception {
+        Node n = testRootNode.addNode(name);
+        n.addMixin(mixLockable);
+        superuser.save();
+        return (NodeImpl) n;
+    }
+
+    private LockManagerImpl createLockManager() throws Exception {
+        return new LockManagerImpl(systemSession, fs, executor);
+    }
+}
@@ -20,11 +20,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.jcr.PropertyType;
 
@@ -482,6 +484,13 @@ public class BundleBindingTest extends TestCase {
 
         assertEquals(bundle, binding.readBundle(
                 new ByteArrayInputStream(bytes), bundle.getId()));
+
+        List<String> expected = new ArrayList<String>();
+        bundle.collectBinaryReferences(expected);
+        List<String> references = new ArrayList<String>();
+        binding.readBinaryReferences(
+                new ByteArrayInputStream(bytes), bundle.getId(), references);
+        assertEquals(expected, references);
     }
 
     private void assertBundleSerialization(NodePropBundle bundle, byte[] data)
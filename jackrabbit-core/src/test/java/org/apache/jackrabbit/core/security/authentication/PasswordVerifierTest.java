@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication;
+
+import junit.framework.TestCase;
+import org.apache.jackrabbit.core.security.user.PasswordUtility;
+
+import javax.jcr.RepositoryException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>PasswordVerifierTest</code>...
+ */
+public class PasswordVerifierTest extends TestCase {
+
+    private PasswordVerifier verifier;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (verifier != null) {
+            verifier.close();
+        }
+        super.tearDown();
+    }
+
+    public void testIsSame() throws Exception {
+        verifier = new PasswordVerifier(2, 10, 10000, false, 0, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw");
+
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertFalse(verifier.isSame(hash, "wrong"));
+        assertFalse(verifier.isSame("pw", "pw"));
+        assertEquals(3, verifier.getVerificationCount());
+        assertEquals(0, verifier.getCacheHitCount());
+    }
+
+    public void testCallerThread() throws Exception {
+        verifier = new PasswordVerifier(0, 0, 10000, false, 0, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw");
+
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertFalse(verifier.isSame(hash, "wrong"));
+        assertEquals(2, verifier.getVerificationCount());
+        assertEquals(0, verifier.getQueueDepth());
+    }
+
+    public void testRecentlyVerified() throws Exception {
+        verifier = new PasswordVerifier(1, 10, 10000, false, 60000, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw");
+
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertEquals(1, verifier.getVerificationCount());
+        assertEquals(1, verifier.getCacheHitCount());
+
+        // wrong passwords are always verified
+        assertFalse(verifier.isSame(hash, "wrong"));
+        assertFalse(verifier.isSame(hash, "wrong"));
+        assertEquals(3, verifier.getVerificationCount());
+
+        // a changed password hash isn't cached
+        String changed = PasswordUtility.buildPasswordHash("pw");
+        assertTrue(verifier.isSame(changed, "pw"));
+        assertEquals(4, verifier.getVerificationCount());
+        assertFalse(verifier.isSame(changed, "wrong"));
+    }
+
+    public void testExpiration() throws Exception {
+        verifier = new PasswordVerifier(1, 10, 10000, false, 50, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw");
+
+        assertTrue(verifier.isSame(hash, "pw"));
+        Thread.sleep(100);
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertEquals(2, verifier.getVerificationCount());
+        assertEquals(0, verifier.getCacheHitCount());
+    }
+
+    public void testCacheSize() throws Exception {
+        verifier = new PasswordVerifier(1, 10, 10000, false, 60000, 2);
+        String hash = PasswordUtility.buildPasswordHash("pw", null, 0, 1);
+        String hash2 = PasswordUtility.buildPasswordHash("pw2", null, 0, 1);
+        String hash3 = PasswordUtility.buildPasswordHash("pw3", null, 0, 1);
+
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertTrue(verifier.isSame(hash2, "pw2"));
+        assertTrue(verifier.isSame(hash3, "pw3"));
+        assertTrue(verifier.isSame(hash3, "pw3"));
+        assertEquals(3, verifier.getVerificationCount());
+        assertEquals(1, verifier.getCacheHitCount());
+    }
+
+    private int login(int threads, final String hash) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger verified = new AtomicInteger();
+        Thread[] logins = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            logins[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        if (verifier.isSame(hash, "pw")) {
+                            verified.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    } catch (RepositoryException e) {
+                        // rejected
+                    }
+                }
+            });
+            logins[i].start();
+        }
+        start.countDown();
+        for (Thread login : logins) {
+            login.join();
+        }
+        return verified.get();
+    }
+
+    public void testOverload() throws Exception {
+        verifier = new PasswordVerifier(1, 1, 10000, false, 0, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw", null, 0, 200000);
+
+        // the verifications that don't fit into the queue run on the login threads
+        assertEquals(16, login(16, hash));
+        assertTrue(verifier.getRejectedCount() > 0);
+        assertEquals(16, verifier.getVerificationCount());
+        assertTrue(verifier.getMaxQueueDepth() <= 1);
+        assertEquals(0, verifier.getQueueDepth());
+    }
+
+    public void testRejectOnOverload() throws Exception {
+        verifier = new PasswordVerifier(1, 1, 10000, true, 0, 100);
+        String hash = PasswordUtility.buildPasswordHash("pw", null, 0, 200000);
+
+        int verified = login(16, hash);
+        assertTrue(verifier.getRejectedCount() > 0);
+        assertEquals(16, verified + verifier.getRejectedCount());
+        assertEquals(verified, verifier.getVerificationCount());
+    }
+
+    public void testTimeout() throws Exception {
+        verifier = new PasswordVerifier(1, 10, 50, false, 0, 100);
+        final String slow = PasswordUtility.buildPasswordHash("pw", null, 0, 2000000);
+        String hash = PasswordUtility.buildPasswordHash("pw");
+
+        Thread busy = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    verifier.isSame(slow, "pw");
+                } catch (RepositoryException e) {
+                    // ignore
+                }
+            }
+        });
+        busy.start();
+        // let the slow verification occupy the only thread
+        Thread.sleep(20);
+
+        // waits for the busy thread and is then verified on this thread
+        assertTrue(verifier.isSame(hash, "pw"));
+        assertEquals(1, verifier.getTimeoutCount());
+        assertEquals(0, verifier.getQueueDepth());
+        busy.join();
+    }
+}
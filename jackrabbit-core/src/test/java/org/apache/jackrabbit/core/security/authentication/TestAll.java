@@ -30,6 +30,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(NullLoginTest.class);
         suite.addTestSuite(SimpleCredentialsAuthenticationTest.class);
         suite.addTestSuite(CryptedSimpleCredentialsTest.class);
+        suite.addTestSuite(PasswordVerifierTest.class);
         suite.addTestSuite(LoginModuleTest.class);
         suite.addTestSuite(DefaultLoginModuleTest.class);
 
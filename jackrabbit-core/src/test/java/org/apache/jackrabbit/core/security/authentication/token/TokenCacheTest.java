@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication.token;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.api.security.authentication.token.TokenCredentials;
+import org.apache.jackrabbit.api.security.principal.ItemBasedPrincipal;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.jackrabbit.test.NotExecutableException;
+
+/**
+ * <code>TokenCacheTest</code>...
+ */
+public class TokenCacheTest extends AbstractJCRTest {
+
+    private User testuser;
+    private String userId;
+
+    private SessionImpl session;
+    private TokenCache cache;
+    private TokenProvider tokenProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        if (superuser instanceof SessionImpl) {
+            UserManager umgr = ((SessionImpl) superuser).getUserManager();
+            if (!umgr.isAutoSave()) {
+                umgr.autoSave(true);
+            }
+            String uid = "test";
+            while (umgr.getAuthorizable(uid) != null) {
+                uid += "_";
+            }
+
+            testuser = umgr.createUser(uid, uid);
+            userId = testuser.getID();
+        } else {
+            throw new NotExecutableException();
+        }
+
+        if (superuser.nodeExists(((ItemBasedPrincipal) testuser.getPrincipal()).getPath())) {
+            session = (SessionImpl) superuser;
+        } else {
+            session = (SessionImpl) getHelper().getSuperuserSession("security");
+        }
+        cache = new TokenCache(session);
+        tokenProvider = new TokenProvider(session, TokenBasedAuthentication.TOKEN_EXPIRATION, cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            cache.dispose();
+            if (testuser != null) {
+                testuser.remove();
+            }
+            session.logout();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private String createToken() throws RepositoryException {
+        return tokenProvider.createToken(testuser, new SimpleCredentials(userId, new char[0])).getToken();
+    }
+
+    private Node getTokenNode(String token) throws RepositoryException {
+        return TokenProvider.getTokenNode(token, session);
+    }
+
+    public void testVerifiedTokenIsCached() throws Exception {
+        String token = createToken();
+        assertNull(cache.get(token));
+
+        TokenInfo info = tokenProvider.getTokenInfo(token);
+        assertTrue(info.matches(new TokenCredentials(token)));
+        assertSame(info, cache.get(token));
+        assertSame(info, tokenProvider.getTokenInfo(token));
+        assertTrue(info.matches(new TokenCredentials(token)));
+    }
+
+    public void testInvalidTokenIsNotCached() throws Exception {
+        String token = createToken();
+        String invalid = TokenProvider.getTokenId(token) + "_0000000000000000";
+
+        TokenInfo info = tokenProvider.getTokenInfo(invalid);
+        assertFalse(info.matches(new TokenCredentials(invalid)));
+        assertNull(cache.get(invalid));
+
+        assertTrue(tokenProvider.getTokenInfo(token).matches(new TokenCredentials(token)));
+        assertNotNull(cache.get(token));
+        assertNull(cache.get(invalid));
+        assertFalse(tokenProvider.getTokenInfo(invalid).matches(new TokenCredentials(invalid)));
+    }
+
+    public void testMandatoryAttributes() throws Exception {
+        SimpleCredentials sc = new SimpleCredentials(userId, new char[0]);
+        sc.setAttribute(".token.any", "any");
+        String token = tokenProvider.createToken(testuser, sc).getToken();
+
+        TokenCredentials tc = new TokenCredentials(token);
+        tc.setAttribute(".token.any", "any");
+        assertTrue(tokenProvider.getTokenInfo(token).matches(tc));
+        assertNotNull(cache.get(token));
+
+        // the cached token still requires the mandatory attributes
+        TokenInfo info = tokenProvider.getTokenInfo(token);
+        assertFalse(info.matches(new TokenCredentials(token)));
+        tc.setAttribute(".token.any", "another");
+        assertFalse(info.matches(tc));
+    }
+
+    public void testRemoveTokenNode() throws Exception {
+        String token = createToken();
+        assertTrue(tokenProvider.getTokenInfo(token).matches(new TokenCredentials(token)));
+        assertNotNull(cache.get(token));
+
+        // removal by another session
+        Node tokenNode = getTokenNode(token);
+        tokenNode.remove();
+        session.save();
+        assertNull(cache.get(token));
+    }
+
+    public void testRemoveUser() throws Exception {
+        String token = createToken();
+        assertTrue(tokenProvider.getTokenInfo(token).matches(new TokenCredentials(token)));
+        assertNotNull(cache.get(token));
+
+        testuser.remove();
+        testuser = null;
+        assertNull(cache.get(token));
+    }
+
+    public void testRemoveExpired() throws Exception {
+        String token = createToken();
+        TokenInfo info = tokenProvider.getTokenInfo(token);
+        assertTrue(info.matches(new TokenCredentials(token)));
+        String path = getTokenNode(token).getPath();
+
+        assertTrue(info.remove());
+        assertNull(cache.get(token));
+        assertFalse(session.nodeExists(path));
+    }
+
+    public void testResetExpirationIsWrittenBehind() throws Exception {
+        String token = createToken();
+        TokenInfo info = tokenProvider.getTokenInfo(token);
+        assertTrue(info.matches(new TokenCredentials(token)));
+        long expTime = getTokenNode(token).getProperty("rep:token.exp").getLong();
+
+        long loginTime = System.currentTimeMillis() + TokenBasedAuthentication.TOKEN_EXPIRATION / 2;
+        assertTrue(info.resetExpiration(loginTime));
+        assertFalse(info.resetExpiration(loginTime + 1));
+        assertFalse(info.isExpired(expTime + 1));
+        assertEquals(1, cache.getPendingCount());
+        assertEquals(0, cache.getWriteCount());
+
+        // the refresh is not written yet
+        assertEquals(expTime, getTokenNode(token).getProperty("rep:token.exp").getLong());
+
+        cache.flush();
+        assertEquals(0, cache.getPendingCount());
+        assertEquals(1, cache.getWriteCount());
+        assertEquals(loginTime + TokenBasedAuthentication.TOKEN_EXPIRATION,
+                getTokenNode(token).getProperty("rep:token.exp").getLong());
+
+        // writing the expiration time doesn't invalidate the cache
+        assertSame(info, cache.get(token));
+    }
+
+    public void testCoalescedWrites() throws Exception {
+        String token = createToken();
+        String token2 = createToken();
+        TokenInfo info = tokenProvider.getTokenInfo(token);
+        assertTrue(info.matches(new TokenCredentials(token)));
+        TokenInfo info2 = tokenProvider.getTokenInfo(token2);
+        assertTrue(info2.matches(new TokenCredentials(token2)));
+
+        long loginTime = System.currentTimeMillis() + TokenBasedAuthentication.TOKEN_EXPIRATION / 2;
+        assertTrue(info.resetExpiration(loginTime));
+        assertTrue(info2.resetExpiration(loginTime));
+        assertTrue(info.resetExpiration(loginTime + TokenBasedAuthentication.TOKEN_EXPIRATION));
+        assertEquals(2, cache.getPendingCount());
+
+        cache.flush();
+        assertEquals(1, cache.getWriteCount());
+        assertEquals(loginTime + 2 * TokenBasedAuthentication.TOKEN_EXPIRATION,
+                getTokenNode(token).getProperty("rep:token.exp").getLong());
+        assertEquals(loginTime + TokenBasedAuthentication.TOKEN_EXPIRATION,
+                getTokenNode(token2).getProperty("rep:token.exp").getLong());
+    }
+}
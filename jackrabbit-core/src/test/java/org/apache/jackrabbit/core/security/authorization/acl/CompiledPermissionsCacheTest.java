@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.AbstractCompiledPermissions.Result;
+import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.core.security.authorization.AccessControlObserver;
+import org.apache.jackrabbit.core.security.authorization.Permission;
+import org.apache.jackrabbit.core.security.authorization.PrivilegeBits;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+
+/**
+ * <code>CompiledPermissionsCacheTest</code>...
+ */
+public class CompiledPermissionsCacheTest extends TestCase {
+
+    private final PathFactory factory = PathFactoryImpl.getInstance();
+
+    private final Path path = factory.getRootPath();
+
+    private final Result result = new Result(Permission.READ, Permission.NONE,
+            PrivilegeBits.EMPTY, PrivilegeBits.EMPTY);
+
+    public void testSharedByPrincipalSet() {
+        CompiledPermissionsCache cache = new CompiledPermissionsCache(null, 10);
+        Set<String> key1 = CompiledPermissionsCache.getKey(Arrays.asList("a", "everyone"));
+        Set<String> key2 = CompiledPermissionsCache.getKey(Arrays.asList("everyone", "a"));
+        Set<String> other = CompiledPermissionsCache.getKey(Arrays.asList("everyone"));
+
+        cache.getResults(key1).putResult(path, result, cache.getGeneration());
+        cache.getResults(key1).putResult(null, Result.EMPTY, cache.getGeneration());
+        assertSame(result, cache.getResults(key2).getResult(path));
+        assertSame(Result.EMPTY, cache.getResults(key2).getResult(null));
+        assertNull(cache.getResults(other).getResult(path));
+    }
+
+    public void testInvalidation() {
+        CompiledPermissionsCache cache = new CompiledPermissionsCache(null, 10);
+        Set<String> key = CompiledPermissionsCache.getKey(Arrays.asList("everyone"));
+        NodeId id = NodeId.randomId();
+
+        long before = cache.getGeneration();
+        cache.getResults(key).putCanRead(id, path, true, before);
+        assertEquals(Boolean.TRUE, cache.getResults(key).canRead(id));
+
+        cache.acModified(modifications(id, AccessControlObserver.POLICY_MODIFIED));
+        assertNull(cache.getResults(key).canRead(id));
+        assertEquals(1, cache.getFullInvalidationCount());
+
+        // results evaluated before the modification are not cached
+        cache.getResults(key).putCanRead(id, path, false, before);
+        cache.getResults(key).putResult(path, result, before);
+        assertNull(cache.getResults(key).canRead(id));
+        assertNull(cache.getResults(key).getResult(path));
+
+        cache.getResults(key).putCanRead(id, path, false, cache.getGeneration());
+        assertEquals(Boolean.FALSE, cache.getResults(key).canRead(id));
+    }
+
+    public void testSubtreeInvalidation() throws Exception {
+        final NodeId aId = NodeId.randomId();
+        final NodeId bId = NodeId.randomId();
+        final Path a = factory.create(path, NameConstants.JCR_CONTENT, true);
+        final Path b = factory.create(path, NameConstants.JCR_DATA, true);
+        CompiledPermissionsCache cache = new CompiledPermissionsCache(null, 10) {
+            @Override
+            Path getPath(NodeId id) {
+                if (aId.equals(id)) {
+                    return a;
+                } else if (bId.equals(id)) {
+                    return b;
+                }
+                return null;
+            }
+        };
+        Set<String> key = CompiledPermissionsCache.getKey(Arrays.asList("everyone"));
+        CompiledPermissionsCache.Results results = cache.getResults(key);
+        Path belowA = factory.create(a, NameConstants.JCR_MIXINTYPES, true);
+        Path belowB = factory.create(b, NameConstants.JCR_MIXINTYPES, true);
+        NodeId idA = NodeId.randomId();
+        NodeId idB = NodeId.randomId();
+        NodeId unknown = NodeId.randomId();
+        long gen = cache.getGeneration();
+        results.putResult(a, result, gen);
+        results.putResult(belowA, result, gen);
+        results.putResult(belowB, result, gen);
+        results.putCanRead(idA, belowA, true, gen);
+        results.putCanRead(idB, belowB, true, gen);
+        results.putCanRead(unknown, null, true, gen);
+
+        cache.acModified(modifications(aId, AccessControlObserver.POLICY_ADDED));
+        assertNull(results.getResult(a));
+        assertNull(results.getResult(belowA));
+        assertNull(results.canRead(idA));
+        assertNull(results.canRead(unknown));
+        assertSame(result, results.getResult(belowB));
+        assertEquals(Boolean.TRUE, results.canRead(idB));
+        assertEquals(1, cache.getPartialInvalidationCount());
+        assertEquals(4, cache.getInvalidatedEntryCount());
+        assertEquals(0, cache.getFullInvalidationCount());
+
+        // moves are reported for the root node and clear the cache
+        cache.acModified(modifications(aId, AccessControlObserver.MOVE));
+        assertNull(cache.getResults(key).canRead(idB));
+        assertEquals(1, cache.getFullInvalidationCount());
+    }
+
+    public void testMaxSize() {
+        CompiledPermissionsCache cache = new CompiledPermissionsCache(null, 2);
+        Set<String> key = CompiledPermissionsCache.getKey(Arrays.asList("everyone"));
+        NodeId[] ids = new NodeId[] { NodeId.randomId(), NodeId.randomId(), NodeId.randomId() };
+        for (NodeId id : ids) {
+            cache.getResults(key).putCanRead(id, path, true, cache.getGeneration());
+        }
+        assertEquals(Boolean.TRUE, cache.getResults(key).canRead(ids[2]));
+        assertNull(cache.getResults(key).canRead(ids[0]));
+    }
+
+    private static AccessControlModifications<NodeId> modifications(NodeId id, int type) {
+        return new AccessControlModifications<NodeId>(Collections.singletonMap(id, type));
+    }
+}
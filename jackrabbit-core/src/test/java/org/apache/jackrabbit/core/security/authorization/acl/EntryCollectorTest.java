@@ -322,6 +322,58 @@ public class EntryCollectorTest extends AbstractAccessControlTest {
         }
     }
 
+    public void testDeepTree() throws Exception {
+        JackrabbitAccessControlManager acM = (JackrabbitAccessControlManager) acMgr;
+        Set<Principal> principals = Collections.singleton(testGroup.getPrincipal());
+        Privilege[] privs = privilegesFromName(Privilege.JCR_LOCK_MANAGEMENT);
+
+        Node n = superuser.getNode(childNPath);
+        for (int i = 0; i < 25; i++) {
+            n = n.addNode(nodeName3, testNodeType);
+        }
+        String deepPath = n.getPath();
+        superuser.save();
+
+        modifyPrivileges(path, testGroup.getPrincipal(), privs, true);
+        assertTrue(acM.hasPrivileges(deepPath, principals, privs));
+
+        // policy added in the middle of the tree
+        String middlePath = n.getAncestor(n.getDepth() - 10).getPath();
+        modifyPrivileges(middlePath, testGroup.getPrincipal(), privs, false);
+        assertTrue(acM.hasPrivileges(path, principals, privs));
+        assertFalse(acM.hasPrivileges(middlePath, principals, privs));
+        assertFalse(acM.hasPrivileges(deepPath, principals, privs));
+
+        // and removed again
+        acMgr.removePolicy(middlePath, acMgr.getPolicies(middlePath)[0]);
+        superuser.save();
+        assertTrue(acM.hasPrivileges(deepPath, principals, privs));
+    }
+
+    public void testReplaceAccessControlledNode() throws Exception {
+        JackrabbitAccessControlManager acM = (JackrabbitAccessControlManager) acMgr;
+        Set<Principal> principals = Collections.singleton(testGroup.getPrincipal());
+        Privilege[] privs = privilegesFromName(Privilege.JCR_LOCK_MANAGEMENT);
+
+        String deepPath = superuser.getNode(childNPath).addNode(nodeName3, testNodeType)
+                .addNode(nodeName4, testNodeType).getPath();
+        superuser.save();
+
+        modifyPrivileges(path, testGroup.getPrincipal(), privs, true);
+        modifyPrivileges(childNPath, testGroup.getPrincipal(), privs, false);
+        assertTrue(acM.hasPrivileges(path, principals, privs));
+        assertFalse(acM.hasPrivileges(deepPath, principals, privs));
+
+        // replace the access controlled node by a node without policy
+        superuser.getNode(childNPath).remove();
+        superuser.save();
+        superuser.getNode(path).addNode(nodeName2, testNodeType)
+                .addNode(nodeName3, testNodeType).addNode(nodeName4, testNodeType);
+        superuser.save();
+        assertTrue(acM.hasPrivileges(childNPath, principals, privs));
+        assertTrue(acM.hasPrivileges(deepPath, principals, privs));
+    }
+
     static interface TestInvokation {
         public void runTest() throws Exception;
     }
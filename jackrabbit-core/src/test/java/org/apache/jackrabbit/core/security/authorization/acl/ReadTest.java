@@ -21,8 +21,13 @@ import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
+import org.apache.jackrabbit.core.security.authorization.Permission;
+import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.test.NotExecutableException;
 import org.junit.Test;
 
@@ -36,6 +41,7 @@ import javax.jcr.ValueFactory;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
 import java.security.Principal;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -95,6 +101,107 @@ public class ReadTest extends AbstractEvaluationTest {
         n.getDefinition();
     }
 
+    public void testGetGranted() throws Exception {
+        Node node = superuser.getNode(path);
+        for (int i = 0; i < 5; i++) {
+            node.addNode("child" + i, testNodeType);
+        }
+        node.setProperty(propertyName1, "value");
+        superuser.save();
+
+        /* deny READ privilege at 'path', allow it at 'child2' and 'childNPath' */
+        Privilege[] read = privilegesFromName(Privilege.JCR_READ);
+        withdrawPrivileges(path, read, getRestrictions(superuser, path));
+        givePrivileges(childNPath, read, getRestrictions(superuser, childNPath));
+        givePrivileges(path + "/child2", read, getRestrictions(superuser, path));
+        /* allow modifying properties at 'path' */
+        givePrivileges(path, privilegesFromName(Privilege.JCR_MODIFY_PROPERTIES), getRestrictions(superuser, path));
+
+        SessionImpl testSession = (SessionImpl) getTestSession();
+        String[] jcrPaths = new String[] {
+                childNPath,
+                path + "/child0",
+                path + "/child1",
+                path + "/child2",
+                path + "/child3",
+                path + "/child4",
+                path + "/" + propertyName1,
+                path
+        };
+        Path[] paths = new Path[jcrPaths.length];
+        ItemId[] ids = new ItemId[jcrPaths.length];
+        for (int i = 0; i < jcrPaths.length; i++) {
+            paths[i] = testSession.getQPath(jcrPaths[i]);
+            ids[i] = ((SessionImpl) superuser).getHierarchyManager().resolvePath(paths[i]);
+        }
+
+        AccessManager accessMgr = testSession.getAccessManager();
+        BitSet readable = accessMgr.getGranted(paths, Permission.READ);
+        assertEquals(readable, accessMgr.canRead(ids));
+        BitSet modifiable = accessMgr.getGranted(paths, Permission.SET_PROPERTY);
+        for (int i = 0; i < paths.length; i++) {
+            boolean canRead = (i == 0 || i == 3);
+            assertEquals(jcrPaths[i], canRead, readable.get(i));
+            assertEquals(jcrPaths[i], canRead, accessMgr.isGranted(paths[i], Permission.READ));
+            assertEquals(jcrPaths[i], canRead, accessMgr.canRead(null, ids[i]));
+            assertTrue(jcrPaths[i], modifiable.get(i));
+        }
+        assertFalse(accessMgr.getGranted(paths, Permission.ADD_NODE).get(1));
+    }
+
+    public void testGetGrantedWithRestrictions() throws Exception {
+        Node node = superuser.getNode(path);
+        for (int i = 0; i < 3; i++) {
+            node.addNode("child" + i, testNodeType);
+        }
+        superuser.save();
+
+        /* deny READ privilege at 'path', allow it for 'child1' by a restriction */
+        Privilege[] read = privilegesFromName(Privilege.JCR_READ);
+        withdrawPrivileges(path, read, getRestrictions(superuser, path));
+        Map<String, Value> restrictions = new HashMap<String, Value>();
+        restrictions.put(((SessionImpl) superuser).getJCRName(AccessControlConstants.P_GLOB), superuser.getValueFactory().createValue("/child1"));
+        givePrivileges(path, read, restrictions);
+
+        SessionImpl testSession = (SessionImpl) getTestSession();
+        Path[] paths = new Path[3];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = testSession.getQPath(path + "/child" + i);
+        }
+        BitSet readable = testSession.getAccessManager().getGranted(paths, Permission.READ);
+        assertFalse(readable.get(0));
+        assertTrue(readable.get(1));
+        assertFalse(readable.get(2));
+    }
+
+    public void testCanReadAfterTransientMove() throws Exception {
+        Node node = superuser.getNode(path);
+        node.addNode("a", testNodeType).addNode("c", testNodeType);
+        node.addNode("b", testNodeType).addNode("c", testNodeType);
+        superuser.save();
+
+        /* allow everything at 'path', but deny READ privilege at 'b/c' */
+        givePrivileges(path, privilegesFromName(Privilege.JCR_ALL), getRestrictions(superuser, path));
+        withdrawPrivileges(path + "/b/c", privilegesFromName(Privilege.JCR_READ), getRestrictions(superuser, path));
+
+        SessionImpl testSession = (SessionImpl) getTestSession();
+        ItemId[] ids = new ItemId[] {
+                ((SessionImpl) superuser).getHierarchyManager().resolvePath(testSession.getQPath(path + "/b/c"))
+        };
+        AccessManager accessMgr = testSession.getAccessManager();
+        assertFalse(accessMgr.canRead(ids).get(0));
+
+        /* the transient path of 'b/c' is the persisted path of 'a/c' */
+        testSession.move(path + "/a", path + "/d");
+        testSession.move(path + "/b", path + "/a");
+        try {
+            assertFalse(accessMgr.canRead(null, ids[0]));
+            assertFalse(accessMgr.canRead(ids).get(0));
+        } finally {
+            testSession.refresh(false);
+        }
+    }
+
     public void testDenyUserAllowGroup() throws Exception {
         Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
         Principal group = getTestGroup().getPrincipal();
@@ -41,6 +41,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ACLTemplateEntryTest.class);
         suite.addTestSuite(EntryTest.class);
         suite.addTestSuite(EntryCollectorTest.class);
+        suite.addTestSuite(CompiledPermissionsCacheTest.class);
 
         suite.addTestSuite(ReadTest.class);
         suite.addTestSuite(WriteTest.class);
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.principalbased;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.spi.commons.conversion.NameResolver;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.jackrabbit.test.NotExecutableException;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.security.AccessControlEntry;
+import javax.jcr.security.Privilege;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>EntryIndexTest</code>...
+ */
+public class EntryIndexTest extends AbstractJCRTest {
+
+    private static final String[] NODE_PATHS = new String[] {
+            "/", "/a", "/a/b", "/a/b/c", "/foo", "/foo/cat", "/a[2]", "/a/"
+    };
+
+    private static final String[] GLOBS = new String[] {
+            null, "", "/b", "/c/d", "cat", "*", "/*", "/*cat", "/*/cat", "/cat*",
+            "*cat", "*/cat", "cat/*", "/cat/*", "*cat/*", "/b*/c"
+    };
+
+    private static final String[] PATHS = new String[] {
+            "/", "/a", "/a/b", "/a/b/c", "/a/b/c/d", "/a/bc", "/a/b/cat",
+            "/a/x/cat", "/a[2]", "/a[2]/b", "/ab", "/acat", "/acat/b", "/foo",
+            "/foo/cat", "/foo/cat/cat", "/foo/cat/dog", "/foo/catx", "/foo/xcat",
+            "/foo/x/cat", "/foocat", "/foocat/b", "/foo/bar/c", "/foo/b/c",
+            "/b", "/b/a", "/x/y/z"
+    };
+
+    private Principal principal;
+    private ACLTemplate acl;
+    private String nodePathName;
+    private String globName;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        if (!(superuser instanceof NameResolver)) {
+            throw new NotExecutableException();
+        }
+        NameResolver resolver = (NameResolver) superuser;
+        nodePathName = resolver.getJCRName(ACLTemplate.P_NODE_PATH);
+        globName = resolver.getJCRName(ACLTemplate.P_GLOB);
+
+        principal = EveryonePrincipal.getInstance();
+        acl = new ACLTemplate(principal, "/rep:accessControl/test", (SessionImpl) superuser, superuser.getValueFactory());
+    }
+
+    private AccessControlEntry createEntry(String nodePath, String glob, boolean allow)
+            throws RepositoryException {
+        Map<String, Value> restrictions = new HashMap<String, Value>();
+        restrictions.put(nodePathName, superuser.getValueFactory().createValue(nodePath, PropertyType.PATH));
+        if (glob != null) {
+            restrictions.put(globName, superuser.getValueFactory().createValue(glob));
+        }
+        Privilege[] privs = new Privilege[] {
+                superuser.getAccessControlManager().privilegeFromName(Privilege.JCR_READ)
+        };
+        return acl.createEntry(principal, privs, allow, restrictions);
+    }
+
+    private static void assertSameMatches(List<AccessControlEntry> entries, String path)
+            throws RepositoryException {
+        BitSet matching = new EntryIndex(entries).getMatching(path);
+        for (int i = 0; i < entries.size(); i++) {
+            ACLTemplate.Entry entry = (ACLTemplate.Entry) entries.get(i);
+            assertEquals(entry.getNodePath() + " : " + entry.getGlob() + " -> " + path,
+                    entry.matches(path), matching.get(i));
+        }
+    }
+
+    public void testMatchesGlobPatterns() throws Exception {
+        List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
+        boolean allow = true;
+        for (String nodePath : NODE_PATHS) {
+            for (String glob : GLOBS) {
+                entries.add(createEntry(nodePath, glob, allow));
+                allow = !allow;
+            }
+        }
+        EntryIndex index = new EntryIndex(entries);
+        for (String path : PATHS) {
+            BitSet matching = index.getMatching(path);
+            for (int i = 0; i < entries.size(); i++) {
+                ACLTemplate.Entry entry = (ACLTemplate.Entry) entries.get(i);
+                assertSame(entry, index.getEntry(i));
+                assertEquals(entry.getNodePath() + " : " + entry.getGlob() + " -> " + path,
+                        entry.matches(path), matching.get(i));
+            }
+        }
+    }
+
+    public void testUnnormalizedPath() throws Exception {
+        List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
+        entries.add(createEntry("/a", null, true));
+        entries.add(createEntry("/a", "*", false));
+        entries.add(createEntry("/a/", "", true));
+
+        assertSameMatches(entries, "/a/");
+        assertSameMatches(entries, "/a//b");
+        assertSameMatches(entries, "a/b");
+    }
+
+    public void testManyEntries() throws Exception {
+        List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(createEntry("/node" + (i % 100) + "/child" + i, (i % 3 == 0) ? "*/prop" : null, i % 2 == 0));
+        }
+        EntryIndex index = new EntryIndex(entries);
+        assertEquals(entries, index.getEntries());
+
+        BitSet matching = index.getMatching("/node4/child104/x");
+        assertEquals(1, matching.cardinality());
+        assertTrue(matching.get(104));
+        assertTrue(index.getMatching("/node4/child104/x/prop").get(104));
+        assertTrue(index.getMatching("/node5/child5").get(5));
+        assertTrue(index.getMatching("/node5").isEmpty());
+
+        matching = index.getMatching("/node3/child3/x/prop");
+        assertEquals(1, matching.cardinality());
+        assertTrue(matching.get(3));
+        assertTrue(index.getMatching("/node3/child3").isEmpty());
+    }
+}
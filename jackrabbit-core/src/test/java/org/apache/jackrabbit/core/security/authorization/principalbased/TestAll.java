@@ -37,6 +37,7 @@ public class TestAll extends TestCase {
 
         suite.addTestSuite(ACLTemplateTest.class);
         suite.addTestSuite(EntryTest.class);
+        suite.addTestSuite(EntryIndexTest.class);
 
         suite.addTestSuite(WriteTest.class);
         suite.addTestSuite(LockTest.class);
@@ -23,6 +23,7 @@ import org.apache.jackrabbit.api.security.principal.PrincipalManager;
 import org.apache.jackrabbit.api.security.user.AbstractUserTest;
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.core.security.principal.EveryonePrincipal;
 import org.apache.jackrabbit.test.NotExecutableException;
 
@@ -127,4 +128,111 @@ public class GroupImplTest extends AbstractUserTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    public void testMembershipCacheInvalidation() throws Exception {
+        if (!(userMgr instanceof UserManagerImpl)) {
+            throw new NotExecutableException();
+        }
+        MembershipCache cache = ((UserManagerImpl) userMgr).getMembershipCache();
+        User u1 = null;
+        User u2 = null;
+        Group g1 = null;
+        Group g2 = null;
+        try {
+            u1 = userMgr.createUser(getTestPrincipal().getName(), "pw");
+            u2 = userMgr.createUser(getTestPrincipal().getName(), "pw");
+            g1 = userMgr.createGroup(getTestPrincipal());
+            g2 = userMgr.createGroup(getTestPrincipal());
+            g1.addMember(u1);
+            g2.addMember(u2);
+            save(superuser);
+
+            assertTrue(isMemberOf(u1, g1));
+            assertTrue(isMemberOf(u2, g2));
+            long full = cache.getFullInvalidationCount();
+            long partial = cache.getPartialInvalidationCount();
+            long entries = cache.getInvalidatedEntryCount();
+
+            // only the membership of u1 is invalidated
+            g1.removeMember(u1);
+            save(superuser);
+            assertEquals(full, cache.getFullInvalidationCount());
+            assertEquals(partial + 1, cache.getPartialInvalidationCount());
+            assertEquals(entries + 1, cache.getInvalidatedEntryCount());
+            assertFalse(isMemberOf(u1, g1));
+
+            // new members are invalidated as well
+            g1.addMember(u2);
+            save(superuser);
+            assertEquals(full, cache.getFullInvalidationCount());
+            assertEquals(partial + 2, cache.getPartialInvalidationCount());
+            assertEquals(entries + 2, cache.getInvalidatedEntryCount());
+            assertTrue(isMemberOf(u2, g1));
+            assertTrue(isMemberOf(u2, g2));
+        } finally {
+            for (Authorizable a : new Authorizable[] {u1, u2, g1, g2}) {
+                if (a != null) {
+                    a.remove();
+                }
+            }
+            save(superuser);
+        }
+    }
+
+    public void testIndirectMembershipChange() throws Exception {
+        User u = null;
+        Group g1 = null;
+        Group g2 = null;
+        Group g3 = null;
+        try {
+            u = userMgr.createUser(getTestPrincipal().getName(), "pw");
+            g1 = userMgr.createGroup(getTestPrincipal());
+            g2 = userMgr.createGroup(getTestPrincipal());
+            g3 = userMgr.createGroup(getTestPrincipal());
+            g1.addMember(g2);
+            g2.addMember(u);
+            save(superuser);
+
+            assertTrue(g1.isMember(u));
+            assertTrue(g2.isMember(u));
+            assertFalse(g3.isMember(u));
+            assertFalse(g2.isMember(g1));
+
+            g1.removeMember(g2);
+            save(superuser);
+            assertFalse(g1.isMember(u));
+            assertTrue(g2.isMember(u));
+
+            g3.addMember(g2);
+            save(superuser);
+            assertTrue(g3.isMember(u));
+            assertTrue(g3.isMember(g2));
+
+            // transient changes are reflected as well
+            g1.addMember(g3);
+            assertTrue(g1.isMember(u));
+            save(superuser);
+            assertTrue(g1.isMember(u));
+        } finally {
+            for (Authorizable a : new Authorizable[] {u, g1, g2, g3}) {
+                if (a != null) {
+                    a.remove();
+                }
+            }
+            save(superuser);
+        }
+    }
+
+    /**
+     * Uses the declared memberships of the authorizable.
+     */
+    private static boolean isMemberOf(Authorizable authorizable, Group group) throws RepositoryException {
+        Iterator<Group> it = authorizable.memberOf();
+        while (it.hasNext()) {
+            if (it.next().getID().equals(group.getID())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
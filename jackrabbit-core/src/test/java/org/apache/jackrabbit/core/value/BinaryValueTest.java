@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.value;
 
 import java.io.ByteArrayInputStream;
+import java.util.Arrays;
 import java.util.Random;
 
 import javax.jcr.RepositoryException;
@@ -55,6 +56,51 @@ public class BinaryValueTest extends AbstractJCRTest {
         checkDispose(10 * 1024, true);
     }
 
+    public void testRead10() throws Exception {
+        checkRead(10, false);
+    }
+
+    public void testRead100k() throws Exception {
+        checkRead(100 * 1024, false);
+    }
+
+    public void testRead100kSave() throws Exception {
+        checkRead(100 * 1024, true);
+    }
+
+    protected void checkRead(int length, boolean save) throws Exception {
+        byte[] data = new byte[length];
+        new Random().nextBytes(data);
+        Binary b = vf.createBinary(new ByteArrayInputStream(data));
+        Property prop;
+        try {
+            prop = testRootNode.addNode(nodeName1).setProperty(propertyName1, b);
+        } finally {
+            b.dispose();
+        }
+        if (save) {
+            superuser.save();
+        }
+
+        int position = length / 2;
+        b = prop.getBinary();
+        try {
+            byte[] buffer = new byte[length];
+            byte[] chunk = new byte[1000];
+            int read = 0;
+            int n;
+            while ((n = b.read(chunk, position + read)) > 0) {
+                System.arraycopy(chunk, 0, buffer, read, n);
+                read += n;
+            }
+            assertTrue(Arrays.equals(
+                    Arrays.copyOfRange(data, position, length),
+                    Arrays.copyOf(buffer, read)));
+        } finally {
+            b.dispose();
+        }
+    }
+
     protected void checkDispose(int length, boolean save) throws Exception {
         Property prop = setProperty(testRootNode.addNode(nodeName1), length);
         if (save) {
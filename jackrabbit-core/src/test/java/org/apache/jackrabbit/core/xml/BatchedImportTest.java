@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+import javax.jcr.nodetype.PropertyDefinitionTemplate;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.jackrabbit.util.Base64;
+
+/**
+ * Tests workspace imports that are committed in batches. The batch size is
+ * configured in src/test/repository/workspaces/import-batch-test/workspace.xml
+ */
+public class BatchedImportTest extends AbstractJCRTest {
+
+    private static final String SV_NODE_START =
+        "<sv:node sv:name=\"%s\""
+        + " xmlns:jcr=\"http://www.jcp.org/jcr/1.0\""
+        + " xmlns:sv=\"http://www.jcp.org/jcr/sv/1.0\">"
+        + "<sv:property sv:name=\"jcr:primaryType\" sv:type=\"Name\">"
+        + "<sv:value>nt:unstructured</sv:value></sv:property>";
+
+    /**
+     * Node type with a mandatory REFERENCE property named "ref".
+     */
+    private static final String REFERRER_TYPE = "batchedImportReferrer";
+
+    private Session session;
+
+    private Node root;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = getHelper().getSuperuserSession("import-batch-test");
+        root = session.getRootNode().addNode("BatchedImportTest");
+        session.save();
+    }
+
+    protected void tearDown() throws Exception {
+        root.remove();
+        session.save();
+        session.logout();
+        super.tearDown();
+    }
+
+    /**
+     * Imports more nodes than fit into a batch, with a reference to a node
+     * that is only imported in a later batch and a binary value that is
+     * spooled to the data store.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBatchedImport() throws Exception {
+        NodeId id = NodeId.randomId();
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        StringWriter encoded = new StringWriter();
+        Base64.encode(data, 0, data.length, encoded);
+
+        StringBuilder xml = new StringBuilder(String.format(SV_NODE_START, "a"));
+        xml.append(String.format(SV_NODE_START, "c"));
+        xml.append(property("ref", "Reference", id.toString()));
+        xml.append("</sv:node>");
+        for (int i = 0; i < 5; i++) {
+            xml.append(String.format(SV_NODE_START, "b" + i));
+            xml.append("</sv:node>");
+        }
+        xml.append(String.format(SV_NODE_START, "bin"));
+        xml.append(property("data", "Binary", encoded.toString()));
+        xml.append("</sv:node>");
+        xml.append(String.format(SV_NODE_START, "target"));
+        xml.append(property("jcr:mixinTypes", "Name", mixReferenceable));
+        xml.append(property("jcr:uuid", "String", id.toString()));
+        xml.append("</sv:node>");
+        xml.append("</sv:node>");
+
+        importXML(xml.toString());
+
+        Node a = root.getNode("a");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(a.hasNode("b" + i));
+        }
+        Node target = a.getNode("target");
+        assertTrue("Imported reference points to the correct node",
+                target.isSame(a.getProperty("c/ref").getNode()));
+
+        InputStream in = a.getProperty("bin/data").getBinary().getStream();
+        try {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A reference to a node that is not imported fails the import once all
+     * nodes have been imported.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testDanglingReference() throws Exception {
+        StringBuilder xml = new StringBuilder(String.format(SV_NODE_START, "a"));
+        xml.append(property("ref", "Reference", NodeId.randomId().toString()));
+        for (int i = 0; i < 5; i++) {
+            xml.append(String.format(SV_NODE_START, "b" + i));
+            xml.append("</sv:node>");
+        }
+        xml.append("</sv:node>");
+
+        try {
+            importXML(xml.toString());
+            fail("Import of a dangling reference must fail");
+        } catch (RepositoryException e) {
+            // expected
+        }
+        root.refresh(false);
+        assertTrue("Nodes of earlier batches are committed",
+                root.hasNode("a/b0"));
+        assertFalse(root.hasProperty("a/ref"));
+    }
+
+    /**
+     * A weak reference to a node imported in a later batch is committed
+     * with its batch, and adjusted to the new id of that node at the end.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testWeakReference() throws Exception {
+        NodeId id = NodeId.randomId();
+        StringBuilder xml = new StringBuilder(String.format(SV_NODE_START, "a"));
+        xml.append(String.format(SV_NODE_START, "c"));
+        xml.append(property("ref", "WeakReference", id.toString()));
+        xml.append("</sv:node>");
+        for (int i = 0; i < 3; i++) {
+            xml.append(String.format(SV_NODE_START, "b" + i));
+            xml.append("</sv:node>");
+        }
+        xml.append(String.format(SV_NODE_START, "target"));
+        xml.append(property("jcr:mixinTypes", "Name", mixReferenceable));
+        xml.append(property("jcr:uuid", "String", id.toString()));
+        xml.append("</sv:node>");
+        xml.append("</sv:node>");
+
+        importXML(xml.toString());
+
+        Node a = root.getNode("a");
+        assertTrue("Imported weak reference points to the correct node",
+                a.getNode("target").isSame(a.getProperty("c/ref").getNode()));
+    }
+
+    /**
+     * A mandatory reference is imported with its node. It may point to a
+     * node of an earlier batch, but fails the batch if it points to a node
+     * of a later one, rather than committing an invalid node.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testMandatoryReference() throws Exception {
+        registerReferrerType();
+        NodeId id = NodeId.randomId();
+
+        StringBuilder xml = new StringBuilder(String.format(SV_NODE_START, "a"));
+        xml.append(String.format(SV_NODE_START, "target"));
+        xml.append(property("jcr:mixinTypes", "Name", mixReferenceable));
+        xml.append(property("jcr:uuid", "String", id.toString()));
+        xml.append("</sv:node>");
+        for (int i = 0; i < 3; i++) {
+            xml.append(String.format(SV_NODE_START, "b" + i));
+            xml.append("</sv:node>");
+        }
+        xml.append(referrer("c", id));
+        xml.append("</sv:node>");
+
+        importXML(xml.toString());
+
+        Node a = root.getNode("a");
+        assertTrue("Imported reference points to the correct node",
+                a.getNode("target").isSame(a.getProperty("c/ref").getNode()));
+
+        id = NodeId.randomId();
+        xml = new StringBuilder(String.format(SV_NODE_START, "d"));
+        xml.append(referrer("c", id));
+        for (int i = 0; i < 3; i++) {
+            xml.append(String.format(SV_NODE_START, "b" + i));
+            xml.append("</sv:node>");
+        }
+        xml.append(String.format(SV_NODE_START, "target"));
+        xml.append(property("jcr:mixinTypes", "Name", mixReferenceable));
+        xml.append(property("jcr:uuid", "String", id.toString()));
+        xml.append("</sv:node>");
+        xml.append("</sv:node>");
+
+        try {
+            importXML(xml.toString());
+            fail("Import of a mandatory reference to a later batch must fail");
+        } catch (RepositoryException e) {
+            // expected
+        }
+        root.refresh(false);
+        assertFalse("Node without its mandatory reference is not committed",
+                root.hasNode("d/c"));
+    }
+
+    private void registerReferrerType() throws RepositoryException {
+        NodeTypeManager ntMgr = session.getWorkspace().getNodeTypeManager();
+        NodeTypeTemplate ntTemplate = ntMgr.createNodeTypeTemplate();
+        ntTemplate.setName(REFERRER_TYPE);
+        ntTemplate.setDeclaredSuperTypeNames(new String[] {ntUnstructured});
+        PropertyDefinitionTemplate propTemplate = ntMgr.createPropertyDefinitionTemplate();
+        propTemplate.setName("ref");
+        propTemplate.setRequiredType(PropertyType.REFERENCE);
+        propTemplate.setMandatory(true);
+        ntTemplate.getPropertyDefinitionTemplates().add(propTemplate);
+        ntMgr.registerNodeType(ntTemplate, true);
+    }
+
+    private String referrer(String name, NodeId id) {
+        return "<sv:node sv:name=\"" + name + "\">"
+                + property("jcr:primaryType", "Name", REFERRER_TYPE)
+                + property("ref", "Reference", id.toString())
+                + "</sv:node>";
+    }
+
+    private String property(String name, String type, String value) {
+        return "<sv:property sv:name=\"" + name + "\" sv:type=\"" + type + "\">"
+                + "<sv:value>" + value + "</sv:value></sv:property>";
+    }
+
+    private void importXML(String xml) throws Exception {
+        session.getWorkspace().importXML(
+                root.getPath(),
+                new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW);
+    }
+
+}
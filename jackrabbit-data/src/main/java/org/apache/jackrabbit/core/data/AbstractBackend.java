@@ -16,11 +16,15 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 
 /**
@@ -80,6 +84,36 @@ public abstract class AbstractBackend implements Backend {
         this.config = config;
     }
 
+    /**
+     * Return inputstream of a range of the record identified by identifier.
+     * Used by the block cache of {@link CachingDataStore}, so that reading
+     * a part of a large record does not require to read the whole record.
+     * This implementation skips the stream of the whole record. Backends
+     * that support ranged reads should override this method.
+     * 
+     * @param identifier
+     *            identifier of record.
+     * @param position
+     *            the position of the first byte to read.
+     * @param length
+     *            the maximum number of bytes to read.
+     * @return inputstream of the range of the record.
+     * @throws DataStoreException
+     *             if record not found or any error.
+     */
+    public InputStream read(DataIdentifier identifier, long position,
+            long length) throws DataStoreException {
+        InputStream in = read(identifier);
+        try {
+            IOUtils.skipFully(in, position);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw new DataStoreException("Could not skip to position "
+                + position + " of " + identifier, e);
+        }
+        return new BoundedInputStream(in, length);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,6 +17,10 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Abstract data record base class. This base class contains only
@@ -60,6 +64,40 @@ public abstract class AbstractDataRecord implements DataRecord {
         return store.getReferenceFromIdentifier(identifier);
     }
 
+    /**
+     * Returns a channel for reading the binary stream in this record,
+     * starting at the given position. This implementation skips the stream
+     * up to the position. Records that support ranged reads override it to
+     * start reading at the position right away.
+     *
+     * @param position position of the first byte to read
+     * @return channel, to be closed by the caller
+     * @throws DataStoreException if the record could not be accessed
+     */
+    public ReadableByteChannel getChannel(long position)
+            throws DataStoreException {
+        InputStream in = getStream();
+        try {
+            long skip = position;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    break;
+                }
+                skip -= skipped;
+            }
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException ignore) {
+                // ignore
+            }
+            throw new DataStoreException(
+                    "Error skipping to position " + position + " of " + identifier, e);
+        }
+        return Channels.newChannel(in);
+    }
+
     /**
      * Returns the string representation of the data identifier.
      *
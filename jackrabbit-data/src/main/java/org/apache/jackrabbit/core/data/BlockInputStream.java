@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * An input stream over a record of {@link CachingDataStore} that is read in
+ * blocks of a fixed size. Each block is read from the block cache, or read
+ * from the {@link Backend} with a ranged read and stored in the block cache.
+ * Skipping does not read the skipped blocks, so that a part of a large record
+ * can be read without reading the whole record. When the stream is read
+ * sequentially, the following blocks are prefetched.
+ */
+class BlockInputStream extends InputStream {
+
+    private final CachingDataStore store;
+
+    private final DataIdentifier identifier;
+
+    private final long length;
+
+    private final int blockSize;
+
+    private final int prefetch;
+
+    /**
+     * The position of the next byte to read.
+     */
+    private long position;
+
+    /**
+     * The stream of the current block, positioned at {@link #position}, or
+     * null if the block was not opened yet.
+     */
+    private InputStream block;
+
+    /**
+     * The position after the last byte of the current block.
+     */
+    private long blockEnd;
+
+    /**
+     * The index of the next block to prefetch.
+     */
+    private long nextPrefetch;
+
+    BlockInputStream(CachingDataStore store, DataIdentifier identifier,
+            long length, int blockSize, int prefetch, long position) {
+        this.store = store;
+        this.identifier = identifier;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.prefetch = prefetch;
+        this.position = Math.max(0, Math.min(position, length));
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        openBlock();
+        int b = block.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of block at position "
+                + position + " of " + identifier);
+        }
+        advance(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (position >= length) {
+            return -1;
+        }
+        openBlock();
+        int n = block.read(b, off, (int) Math.min(len, blockEnd - position));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of block at position "
+                + position + " of " + identifier);
+        }
+        advance(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        n = Math.min(n, length - position);
+        if (n <= 0) {
+            return 0;
+        }
+        if (block != null && position + n < blockEnd) {
+            IOUtils.skipFully(block, n);
+            position += n;
+        } else {
+            closeBlock();
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block == null ? 0 : block.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeBlock();
+        position = length;
+    }
+
+    private void advance(int n) throws IOException {
+        position += n;
+        if (position >= blockEnd) {
+            closeBlock();
+        }
+    }
+
+    private void openBlock() throws IOException {
+        if (block != null) {
+            return;
+        }
+        long index = position / blockSize;
+        long start = index * blockSize;
+        try {
+            block = store.getBlock(identifier, index, length);
+        } catch (DataStoreException e) {
+            throw new IOException("Could not read block " + index + " of "
+                + identifier, e);
+        }
+        blockEnd = Math.min(start + blockSize, length);
+        if (position > start) {
+            IOUtils.skipFully(block, position - start);
+        } else {
+            // reading from the start of a block: prefetch the next blocks,
+            // unless they were already prefetched
+            long next = index + 1;
+            if (nextPrefetch > next && nextPrefetch <= index + prefetch) {
+                next = nextPrefetch;
+            }
+            for (; next <= index + prefetch && next * blockSize < length; next++) {
+                store.prefetchBlock(identifier, next, length);
+            }
+            nextPrefetch = next;
+        }
+    }
+
+    private void closeBlock() throws IOException {
+        if (block != null) {
+            InputStream in = block;
+            block = null;
+            in.close();
+        }
+    }
+
+}
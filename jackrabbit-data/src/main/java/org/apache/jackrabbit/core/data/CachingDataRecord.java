@@ -18,6 +18,8 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,4 +61,14 @@ public class CachingDataRecord extends AbstractDataRecord {
         return store.getStream(getIdentifier());
     }
 
+    /**
+     * Returns a channel on the stream starting at the given position. If the
+     * record is read in blocks, the blocks before the position are not read.
+     */
+    @Override
+    public ReadableByteChannel getChannel(long position)
+            throws DataStoreException {
+        return Channels.newChannel(store.getStream(getIdentifier(), position));
+    }
+
 }
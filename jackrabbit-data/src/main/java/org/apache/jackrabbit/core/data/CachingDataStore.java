@@ -38,8 +38,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -49,6 +54,7 @@ import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,8 +86,19 @@ import org.slf4j.LoggerFactory;
  *     &lt;param name="{@link #setTouchAsync(boolean) touchAsync}" value="false"/&gt;
  *     &lt;param name="{@link #setProactiveCaching(boolean) proactiveCaching}" value="true"/&gt;
  *     &lt;param name="{@link #setRecLengthCacheSize(int) recLengthCacheSize}" value="200"/&gt;
+ *     &lt;param name="{@link #setBlockSize(int) blockSize}" value="0"/&gt;
+ *     &lt;param name="{@link #setBlockCacheSize(long) blockCacheSize}" value="17179869184"/&gt;
+ *     &lt;param name="{@link #setBlockCachePath(String) blockCachePath}" value="/data/datastore-blocks"/&gt;
+ *     &lt;param name="{@link #setBlockPrefetch(int) blockPrefetch}" value="2"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
+ * <p>
+ * If a block size is set, records larger than the block size that are not
+ * in the {@link LocalCache} are not downloaded completely. Instead they are
+ * read in blocks using ranged reads of the {@link Backend}, and the blocks
+ * are kept in a separate {@link LocalCache}, the block cache. Reading a part
+ * of a large record, for example after skipping, then only reads the blocks
+ * of that part.
  */
 public abstract class CachingDataStore extends AbstractDataStore implements
         MultiDataStoreAware, AsyncUploadCallback, AsyncTouchCallback {
@@ -207,6 +224,28 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private ExecutorService downloadExecService;
 
+    /**
+     * The number of threads of the asynchronous downloads, and the number of
+     * parts of a record that are downloaded concurrently.
+     */
+    private int downloadThreads = 5;
+
+    /**
+     * The size of the parts of records that are downloaded concurrently, or
+     * 0 to download records in one request (the default).
+     */
+    private int downloadPartSize;
+
+    /**
+     * The number of retries for a failed download of a part.
+     */
+    private int downloadPartRetries = 3;
+
+    /**
+     * {@link ExecutorService} to download the parts of records, or null.
+     */
+    private ExecutorService partDownloadExecService;
+
     protected abstract Backend createBackend();
 
     protected abstract String getMarkerFile();
@@ -248,6 +287,39 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private int recLengthCacheSize = 200;
 
+    /**
+     * The size of the blocks of the block cache, or 0 if the block cache is
+     * disabled (the default).
+     */
+    private int blockSize;
+
+    /**
+     * The maximum size of the block cache. The default value is 16 GB.
+     */
+    private long blockCacheSize = 16L * 1024 * 1024 * 1024;
+
+    /**
+     * The directory of the block cache, by default the path followed by
+     * "-blocks". It must not be within the path.
+     */
+    private String blockCachePath;
+
+    /**
+     * The number of blocks to prefetch when a record is read sequentially.
+     */
+    private int blockPrefetch = 2;
+
+    /**
+     * The block cache, or null if disabled.
+     */
+    private LocalCache blockCache;
+
+    /**
+     * The blocks that are being prefetched.
+     */
+    private final ConcurrentMap<String, Future<?>> pendingBlocks =
+        new ConcurrentHashMap<String, Future<?>>();
+
     /**
      * Initialized the data store. If the path is not set, &lt;repository
      * home&gt;/repository/datastore is used. This directory is automatically
@@ -355,10 +427,29 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                     asyncWriteCache.reset();
                 }
             }
-            downloadExecService = Executors.newFixedThreadPool(5,
+            downloadExecService = Executors.newFixedThreadPool(downloadThreads,
                 new NamedThreadFactory("backend-file-download-worker"));
+            if (downloadPartSize > 0 && backend instanceof AbstractBackend) {
+                // a separate pool, as asynchronous downloads wait for the parts
+                partDownloadExecService = Executors.newFixedThreadPool(
+                    downloadThreads, new NamedThreadFactory(
+                        "backend-part-download-worker"));
+            }
             cache = new LocalCache(path, tmpDir.getAbsolutePath(), cacheSize,
                 cachePurgeTrigFactor, cachePurgeResizeFactor, asyncWriteCache);
+            if (blockSize > 0) {
+                if (blockCachePath == null) {
+                    blockCachePath = path + "-blocks";
+                }
+                File blockTmpDir = new File(blockCachePath, "tmp");
+                if (!mkdirs(blockTmpDir)) {
+                    FileUtils.cleanDirectory(blockTmpDir);
+                }
+                LOG.info("blockCachePath=[{}], blockSize=[{}]", blockCachePath, blockSize);
+                blockCache = new LocalCache(blockCachePath,
+                    blockTmpDir.getAbsolutePath(), blockCacheSize,
+                    cachePurgeTrigFactor, cachePurgeResizeFactor, asyncWriteCache);
+            }
             /*
              * Initialize LRU cache of size {@link #recLengthCacheSize}
              */
@@ -572,6 +663,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                 asyncWriteCache.delete(fileName);
                 backend.deleteRecord(identifier);
                 cache.delete(fileName);
+                deleteBlocks(fileName);
             } catch (IOException ioe) {
                 throw new DataStoreException(ioe);
             }
@@ -587,6 +679,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         for (DataIdentifier identifier : diSet) {
             recLenCache.remove(identifier);
             cache.delete(getFileName(identifier));
+            deleteBlocks(getFileName(identifier));
         }
         try {
             for (String fileName : asyncWriteCache.deleteOlderThan(min)) {
@@ -608,15 +701,136 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      * record.
      */
     InputStream getStream(DataIdentifier identifier) throws DataStoreException {
+        return getStream(identifier, 0);
+    }
+
+    /**
+     * Get stream of record starting at the given position. If the record is
+     * not available in {@link LocalCache} and is larger than the block size,
+     * the stream reads the record in blocks, see {@link #setBlockSize(int)}.
+     * Otherwise the record is fetched as in {@link #getStream(DataIdentifier)}
+     * and skipped up to the position.
+     */
+    InputStream getStream(DataIdentifier identifier, long position)
+            throws DataStoreException {
         InputStream in = null;
         try {
             String fileName = getFileName(identifier);
             InputStream cached = cache.getIfStored(fileName);
+            if (cached != null) {
+                return skip(cached, position);
+            }
+            if (blockCache != null) {
+                long length = getLength(identifier);
+                if (length > blockSize) {
+                    return new BlockInputStream(this, identifier, length,
+                        blockSize, blockPrefetch, position);
+                }
+            }
+            in = read(identifier);
+            return skip(cache.store(fileName, in), position);
+        } catch (IOException e) {
+            throw new DataStoreException("IO Exception: " + identifier, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Read a record from the {@link Backend}. Records larger than the
+     * download part size are read in parts concurrently, see
+     * {@link #setDownloadPartSize(int)}.
+     */
+    private InputStream read(DataIdentifier identifier)
+            throws DataStoreException {
+        if (partDownloadExecService != null) {
+            long length = getLength(identifier);
+            if (length > downloadPartSize) {
+                return new ParallelPartInputStream((AbstractBackend) backend,
+                    identifier, length, downloadPartSize, downloadThreads,
+                    downloadPartRetries, partDownloadExecService);
+            }
+        }
+        return backend.read(identifier);
+    }
+
+    /**
+     * Get the stream of a block of a record from the block cache. If the
+     * block is not cached, it is read from the {@link Backend} and stored in
+     * the block cache. If the block is being prefetched, this method waits
+     * for the prefetch to complete.
+     *
+     * @param identifier the identifier of the record
+     * @param index the index of the block
+     * @param length the length of the record
+     * @return the stream of the block
+     */
+    InputStream getBlock(DataIdentifier identifier, long index, long length)
+            throws DataStoreException {
+        Future<?> pending = pendingBlocks.get(getBlockName(identifier, index));
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // read the block below
+            }
+        }
+        return readBlock(identifier, index, length);
+    }
+
+    /**
+     * Read a block of a record in the background, unless it is already being
+     * read.
+     *
+     * @param identifier the identifier of the record
+     * @param index the index of the block
+     * @param length the length of the record
+     */
+    void prefetchBlock(final DataIdentifier identifier, final long index,
+            final long length) {
+        final String blockName = getBlockName(identifier, index);
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    IOUtils.closeQuietly(readBlock(identifier, index, length));
+                } catch (DataStoreException e) {
+                    LOG.debug("Prefetch of block [{}] failed", blockName, e);
+                } finally {
+                    pendingBlocks.remove(blockName);
+                }
+            }
+        }, null);
+        if (pendingBlocks.putIfAbsent(blockName, task) == null) {
+            try {
+                downloadExecService.execute(task);
+            } catch (RejectedExecutionException e) {
+                pendingBlocks.remove(blockName);
+            }
+        }
+    }
+
+    private InputStream readBlock(DataIdentifier identifier, long index,
+            long length) throws DataStoreException {
+        InputStream in = null;
+        try {
+            String blockName = getBlockName(identifier, index);
+            InputStream cached = blockCache.getIfStored(blockName);
             if (cached != null) {
                 return cached;
             }
-            in = backend.read(identifier);
-            return cache.store(fileName, in);
+            long start = index * blockSize;
+            long count = Math.min(blockSize, length - start);
+            if (backend instanceof AbstractBackend) {
+                in = ((AbstractBackend) backend).read(identifier, start, count);
+            } else {
+                in = backend.read(identifier);
+                IOUtils.skipFully(in, start);
+                in = new BoundedInputStream(in, count);
+            }
+            return blockCache.store(blockName, in);
         } catch (IOException e) {
             throw new DataStoreException("IO Exception: " + identifier, e);
         } finally {
@@ -624,6 +838,33 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Delete the cached blocks of a record.
+     */
+    private void deleteBlocks(String fileName) {
+        if (blockCache == null) {
+            return;
+        }
+        String[] blocks = new File(blockCachePath, fileName).list();
+        if (blocks != null) {
+            for (String block : blocks) {
+                blockCache.delete(fileName + "/" + block);
+            }
+        }
+    }
+
+    private String getBlockName(DataIdentifier identifier, long index) {
+        return getFileName(identifier) + "/" + blockSize + "-" + index;
+    }
+
+    private static InputStream skip(InputStream in, long position)
+            throws IOException {
+        if (position > 0) {
+            IOUtils.skip(in, position);
+        }
+        return in;
+    }
+
     /**
      * Return lastModified of record from {@link Backend} assuming
      * {@link Backend} as a single source of truth.
@@ -698,6 +939,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             String fileName = getFileName(identifier);
             asyncWriteCache.delete(fileName);
             cache.delete(fileName);
+            deleteBlocks(fileName);
         } catch (IOException ioe) {
             throw new DataStoreException(ioe);
         }
@@ -882,6 +1124,13 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      * asynchronously.
      */
     private void asyncDownload(final DataIdentifier identifier) {
+        if (blockCache != null) {
+            // large records are read in blocks when needed
+            Long length = recLenCache.get(identifier);
+            if (length == null || length > blockSize) {
+                return;
+            }
+        }
         if (proactiveCaching
             && cacheSize != 0
             && asyncDownloadCache.put(identifier, System.currentTimeMillis()) == null) {
@@ -1058,8 +1307,14 @@ public abstract class CachingDataStore extends AbstractDataStore implements
     @Override
     public void close() throws DataStoreException {
         cache.close();
+        if (blockCache != null) {
+            blockCache.close();
+        }
         backend.close();
         downloadExecService.shutdown();
+        if (partDownloadExecService != null) {
+            partDownloadExecService.shutdown();
+        }
     }
 
     /**
@@ -1226,6 +1481,116 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         return backend;
     }
 
+    /**
+     * Set the number of threads that download records asynchronously, which
+     * is also the number of parts of a record that are downloaded
+     * concurrently. The default is 5.
+     * 
+     * @param downloadThreads
+     *            the number of threads.
+     */
+    public void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
+    /**
+     * Set the download part size. If set, records larger than the part size
+     * that are copied to the {@link LocalCache} are downloaded in parts of
+     * this size, using concurrent ranged reads. Each part is kept in memory
+     * until it is written to the cache. The default is 0, which downloads
+     * each record in a single request.
+     * 
+     * @param downloadPartSize
+     *            the part size in bytes.
+     */
+    public void setDownloadPartSize(int downloadPartSize) {
+        this.downloadPartSize = downloadPartSize;
+    }
+
+    /**
+     * Set the number of retries for a part that could not be downloaded.
+     * The default is 3.
+     * 
+     * @param downloadPartRetries
+     *            the number of retries.
+     */
+    public void setDownloadPartRetries(int downloadPartRetries) {
+        this.downloadPartRetries = downloadPartRetries;
+    }
+
+    /**
+     * @return the block size, or 0 if the block cache is disabled.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Set the block size. If set, records larger than the block size that
+     * are not in the {@link LocalCache} are read in blocks of this size, which
+     * are cached in the block cache. The default is 0, which disables the
+     * block cache.
+     * 
+     * @param blockSize
+     *            the block size in bytes.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return size of the block cache.
+     */
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    /**
+     * Set size of the block cache.
+     * 
+     * @param blockCacheSize
+     *            size of the block cache.
+     */
+    public void setBlockCacheSize(long blockCacheSize) {
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    /**
+     * @return path of the block cache.
+     */
+    public String getBlockCachePath() {
+        return blockCachePath;
+    }
+
+    /**
+     * Set path of the block cache. The default is the path followed by
+     * "-blocks".
+     * 
+     * @param blockCachePath
+     *            path of the block cache.
+     */
+    public void setBlockCachePath(String blockCachePath) {
+        this.blockCachePath = blockCachePath;
+    }
+
+    /**
+     * @return the number of blocks to prefetch.
+     */
+    public int getBlockPrefetch() {
+        return blockPrefetch;
+    }
+
+    /**
+     * Set the number of blocks that are prefetched in the background when a
+     * record is read sequentially. The default is 2.
+     * 
+     * @param blockPrefetch
+     *            the number of blocks.
+     */
+    public void setBlockPrefetch(int blockPrefetch) {
+        this.blockPrefetch = blockPrefetch;
+    }
+
     /**
      * This class initiates files upload in multiple threads to backend.
      */
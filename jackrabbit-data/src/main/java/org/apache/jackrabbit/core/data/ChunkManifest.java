@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The list of chunks a record of the {@link ChunkedFileDataStore} consists
+ * of. Manifest files start with a magic number and the record length,
+ * followed by the number of chunks and the identifier and length of each
+ * chunk.
+ */
+class ChunkManifest {
+
+    private static final int MAGIC = 0x4a52434d;
+
+    private final List<String> chunks;
+
+    /**
+     * The start offsets of the chunks, followed by the record length.
+     */
+    private long[] offsets;
+
+    ChunkManifest() {
+        this.chunks = new ArrayList<String>();
+        this.offsets = new long[] { 0 };
+    }
+
+    private ChunkManifest(List<String> chunks, long[] offsets) {
+        this.chunks = chunks;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Appends a chunk.
+     *
+     * @param identifier the chunk identifier
+     * @param length the chunk length
+     */
+    void add(String identifier, int length) {
+        int count = chunks.size();
+        chunks.add(identifier);
+        if (offsets.length == count + 1) {
+            offsets = Arrays.copyOf(offsets, Math.max(4, offsets.length * 2));
+        }
+        offsets[count + 1] = offsets[count] + length;
+    }
+
+    int getChunkCount() {
+        return chunks.size();
+    }
+
+    String getChunk(int index) {
+        return chunks.get(index);
+    }
+
+    long getOffset(int index) {
+        return offsets[index];
+    }
+
+    long getLength() {
+        return offsets[chunks.size()];
+    }
+
+    /**
+     * Returns the index of the chunk that contains the given position.
+     *
+     * @param position a position within the record
+     * @return the chunk index, or the chunk count if the position is at
+     *         or after the end of the record
+     */
+    int getChunkIndex(long position) {
+        int count = chunks.size();
+        if (position >= offsets[count]) {
+            return count;
+        }
+        int index = Arrays.binarySearch(offsets, 0, count + 1, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(getLength());
+            out.writeInt(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                out.writeUTF(chunks.get(i));
+                out.writeInt((int) (offsets[i + 1] - offsets[i]));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static ChunkManifest read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a chunk manifest: " + file);
+            }
+            long length = in.readLong();
+            int count = in.readInt();
+            List<String> chunks = new ArrayList<String>(count);
+            long[] offsets = new long[count + 1];
+            for (int i = 0; i < count; i++) {
+                chunks.add(in.readUTF());
+                offsets[i + 1] = offsets[i] + in.readInt();
+            }
+            if (offsets[count] != length) {
+                throw new IOException("Corrupt chunk manifest: " + file);
+            }
+            return new ChunkManifest(chunks, offsets);
+        } finally {
+            in.close();
+        }
+    }
+
+}
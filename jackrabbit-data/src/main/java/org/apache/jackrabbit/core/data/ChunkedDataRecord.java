@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Data record of the {@link ChunkedFileDataStore}. The chunk manifest is
+ * read when the record is first accessed.
+ */
+class ChunkedDataRecord extends AbstractDataRecord {
+
+    private final ChunkedFileDataStore store;
+
+    /**
+     * The manifest file of the record.
+     */
+    private final File file;
+
+    private ChunkManifest manifest;
+
+    ChunkedDataRecord(ChunkedFileDataStore store, DataIdentifier identifier,
+            File file, ChunkManifest manifest) {
+        super(store, identifier);
+        this.store = store;
+        this.file = file;
+        this.manifest = manifest;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLength() throws DataStoreException {
+        return getManifest().getLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream() throws DataStoreException {
+        return new ChunkedInputStream(store, getManifest());
+    }
+
+    /**
+     * Returns a channel on the chunks of this record. Chunks before the
+     * given position are not read.
+     */
+    @Override
+    public ReadableByteChannel getChannel(long position)
+            throws DataStoreException {
+        InputStream in = getStream();
+        try {
+            in.skip(position);
+        } catch (IOException e) {
+            throw new DataStoreException(
+                    "Error skipping to position " + position + " of " + this, e);
+        }
+        return Channels.newChannel(in);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    private synchronized ChunkManifest getManifest() throws DataStoreException {
+        if (manifest == null) {
+            try {
+                manifest = ChunkManifest.read(file);
+            } catch (IOException e) {
+                throw new DataStoreException(
+                        "Error reading chunk manifest " + file.getAbsolutePath(), e);
+            }
+        }
+        return manifest;
+    }
+}
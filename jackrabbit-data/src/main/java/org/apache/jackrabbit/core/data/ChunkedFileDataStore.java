@@ -0,0 +1,690 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.data.util.StripedWeakHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File-based data store that deduplicates at the level of chunks instead of
+ * whole records. Streams are split into chunks at content-defined
+ * boundaries, so that records that share most of their content, like
+ * successive versions of a large file, share most of their chunks. Each
+ * distinct chunk is stored once, and records are stored as manifests that
+ * list their chunks.
+ *
+ * Configuration:
+ * <pre>
+ * &lt;DataStore class="org.apache.jackrabbit.core.data.ChunkedFileDataStore"&gt;
+ *     &lt;param name="{@link #setPath(String) path}" value="/data/datastore"/&gt;
+ *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/&gt;
+ *     &lt;param name="{@link #setMinChunkSize(int) minChunkSize}" value="16384"/&gt;
+ *     &lt;param name="{@link #setAverageChunkSize(int) averageChunkSize}" value="65536"/&gt;
+ *     &lt;param name="{@link #setMaxChunkSize(int) maxChunkSize}" value="262144"/&gt;
+ * &lt;/DataStore&gt;
+ * </pre>
+ * <p>
+ * If the directory is not set, the directory &lt;repository home&gt;/repository/datastore is used.
+ * Record manifests are kept in the <code>records</code> and chunks in the
+ * <code>chunks</code> subdirectory, both using the three level directory
+ * structure of the {@link FileDataStore}. Record identifiers are the
+ * digest of the whole stream, so the same content gets the same identifier
+ * as in a {@link FileDataStore}.
+ * <p>
+ * The chunk size settings must not be changed once records were added, as
+ * this would move all chunk boundaries and defeat deduplication with the
+ * existing records.
+ * <p>
+ * {@link #deleteAllOlderThan(long)} deletes the records that were not
+ * accessed since the given time, and then the chunks that are referenced
+ * by none of the remaining records.
+ */
+public class ChunkedFileDataStore extends AbstractDataStore
+        implements MultiDataStoreAware {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(ChunkedFileDataStore.class);
+
+    /**
+     * The default value for the minimum object size.
+     */
+    private static final int DEFAULT_MIN_RECORD_LENGTH = 100;
+
+    /**
+     * The maximum last modified time resolution of the file system.
+     */
+    private static final int ACCESS_TIME_RESOLUTION = 2000;
+
+    /**
+     * Name of the directory used for temporary files.
+     * Must be at least 3 characters.
+     */
+    private static final String TMP = "tmp";
+
+    /**
+     * The number of locks identifiers are spread over.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * The locks that operations on a record or chunk synchronize on.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * The number of running {@link #addRecord(InputStream)} calls that
+     * reference a chunk, by chunk identifier. Chunks of records that are
+     * not yet written are not deleted.
+     */
+    private final Map<String, Integer> pendingChunks = new HashMap<String, Integer>();
+
+    /**
+     * Chunks of records that were written while chunks are swept. Such
+     * records may have been written after the sweep collected the chunk
+     * references of the existing records.
+     */
+    private final Set<String> sweepChunks = new HashSet<String>();
+
+    /**
+     * Whether chunks are being swept.
+     */
+    private volatile boolean sweeping;
+
+    /**
+     * The minimum modified date. If a file is accessed (read or write) with a modified date
+     * older than this value, the modified date is updated to the current time.
+     */
+    private volatile long minModifiedDate;
+
+    /**
+     * The directory that contains all the record manifests and chunks.
+     */
+    private File directory;
+
+    /**
+     * The directory that contains the record manifests.
+     */
+    private File recordDirectory;
+
+    /**
+     * The directory that contains the chunks.
+     */
+    private File chunkDirectory;
+
+    /**
+     * The name of the directory that contains all the record manifests and chunks.
+     */
+    private String path;
+
+    /**
+     * The minimum size of an object that should be stored in this data store.
+     */
+    private int minRecordLength = DEFAULT_MIN_RECORD_LENGTH;
+
+    private int minChunkSize = 16 * 1024;
+
+    private int averageChunkSize = 64 * 1024;
+
+    private int maxChunkSize = 256 * 1024;
+
+    /**
+     * All data identifiers that are currently in use are in this set until they are garbage collected.
+     */
+    protected Map<DataIdentifier, WeakReference<DataIdentifier>> inUse =
+        new StripedWeakHashMap<DataIdentifier, WeakReference<DataIdentifier>>(LOCK_STRIPES);
+
+    /**
+     * Initialized the data store.
+     * If the path is not set, &lt;repository home&gt;/repository/datastore is used.
+     * This directory is automatically created if it does not yet exist.
+     *
+     * @param homeDir
+     */
+    public void init(String homeDir) {
+        if (path == null) {
+            path = homeDir + "/repository/datastore";
+        }
+        directory = new File(path);
+        recordDirectory = new File(directory, "records");
+        chunkDirectory = new File(directory, "chunks");
+        recordDirectory.mkdirs();
+        chunkDirectory.mkdirs();
+    }
+
+    /**
+     * Get a data record for the given identifier.
+     *
+     * @param identifier the identifier
+     * @return the data record or null
+     */
+    public DataRecord getRecordIfStored(DataIdentifier identifier) throws DataStoreException {
+        File file = getFile(recordDirectory, identifier.toString());
+        if (!file.exists()) {
+            return null;
+        }
+        if (minModifiedDate != 0) {
+            // only check when running garbage collection
+            synchronized (getLock(identifier.toString())) {
+                if (FileDataStore.getLastModified(file) < minModifiedDate) {
+                    FileDataStore.setLastModified(
+                            file, System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
+                }
+            }
+        }
+        usesIdentifier(identifier);
+        return new ChunkedDataRecord(this, identifier, file, null);
+    }
+
+    private void usesIdentifier(DataIdentifier identifier) {
+        inUse.put(identifier, new WeakReference<DataIdentifier>(identifier));
+    }
+
+    /**
+     * Creates a new data record. The stream is split into chunks, and each
+     * chunk that is not stored yet is written to a temporary file and moved
+     * in place. Then the manifest of the record is written, unless a record
+     * with the same {@link #DIGEST} digest already exists.
+     *
+     * @param input binary stream
+     * @return data record that contains the given stream
+     * @throws DataStoreException if the record could not be created
+     */
+    public DataRecord addRecord(InputStream input) throws DataStoreException {
+        ChunkManifest manifest = new ChunkManifest();
+        try {
+            MessageDigest recordDigest = MessageDigest.getInstance(DIGEST);
+            MessageDigest chunkDigest = MessageDigest.getInstance(DIGEST);
+            ContentDefinedChunker chunker = new ContentDefinedChunker(
+                    input, minChunkSize, averageChunkSize, maxChunkSize);
+            byte[] chunk = new byte[maxChunkSize];
+            int length;
+            while ((length = chunker.nextChunk(chunk)) >= 0) {
+                recordDigest.update(chunk, 0, length);
+                chunkDigest.update(chunk, 0, length);
+                String id = encodeHexString(chunkDigest.digest());
+                // register first, so that the chunk is not swept
+                // until the manifest is in place
+                manifest.add(id, length);
+                addPendingChunk(id);
+                storeChunk(id, chunk, length);
+            }
+
+            DataIdentifier identifier =
+                    new DataIdentifier(encodeHexString(recordDigest.digest()));
+            usesIdentifier(identifier);
+            File file = getFile(recordDirectory, identifier.toString());
+            synchronized (getLock(identifier.toString())) {
+                if (!file.exists()) {
+                    File temporary = newTemporaryFile();
+                    try {
+                        manifest.write(temporary);
+                        FileDataStore.moveInPlace(temporary, file);
+                    } finally {
+                        temporary.delete();
+                    }
+                } else {
+                    long now = System.currentTimeMillis();
+                    if (FileDataStore.getLastModified(file) < now + ACCESS_TIME_RESOLUTION) {
+                        FileDataStore.setLastModified(file, now + ACCESS_TIME_RESOLUTION);
+                    }
+                }
+            }
+            return new ChunkedDataRecord(this, identifier, file, manifest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new DataStoreException(DIGEST + " not available", e);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not add record", e);
+        } finally {
+            removePendingChunks(manifest);
+        }
+    }
+
+    /**
+     * Stores a chunk, unless it already exists.
+     *
+     * @param id chunk identifier
+     * @param chunk chunk content
+     * @param length chunk length
+     * @throws IOException if the chunk could not be stored
+     */
+    private void storeChunk(String id, byte[] chunk, int length)
+            throws IOException, DataStoreException {
+        File file = getFile(chunkDirectory, id);
+        if (touchChunk(id, file, length)) {
+            return;
+        }
+        File temporary = newTemporaryFile();
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(chunk, 0, length);
+            } finally {
+                out.close();
+            }
+            synchronized (getLock(id)) {
+                if (!file.exists()) {
+                    FileDataStore.moveInPlace(temporary, file);
+                    return;
+                }
+            }
+            touchChunk(id, file, length);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Updates the modified date of an existing chunk.
+     *
+     * @return whether the chunk exists
+     */
+    private boolean touchChunk(String id, File file, int length)
+            throws IOException, DataStoreException {
+        synchronized (getLock(id)) {
+            if (!file.exists()) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (FileDataStore.getLastModified(file) < now + ACCESS_TIME_RESOLUTION) {
+                FileDataStore.setLastModified(file, now + ACCESS_TIME_RESOLUTION);
+            }
+            if (file.length() != length) {
+                // Sanity checks on the chunk file. These should never fail,
+                // but better safe than sorry...
+                if (!file.isFile()) {
+                    throw new IOException("Not a file: " + file);
+                }
+                throw new IOException(DIGEST + " collision: " + file);
+            }
+            return true;
+        }
+    }
+
+    private void addPendingChunk(String id) {
+        synchronized (pendingChunks) {
+            Integer count = pendingChunks.get(id);
+            pendingChunks.put(id, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Releases the chunks of a record that was added or failed. If chunks
+     * are being swept, the chunks stay protected until the sweep is done,
+     * as the manifest of the record may have been written after the sweep
+     * collected the chunk references.
+     */
+    private void removePendingChunks(ChunkManifest manifest) {
+        synchronized (pendingChunks) {
+            boolean protect = sweeping;
+            for (int i = 0; i < manifest.getChunkCount(); i++) {
+                String id = manifest.getChunk(i);
+                if (protect) {
+                    sweepChunks.add(id);
+                }
+                Integer count = pendingChunks.remove(id);
+                if (count != null && count > 1) {
+                    pendingChunks.put(id, count - 1);
+                }
+            }
+        }
+    }
+
+    private boolean isPendingChunk(String id) {
+        synchronized (pendingChunks) {
+            return pendingChunks.containsKey(id) || sweepChunks.contains(id);
+        }
+    }
+
+    /**
+     * Returns the file of a record manifest or chunk in the given directory.
+     *
+     * @param base records or chunks directory
+     * @param id record or chunk identifier
+     * @return file
+     */
+    private static File getFile(File base, String id) {
+        File file = new File(base, id.substring(0, 2));
+        file = new File(file, id.substring(2, 4));
+        file = new File(file, id.substring(4, 6));
+        return new File(file, id);
+    }
+
+    /**
+     * Returns the file of the identified chunk.
+     *
+     * @param id chunk identifier
+     * @return chunk file
+     */
+    File getChunkFile(String id) {
+        return getFile(chunkDirectory, id);
+    }
+
+    /**
+     * Returns the lock that operations on the identified record or
+     * chunk synchronize on.
+     *
+     * @param id record or chunk identifier
+     * @return lock object
+     */
+    private Object getLock(String id) {
+        int hash = id.hashCode();
+        hash ^= hash >>> 16;
+        return locks[(hash & Integer.MAX_VALUE) % locks.length];
+    }
+
+    /**
+     * Returns a unique temporary file to be used for creating a new
+     * manifest or chunk.
+     *
+     * @return temporary file
+     * @throws IOException
+     */
+    private File newTemporaryFile() throws IOException {
+        // the directory is already created in the init method
+        return File.createTempFile(TMP, null, directory);
+    }
+
+    public void updateModifiedDateOnAccess(long before) {
+        minModifiedDate = before;
+    }
+
+    /**
+     * Deletes the manifest of the identified record. Its chunks are deleted
+     * by the next {@link #deleteAllOlderThan(long)} call if no other record
+     * references them.
+     */
+    public void deleteRecord(DataIdentifier identifier)
+            throws DataStoreException {
+        File file = getFile(recordDirectory, identifier.toString());
+        synchronized (getLock(identifier.toString())) {
+            if (file.exists() && !file.delete()) {
+                log.warn("Failed to delete file " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Deletes the records that were not accessed since the given time,
+     * and then the chunks that none of the remaining records references.
+     * Chunks are only deleted if they were also not stored or reused since
+     * the given time, and if no record that references them is being added.
+     *
+     * @param min the minimum time
+     * @return the number of records deleted
+     * @throws DataStoreException if the remaining records could not be read
+     */
+    public synchronized int deleteAllOlderThan(long min) throws DataStoreException {
+        int count = 0;
+        List<File> records = new ArrayList<File>();
+        listRecursive(records, recordDirectory);
+        for (File file : records) {
+            DataIdentifier id = new DataIdentifier(file.getName());
+            synchronized (getLock(id.toString())) {
+                long lastModified;
+                try {
+                    lastModified = FileDataStore.getLastModified(file);
+                } catch (DataStoreException e) {
+                    // deleted concurrently, or the date is uncertain
+                    continue;
+                }
+                if (lastModified < min && !inUse.containsKey(id)) {
+                    log.info("Deleting old record {}", id);
+                    if (file.delete()) {
+                        count++;
+                    } else {
+                        log.warn("Failed to delete old file " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        synchronized (pendingChunks) {
+            sweepChunks.clear();
+            sweeping = true;
+        }
+        try {
+            Set<String> referenced = getReferencedChunks();
+            List<File> chunks = new ArrayList<File>();
+            listRecursive(chunks, chunkDirectory);
+            int deleted = 0;
+            for (File file : chunks) {
+                String id = file.getName();
+                if (referenced.contains(id)) {
+                    continue;
+                }
+                synchronized (getLock(id)) {
+                    if (file.exists() && file.lastModified() < min
+                            && !isPendingChunk(id)) {
+                        if (file.delete()) {
+                            deleted++;
+                        } else {
+                            log.warn("Failed to delete chunk " + file.getAbsolutePath());
+                        }
+                    }
+                }
+            }
+            log.debug("Deleted {} records and {} chunks, {} chunks referenced",
+                    new Object[] { count, deleted, referenced.size() });
+        } finally {
+            synchronized (pendingChunks) {
+                sweeping = false;
+                sweepChunks.clear();
+            }
+        }
+        deleteEmptyDirectories(recordDirectory);
+        deleteEmptyDirectories(chunkDirectory);
+        return count;
+    }
+
+    /**
+     * Collects the chunks referenced by the stored records.
+     *
+     * @return chunk identifiers
+     * @throws DataStoreException if a manifest can not be read
+     */
+    private Set<String> getReferencedChunks() throws DataStoreException {
+        Set<String> referenced = new HashSet<String>();
+        List<File> records = new ArrayList<File>();
+        listRecursive(records, recordDirectory);
+        for (File file : records) {
+            ChunkManifest manifest;
+            try {
+                manifest = ChunkManifest.read(file);
+            } catch (FileNotFoundException e) {
+                // deleted concurrently
+                continue;
+            } catch (IOException e) {
+                throw new DataStoreException(
+                        "Error reading chunk manifest " + file.getAbsolutePath(), e);
+            }
+            for (int i = 0; i < manifest.getChunkCount(); i++) {
+                referenced.add(manifest.getChunk(i));
+            }
+        }
+        return referenced;
+    }
+
+    /**
+     * Removes empty directories below the given directory, but not the
+     * directory itself. A concurrent addRecord recreates the directory if needed.
+     */
+    private static void deleteEmptyDirectories(File base) {
+        File[] list = base.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                if (file.isDirectory()) {
+                    deleteEmptyDirectories(file);
+                    String[] entries = file.list();
+                    if (entries != null && entries.length == 0) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void listRecursive(List<File> list, File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    listRecursive(list, f);
+                } else {
+                    list.add(f);
+                }
+            }
+        }
+    }
+
+    public Iterator<DataIdentifier> getAllIdentifiers() {
+        List<File> files = new ArrayList<File>();
+        listRecursive(files, recordDirectory);
+        List<DataIdentifier> identifiers = new ArrayList<DataIdentifier>();
+        for (File f : files) {
+            identifiers.add(new DataIdentifier(f.getName()));
+        }
+        log.debug("Found " + identifiers.size() + " identifiers.");
+        return identifiers.iterator();
+    }
+
+    public void clearInUse() {
+        inUse.clear();
+    }
+
+    /**
+     * Get the name of the directory where this data store keeps the files.
+     *
+     * @return the full path name
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Set the name of the directory where this data store keeps the files.
+     *
+     * @param directoryName the path name
+     */
+    public void setPath(String directoryName) {
+        this.path = directoryName;
+    }
+
+    public int getMinRecordLength() {
+        return minRecordLength;
+    }
+
+    /**
+     * Set the minimum object length.
+     *
+     * @param minRecordLength the length
+     */
+    public void setMinRecordLength(int minRecordLength) {
+        this.minRecordLength = minRecordLength;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    /**
+     * Set the minimum chunk size. Only the last chunk of a record may be
+     * smaller.
+     *
+     * @param minChunkSize the size in bytes
+     */
+    public void setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    public int getAverageChunkSize() {
+        return averageChunkSize;
+    }
+
+    /**
+     * Set the expected size of a chunk beyond the minimum chunk size.
+     * The value is rounded down to a power of two.
+     *
+     * @param averageChunkSize the size in bytes
+     */
+    public void setAverageChunkSize(int averageChunkSize) {
+        this.averageChunkSize = averageChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /**
+     * Set the maximum chunk size. A chunk is cut at this size if no content
+     * defined boundary was found before.
+     *
+     * @param maxChunkSize the size in bytes
+     */
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    public void close() {
+        // nothing to do
+    }
+
+    //---------------------------------------------------------< protected >--
+
+    @Override
+    protected byte[] getOrCreateReferenceKey() throws DataStoreException {
+        File file = new File(directory, "reference.key");
+        try {
+            if (file.exists()) {
+                return FileUtils.readFileToByteArray(file);
+            } else {
+                byte[] key = super.getOrCreateReferenceKey();
+                FileUtils.writeByteArrayToFile(file, key);
+                return key;
+            }
+        } catch (IOException e) {
+            throw new DataStoreException(
+                    "Unable to access reference key file " + file.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over the chunks of a {@link ChunkManifest}. Chunk files are only
+ * opened when they are read, and skipping moves directly to the chunk that
+ * contains the target position, so that ranges of a large record can be
+ * read without reading the chunks before them.
+ */
+class ChunkedInputStream extends InputStream {
+
+    private final ChunkedFileDataStore store;
+
+    private final ChunkManifest manifest;
+
+    private long position;
+
+    private int index;
+
+    private InputStream current;
+
+    private boolean closed;
+
+    ChunkedInputStream(ChunkedFileDataStore store, ChunkManifest manifest) {
+        this.store = store;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n;
+        do {
+            n = read(b, 0, 1);
+        } while (n == 0);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (position < manifest.getLength()) {
+            if (current == null) {
+                current = openChunk();
+            }
+            int n = current.read(b, off, len);
+            if (n >= 0) {
+                position += n;
+                return n;
+            }
+            current.close();
+            current = null;
+            index++;
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (n <= 0) {
+            return 0;
+        }
+        long target = Math.min(manifest.getLength(), position + n);
+        long skipped = target - position;
+        int targetIndex = manifest.getChunkIndex(target);
+        if (current != null && targetIndex == index) {
+            long remaining = skipped;
+            while (remaining > 0) {
+                long s = current.skip(remaining);
+                if (s <= 0) {
+                    break;
+                }
+                remaining -= s;
+            }
+            if (remaining == 0) {
+                position = target;
+                return skipped;
+            }
+        }
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        position = target;
+        index = targetIndex;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private InputStream openChunk() throws IOException {
+        if (index >= manifest.getChunkCount()) {
+            throw new IOException("Unexpected end of chunk at position " + position);
+        }
+        FileInputStream in = new FileInputStream(
+                store.getChunkFile(manifest.getChunk(index)));
+        long offset = position - manifest.getOffset(index);
+        if (offset > 0) {
+            try {
+                in.getChannel().position(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return in;
+    }
+
+}
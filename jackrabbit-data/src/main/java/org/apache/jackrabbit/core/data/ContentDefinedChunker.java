@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries. A rolling
+ * "gear" hash is computed over the stream, and a chunk ends where the top
+ * bits of the hash are all zero. As the hash only depends on the last 64
+ * bytes, an insertion or removal in the stream only moves the boundaries
+ * near the change, and the other chunks of a modified stream remain the
+ * same.
+ */
+class ContentDefinedChunker {
+
+    /**
+     * The random values mixed into the hash for each byte value. A fixed
+     * seed is used, so that boundaries are the same across restarts.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+
+    private final int minChunkSize;
+
+    private final int maxChunkSize;
+
+    /**
+     * The number of bits to shift the hash right, so that only the bits
+     * that must be zero at a boundary remain.
+     */
+    private final int shift;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * Creates a chunker for the given stream.
+     *
+     * @param in the stream, which is not closed by the chunker
+     * @param minChunkSize the minimum chunk size
+     * @param averageChunkSize the expected chunk size above the minimum,
+     *          rounded down to a power of two
+     * @param maxChunkSize the maximum chunk size
+     */
+    ContentDefinedChunker(
+            InputStream in, int minChunkSize, int averageChunkSize, int maxChunkSize) {
+        if (minChunkSize < 1 || averageChunkSize < 2 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes: min " + minChunkSize
+                    + ", average " + averageChunkSize + ", max " + maxChunkSize);
+        }
+        this.in = in;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.shift = 64 - Integer.numberOfTrailingZeros(Integer.highestOneBit(averageChunkSize));
+    }
+
+    /**
+     * Reads the next chunk into the given array.
+     *
+     * @param chunk the target array, at least as large as the maximum chunk size
+     * @return the length of the chunk, or -1 at the end of the stream
+     * @throws IOException if reading from the stream fails
+     */
+    int nextChunk(byte[] chunk) throws IOException {
+        long hash = 0;
+        int length = 0;
+        while (length < maxChunkSize) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    break;
+                }
+                continue;
+            }
+            byte b = buffer[position++];
+            chunk[length++] = b;
+            hash = (hash << 1) + GEAR[b & 0xff];
+            if (length >= minChunkSize && (hash >>> shift) == 0) {
+                break;
+            }
+        }
+        return length == 0 ? -1 : length;
+    }
+
+}
@@ -35,6 +35,7 @@ import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -120,6 +121,25 @@ public class FSBackend extends AbstractBackend {
         }
     }
 
+    @Override
+    public InputStream read(DataIdentifier identifier, long position,
+            long length) throws DataStoreException {
+        File file = getFile(identifier);
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(position);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening input stream of "
+                + file.getAbsolutePath(), e);
+        }
+    }
+
     @Override
     public long getLength(DataIdentifier identifier) throws DataStoreException {
         File file = getFile(identifier);
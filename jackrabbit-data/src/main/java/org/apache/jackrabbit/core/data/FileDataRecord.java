@@ -19,6 +19,9 @@ package org.apache.jackrabbit.core.data;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -62,6 +65,27 @@ public class FileDataRecord extends AbstractDataRecord {
         }
     }
 
+    /**
+     * Returns a file channel on the record file, positioned at the given
+     * position.
+     */
+    @Override
+    public ReadableByteChannel getChannel(long position)
+            throws DataStoreException {
+        try {
+            FileChannel channel =
+                    FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return channel.position(position);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening channel of " + file.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
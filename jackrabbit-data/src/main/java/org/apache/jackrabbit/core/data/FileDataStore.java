@@ -23,19 +23,22 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.util.StripedWeakHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,7 +61,12 @@ import org.slf4j.LoggerFactory;
  * up to billions of distinct records.
  * <p>
  * This implementation relies on the underlying file system to support
- * atomic O(1) move operations with {@link File#renameTo(File)}.
+ * atomic O(1) move operations with {@link Files#move} and
+ * {@link StandardCopyOption#ATOMIC_MOVE}.
+ * <p>
+ * Operations on a record are synchronized on one of a number of locks
+ * selected by the record identifier, so that operations on different
+ * records can run concurrently.
  */
 public class FileDataStore extends AbstractDataStore
         implements MultiDataStoreAware {
@@ -84,6 +92,28 @@ public class FileDataStore extends AbstractDataStore
      */
     private static final String TMP = "tmp";
 
+    /**
+     * The number of locks record identifiers are spread over.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * How often moving a new record in place is retried if its parent
+     * directory was removed concurrently.
+     */
+    private static final int MOVE_RETRIES = 3;
+
+    /**
+     * The locks that operations on a record synchronize on.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
     /**
      * The minimum modified date. If a file is accessed (read or write) with a modified date
      * older than this value, the modified date is updated to the current time.
@@ -111,7 +141,7 @@ public class FileDataStore extends AbstractDataStore
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
     protected Map<DataIdentifier, WeakReference<DataIdentifier>> inUse =
-        Collections.synchronizedMap(new WeakHashMap<DataIdentifier, WeakReference<DataIdentifier>>());
+        new StripedWeakHashMap<DataIdentifier, WeakReference<DataIdentifier>>(LOCK_STRIPES);
 
     /**
      * Initialized the data store.
@@ -141,7 +171,7 @@ public class FileDataStore extends AbstractDataStore
         }
         if (minModifiedDate != 0) {
             // only check when running garbage collection
-            synchronized (this) {
+            synchronized (getLock(identifier)) {
                 if (getLastModified(file) < minModifiedDate) {
                     setLastModified(file, System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
                 }
@@ -188,23 +218,15 @@ public class FileDataStore extends AbstractDataStore
                     new DataIdentifier(encodeHexString(digest.digest()));
             File file;
 
-            synchronized (this) {
+            synchronized (getLock(identifier)) {
                 // Check if the same record already exists, or
                 // move the temporary file in place if needed
                 usesIdentifier(identifier);
                 file = getFile(identifier);
                 if (!file.exists()) {
-                    File parent = file.getParentFile();
-                    parent.mkdirs();
-                    if (temporary.renameTo(file)) {
-                        // no longer need to delete the temporary file
-                        temporary = null;
-                    } else {
-                        throw new IOException(
-                                "Can not rename " + temporary.getAbsolutePath()
-                                + " to " + file.getAbsolutePath()
-                                + " (media read only?)");
-                    }
+                    moveInPlace(temporary, file);
+                    // no longer need to delete the temporary file
+                    temporary = null;
                 } else {
                     long now = System.currentTimeMillis();
                     if (getLastModified(file) < now + ACCESS_TIME_RESOLUTION) {
@@ -254,6 +276,52 @@ public class FileDataStore extends AbstractDataStore
         return new File(file, string);
     }
 
+    /**
+     * Returns the lock that operations on the identified record
+     * synchronize on.
+     *
+     * @param identifier data identifier
+     * @return lock object
+     */
+    private Object getLock(DataIdentifier identifier) {
+        int hash = identifier.hashCode();
+        hash ^= hash >>> 16;
+        return locks[(hash & Integer.MAX_VALUE) % locks.length];
+    }
+
+    /**
+     * Atomically moves a temporary file in place to become a record file.
+     * Missing parent directories are created. As the garbage collector
+     * removes empty directories without holding the record lock, the move
+     * is retried if the parent directory disappears in the meantime.
+     *
+     * @param temporary temporary file
+     * @param file record file
+     * @throws IOException if the file can not be moved
+     */
+    static void moveInPlace(File temporary, File file) throws IOException {
+        for (int i = 0;; i++) {
+            file.getParentFile().mkdirs();
+            try {
+                try {
+                    Files.move(temporary.toPath(), file.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    log.debug("Atomic move not supported, moving {} to {}",
+                            temporary, file);
+                    Files.move(temporary.toPath(), file.toPath());
+                }
+                return;
+            } catch (NoSuchFileException e) {
+                if (i >= MOVE_RETRIES) {
+                    throw new IOException(
+                            "Can not move " + temporary.getAbsolutePath()
+                            + " to " + file.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
     /**
      * Returns a unique temporary file to be used for creating a new
      * data record.
@@ -273,7 +341,7 @@ public class FileDataStore extends AbstractDataStore
     public void deleteRecord(DataIdentifier identifier)
 			throws DataStoreException {
         File file = getFile(identifier);
-        synchronized (this) {
+        synchronized (getLock(identifier)) {
             if (file.exists()) {
                 if (file.delete()) {
                     deleteEmptyParentDirs(file);
@@ -321,7 +389,8 @@ public class FileDataStore extends AbstractDataStore
     private int deleteOlderRecursive(File file, long min) {
         int count = 0;
         if (file.isFile() && file.exists() && file.canWrite()) {
-            synchronized (this) {
+            DataIdentifier id = new DataIdentifier(file.getName());
+            synchronized (getLock(id)) {
                 long lastModified;
                 try {
                     lastModified = getLastModified(file);
@@ -331,7 +400,6 @@ public class FileDataStore extends AbstractDataStore
                     lastModified = min;
                 }
                 if (lastModified < min) {
-                    DataIdentifier id = new DataIdentifier(file.getName());
                     if (!inUse.containsKey(id)) {
                         if (log.isInfoEnabled()) {
                             log.info("Deleting old file " + file.getAbsolutePath() +
@@ -354,12 +422,11 @@ public class FileDataStore extends AbstractDataStore
             }
 
             // JCR-1396: FileDataStore Garbage Collector and empty directories
-            // Automatic removal of empty directories (but not the root!)
-            synchronized (this) {
-                list = file.listFiles();
-                if (list != null && list.length == 0) {
-                    file.delete();
-                }
+            // Automatic removal of empty directories (but not the root!).
+            // A concurrent addRecord recreates the directory if needed.
+            list = file.listFiles();
+            if (list != null && list.length == 0) {
+                file.delete();
             }
         }
         return count;
@@ -462,7 +529,7 @@ public class FileDataStore extends AbstractDataStore
      * @return the last modified date
      * @throws DataStoreException if reading fails
      */
-    private static long getLastModified(File file) throws DataStoreException {
+    static long getLastModified(File file) throws DataStoreException {
         long lastModified = file.lastModified();
         if (lastModified == 0) {
             throw new DataStoreException("Failed to read record modified date: " + file.getAbsolutePath());
@@ -477,7 +544,7 @@ public class FileDataStore extends AbstractDataStore
      * @param time the new last modified date
      * @throws DataStoreException if the file is writable but modifying the date fails
      */
-    private static void setLastModified(File file, long time) throws DataStoreException {
+    static void setLastModified(File file, long time) throws DataStoreException {
         if (!file.setLastModified(time)) {
             if (!file.canWrite()) {
                 // if we can't write to the file, so garbage collection will also not delete it
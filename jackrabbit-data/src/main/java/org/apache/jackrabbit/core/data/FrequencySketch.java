@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch that estimates how often a key was accessed recently,
+ * used by {@link LocalCache} for admission and eviction decisions. The
+ * sketch uses four rows of 4-bit counters, packed into longs, that are
+ * updated without locking. The counters are halved after a number of
+ * increments, so that the estimate ages.
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int[] SEEDS = {
+        0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc2b2ae35 };
+
+    private final AtomicLongArray table;
+
+    private final int widthMask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicBoolean resetting = new AtomicBoolean();
+
+    /**
+     * Create a sketch for about the given number of keys.
+     *
+     * @param expectedKeys the expected number of keys
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, expectedKeys - 1)) << 1;
+        widthMask = width - 1;
+        // 16 counters per long
+        table = new AtomicLongArray(DEPTH * width / 16);
+        sampleSize = 10 * width;
+    }
+
+    /**
+     * Record an access of the given key.
+     *
+     * @param key the key
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+        if (added && size.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimate the number of recent accesses of the given key.
+     *
+     * @param key the key
+     * @return the estimated frequency, between 0 and 15
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, countAt(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 17;
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    private int countAt(int counter) {
+        long value = table.get(counter >>> 4);
+        return (int) ((value >>> ((counter & 15) << 2)) & MAX_COUNT);
+    }
+
+    private boolean incrementAt(int counter) {
+        int i = counter >>> 4;
+        int shift = (counter & 15) << 2;
+        while (true) {
+            long value = table.get(i);
+            if (((value >>> shift) & MAX_COUNT) == MAX_COUNT) {
+                return false;
+            }
+            if (table.compareAndSet(i, value, value + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halve all counters. Concurrent increments may be lost, which is
+     * acceptable for an estimate.
+     */
+    private void reset() {
+        if (!resetting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+            }
+            size.set(size.get() / 2);
+        } finally {
+            resetting.set(false);
+        }
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+}
@@ -24,24 +24,40 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.apache.jackrabbit.util.TransientFileFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class implements a LRU cache used by {@link CachingDataStore}. If cache
- * size exceeds limit, this cache goes in purge mode. In purge mode any
- * operation to cache is no-op. After purge cache size would be less than
- * cachePurgeResizeFactor * maximum size.
+ * size exceeds cachePurgeTrigFactor * maximum size (the high watermark), this
+ * cache goes in purge mode, and a background job deletes files until the cache
+ * size is less than cachePurgeResizeFactor * maximum size (the low watermark).
+ * <p>
+ * The cache entries are kept in a concurrent map, so that lookups, stores and
+ * admission decisions do not lock the cache, also while a purge is running.
+ * The access frequency of the files is estimated with a
+ * {@link FrequencySketch}. The purge job evicts the least recently used files
+ * that were rarely accessed first, and files that are accessed frequently
+ * only afterwards. In purge mode, a file is only admitted if it was accessed
+ * before, so that a scan of files that are read once does not replace the
+ * frequently used files.
  */
 public class LocalCache {
 
@@ -53,12 +69,13 @@ public class LocalCache {
     /**
      * The file names of the files that need to be deleted.
      */
-    final Set<String> toBeDeleted = new HashSet<String>();
+    final Set<String> toBeDeleted =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * The filename Vs file size LRU cache.
      */
-    LRUCache cache;
+    final LRUCache cache;
 
     /**
      * The directory where the files are created.
@@ -71,10 +88,14 @@ public class LocalCache {
     private final File tmp;
 
     /**
-     * If true cache is in purgeMode and not available. All operation would be
-     * no-op.
+     * If true a purge job is scheduled or running.
      */
-    private volatile boolean purgeMode;
+    private final AtomicBoolean purgeMode = new AtomicBoolean();
+
+    /**
+     * The executor of the purge job.
+     */
+    private final ThreadPoolExecutor purgeExecutor;
     
     private AsyncUploadCache asyncUploadCache;
     
@@ -110,6 +131,10 @@ public class LocalCache {
                 (cachePurgeResizeFactor * maxSizeInBytes) });
         cache = new LRUCache(maxSizeInBytes, cachePurgeTrigFactor, cachePurgeResizeFactor);
         this.asyncUploadCache = asyncUploadCache;
+        purgeExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("localcache-purge-worker"));
+        purgeExecutor.allowCoreThreadTimeOut(true);
         new Thread(new CacheBuildJob()).start();
     }
 
@@ -129,7 +154,7 @@ public class LocalCache {
         fileName = fileName.replace("\\", "/");
         File f = getFile(fileName);
         long length = 0;
-        if (!f.exists() || isInPurgeMode()) {
+        if (!f.exists()) {
             OutputStream out = null;
             File transFile = null;
             try {
@@ -141,7 +166,7 @@ public class LocalCache {
                 IOUtils.closeQuietly(out);
             }
             // rename the file to local fs cache
-            if (canAdmitFile(length)
+            if (canAdmitFile(fileName, length)
                 && (f.getParentFile().exists() || f.getParentFile().mkdirs())
                 && transFile.renameTo(f) && f.exists()) {
                 if (transFile.exists() && transFile.delete()) {
@@ -219,7 +244,7 @@ public class LocalCache {
         boolean destExists = false;
         if ((destExists = dest.exists())
             || (src.exists() && !dest.exists() && !src.equals(dest)
-                && canAdmitFile(src.length())
+                && canAdmitFile(fileName, src.length())
                 && (parent.exists() || parent.mkdirs()) && (src.renameTo(dest)))) {
             if (destExists) {
                 dest.setLastModified(System.currentTimeMillis());
@@ -264,13 +289,14 @@ public class LocalCache {
             cacheMissDuration.set(System.currentTimeMillis());
         }
         
-        // return file in purge mode = true and file present in asyncUploadCache
-        // as asyncUploadCache's files will be not be deleted in cache purge.
-        if (!f.exists() || (isInPurgeMode() && !asyncUploadCache.hasEntry(fileName, false))) {
+        if (!f.exists()) {
             LOG.debug(
                 "getFileIfStored returned: purgeMode=[{}], file=[{}] exists=[{}]",
                 new Object[] { isInPurgeMode(), f.getAbsolutePath(), f.exists() });
             cacheMissCounter.incrementAndGet();
+            // count the miss, so that the file is admitted in purge mode
+            // when it is accessed again
+            cache.frequencySketch.increment(fileName);
             return null;
         } else {
             // touch entry in LRU caches
@@ -287,10 +313,6 @@ public class LocalCache {
      * @param fileName file name that need to be removed from cache.
      */
     public void delete(String fileName) {
-        if (isInPurgeMode()) {
-            LOG.debug("purgeMode true :delete returned");
-            return;
-        }
         fileName = fileName.replace("\\", "/");
         cache.remove(fileName);
     }
@@ -322,39 +344,43 @@ public class LocalCache {
      */
     public void close() {
         LOG.debug("close");
+        purgeExecutor.shutdown();
         deleteOldFiles();
     }
 
     /**
-     * Check if cache can admit file of given length.
+     * Check if cache can admit file of given length. In purge mode, only
+     * files that were accessed before are admitted. This method doesn't lock
+     * the cache.
+     * @param fileName name of the file.
      * @param length of the file.
      * @return true if yes else return false.
      */
-    private boolean canAdmitFile(final long length) {
-      //order is important here
-        boolean value = !isInPurgeMode() && (cache.canAdmitFile(length));
+    private boolean canAdmitFile(final String fileName, final long length) {
+        boolean value = cache.canAdmitFile(length)
+            && (!isInPurgeMode() || cache.frequencySketch.frequency(fileName) > 1);
         if (!value) {
             LOG.debug("cannot admit file of length=[{}] and currentSizeInBytes=[{}] ",
-                length, cache.currentSizeInBytes);
+                length, cache.currentSizeInBytes.get());
         }
         return value;
     }
 
     /**
-     * Return true if cache is in purge mode else return false.
+     * Return true if a purge job is scheduled or running else return false.
      */
-    synchronized boolean isInPurgeMode() {
-        return purgeMode;
+    boolean isInPurgeMode() {
+        return purgeMode.get();
     }
 
     /**
-     * Set purge mode. If set to true all cache operation will be no-op. If set
-     * to false, all operations to cache are available.
+     * Set purge mode. In purge mode, only files that were accessed before are
+     * admitted to the cache.
      * 
      * @param purgeMode purge mode
      */
-    synchronized void setPurgeMode(final boolean purgeMode) {
-        this.purgeMode = purgeMode;
+    void setPurgeMode(final boolean purgeMode) {
+        this.purgeMode.set(purgeMode);
     }
 
     File getFile(final String fileName) {
@@ -415,33 +441,59 @@ public class LocalCache {
     /**
      * This method tries purging of local cache. It checks if local cache
      * has exceeded the defined limit then it triggers purge cache job in a
-     * seperate thread.
+     * background thread.
      */
-    synchronized void tryPurge() {
-        if (!isInPurgeMode()
-            && cache.currentSizeInBytes > cache.cachePurgeTrigSize) {
-            setPurgeMode(true);
+    void tryPurge() {
+        long currentSize = cache.currentSizeInBytes.get();
+        if (currentSize > cache.cachePurgeTrigSize
+            && purgeMode.compareAndSet(false, true)) {
             LOG.info(
                 "cache.entries = [{}], currentSizeInBytes=[{}]  exceeds cachePurgeTrigSize=[{}]",
-                new Object[] { cache.size(), cache.currentSizeInBytes,
+                new Object[] { cache.size(), currentSize,
                     cache.cachePurgeTrigSize });
-            new Thread(new PurgeJob()).start();
+            purgeExecutor.execute(new PurgeJob());
         } else {
             LOG.debug(
                 "currentSizeInBytes=[{}],cachePurgeTrigSize=[{}], isInPurgeMode =[{}]",
-                new Object[] { cache.currentSizeInBytes,
-                    cache.cachePurgeTrigSize, isInPurgeMode() });
+                new Object[] { currentSize, cache.cachePurgeTrigSize,
+                    isInPurgeMode() });
         }
     }
 
     /**
-     * A LRU based extension {@link LinkedHashMap}. The key is file name and
-     * value is length of file.
+     * An entry of the {@link LRUCache}.
      */
-    private class LRUCache extends LinkedHashMap<String, Long> {
-        private static final long serialVersionUID = 1L;
+    static final class CacheEntry {
+
+        final long length;
 
-        volatile long currentSizeInBytes;
+        /**
+         * The time of the last access, in nanoseconds.
+         */
+        volatile long lastAccess = System.nanoTime();
+
+        CacheEntry(long length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * A LRU cache of file name and length of file, based on a
+     * {@link ConcurrentHashMap}. The entries are not kept in access order;
+     * the purge job sorts them when needed.
+     */
+    class LRUCache {
+
+        /**
+         * The frequency above which a file is considered frequently used.
+         */
+        static final int HOT_FREQUENCY = 3;
+
+        final Map<String, CacheEntry> map;
+
+        final FrequencySketch frequencySketch;
+
+        final AtomicLong currentSizeInBytes = new AtomicLong();
 
         final long maxSizeInBytes;
 
@@ -452,7 +504,10 @@ public class LocalCache {
         LRUCache(final long maxSizeInBytes,
                 final double cachePurgeTrigFactor,
                 final double cachePurgeResizeFactor) {
-            super(maxSizeElements(maxSizeInBytes), (float) 0.75, true);
+            map = new ConcurrentHashMap<String, CacheEntry>(
+                maxSizeElements(maxSizeInBytes), 0.75f, 16);
+            frequencySketch = new FrequencySketch((int) Math.min(1 << 22,
+                Math.max(1024, maxSizeInBytes / 65535)));
             this.maxSizeInBytes = maxSizeInBytes;
             this.cachePurgeTrigSize = new Double(cachePurgeTrigFactor
                 * maxSizeInBytes).longValue();
@@ -460,13 +515,27 @@ public class LocalCache {
                 * maxSizeInBytes).longValue();
         }
 
+        int size() {
+            return map.size();
+        }
+
         /**
-         * Overridden {@link Map#remove(Object)} to delete corresponding file
-         * from file system.
+         * Remove the entry and delete the corresponding file from file
+         * system. Files with a pending asynchronous upload are not removed.
+         *
+         * @param key the file name
+         * @return the length of the removed file, or null
          */
-        @Override
-        public synchronized Long remove(final Object key) {
-            String fileName = (String) key;
+        Long remove(final String key) {
+            String fileName = key.replace("\\", "/");
+            return remove(fileName, map.get(fileName), Long.MAX_VALUE);
+        }
+
+        /**
+         * Remove the entry if it was not replaced or accessed after the
+         * given time.
+         */
+        private Long remove(String fileName, CacheEntry entry, long accessedBefore) {
             fileName = fileName.replace("\\", "/");
             try {
                 // not removing file from local cache, if there is in progress
@@ -481,57 +550,49 @@ public class LocalCache {
                 LOG.debug("error: ", e);
                 return null;
             }
-            Long flength = null;
-            if (tryDelete(fileName)) {
-                flength = super.remove(key);
-                if (flength != null) {
+            if (entry == null) {
+                tryDelete(fileName);
+                return null;
+            } else if (map.get(fileName) != entry
+                    || entry.lastAccess > accessedBefore) {
+                // accessed in the meantime
+                return null;
+            }
+            if (tryDelete(fileName) || !getFile(fileName).exists()) {
+                if (map.remove(fileName, entry)) {
                     LOG.debug("cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
-                }
-            } else if (!getFile(fileName).exists()) {
-                // second attempt. remove from cache if file doesn't exists
-                flength = super.remove(key);
-                if (flength != null) {
-                    LOG.debug(
-                        "file not exists. cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
+                        fileName, entry.length);
+                    currentSizeInBytes.addAndGet(-entry.length);
+                    return entry.length;
                 }
             } else {
-                LOG.info("not able to remove cache entry [{}], size [{}]", key,
-                    super.get(key));
+                LOG.info("not able to remove cache entry [{}], size [{}]",
+                    fileName, entry.length);
             }
-            return flength;
+            return null;
         }
 
-        @Override
-        public Long put(final String fileName, final Long value) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: put is no-op");
+        Long put(final String fileName, final Long value) {
+            String key = fileName.replace("\\", "/");
+            CacheEntry entry = new CacheEntry(value.longValue());
+            CacheEntry old = map.putIfAbsent(key, entry);
+            if (old == null) {
+                currentSizeInBytes.addAndGet(entry.length);
                 return null;
             }
-            synchronized (this) {
-                Long oldValue = cache.get(fileName);
-                if (oldValue == null) {
-                    long flength = value.longValue();
-                    currentSizeInBytes += flength;
-                    return super.put(fileName.replace("\\", "/"), value);
-                }
-                toBeDeleted.remove(fileName);
-                return oldValue;
-            }
+            old.lastAccess = System.nanoTime();
+            toBeDeleted.remove(key);
+            return old.length;
         }
         
-        @Override
-        public Long get(Object key) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: get is no-op");
+        Long get(String key) {
+            CacheEntry entry = map.get(key);
+            if (entry == null) {
                 return null;
             }
-            synchronized (this) {
-                return super.get(key);
-            }
+            entry.lastAccess = System.nanoTime();
+            frequencySketch.increment(key);
+            return entry.length;
         }
         
         /**
@@ -539,19 +600,63 @@ public class LocalCache {
          * @param length length of file.
          * @return true if cache size + length is less than maxSize.
          */
-        synchronized boolean canAdmitFile(final long length) {
-            return cache.currentSizeInBytes + length < cache.maxSizeInBytes;
+        boolean canAdmitFile(final long length) {
+            return currentSizeInBytes.get() + length < maxSizeInBytes;
+        }
+
+        /**
+         * Get the eviction candidates: first the rarely used entries, then
+         * the frequently used entries, each in least recently used order.
+         */
+        List<EvictionCandidate> getEvictionCandidates() {
+            List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(map.size());
+            for (Map.Entry<String, CacheEntry> e : map.entrySet()) {
+                String fileName = e.getKey();
+                candidates.add(new EvictionCandidate(fileName, e.getValue(),
+                    frequencySketch.frequency(fileName) >= HOT_FREQUENCY));
+            }
+            Collections.sort(candidates, new Comparator<EvictionCandidate>() {
+                @Override
+                public int compare(EvictionCandidate a, EvictionCandidate b) {
+                    if (a.hot != b.hot) {
+                        return a.hot ? 1 : -1;
+                    }
+                    return a.lastAccess < b.lastAccess ? -1
+                        : a.lastAccess == b.lastAccess ? 0 : 1;
+                }
+            });
+            return candidates;
+        }
+    }
+
+    /**
+     * A snapshot of a cache entry, taken by the purge job.
+     */
+    private static final class EvictionCandidate {
+
+        final String fileName;
+
+        final CacheEntry entry;
+
+        final long lastAccess;
+
+        final boolean hot;
+
+        EvictionCandidate(String fileName, CacheEntry entry, boolean hot) {
+            this.fileName = fileName;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+            this.hot = hot;
         }
     }
 
     /**
      * This class performs purging of local cache. It implements
-     * {@link Runnable} and should be invoked in a separate thread.
+     * {@link Runnable} and is invoked in the background. It does not lock
+     * the cache: entries that are accessed while the job runs are not
+     * removed.
      */
     private class PurgeJob implements Runnable {
-        public PurgeJob() {
-            // TODO Auto-generated constructor stub
-        }
 
         /**
          * This method purges local cache till its size is less than
@@ -560,36 +665,24 @@ public class LocalCache {
         @Override
         public void run() {
             try {
-                synchronized (cache) {
-                    // first try to delete toBeDeleted files
-                    int initialSize = cache.size();
-                    LOG.info(" cache purge job started. initial cache entries = [{}]", initialSize);
-                    for (String fileName : new ArrayList<String>(toBeDeleted)) {
-                        cache.remove(fileName);
-                    }
-                    int skipCount = 0;
-                    Iterator<Map.Entry<String, Long>> itr = cache.entrySet().iterator();
-                    while (itr.hasNext()) {
-                        Map.Entry<String, Long> entry = itr.next();
-                        if (entry.getKey() != null) {
-                            if (cache.currentSizeInBytes > cache.cachePurgeResize) {
-                                if (cache.remove(entry.getKey()) != null) {
-                                    itr = cache.entrySet().iterator();
-                                    for (int i = 0; i < skipCount && itr.hasNext(); i++) {
-                                        itr.next();
-                                    }
-                                } else {
-                                    skipCount++;
-                                }
-                            } else {
-                                break;
-                            }
+                // first try to delete toBeDeleted files
+                int initialSize = cache.size();
+                LOG.info(" cache purge job started. initial cache entries = [{}]", initialSize);
+                for (String fileName : new ArrayList<String>(toBeDeleted)) {
+                    cache.remove(fileName);
+                }
+                if (cache.currentSizeInBytes.get() > cache.cachePurgeResize) {
+                    for (EvictionCandidate candidate : cache.getEvictionCandidates()) {
+                        if (cache.currentSizeInBytes.get() <= cache.cachePurgeResize) {
+                            break;
                         }
+                        cache.remove(candidate.fileName, candidate.entry,
+                            candidate.lastAccess);
                     }
-                    LOG.info(
-                        " cache purge job completed: cleaned [{}] files and currentSizeInBytes = [{}]",
-                        (initialSize - cache.size()), cache.currentSizeInBytes);
                 }
+                LOG.info(
+                    " cache purge job completed: cleaned [{}] files and currentSizeInBytes = [{}]",
+                    (initialSize - cache.size()), cache.currentSizeInBytes.get());
             } catch (Exception e) {
                 LOG.error("error in purge jobs:", e);
             } finally {
@@ -657,7 +750,7 @@ public class LocalCache {
             LOG.debug(
                 "Processed [{}]/[{}], currentSizeInBytes = [{}], maxSizeInBytes = [{}], cache.filecount = [{}]",
                 new Object[] { count, allFiles.size(),
-                    cache.currentSizeInBytes, cache.maxSizeInBytes,
+                    cache.currentSizeInBytes.get(), cache.maxSizeInBytes,
                     cache.size() });
             long t3 = System.currentTimeMillis();
             LOG.info("Time to build cache of  [{}] files took [{}] sec",
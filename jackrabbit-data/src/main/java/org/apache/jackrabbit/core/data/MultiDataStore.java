@@ -26,6 +26,10 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.jcr.RepositoryException;
@@ -94,6 +98,17 @@ import org.slf4j.LoggerFactory;
  * delayedDeleteTaskThread in seconds. (default = 60 * 60 * 24, which equals 1
  * day). This means the delayed delete from the primary data store will be
  * processed after one day.</li>
+ * <li><code>promoteAfterAccesses</code>: enables tiering by access frequency.
+ * A record in the archive data store that is read this many times is copied
+ * to the primary data store in the background, and the MoveDataTask only
+ * moves records that were neither modified nor read within
+ * <code>maxAge</code> days. The copy in the archive data store is kept, so
+ * that reads are not affected while records are moved. Records are copied
+ * one at a time, with <code>sleepBetweenRecords</code> in between. (default
+ * = <code>0</code>, which disables tiering)</li>
+ * <li><code>accessStatisticsSize</code>: the maximum number of records for
+ * which the number of reads and the last read time are kept in memory.
+ * (default = <code>10000</code>)</li>
  * </ul>
  */
 public class MultiDataStore implements DataStore {
@@ -161,6 +176,31 @@ public class MultiDataStore implements DataStore {
      */
     private long sleepBetweenRecords = 100;
 
+    /**
+     * The number of reads after which a record is copied from the archive to
+     * the primary data store, or 0 if tiering is disabled.
+     */
+    private int promoteAfterAccesses = 0;
+
+    /**
+     * The maximum number of records in the access statistics.
+     */
+    private int accessStatisticsSize = 10000;
+
+    /**
+     * The number of reads and the last read time of recently read records,
+     * in least recently read order.
+     */
+    private Map<DataIdentifier, RecordAccess> accessStatistics;
+
+    /**
+     * The records to copy to the primary data store.
+     */
+    private final BlockingQueue<DataIdentifier> promoteQueue =
+        new LinkedBlockingQueue<DataIdentifier>(1000);
+
+    private Thread promoteDataTaskThread;
+
     {
         if (moveDataTaskNextRun.get(Calendar.HOUR_OF_DAY) >= 1) {
             moveDataTaskNextRun.add(Calendar.DAY_OF_MONTH, 1);
@@ -206,6 +246,11 @@ public class MultiDataStore implements DataStore {
             DataRecord dataRecord = primaryDataStore.getRecordIfStored(identifier);
             if (dataRecord == null) {
                 dataRecord = archiveDataStore.getRecordIfStored(identifier);
+                if (dataRecord != null) {
+                    recordAccess(identifier, true);
+                }
+            } else {
+                recordAccess(identifier, false);
             }
             return dataRecord;
         } finally {
@@ -235,9 +280,13 @@ public class MultiDataStore implements DataStore {
             moveDataTaskLock.lock();
         }
         try {
-            return primaryDataStore.getRecord(identifier);
+            DataRecord dataRecord = primaryDataStore.getRecord(identifier);
+            recordAccess(identifier, false);
+            return dataRecord;
         } catch (DataStoreException e) {
-            return archiveDataStore.getRecord(identifier);
+            DataRecord dataRecord = archiveDataStore.getRecord(identifier);
+            recordAccess(identifier, true);
+            return dataRecord;
         } finally {
             if (moveDataTaskRunning) {
                 moveDataTaskLock.unlock();
@@ -339,6 +388,24 @@ public class MultiDataStore implements DataStore {
         moveDataTaskThread.start();
         log.info("MultiDataStore-MoveDataTask thread started; first run scheduled at "
                 + moveDataTaskNextRun.getTime());
+        if (promoteAfterAccesses > 0) {
+            accessStatistics = new LinkedHashMap<DataIdentifier, RecordAccess>(
+                    16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<DataIdentifier, RecordAccess> eldest) {
+                    return size() > accessStatisticsSize;
+                }
+            };
+            promoteDataTaskThread = new Thread(new PromoteDataTask(),
+                    "Jackrabbit-MultiDataStore-PromoteDataTaskThread");
+            promoteDataTaskThread.setDaemon(true);
+            promoteDataTaskThread.start();
+            log.info("MultiDataStore-PromoteDataTask thread started; records are promoted after "
+                    + promoteAfterAccesses + " reads");
+        }
         if (delayedDelete) {
             try {
                 // Run on startup the DeleteDelayedIdentifiersTask only if the
@@ -403,7 +470,11 @@ public class MultiDataStore implements DataStore {
                 lastException = new DataStoreException(lastException);
             }
         }
-        // 4. if deleteDelayedIdentifiersTaskThread is running interrupt it
+        // 4. if promoteDataTaskThread is running interrupt it
+        if (promoteDataTaskThread != null) {
+            promoteDataTaskThread.interrupt();
+        }
+        // 5. if deleteDelayedIdentifiersTaskThread is running interrupt it
         try {
             if (deleteDelayedIdentifiersTaskThread != null
                     && deleteDelayedIdentifiersTaskThread.isAlive()) {
@@ -465,6 +536,22 @@ public class MultiDataStore implements DataStore {
         return sleepBetweenRecords;
     }
 
+    public int getPromoteAfterAccesses() {
+        return promoteAfterAccesses;
+    }
+
+    public void setPromoteAfterAccesses(int promoteAfterAccesses) {
+        this.promoteAfterAccesses = promoteAfterAccesses;
+    }
+
+    public int getAccessStatisticsSize() {
+        return accessStatisticsSize;
+    }
+
+    public void setAccessStatisticsSize(int accessStatisticsSize) {
+        this.accessStatisticsSize = accessStatisticsSize;
+    }
+
     public boolean isDelayedDelete() {
         return delayedDelete;
     }
@@ -481,6 +568,72 @@ public class MultiDataStore implements DataStore {
         this.delayedDeleteSleep = delayedDeleteSleep;
     }
 
+    /**
+     * Updates the access statistics of a record that was read, and queues
+     * a record of the archive data store to be promoted if it was read often
+     * enough. The read count of a queued record starts over, so that it is
+     * queued again after as many reads if it is not promoted after all.
+     * 
+     * @param identifier
+     * @param archived whether the record was read from the archive data store
+     */
+    private void recordAccess(DataIdentifier identifier, boolean archived) {
+        if (accessStatistics == null) {
+            return;
+        }
+        boolean promote = false;
+        synchronized (accessStatistics) {
+            RecordAccess access = accessStatistics.get(identifier);
+            if (access == null) {
+                access = new RecordAccess();
+                accessStatistics.put(identifier, access);
+            }
+            access.count++;
+            access.lastAccess = System.currentTimeMillis();
+            if (archived && access.count >= promoteAfterAccesses) {
+                access.count = 0;
+                promote = true;
+            }
+        }
+        if (promote && !promoteQueue.offer(identifier)) {
+            log.debug("Promote queue is full, not promoting {}", identifier);
+        }
+    }
+
+    /**
+     * Resets the read count of a record that was moved between the data
+     * stores, so that only reads from its new location count.
+     * 
+     * @param identifier
+     */
+    private void resetAccessCount(DataIdentifier identifier) {
+        if (accessStatistics == null) {
+            return;
+        }
+        synchronized (accessStatistics) {
+            RecordAccess access = accessStatistics.get(identifier);
+            if (access != null) {
+                access.count = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the last time the record was read, if known.
+     * 
+     * @param identifier
+     * @return the last read time, or 0 if unknown
+     */
+    private long getLastAccess(DataIdentifier identifier) {
+        if (accessStatistics == null) {
+            return 0;
+        }
+        synchronized (accessStatistics) {
+            RecordAccess access = accessStatistics.get(identifier);
+            return access == null ? 0 : access.lastAccess;
+        }
+    }
+
     /**
      * Writes the given DataIdentifier to the delayedDeletedFile.
      * 
@@ -584,7 +737,9 @@ public class MultiDataStore implements DataStore {
                 while (allIdentifiers.hasNext()) {
                     DataIdentifier identifier = allIdentifiers.next();
                     DataRecord dataRecord = primaryDataStore.getRecord(identifier);
-                    if ((dataRecord.getLastModified() + maxAgeMilli) < now) {
+                    long lastUsed = Math.max(dataRecord.getLastModified(),
+                            getLastAccess(identifier));
+                    if ((lastUsed + maxAgeMilli) < now) {
                         try {
                             moveDataTaskLock.lock();
                             if (delayedDelete) {
@@ -592,6 +747,7 @@ public class MultiDataStore implements DataStore {
                                 // the archive data store ...
                                 if (writeDelayedDataIdentifier(identifier)) {
                                     archiveDataStore.addRecord(dataRecord.getStream());
+                                    resetAccessCount(identifier);
                                     moved++;
                                 }
                             } else {
@@ -599,6 +755,7 @@ public class MultiDataStore implements DataStore {
                                 // atomic ...
                                 archiveDataStore.addRecord(dataRecord.getStream());
                                 ((MultiDataStoreAware) primaryDataStore).deleteRecord(identifier);
+                                resetAccessCount(identifier);
                                 moved++;
                             }
                             if (moved % 100 == 0) {
@@ -628,6 +785,62 @@ public class MultiDataStore implements DataStore {
         }
     }
 
+    /**
+     * The number of reads and the last read time of a record.
+     */
+    private static class RecordAccess {
+        int count;
+        long lastAccess;
+    }
+
+    /**
+     * Class to copy frequently read records from the archive data store to
+     * the primary data store. The records are kept in the archive data store.
+     */
+    public class PromoteDataTask implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    promote(promoteQueue.take());
+                    // Give other threads time to use the MultiDataStore while
+                    // PromoteDataTask is running..
+                    Thread.sleep(sleepBetweenRecords);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            log.info("Interrupted: stopping promote-data task.");
+        }
+
+        /**
+         * Copies the record to the primary data store, if it is not there.
+         */
+        protected void promote(DataIdentifier identifier) {
+            InputStream in = null;
+            try {
+                moveDataTaskLock.lock();
+                if (primaryDataStore.getRecordIfStored(identifier) == null) {
+                    DataRecord dataRecord = archiveDataStore.getRecordIfStored(identifier);
+                    if (dataRecord != null) {
+                        in = dataRecord.getStream();
+                        primaryDataStore.addRecord(in);
+                        resetAccessCount(identifier);
+                        log.debug("Promoted DataRecord {} to the primary data store", identifier);
+                    }
+                }
+            } catch (DataStoreException e) {
+                log.warn("Failed to promote DataRecord. DataIdentifier: " + identifier, e);
+            } finally {
+                moveDataTaskLock.unlock();
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
     /**
      * Class to clean up the delayed DataRecords from the primary data store.
      */
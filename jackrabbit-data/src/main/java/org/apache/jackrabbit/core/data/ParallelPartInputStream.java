@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An input stream over a record of an {@link AbstractBackend} that is
+ * downloaded in parts of a fixed size. Up to the given number of parts are
+ * read concurrently with ranged reads, and buffered in memory until they are
+ * consumed. A part that can not be read is retried, without reading the
+ * other parts again.
+ */
+class ParallelPartInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelPartInputStream.class);
+
+    private final AbstractBackend backend;
+
+    private final DataIdentifier identifier;
+
+    private final long length;
+
+    private final int partSize;
+
+    private final int parallel;
+
+    private final int retries;
+
+    private final ExecutorService executor;
+
+    /**
+     * The parts that are being read, in order.
+     */
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    /**
+     * The index of the next part to read.
+     */
+    private long nextPart;
+
+    private byte[] part;
+
+    private int pos;
+
+    ParallelPartInputStream(AbstractBackend backend, DataIdentifier identifier,
+            long length, int partSize, int parallel, int retries,
+            ExecutorService executor) {
+        this.backend = backend;
+        this.identifier = identifier;
+        this.length = length;
+        this.partSize = partSize;
+        this.parallel = Math.max(1, parallel);
+        this.retries = retries;
+        this.executor = executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextPart()) {
+            return -1;
+        }
+        return part[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!nextPart()) {
+            return -1;
+        }
+        int n = Math.min(len, part.length - pos);
+        System.arraycopy(part, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return part == null ? 0 : part.length - pos;
+    }
+
+    @Override
+    public void close() {
+        for (Future<byte[]> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        nextPart = Long.MAX_VALUE;
+        part = null;
+    }
+
+    /**
+     * Make sure there are bytes left in the current part.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean nextPart() throws IOException {
+        if (part != null && pos < part.length) {
+            return true;
+        }
+        while (pending.size() < parallel && nextPart < (length + partSize - 1) / partSize) {
+            final long start = nextPart++ * partSize;
+            final int count = (int) Math.min(partSize, length - start);
+            pending.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return readPart(start, count);
+                }
+            }));
+        }
+        Future<byte[]> f = pending.poll();
+        if (f == null) {
+            part = null;
+            return false;
+        }
+        try {
+            part = f.get();
+            pos = 0;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted while reading " + identifier, e);
+        } catch (ExecutionException e) {
+            close();
+            throw new IOException("Could not read " + identifier, e.getCause());
+        }
+    }
+
+    private byte[] readPart(long start, int count) throws Exception {
+        for (int i = 0;; i++) {
+            InputStream in = null;
+            try {
+                in = backend.read(identifier, start, count);
+                byte[] data = new byte[count];
+                IOUtils.readFully(in, data);
+                return data;
+            } catch (Exception e) {
+                if (i >= retries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                LOG.debug("Retrying read of [{}] at [{}]", new Object[] {
+                    identifier, start, e });
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+}
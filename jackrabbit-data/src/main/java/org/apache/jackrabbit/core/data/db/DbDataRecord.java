@@ -22,6 +22,8 @@ import org.apache.jackrabbit.core.data.DataStoreException;
 
 import java.io.BufferedInputStream;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Data record that is stored in a database
@@ -62,6 +64,19 @@ public class DbDataRecord extends AbstractDataRecord {
         return new BufferedInputStream(new DbInputStream(store, getIdentifier()));
     }
 
+    /**
+     * Returns a channel on the given range of the record, which is read
+     * from the database starting at the position, see
+     * {@link DbDataStore#setCopyWhenReading(boolean)}.
+     */
+    @Override
+    public ReadableByteChannel getChannel(long position) throws DataStoreException {
+        lastModified = store.touch(getIdentifier(), lastModified);
+        long start = Math.max(0, Math.min(position, length));
+        return Channels.newChannel(new DbInputStream(
+                store, getIdentifier(), start, length - start));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.data.db;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.jackrabbit.core.data.AbstractDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
@@ -44,8 +45,11 @@ import java.lang.ref.WeakReference;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -54,6 +58,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -72,6 +77,7 @@ import javax.sql.DataSource;
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/&gt;
  *     &lt;param name="{@link #setMaxConnections(int) maxConnections}" value="2"/&gt;
  *     &lt;param name="{@link #setCopyWhenReading(boolean) copyWhenReading}" value="true"/&gt;
+ *     &lt;param name="{@link #setMaxStreamingReads(int) maxStreamingReads}" value="0"/&gt;
  *     &lt;param name="{@link #setTablePrefix(String) tablePrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaObjectPrefix(String) schemaObjectPrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
@@ -96,7 +102,8 @@ import javax.sql.DataSource;
  * Example database URL: jdbc:sqlserver://localhost:4220;DatabaseName=test;responseBuffering=adaptive
  * <p>
  * By default, the data is copied to a temp file when reading, to avoid problems when reading multiple
- * blobs at the same time.
+ * blobs at the same time. If copyWhenReading is disabled, the data is streamed from the database,
+ * and maxStreamingReads limits the number of connections held by open streams.
  * <p>
  * The tablePrefix can be used to specify a schema and / or catalog name:
  * &lt;param name="tablePrefix" value="ds."&gt;
@@ -273,6 +280,14 @@ public class DbDataStore extends AbstractDataStore
     protected String selectDataSQL =
         "SELECT ID, DATA FROM ${tablePrefix}${table} WHERE ID=?";
 
+    /**
+     * This is the property 'selectDataRange'
+     * in the [databaseType].properties file, or null if the database type
+     * has no such property. The placeholders ${offset} (starting at 1) and
+     * ${length} are replaced when reading a range of a record.
+     */
+    protected String selectDataRangeSQL;
+
     /**
      * The stream storing mechanism used.
      */
@@ -284,6 +299,17 @@ public class DbDataStore extends AbstractDataStore
      */
     protected boolean copyWhenReading = true;
 
+    /**
+     * The maximum number of streams that are read from the database at the
+     * same time if copyWhenReading is disabled, or 0 for no limit.
+     */
+    protected int maxStreamingReads;
+
+    /**
+     * The permits for streaming reads, or null if the number is not limited.
+     */
+    private Semaphore streamingReads;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
@@ -579,45 +605,148 @@ public class DbDataStore extends AbstractDataStore
     /**
      * Open the input stream. This method sets those fields of the caller
      * that need to be closed once the input stream is read.
+     * <p>
+     * If {@link #setCopyWhenReading(boolean) copyWhenReading} is disabled
+     * and a streaming read is available (see
+     * {@link #setMaxStreamingReads(int)}), the stream is read from the
+     * result set, and the connection is held until the stream is closed.
+     * Otherwise the requested range is copied to a temporary file.
      *
      * @param inputStream the database input stream object
      * @param identifier data identifier
+     * @param position the position of the first byte to read
+     * @param length the number of bytes to read, or -1 to read up to the end
      * @throws DataStoreException if the data store could not be accessed,
      *          or if the given identifier is invalid
      */
-    InputStream openStream(DbInputStream inputStream, DataIdentifier identifier) throws DataStoreException {
+    InputStream openStream(DbInputStream inputStream, DataIdentifier identifier,
+            long position, long length) throws DataStoreException {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        boolean streaming = !copyWhenReading
+            && (streamingReads == null || streamingReads.tryAcquire());
         ResultSet rs = null;
         try {
-            // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
-            rs = conHelper.query(selectDataSQL, identifier.toString());
-            if (!rs.next()) {
-                throw new DataStoreException("Record not found: " + identifier);
+            InputStream stream;
+            if (position > 0 && selectDataRangeSQL != null) {
+                long count = length < 0 ? Integer.MAX_VALUE : length;
+                String sql = Text.replace(selectDataRangeSQL,
+                        "${offset}", String.valueOf(position + 1));
+                sql = Text.replace(sql, "${length}", String.valueOf(count));
+                // SELECT SUBSTRING(DATA, ${offset}, ${length}) FROM DATASTORE WHERE ID = ?
+                rs = conHelper.query(sql, identifier.toString());
+                if (!rs.next()) {
+                    throw new DataStoreException("Record not found: " + identifier);
+                }
+                stream = rs.getBinaryStream(1);
+            } else {
+                // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
+                rs = conHelper.query(selectDataSQL, identifier.toString());
+                if (!rs.next()) {
+                    throw new DataStoreException("Record not found: " + identifier);
+                }
+                if (position > 0) {
+                    stream = getBinaryStream(rs, 2, position, length);
+                } else {
+                    stream = rs.getBinaryStream(2);
+                }
+            }
+            if (stream != null && streaming) {
+                // the result set, and with it the connection, is closed
+                // when the stream is closed
+                inputStream.setResultSet(rs);
+                return new BufferedInputStream(stream);
             }
-            InputStream stream = rs.getBinaryStream(2);
             if (stream == null) {
                 stream = new ByteArrayInputStream(new byte[0]);
-                DbUtility.close(rs);
-            } else if (copyWhenReading) {
+            } else {
                 // If we copy while reading, create a temp file and close the stream
                 File temp = moveToTempFile(stream);
                 stream = new BufferedInputStream(new TempFileInputStream(temp));
-                DbUtility.close(rs);
-            } else {
-                stream = new BufferedInputStream(stream);
-                inputStream.setResultSet(rs);
+            }
+            DbUtility.close(rs);
+            if (streaming) {
+                streamingReadClosed();
             }
             return stream;
         } catch (Exception e) {
             DbUtility.close(rs);
+            if (streaming) {
+                streamingReadClosed();
+            }
             throw convert("Retrieving database resource ", e);
         }
     }
 
+    /**
+     * Get the stream of the given binary column, starting at the given
+     * position. Columns of type BLOB are read using
+     * {@link Blob#getBinaryStream(long, long)}, so that the database does
+     * not need to send the bytes before the position; otherwise, the stream
+     * is skipped up to the position.
+     *
+     * @param rs the result set
+     * @param column the column index
+     * @param position the position of the first byte to read
+     * @param length the number of bytes to read, or -1 to read up to the end
+     * @return the stream, or null if the value is null
+     * @throws SQLException if the column could not be read
+     * @throws IOException if the stream could not be skipped
+     */
+    private InputStream getBinaryStream(ResultSet rs, int column,
+            long position, long length) throws SQLException, IOException {
+        if (rs.getMetaData().getColumnType(column) == Types.BLOB) {
+            Blob blob = rs.getBlob(column);
+            if (blob == null) {
+                return null;
+            }
+            long count = blob.length() - position;
+            if (length >= 0) {
+                count = Math.min(count, length);
+            }
+            if (count <= 0) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            try {
+                return blob.getBinaryStream(position + 1, count);
+            } catch (SQLFeatureNotSupportedException e) {
+                log.debug("Ranged blob reads are not supported", e);
+                InputStream stream = blob.getBinaryStream();
+                IOUtils.skipFully(stream, position);
+                return length < 0 ? stream : new BoundedInputStream(stream, length);
+            }
+        }
+        InputStream stream = rs.getBinaryStream(column);
+        if (stream != null) {
+            long skipped = IOUtils.skip(stream, position);
+            if (skipped < position) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            if (length >= 0) {
+                stream = new BoundedInputStream(stream, length);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Called when a streaming read ends, to allow other streaming reads.
+     */
+    void streamingReadClosed() {
+        if (streamingReads != null) {
+            streamingReads.release();
+        }
+    }
+
     public synchronized void init(String homeDir) throws DataStoreException {
         try {
             initDatabaseType();
 
             conHelper = createConnectionHelper(getDataSource());
+            if (maxStreamingReads > 0) {
+                streamingReads = new Semaphore(maxStreamingReads);
+            }
 
             if (isSchemaCheckEnabled()) {
                 createCheckSchemaOperation().run();
@@ -721,6 +850,9 @@ public class DbDataStore extends AbstractDataStore
         selectMetaSQL = getProperty(prop, "selectMeta", selectMetaSQL);
         selectAllSQL = getProperty(prop, "selectAll", selectAllSQL);
         selectDataSQL = getProperty(prop, "selectData", selectDataSQL);
+        if (prop.getProperty("selectDataRange") != null) {
+            selectDataRangeSQL = getProperty(prop, "selectDataRange", null);
+        }
         storeStream = getProperty(prop, "storeStream", storeStream);
         if (!STORE_SIZE_MINUS_ONE.equals(storeStream)
                 && !STORE_TEMP_FILE.equals(storeStream)
@@ -964,6 +1096,29 @@ public class DbDataStore extends AbstractDataStore
         this.copyWhenReading = copyWhenReading;
     }
 
+    /**
+     * Get the maximum number of concurrent streaming reads.
+     *
+     * @return the maximum number, or 0 for no limit
+     */
+    public int getMaxStreamingReads() {
+        return maxStreamingReads;
+    }
+
+    /**
+     * Set the maximum number of streams that are read directly from the
+     * database at the same time, if copyWhenReading is disabled. Each such
+     * stream holds a connection until it is closed. When the limit is
+     * reached, further reads copy the stream to a temporary file instead,
+     * so that the connections are not exhausted by slow readers. The
+     * default is 0, which means no limit.
+     *
+     * @param maxStreamingReads the new value
+     */
+    public void setMaxStreamingReads(int maxStreamingReads) {
+        this.maxStreamingReads = maxStreamingReads;
+    }
+
     /**
      * Get the table prefix.
      *
@@ -41,6 +41,16 @@ public class DbInputStream extends AutoCloseInputStream {
 
     protected ResultSet rs;
 
+    /**
+     * The position of the first byte to read.
+     */
+    protected final long position;
+
+    /**
+     * The number of bytes to read, or -1 to read up to the end.
+     */
+    protected final long length;
+
     /**
      * Create a database input stream for the given identifier.
      * Database access is delayed until the first byte is read from the stream.
@@ -49,9 +59,25 @@ public class DbInputStream extends AutoCloseInputStream {
      * @param identifier the data identifier
      */
     protected DbInputStream(DbDataStore store, DataIdentifier identifier) {
+        this(store, identifier, 0, -1);
+    }
+
+    /**
+     * Create a database input stream for a range of the given identifier.
+     * Database access is delayed until the first byte is read from the stream.
+     *
+     * @param store the database data store
+     * @param identifier the data identifier
+     * @param position the position of the first byte to read
+     * @param length the number of bytes to read, or -1 to read up to the end
+     */
+    protected DbInputStream(DbDataStore store, DataIdentifier identifier,
+            long position, long length) {
         super(null);
         this.store = store;
         this.identifier = identifier;
+        this.position = position;
+        this.length = length;
     }
 
     /**
@@ -65,7 +91,7 @@ public class DbInputStream extends AutoCloseInputStream {
         }
         if (in == null) {
             try {
-                in = store.openStream(this, identifier);
+                in = store.openStream(this, identifier, position, length);
             } catch (DataStoreException e) {
                 IOException e2 = new IOException(e.getMessage());
                 e2.initCause(e);
@@ -129,6 +155,7 @@ public class DbInputStream extends AutoCloseInputStream {
             if (rs != null) {
                 DbUtility.close(rs);
                 rs = null;
+                store.streamingReadClosed();
             }
         }
     }
@@ -180,7 +207,7 @@ public class DbInputStream extends AutoCloseInputStream {
 
     /**
      * Set the result set of this input stream. This object must be closed once
-     * the stream is closed.
+     * the stream is closed, which also ends the streaming read.
      *
      * @param rs the result set
      */
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A map with weak keys that is safe for concurrent use. The entries are
+ * spread over a number of synchronized {@link WeakHashMap}s by the hash code
+ * of their key, so that threads accessing different keys rarely contend.
+ * <p>
+ * Single key operations behave like those of a {@link WeakHashMap}. The
+ * views returned by {@link #entrySet()}, {@link #keySet()} and
+ * {@link #values()} are snapshots and do not reflect later changes.
+ */
+public class StripedWeakHashMap<K, V> extends AbstractMap<K, V> {
+
+    private final List<Map<K, V>> stripes;
+
+    /**
+     * Creates a new map.
+     *
+     * @param concurrencyLevel the number of stripes
+     */
+    public StripedWeakHashMap(int concurrencyLevel) {
+        stripes = new ArrayList<Map<K, V>>(concurrencyLevel);
+        for (int i = 0; i < concurrencyLevel; i++) {
+            stripes.add(Collections.synchronizedMap(new WeakHashMap<K, V>()));
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        return getStripe(key).get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getStripe(key).containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return getStripe(key).put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return getStripe(key).remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Map<K, V> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Map<K, V> stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> entries = new HashSet<Entry<K, V>>();
+        for (Map<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                for (Entry<K, V> entry : stripe.entrySet()) {
+                    // keep a strong reference to the key
+                    entries.add(new SimpleImmutableEntry<K, V>(entry));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private Map<K, V> getStripe(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes.get((hash & Integer.MAX_VALUE) % stripes.size());
+    }
+
+}
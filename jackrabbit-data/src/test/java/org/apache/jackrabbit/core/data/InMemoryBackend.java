@@ -29,11 +29,12 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An in-memory backend implementation used to speed up testing.
  */
-public class InMemoryBackend implements Backend {
+public class InMemoryBackend extends AbstractBackend {
 
     private HashMap<DataIdentifier, byte[]> data = new HashMap<DataIdentifier, byte[]>();
 
@@ -43,6 +44,12 @@ public class InMemoryBackend implements Backend {
     
     private Properties properties;
 
+    private final AtomicInteger rangeReadCount = new AtomicInteger();
+
+    private final AtomicInteger rangeReadFailures = new AtomicInteger();
+
+    private volatile long rangeReadLatency;
+
     @Override
     public void init(CachingDataStore store, String homeDir, String config)
             throws DataStoreException {
@@ -77,6 +84,49 @@ public class InMemoryBackend implements Backend {
         return new ByteArrayInputStream(data.get(identifier));
     }
 
+    @Override
+    public InputStream read(final DataIdentifier identifier,
+            final long position, final long length) throws DataStoreException {
+        log("read " + identifier + " at " + position);
+        rangeReadCount.incrementAndGet();
+        if (rangeReadFailures.getAndDecrement() > 0) {
+            throw new DataStoreException("Simulated failure of ranged read");
+        }
+        if (rangeReadLatency > 0) {
+            try {
+                Thread.sleep(rangeReadLatency);
+            } catch (InterruptedException e) {
+                throw new DataStoreException(e);
+            }
+        }
+        byte[] bytes = data.get(identifier);
+        int start = (int) Math.min(position, bytes.length);
+        return new ByteArrayInputStream(bytes, start,
+            (int) Math.min(length, bytes.length - start));
+    }
+
+    /**
+     * Returns the number of ranged reads.
+     */
+    public int getRangeReadCount() {
+        return rangeReadCount.get();
+    }
+
+    /**
+     * Let the given number of the following ranged reads fail.
+     */
+    public void setRangeReadFailures(int failures) {
+        rangeReadFailures.set(failures);
+    }
+
+    /**
+     * Delay each ranged read by the given number of milliseconds, to
+     * simulate a remote backend.
+     */
+    public void setRangeReadLatency(long millis) {
+        rangeReadLatency = millis;
+    }
+
     @Override
     public void writeAsync(final DataIdentifier identifier, final File file,
             final AsyncUploadCallback callback) throws DataStoreException {
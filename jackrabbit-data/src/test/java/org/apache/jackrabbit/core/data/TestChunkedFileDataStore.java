@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test cases to test {@link ChunkedFileDataStore}
+ */
+public class TestChunkedFileDataStore extends TestCaseBase {
+
+    String fsPath;
+
+    @Override
+    protected DataStore createDataStore() throws RepositoryException {
+        ChunkedFileDataStore store = new ChunkedFileDataStore();
+        fsPath = dataStoreDir + "/repository/datastore";
+        store.setPath(fsPath);
+        store.setMinChunkSize(1024);
+        store.setAverageChunkSize(4096);
+        store.setMaxChunkSize(16 * 1024);
+        store.init(dataStoreDir);
+        return store;
+    }
+
+    /**
+     * Add a record and a copy of it with some bytes inserted near the
+     * start, and verify that most chunks are shared.
+     */
+    public void testSharedChunks() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        byte[] modified = new byte[dataLength + 10];
+        System.arraycopy(data, 0, modified, 0, 100);
+        System.arraycopy(data, 100, modified, 110, dataLength - 100);
+
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+        int chunks = countChunks();
+        assertTrue(chunks > 10);
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(modified));
+        assertFalse(rec1.getIdentifier().equals(rec2.getIdentifier()));
+        assertTrue("Too many new chunks: " + (countChunks() - chunks),
+                countChunks() - chunks <= 2);
+
+        assertRecord(data, ds.getRecord(rec1.getIdentifier()));
+        assertRecord(modified, ds.getRecord(rec2.getIdentifier()));
+        ds.close();
+    }
+
+    /**
+     * Read ranges of a record through skip and channels.
+     */
+    public void testRangeRead() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+        rec = ds.getRecord(rec.getIdentifier());
+        assertEquals(dataLength, rec.getLength());
+
+        for (int position : new int[] { 0, 1, 5000, dataLength / 2, dataLength - 1, dataLength }) {
+            InputStream in = rec.getStream();
+            try {
+                assertEquals(position, in.skip(position));
+                byte[] rest = IOUtils.toByteArray(in);
+                assertEquals(dataLength - position, rest.length);
+                for (int i = 0; i < rest.length; i++) {
+                    assertEquals(data[position + i], rest[i]);
+                }
+            } finally {
+                in.close();
+            }
+
+            ReadableByteChannel channel = ((AbstractDataRecord) rec).getChannel(position);
+            ByteBuffer buffer = ByteBuffer.allocate(dataLength + 1);
+            try {
+                while (channel.read(buffer) >= 0) {
+                    // read to the end
+                }
+            } finally {
+                channel.close();
+            }
+            buffer.flip();
+            assertEquals(dataLength - position, buffer.remaining());
+            if (buffer.hasRemaining()) {
+                assertEquals(data[position], buffer.get());
+            }
+        }
+        ds.close();
+    }
+
+    /**
+     * Verify that deleting old records only deletes the chunks that are
+     * not referenced by a remaining record.
+     */
+    public void testDeleteUnreferencedChunks() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        byte[] modified = data.clone();
+        for (int i = 0; i < 10; i++) {
+            modified[dataLength / 2 + i]++;
+        }
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+
+        sleep(3000);
+        long updateTime = System.currentTimeMillis();
+        ds.updateModifiedDateOnAccess(updateTime);
+        sleep(3000);
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(modified));
+        int chunks = countChunks();
+        ds.clearInUse();
+
+        assertEquals(1, ds.deleteAllOlderThan(updateTime));
+        assertNull(ds.getRecordIfStored(rec1.getIdentifier()));
+        assertRecord(modified, ds.getRecord(rec2.getIdentifier()));
+        assertTrue(countChunks() < chunks);
+
+        ds.clearInUse();
+        assertEquals(1, ds.deleteAllOlderThan(System.currentTimeMillis() + 10000));
+        assertEquals(0, countChunks());
+        ds.close();
+    }
+
+    private int countChunks() {
+        Collection<File> files = FileUtils.listFiles(
+                new File(fsPath, "chunks"), null, true);
+        return files.size();
+    }
+}
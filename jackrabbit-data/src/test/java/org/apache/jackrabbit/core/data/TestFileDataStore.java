@@ -17,7 +17,15 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import javax.jcr.RepositoryException;
@@ -53,6 +61,88 @@ public class TestFileDataStore extends TestCaseBase {
         return fds;
     }
 
+    /**
+     * Add the same and distinct records from concurrent threads while the
+     * garbage collector removes empty directories, and verify that each
+     * content is stored exactly once.
+     */
+    public void testConcurrentAddRecord() throws Exception {
+        ds = createDataStore();
+        final DataStore store = ds;
+        final byte[] shared = new byte[1000];
+        randomGen.nextBytes(shared);
+        final List<DataIdentifier> sharedIds =
+            Collections.synchronizedList(new ArrayList<DataIdentifier>());
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            sharedIds.add(store.addRecord(new ByteArrayInputStream(
+                                    shared)).getIdentifier());
+                            byte[] data = new byte[1000];
+                            data[0] = (byte) n;
+                            data[1] = (byte) j;
+                            store.addRecord(new ByteArrayInputStream(data));
+                            // remove empty directories only
+                            store.deleteAllOlderThan(0);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue("Unexpected errors: " + errors, errors.isEmpty());
+
+        assertEquals(1, new HashSet<DataIdentifier>(sharedIds).size());
+        int count = 0;
+        for (Iterator<DataIdentifier> it = store.getAllIdentifiers(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(1 + threads.length * 20, count);
+        ds.close();
+    }
+
+    /**
+     * Read a record through a channel, starting in the middle of the record.
+     */
+    public void testGetChannel() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+
+        int position = dataLength / 3;
+        ByteBuffer buffer = ByteBuffer.allocate(dataLength);
+        AbstractDataRecord record = (AbstractDataRecord) ds.getRecord(rec.getIdentifier());
+        ReadableByteChannel channel = record.getChannel(position);
+        try {
+            while (channel.read(buffer) >= 0) {
+                // read to the end
+            }
+        } finally {
+            channel.close();
+        }
+        buffer.flip();
+        assertEquals(dataLength - position, buffer.remaining());
+        for (int i = position; i < dataLength; i++) {
+            assertEquals(data[i], buffer.get());
+        }
+        ds.close();
+    }
+
     @Override
     protected void tearDown() {
         LOG.info("cleaning fsPath [{}]", fsPath);
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test {@link CachingDataStore} with InMemoryBackend, local cache off and
+ * the block cache on.
+ */
+public class TestInMemDsBlockCache extends TestCaseBase {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TestInMemDsBlockCache.class);
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    @Override
+    protected DataStore createDataStore() throws RepositoryException {
+        InMemoryDataStore inMemDS = new InMemoryDataStore();
+        inMemDS.setProperties(null);
+        inMemDS.setCacheSize(0);
+        inMemDS.setBlockSize(BLOCK_SIZE);
+        inMemDS.setBlockCacheSize(1024 * 1024);
+        inMemDS.setAsyncUploadLimit(0);
+        inMemDS.init(dataStoreDir);
+        inMemDS.setSecret("12345");
+        return inMemDS;
+    }
+
+    /**
+     * Read ranges of a record and verify that only the blocks of the ranges
+     * are read from the backend.
+     */
+    public void testRangeRead() throws Exception {
+        CachingDataStore store = (CachingDataStore) createDataStore();
+        ds = store;
+        InMemoryBackend backend = (InMemoryBackend) store.getBackend();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        rec = store.getRecord(rec.getIdentifier());
+        assertEquals(dataLength, rec.getLength());
+
+        // seek to the last block without reading the others
+        int position = dataLength - 10;
+        ReadableByteChannel channel = ((AbstractDataRecord) rec).getChannel(position);
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        try {
+            while (channel.read(buffer) >= 0) {
+                // read to the end
+            }
+        } finally {
+            channel.close();
+        }
+        buffer.flip();
+        assertEquals(10, buffer.remaining());
+        for (int i = position; i < dataLength; i++) {
+            assertEquals(data[i], buffer.get());
+        }
+        assertEquals(1, backend.getRangeReadCount());
+
+        // skip within and across blocks
+        for (int skip : new int[] { 0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 3 * BLOCK_SIZE + 5 }) {
+            InputStream in = rec.getStream();
+            try {
+                assertEquals(skip, in.skip(skip));
+                byte[] rest = IOUtils.toByteArray(in);
+                assertEquals(dataLength - skip, rest.length);
+                for (int i = 0; i < rest.length; i++) {
+                    assertEquals(data[skip + i], rest[i]);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        // all blocks are cached now
+        int count = backend.getRangeReadCount();
+        assertRecord(data, rec);
+        assertEquals(count, backend.getRangeReadCount());
+
+        store.deleteRecord(rec.getIdentifier());
+        store.close();
+    }
+
+}
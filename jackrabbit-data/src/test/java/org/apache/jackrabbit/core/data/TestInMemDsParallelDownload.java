@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test {@link CachingDataStore} with InMemoryBackend, local cache on and
+ * records downloaded in parallel parts.
+ */
+public class TestInMemDsParallelDownload extends TestCaseBase {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TestInMemDsParallelDownload.class);
+
+    private static final int PART_SIZE = 16 * 1024;
+
+    @Override
+    protected DataStore createDataStore() throws RepositoryException {
+        InMemoryDataStore inMemDS = new InMemoryDataStore();
+        inMemDS.setProperties(null);
+        inMemDS.setDownloadPartSize(PART_SIZE);
+        inMemDS.setDownloadThreads(4);
+        inMemDS.setProactiveCaching(false);
+        inMemDS.setAsyncUploadLimit(0);
+        inMemDS.init(dataStoreDir);
+        inMemDS.setSecret("12345");
+        return inMemDS;
+    }
+
+    /**
+     * Read a record that is not in the local cache, and verify that it is
+     * downloaded in parts, and that failed parts are retried.
+     */
+    public void testParallelDownload() throws Exception {
+        CachingDataStore store = (CachingDataStore) createDataStore();
+        ds = store;
+        InMemoryBackend backend = (InMemoryBackend) store.getBackend();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataIdentifier id = store.addRecord(
+            new ByteArrayInputStream(data)).getIdentifier();
+        int parts = (dataLength + PART_SIZE - 1) / PART_SIZE;
+
+        store.deleteFromCache(id);
+        assertRecord(data, store.getRecord(id));
+        assertEquals(parts, backend.getRangeReadCount());
+
+        // the record is in the local cache now
+        assertRecord(data, store.getRecord(id));
+        assertEquals(parts, backend.getRangeReadCount());
+
+        store.deleteFromCache(id);
+        backend.setRangeReadFailures(2);
+        assertRecord(data, store.getRecord(id));
+        assertEquals(2 * parts + 2, backend.getRangeReadCount());
+
+        store.deleteFromCache(id);
+        store.setDownloadPartRetries(0);
+        backend.setRangeReadFailures(1);
+        try {
+            IOUtils.toByteArray(store.getRecord(id).getStream());
+            fail("Expected a failed download");
+        } catch (Exception e) {
+            // expected
+        }
+        backend.setRangeReadFailures(0);
+        store.close();
+    }
+
+    /**
+     * Compare the throughput of a sequential and a parallel download from a
+     * backend with latency.
+     */
+    public void testDownloadThroughput() throws Exception {
+        CachingDataStore store = (CachingDataStore) createDataStore();
+        ds = store;
+        InMemoryBackend backend = (InMemoryBackend) store.getBackend();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataIdentifier id = store.addRecord(
+            new ByteArrayInputStream(data)).getIdentifier();
+        backend.setRangeReadLatency(50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int parallel : new int[] { 1, 4, 8 }) {
+                long start = System.nanoTime();
+                InputStream in = new ParallelPartInputStream(backend, id,
+                    dataLength, PART_SIZE, parallel, 0, executor);
+                try {
+                    assertEquals(new ByteArrayInputStream(data), in);
+                } finally {
+                    in.close();
+                }
+                long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+                LOG.info("Downloaded [{}] bytes with [{}] parallel parts in [{}] ms, [{}] KB/s",
+                    new Object[] { dataLength, parallel, millis,
+                        dataLength * 1000L / 1024 / millis });
+            }
+        } finally {
+            executor.shutdown();
+            backend.setRangeReadLatency(0);
+        }
+        store.close();
+    }
+
+}
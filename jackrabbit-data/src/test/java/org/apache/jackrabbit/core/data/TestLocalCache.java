@@ -224,6 +224,60 @@ public class TestLocalCache extends TestCase {
         }
     }
 
+    /**
+     * Test to verify that the purge evicts rarely used files before
+     * frequently used files, even if those were used less recently.
+     */
+    public void testAutoPurgeKeepsFrequentlyUsed() {
+        try {
+            AsyncUploadCache pendingFiles = new AsyncUploadCache();
+            pendingFiles.init(tempDirPath, cacheDirPath, 100);
+            pendingFiles.reset();
+            LocalCache cache = new LocalCache(cacheDirPath, tempDirPath, 400,
+                0.95, 0.70, pendingFiles);
+            Random random = new Random(12345);
+            Map<String, byte[]> byteMap = new HashMap<String, byte[]>();
+            for (int i = 1; i <= 3; i++) {
+                byte[] data = new byte[100];
+                random.nextBytes(data);
+                byteMap.put("a" + i, data);
+                cache.store("a" + i, new ByteArrayInputStream(data));
+            }
+            // a1 is used frequently, but not recently
+            for (int i = 0; i < 5; i++) {
+                InputStream result = cache.getIfStored("a1");
+                assertEquals(new ByteArrayInputStream(byteMap.get("a1")), result);
+                IOUtils.closeQuietly(result);
+            }
+            for (int i = 2; i <= 3; i++) {
+                InputStream result = cache.getIfStored("a" + i);
+                assertEquals(new ByteArrayInputStream(byteMap.get("a" + i)), result);
+                IOUtils.closeQuietly(result);
+            }
+
+            byte[] data = new byte[90];
+            random.nextBytes(data);
+            byteMap.put("a4", data);
+            // storing a4 should purge cache
+            cache.store("a4", new ByteArrayInputStream(byteMap.get("a4")));
+            do {
+                Thread.sleep(1000);
+            } while (cache.isInPurgeMode());
+
+            InputStream result = cache.getIfStored("a1");
+            assertEquals(new ByteArrayInputStream(byteMap.get("a1")), result);
+            IOUtils.closeQuietly(result);
+            assertNull("a2 should be null", cache.getIfStored("a2"));
+            assertNull("a3 should be null", cache.getIfStored("a3"));
+            result = cache.getIfStored("a4");
+            assertEquals(new ByteArrayInputStream(byteMap.get("a4")), result);
+            IOUtils.closeQuietly(result);
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail();
+        }
+    }
+
     /**
      * Test to verify cache's purging if cache current size exceeds
      * cachePurgeTrigFactor * size.
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test the tiering of the {@link MultiDataStore} by access frequency.
+ */
+public class TestMultiDataStore extends TestCase {
+
+    private static final String TEST_DIR = "target/multiDataStore";
+
+    private FileDataStore primary;
+
+    private FileDataStore archive;
+
+    private MultiDataStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        FileUtils.deleteQuietly(new File(TEST_DIR));
+        primary = new FileDataStore();
+        primary.setPath(TEST_DIR + "/primary");
+        primary.init(TEST_DIR);
+        archive = new FileDataStore();
+        archive.setPath(TEST_DIR + "/archive");
+        archive.init(TEST_DIR);
+        store = new MultiDataStore();
+        store.setPrimaryDataStore(primary);
+        store.setArchiveDataStore(archive);
+        store.setPromoteAfterAccesses(2);
+        store.setSleepBetweenRecords(0);
+        store.init(TEST_DIR);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        FileUtils.deleteQuietly(new File(TEST_DIR));
+    }
+
+    public void testPromote() throws Exception {
+        byte[] hot = createData(1);
+        byte[] cold = createData(2);
+        DataIdentifier hotId = archive.addRecord(
+                new ByteArrayInputStream(hot)).getIdentifier();
+        DataIdentifier coldId = archive.addRecord(
+                new ByteArrayInputStream(cold)).getIdentifier();
+
+        assertContent(hot, store.getRecord(hotId));
+        assertContent(cold, store.getRecord(coldId));
+        assertContent(hot, store.getRecordIfStored(hotId));
+        for (int i = 0; i < 100 && primary.getRecordIfStored(hotId) == null; i++) {
+            Thread.sleep(100);
+        }
+        assertNotNull(primary.getRecordIfStored(hotId));
+        assertNull(primary.getRecordIfStored(coldId));
+
+        // the record is read from the primary data store, and kept in the
+        // archive data store
+        assertContent(hot, store.getRecord(hotId));
+        assertNotNull(archive.getRecordIfStored(hotId));
+    }
+
+    public void testPromoteAgain() throws Exception {
+        byte[] hot = createData(1);
+        DataIdentifier hotId = archive.addRecord(
+                new ByteArrayInputStream(hot)).getIdentifier();
+
+        assertContent(hot, store.getRecord(hotId));
+        assertContent(hot, store.getRecord(hotId));
+        waitForPromotion(hotId);
+
+        // the record is moved back to the archive data store, and read
+        // often enough to be promoted once more
+        primary.deleteRecord(hotId);
+        assertContent(hot, store.getRecord(hotId));
+        assertContent(hot, store.getRecord(hotId));
+        waitForPromotion(hotId);
+    }
+
+    private void waitForPromotion(DataIdentifier identifier) throws Exception {
+        for (int i = 0; i < 100 && primary.getRecordIfStored(identifier) == null; i++) {
+            Thread.sleep(100);
+        }
+        assertNotNull(primary.getRecordIfStored(identifier));
+    }
+
+    private static byte[] createData(int seed) {
+        byte[] data = new byte[1000];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void assertContent(byte[] expected, DataRecord record)
+            throws Exception {
+        InputStream in = record.getStream();
+        try {
+            assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(expected), in));
+        } finally {
+            in.close();
+        }
+    }
+
+}
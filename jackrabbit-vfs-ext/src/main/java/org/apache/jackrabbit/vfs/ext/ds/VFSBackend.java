@@ -18,6 +18,7 @@ package org.apache.jackrabbit.vfs.ext.ds;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,9 +32,13 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.jackrabbit.core.data.AbstractBackend;
 import org.apache.jackrabbit.core.data.AsyncTouchCallback;
 import org.apache.jackrabbit.core.data.AsyncTouchResult;
@@ -121,6 +126,53 @@ public class VFSBackend extends AbstractBackend {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the file system supports random access, the content is read starting
+     * at the position. Otherwise the content stream is skipped.
+     */
+    @Override
+    public InputStream read(DataIdentifier identifier, long position, long length)
+            throws DataStoreException {
+        FileObject fileObject = getExistingFileObject(identifier);
+
+        if (fileObject == null) {
+            throw new DataStoreException("Could not find file object for: " + identifier);
+        }
+
+        try {
+            if (!fileObject.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+                return super.read(identifier, position, length);
+            }
+
+            final RandomAccessContent content =
+                    fileObject.getContent().getRandomAccessContent(RandomAccessMode.READ);
+
+            try {
+                content.seek(position);
+            } catch (IOException e) {
+                content.close();
+                throw e;
+            }
+
+            InputStream in = new FilterInputStream(content.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        content.close();
+                    }
+                }
+            };
+
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not get input stream from object: " + identifier, e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
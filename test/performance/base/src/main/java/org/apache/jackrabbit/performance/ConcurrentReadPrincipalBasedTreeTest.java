@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import javax.jcr.ItemVisitor;
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicy;
+import javax.jcr.security.Privilege;
+import javax.jcr.util.TraversingItemVisitor;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.core.security.principal.EveryonePrincipal;
+
+/**
+ * Concurrently reads random items from the deep tree where every 10th node
+ * is access controlled by a principal-based entry of the everyone principal,
+ * which results in thousands of entries in a single principal-based ACL.
+ * Every 5th of these entries is restricted with a glob pattern.
+ * <p>
+ * Requires a workspace configured with the principal-based or the combined
+ * access control provider.
+ */
+public class ConcurrentReadPrincipalBasedTreeTest extends AbstractDeepTreeTest {
+
+    private int bgReaders = 20;
+    private int cnt = 10000;
+
+    @Override
+    protected void beforeSuite() throws Exception {
+        super.beforeSuite();
+
+        final Principal principal = EveryonePrincipal.getInstance();
+        final JackrabbitAccessControlList acl = getPrincipalBasedPolicy(principal);
+        if (acl == null) {
+            throw new IllegalStateException(
+                    "Principal-based access control is not supported by this repository");
+        }
+
+        final AccessControlManager acMgr = adminSession.getAccessControlManager();
+        final ValueFactory vf = adminSession.getValueFactory();
+        final Privilege[] privileges = new Privilege[] {
+                acMgr.privilegeFromName(Privilege.JCR_READ),
+                acMgr.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL)
+        };
+
+        ItemVisitor visitor = new TraversingItemVisitor.Default() {
+            int counter = 0;
+            int entries = 0;
+            @Override
+            protected void entering(Node node, int level) throws RepositoryException {
+                if (++counter == 10) {
+                    addEntry(node);
+                    counter = 0;
+                }
+                super.entering(node, level);
+            }
+
+            private void addEntry(Node node) throws RepositoryException {
+                Map<String, Value> restrictions = new HashMap<String, Value>();
+                restrictions.put("rep:nodePath", vf.createValue(node.getPath(), PropertyType.PATH));
+                if (++entries % 5 == 0) {
+                    restrictions.put("rep:glob", vf.createValue("*/jcr:*"));
+                }
+                acl.addEntry(principal, privileges, true, restrictions);
+            }
+        };
+
+        visitor.visit(testRoot);
+        acMgr.setPolicy(acl.getPath(), acl);
+        adminSession.save();
+        System.out.println("Principal-based entries: " + acl.size());
+
+        for (int i = 0; i < bgReaders; i++) {
+            addBackgroundJob(new RandomRead(loginReader(), false));
+        }
+    }
+
+    @Override
+    protected void afterSuite() throws Exception {
+        JackrabbitAccessControlList acl = getPrincipalBasedPolicy(EveryonePrincipal.getInstance());
+        if (acl != null && !acl.isEmpty()) {
+            adminSession.getAccessControlManager().removePolicy(acl.getPath(), acl);
+            adminSession.save();
+        }
+        super.afterSuite();
+    }
+
+    private JackrabbitAccessControlList getPrincipalBasedPolicy(Principal principal)
+            throws RepositoryException {
+        AccessControlManager acMgr = adminSession.getAccessControlManager();
+        if (!(acMgr instanceof JackrabbitAccessControlManager)) {
+            return null;
+        }
+        JackrabbitAccessControlManager jacMgr = (JackrabbitAccessControlManager) acMgr;
+        for (AccessControlPolicy policy : jacMgr.getPolicies(principal)) {
+            if (policy instanceof JackrabbitAccessControlList) {
+                return (JackrabbitAccessControlList) policy;
+            }
+        }
+        for (AccessControlPolicy policy : jacMgr.getApplicablePolicies(principal)) {
+            if (policy instanceof JackrabbitAccessControlList) {
+                return (JackrabbitAccessControlList) policy;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void runTest() throws Exception {
+        Session testSession = getRepository().login();
+        RandomRead randomRead = new RandomRead(testSession, true);
+        randomRead.run();
+        testSession.logout();
+    }
+
+    private class RandomRead implements Runnable {
+
+        private final Session testSession;
+        private final boolean doReport;
+
+        private RandomRead(Session testSession, boolean doReport) {
+            this.testSession = testSession;
+            this.doReport = doReport;
+        }
+        public void run() {
+            try {
+                randomRead(testSession, allPaths, cnt, doReport);
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}